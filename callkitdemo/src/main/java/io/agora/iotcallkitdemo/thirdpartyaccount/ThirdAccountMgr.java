@@ -20,15 +20,12 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -38,6 +35,8 @@ import java.util.regex.Pattern;
 
 import io.agora.iotcallkit.ErrCode;
 import io.agora.iotcallkit.IAccountMgr;
+import io.agora.iotcallkit.transport.HttpTransport;
+import io.agora.iotcallkit.transport.MultipartBody;
 
 
 public class ThirdAccountMgr {
@@ -71,7 +70,8 @@ public class ThirdAccountMgr {
     //////////////////////// Constant Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "IOTSDK/ThridAccountMgr";
-    private static final int HTTP_TIMEOUT = 8000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String EP_QUERY_UID = "/auth/getUidByUsername";
 
 
 
@@ -86,10 +86,20 @@ public class ThirdAccountMgr {
 
     private String mLoginAccountName;       ///< 当前已经登录的账号名称
 
+    ///< 使用SDK的HTTP传输层，与SDK内部请求共用连接池和统计
+    private final HttpTransport mTransport;
+
 
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods //////////////////////////////
     ////////////////////////////////////////////////////////////////////////
+    private ThirdAccountMgr() {
+        HttpTransport.Config config = new HttpTransport.Config();
+        config.mTag = TAG;
+        mTransport = new HttpTransport(config);
+        mTransport.setCoalesceEndpoint(EP_QUERY_UID, true);    // 账号Id查询是幂等的，相同的查询合并
+    }
+
     public static ThirdAccountMgr getInstance() {
         if (mInstance == null) {
             synchronized (ThirdAccountMgr.class) {
@@ -502,7 +512,7 @@ public class ThirdAccountMgr {
         Log.d(TAG, "<queryAccountIdByName> [Enter] accountName=" + accountName);
 
         // 请求URL
-        String requestUrl = mThirdBaseUrl + "/auth/getUidByUsername";
+        String requestUrl = mThirdBaseUrl + EP_QUERY_UID;
 
         // body内容
         try {
@@ -589,292 +599,81 @@ public class ThirdAccountMgr {
      * @brief 给服务器发送HTTP请求，并且等待接收回应数据
      *        该函数是阻塞等待调用，因此最好是在工作线程中执行
      */
-    private synchronized ThirdAccountMgr.ResponseObj requestToServer(String baseUrl, String method, String token,
-                                                                    Map<String, String> params, JSONObject body) {
-
-        ThirdAccountMgr.ResponseObj responseObj = new ThirdAccountMgr.ResponseObj();
-
-        if (!baseUrl.startsWith("http://") && !baseUrl.startsWith("https://")) {
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_URL;
-            Log.e(TAG, "<requestToServer> Invalid url=" + baseUrl);
-            return responseObj;
-        }
-
-        // 拼接URL和请求参数生成最终URL
-        String realURL = baseUrl;
-        if (!params.isEmpty()) {
-            Iterator<Map.Entry<String, String>> it = params.entrySet().iterator();
-            Map.Entry<String, String> entry =  it.next();
-            realURL += "?" + entry.getKey() + "=" + entry.getValue();
-            while (it.hasNext()) {
-                entry =  it.next();
-                realURL += "&" + entry.getKey() + "=" + entry.getValue();
-            }
-        }
-
-        // 支持json格式消息体
-        String realBody = String.valueOf(body);
-
-        Log.d(TAG, "<requestToServer> requestUrl=" + realURL
-                + ", requestBody="  + realBody.toString());
-
-        //开启子线程来发起网络请求
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-        StringBuilder response = new StringBuilder();
-
-
-        //同步方式请求HTTP，因此请求操作最好放在工作线程中进行
-        try {
-            java.net.URL url = new URL(realURL);
-            connection = (HttpURLConnection) url.openConnection();
-            // 设置token
-            if ((token != null) && (!token.isEmpty())) {
-                connection.setRequestProperty("authorization", "Bearer " + token);
-            }
-
-            switch (method) {
-                case "GET":
-                    connection.setRequestMethod("GET");
-                    break;
-
-                case "POST":
-                    connection.setDoOutput(true);
-                    connection.setDoInput(true);
-                    connection.setRequestMethod("POST");
-                    connection.setRequestProperty("Content-Type", "application/json;charset=utf-8");
-                    DataOutputStream os = new DataOutputStream(connection.getOutputStream());
-                    os.write(realBody.getBytes());  // 必须是原始数据流，否则中文乱码
-                    os.flush();
-                    os.close();
-                    break;
-
-                case "SET":
-                    connection.setRequestMethod("SET");
-                    break;
-
-                case "DELETE":
-                    connection.setRequestMethod("DELETE");
-                    break;
-
-                default:
-                    Log.e(TAG, "<requestToServer> Invalid method=" + method);
-                    responseObj.mErrorCode = ErrCode.XERR_HTTP_METHOD;
-                    return responseObj;
-            }
-            connection.setReadTimeout(HTTP_TIMEOUT);
-            connection.setConnectTimeout(HTTP_TIMEOUT);
-            responseObj.mRespCode = connection.getResponseCode();
-            if (responseObj.mRespCode != HttpURLConnection.HTTP_OK) {
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_CODE + responseObj.mRespCode;
-                Log.e(TAG, "<requestToServer> Error response code="
-                        + responseObj.mRespCode + ", errMessage=" + connection.getResponseMessage());
-                return responseObj;
-            }
-
-            // 读取回应数据包
-            InputStream inputStream = connection.getInputStream();
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-
-            JSONObject data = null;
-            try {
-                responseObj.mRespJsonObj = new JSONObject(response.toString());
+    private ThirdAccountMgr.ResponseObj requestToServer(String baseUrl, String method, String token,
+                                                        Map<String, String> params, JSONObject body) {
+        final ThirdAccountMgr.ResponseObj responseObj = new ThirdAccountMgr.ResponseObj();
+
+        HttpTransport.Request request = new HttpTransport.Request();
+        request.mUrl = baseUrl;
+        request.mMethod = method;
+        request.mToken = token;
+        request.mParams = params;
+        request.mBody = String.valueOf(body).getBytes(UTF8);  // 必须是原始数据流，否则中文乱码
+        request.mBodyLength = request.mBody.length;
+
+        HttpTransport.Response response = mTransport.request(request, new HttpTransport.IResponseDecoder() {
+            @Override
+            public void decode(InputStream inputStream) throws IOException, JSONException {
+                responseObj.mRespJsonObj = HttpTransport.readJsonObject(inputStream);
                 responseObj.mRespCode = responseObj.mRespJsonObj.getInt("code");
                 responseObj.mTip = responseObj.mRespJsonObj.getString("msg");
-
-            } catch (JSONException e) {
-                e.printStackTrace();
-                Log.e(TAG, "<requestToServer> Invalied json=" + response);
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_DATA;
-                responseObj.mRespJsonObj = null;
             }
+        });
+        fillResponse(response, responseObj);
 
-            Log.d(TAG, "<requestToServer> finished, response="  + response.toString());
-            return responseObj;
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_CONNECT;
-            return responseObj;
-
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (connection != null) {
-                connection.disconnect();
-            }
-        }
+        Log.d(TAG, "<requestToServer> finished, mErrorCode=" + responseObj.mErrorCode
+                + ", mRespCode=" + responseObj.mRespCode + ", mTip=" + responseObj.mTip);
+        return responseObj;
     }
 
     /*
      * @brief 发送HTTP请求上传文件处理，并且等待接收回应数据
      *        该函数是阻塞等待调用，因此最好是在工作线程中执行
      */
-    private synchronized ThirdAccountMgr.ResponseObj requestFileToServer(String baseUrl,
-                                                                      String token,
-                                                                      String fileName,
-                                                                      String fileDir,
-                                                                      boolean rename,
-                                                                      byte[] fileContent ) {
-
-        ThirdAccountMgr.ResponseObj responseObj = new ThirdAccountMgr.ResponseObj();
-
-        if (!baseUrl.startsWith("http://") && !baseUrl.startsWith("https://")) {
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_URL;
-            Log.e(TAG, "<requestFileToServer> Invalid url=" + baseUrl);
-            return responseObj;
-        }
-
-        // 拼接URL和请求参数生成最终URL
-        String realURL = baseUrl;
-        Log.d(TAG, "<requestFileToServer> requestUrl=" + realURL);
-
-
-        //开启子线程来发起网络请求
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-        StringBuilder response = new StringBuilder();
-
-        //同步方式请求HTTP，因此请求操作最好放在工作线程中进行
-        try {
-            java.net.URL url = new URL(realURL);
-            connection = (HttpURLConnection) url.openConnection();
-            // 设置token
-            if ((token != null) && (!token.isEmpty())) {
-                connection.setRequestProperty("authorization", "Bearer " + token);
-            }
-
-
-            final String NEWLINE = "\r\n";
-            final String PREFIX = "--";
-            final String BOUNDARY = "########";
-
-
-            // 调用HttpURLConnection对象setDoOutput(true)、setDoInput(true)、setRequestMethod("POST")；
-            connection.setDoInput(true);
-            connection.setDoOutput(true);
-            connection.setUseCaches(false);
-            connection.setRequestMethod("POST");
-
-            // 设置Http请求头信息；（Accept、Connection、Accept-Encoding、Cache-Control、Content-Type、User-Agent）
-            connection.setRequestProperty("Connection", "Keep-Alive");
-            connection.setRequestProperty("Accept", "*/*");
-            connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
-            connection.setRequestProperty("Cache-Control", "no-cache");
-            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
-
-            // 调用HttpURLConnection对象的connect()方法，建立与服务器的真实连接；
-            connection.connect();
-
-            // 调用HttpURLConnection对象的getOutputStream()方法构建输出流对象；
-            DataOutputStream os = new DataOutputStream(connection.getOutputStream());
-
-            //
-            // 写入文件头的键值信息
-            //
-            String fileKey = "file";
-            String fileContentType = "image/jpeg";
-            String fileHeader = "Content-Disposition: form-data; name=\"" + fileKey
-                                + "\"; filename=\"" + fileName + "\"" + NEWLINE;
-            String contentType = "Content-Type: " + fileContentType + NEWLINE;
-            String encodingType = "Content-Transfer-Encoding: binary" + NEWLINE;
-            os.writeBytes(PREFIX + BOUNDARY + NEWLINE);
-            os.writeBytes(fileHeader);
-            os.writeBytes(contentType);
-            os.writeBytes(encodingType);
-            os.writeBytes(NEWLINE);
-
-            //
-            // 写入文件内容
-            //
-            os.write(fileContent);
-            os.writeBytes(NEWLINE);
-
-            //
-            // 写入其他参数数据
-            //
-            Map<String, String> params = new HashMap<String, String>();
-            params.put("fileName", fileName);
-            params.put("fileDir", fileDir);
-            params.put("renameFile", (rename ? "true" : "false"));
-
-            for (Map.Entry<String, String> entry : params.entrySet()) {
-                String key = entry.getKey();
-                String value = params.get(key);
-
-                os.writeBytes(PREFIX + BOUNDARY + NEWLINE);
-                os.writeBytes("Content-Disposition: form-data; name=\"" + key + "\"" + NEWLINE);
-                os.writeBytes(NEWLINE);
-
-                os.write(value.getBytes());
-                os.writeBytes(NEWLINE);
-            }
-
-            //
-            // 写入整体结束所有的数据
-            //
-            os.writeBytes(PREFIX + BOUNDARY + PREFIX + NEWLINE);
-            os.flush();
-            os.close();
-
-            connection.setReadTimeout(HTTP_TIMEOUT);
-            connection.setConnectTimeout(HTTP_TIMEOUT);
-            responseObj.mRespCode = connection.getResponseCode();
-            if (responseObj.mRespCode != HttpURLConnection.HTTP_OK) {
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_CODE + responseObj.mRespCode;
-                Log.e(TAG, "<requestFileToServer> Error response code="
-                        + responseObj.mRespCode + ", errMessage=" + connection.getResponseMessage());
-                return responseObj;
-            }
-
-            // 读取回应数据包
-            InputStream inputStream = connection.getInputStream();
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-
-            JSONObject data = null;
-            try {
-                responseObj.mRespJsonObj = new JSONObject(response.toString());
-                responseObj.mRespCode = responseObj.mRespJsonObj.getInt("code");
-                responseObj.mTip = responseObj.mRespJsonObj.getString("timestamp");
-
-            } catch (JSONException e) {
-                e.printStackTrace();
-                Log.e(TAG, "<requestFileToServer> Invalied json=" + response);
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_DATA;
-                responseObj.mRespJsonObj = null;
-            }
+    private ThirdAccountMgr.ResponseObj requestFileToServer(String baseUrl,
+                                                            String token,
+                                                            String fileName,
+                                                            String fileDir,
+                                                            boolean rename,
+                                                            byte[] fileContent ) {
+        final ThirdAccountMgr.ResponseObj responseObj = new ThirdAccountMgr.ResponseObj();
+
+        //
+        // 文件之后附带的其他参数数据
+        //
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("fileName", fileName);
+        params.put("fileDir", fileDir);
+        params.put("renameFile", (rename ? "true" : "false"));
+        MultipartBody body = new MultipartBody("########", "file", fileName, "image/jpeg", params);
+
+        HttpTransport.Response response = mTransport.upload(baseUrl, token, body,
+                new ByteArrayInputStream(fileContent), fileContent.length,
+                new HttpTransport.IResponseDecoder() {
+                    @Override
+                    public void decode(InputStream inputStream) throws IOException, JSONException {
+                        responseObj.mRespJsonObj = HttpTransport.readJsonObject(inputStream);
+                        responseObj.mRespCode = responseObj.mRespJsonObj.getInt("code");
+                        responseObj.mTip = responseObj.mRespJsonObj.getString("timestamp");
+                    }
+                }, null);
+        fillResponse(response, responseObj);
 
-            Log.d(TAG, "<requestFileToServer> finished, response="  + response.toString());
-            return responseObj;
+        Log.d(TAG, "<requestFileToServer> finished, mErrorCode=" + responseObj.mErrorCode
+                + ", mRespCode=" + responseObj.mRespCode);
+        return responseObj;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_CONNECT;
-            return responseObj;
-
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (connection != null) {
-                connection.disconnect();
+    /*
+     * @brief 将传输层的结果填入回应数据，出错时没有回应的JSON对象
+     */
+    private static void fillResponse(final HttpTransport.Response response,
+                                     ThirdAccountMgr.ResponseObj responseObj) {
+        responseObj.mErrorCode = response.mErrorCode;
+        if (response.mErrorCode != ErrCode.XOK) {
+            responseObj.mRespJsonObj = null;
+            if (response.mHttpCode != HttpURLConnection.HTTP_OK) {
+                responseObj.mRespCode = response.mHttpCode;
             }
         }
     }
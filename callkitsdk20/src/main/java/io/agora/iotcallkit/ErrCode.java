@@ -152,6 +152,8 @@ public class ErrCode {
     public static final int XERR_HTTP_RESP_CODE = -80007;           ///< HTTP回应错误
     public static final int XERR_HTTP_JSON_PARSE = -80008;          ///< 回应数据包中，JSON解析错误
     public static final int XERR_HTTP_JSON_WRITE = -80009;          ///< 请求数据包中，JSON写入错误
+    public static final int XERR_HTTP_CANCELED = -80010;            ///< 请求被取消
+    public static final int XERR_HTTP_CIRCUIT_OPEN = -80011;        ///< 服务地址熔断中，请求直接失败
 
     //
     // 播放相关的错误
@@ -13,6 +13,8 @@ package io.agora.iotcallkit;
 import android.content.Context;
 import android.os.Bundle;
 
+import java.util.concurrent.Executor;
+
 
 
 /*
@@ -46,7 +48,20 @@ public interface IAgoraCallkitSdk  {
         public boolean mSubscribeVideo = true;      ///< 通话时是否订阅对端视频
         public String mMasterServerUrl;             ///< 提供的第一个BaseUrl
         public String mSlaveServerUrl;              ///< 提供的第二个BaseUrl
+        public String mMasterBackupUrl;             ///< 第一个BaseUrl的备用地址，主地址熔断时切换过去，可以为null
+        public String mSlaveBackupUrl;              ///< 第二个BaseUrl的备用地址，主地址熔断时切换过去，可以为null
+        public String[] mGatewayUrls;               ///< 呼叫服务的候选网关地址，设置后替代 mSlaveServerUrl，按探测时延选择最快的网关
+        public long mGatewayProbeInterval = 0;      ///< 网关时延探测间隔(毫秒)，0表示默认值
+        public boolean mHttp2Enabled = false;       ///< https 请求是否优先使用 HTTP/2 复用连接，需要应用添加 okhttp 和 okhttp-urlconnection 3.12.x 依赖，不支持时自动使用 HTTP/1.1
         public String mPusherId;                    ///< 离线推送的pusherId
+        public boolean mConnWarmUp = false;         ///< 登录成功和回到前台时是否预热HTTP连接
+        public int mHttpTimeoutFloor = 0;           ///< HTTP请求超时时间下限(毫秒)，超时时间根据往返时延动态调整，0表示默认值
+        public int mHttpTimeoutCeiling = 0;         ///< HTTP请求超时时间上限(毫秒)，0表示默认值
+        public int mDialHedgePercentile = 0;        ///< 呼叫请求超过最近耗时的该百分位(如95)未回应时发送对冲请求，0表示不对冲
+        public float mTokenRefreshRatio = 0;        ///< 凭证有效期过去该比例(如0.8)时在后台提前刷新，0表示不主动刷新
+        public float mTokenRefreshJitter = 0.1f;    ///< 刷新时间的随机抖动幅度，占有效期的比例，避免大量客户端同时刷新
+        public int mMaxCallSessions = 1;            ///< 同时进行的最大呼叫会话数，超过时新来电直接拒接，新呼叫返回本地忙
+        public Executor mCallbackExecutor;          ///< 执行 IAccountMgr/ICallkitMgr 回调的执行器，必须串行执行，null表示使用SDK内部的回调线程
     }
 
     ////////////////////////////////////////////////////////////////////////
@@ -81,5 +96,15 @@ public interface IAgoraCallkitSdk  {
      */
     ICallkitMgr getCallkitMgr();
 
+    /*
+     * @brief 获取运行指标接口，可以查询HTTP请求的耗时和错误统计
+     */
+    IMetricsMgr getMetricsMgr();
+
+    /*
+     * @brief 应用切换到前台时调用，如果已经登录并且开启了连接预热，会重新预热HTTP连接
+     */
+    void onAppForeground();
+
 
 }
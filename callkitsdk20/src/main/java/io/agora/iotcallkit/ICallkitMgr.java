@@ -13,6 +13,8 @@ package io.agora.iotcallkit;
 import android.graphics.Bitmap;
 import android.view.SurfaceView;
 
+import java.util.List;
+
 
 
 /**
@@ -74,6 +76,25 @@ public interface ICallkitMgr {
         public int memoryAppUsageInKbytes;
     }
 
+    /**
+     * @brief 呼叫会话信息
+     */
+    public static class SessionInfo {
+        public String mSessionId;               ///< 会话Id，呼叫请求完成之前是SDK分配的临时Id
+        public String mPeerAccountId;           ///< 对端账号Id
+        public int mStateMachine;               ///< 会话状态机
+        public String mAttachMsg;               ///< 呼叫时附带信息
+        public boolean mMediaActive;            ///< 是否占用RTC频道，同一时间只有一个会话占用
+
+        @Override
+        public String toString() {
+            String infoText = "{ mSessionId=" + mSessionId + ", mPeerAccountId=" + mPeerAccountId
+                    + ", mStateMachine=" + mStateMachine + ", mAttachMsg=" + mAttachMsg
+                    + ", mMediaActive=" + mMediaActive + " }";
+            return infoText;
+        }
+    }
+
     /**
      * @brief 账号管理回调接口
      */
@@ -86,6 +107,16 @@ public interface ICallkitMgr {
          */
         default void onDialDone(int errCode, final String peerAccountId) {}
 
+        /**
+         * @brief 带会话Id的呼叫请求结果事件，多会话时用于区分会话，默认转到不带会话Id的回调
+         * @param sessionId : 会话Id
+         * @param errCode : 错误代码
+         * @param peerAccountId : 对端账号Id
+         */
+        default void onDialDone(final String sessionId, int errCode, final String peerAccountId) {
+            onDialDone(errCode, peerAccountId);
+        }
+
         /**
          * @brief 对端设备来电事件
          * @param peerAccountId : 对端账号Id
@@ -93,24 +124,62 @@ public interface ICallkitMgr {
          */
         default void onPeerIncoming(final String peerAccountId, final String attachMsg) {}
 
+        /**
+         * @brief 带会话Id的对端设备来电事件，默认转到不带会话Id的回调
+         * @param sessionId : 会话Id
+         * @param peerAccountId : 对端账号Id
+         * @param attachMsg: 来电时附带信息
+         */
+        default void onPeerIncoming(final String sessionId, final String peerAccountId,
+                                    final String attachMsg) {
+            onPeerIncoming(peerAccountId, attachMsg);
+        }
+
         /**
          * @brief 对端设备接听事件
          * @param peerAccountId : 对端账号Id
          */
         default void onPeerAnswer(final String peerAccountId) {}
 
+        /**
+         * @brief 带会话Id的对端设备接听事件，默认转到不带会话Id的回调
+         * @param sessionId : 会话Id
+         * @param peerAccountId : 对端账号Id
+         */
+        default void onPeerAnswer(final String sessionId, final String peerAccountId) {
+            onPeerAnswer(peerAccountId);
+        }
+
         /**
          * @brief 对端设备挂断事件
          * @param peerAccountId : 对端账号Id
          */
         default void onPeerHangup(final String peerAccountId) {}
 
+        /**
+         * @brief 带会话Id的对端设备挂断事件，默认转到不带会话Id的回调
+         * @param sessionId : 会话Id
+         * @param peerAccountId : 对端账号Id
+         */
+        default void onPeerHangup(final String sessionId, final String peerAccountId) {
+            onPeerHangup(peerAccountId);
+        }
+
         /*
          * @brief 对端设备超时无人接听事件
          * @param peerAccountId : 对端账号Id
          */
         default void onPeerTimeout(final String peerAccountId) {}
 
+        /**
+         * @brief 带会话Id的对端设备超时无人接听事件，默认转到不带会话Id的回调
+         * @param sessionId : 会话Id
+         * @param peerAccountId : 对端账号Id
+         */
+        default void onPeerTimeout(final String sessionId, final String peerAccountId) {
+            onPeerTimeout(peerAccountId);
+        }
+
         /**
          * @brief 对端视频首帧出图事件
          * @param peerAccountId : 对端账号Id
@@ -120,12 +189,33 @@ public interface ICallkitMgr {
         default void onPeerFirstVideo(final String peerAccountId,
                                       int videoWidth, int videoHeight) {}
 
+        /**
+         * @brief 带会话Id的对端视频首帧出图事件，默认转到不带会话Id的回调
+         * @param sessionId : 会话Id
+         * @param peerAccountId : 对端账号Id
+         * @param videoWidth : 首帧视频宽度
+         * @param videoHeight : 首帧视频高度
+         */
+        default void onPeerFirstVideo(final String sessionId, final String peerAccountId,
+                                      int videoWidth, int videoHeight) {
+            onPeerFirstVideo(peerAccountId, videoWidth, videoHeight);
+        }
+
 
         /**
          * @brief 错误事件，在呼叫系统中遇到任意错误时发生，触发该事件后，整个呼叫过程全部清除
          * @param errCode : 错误代码
          */
         default void onCallkitError(int errCode) {}
+
+        /**
+         * @brief 带会话Id的错误事件，只清除出错的会话，默认转到不带会话Id的回调
+         * @param sessionId : 会话Id
+         * @param errCode : 错误代码
+         */
+        default void onCallkitError(final String sessionId, int errCode) {
+            onCallkitError(errCode);
+        }
     }
 
 
@@ -133,11 +223,24 @@ public interface ICallkitMgr {
     //////////////////////////// Public Methods ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
     /**
-     * @brief 获取当前设备管理状态机
+     * @brief 获取当前设备管理状态机，有多个会话时返回占用RTC频道的会话状态
      * @return 返回状态机
      */
     int getStateMachine();
 
+    /**
+     * @brief 获取指定会话的状态机
+     * @param sessionId : 会话Id
+     * @return 返回状态机，会话不存在时返回 CALLKIT_STATE_IDLE
+     */
+    int getStateMachine(final String sessionId);
+
+    /**
+     * @brief 获取所有正在进行的会话，会话数上限由 InitParam.mMaxCallSessions 设置
+     * @return 会话信息列表
+     */
+    List<SessionInfo> getSessionList();
+
     /**
      * @brief 注册回调接口
      * @param callback : 回调接口
@@ -162,17 +265,32 @@ public interface ICallkitMgr {
     int callDial(final String peerAccountId, final String attachMsg);
 
     /**
-     * @brief 挂断当前通话或者来电
+     * @brief 挂断当前通话或者来电，呼叫请求还在进行中时直接取消呼叫，
+     *        此时 onDialDone() 回调 XERR_HTTP_CANCELED
      * @return 错误码
      */
     int callHangup();
 
+    /**
+     * @brief 挂断指定会话的通话或者来电
+     * @param sessionId : 会话Id
+     * @return 错误码
+     */
+    int callHangup(final String sessionId);
+
     /**
      * @brief 接听当前来电
      * @return 错误码
      */
     int callAnswer();
 
+    /**
+     * @brief 接听指定会话的来电，同一时间只能有一个会话在通话，其他会话正在呼叫或者通话时返回 XERR_CALLKIT_LOCAL_BUSY
+     * @param sessionId : 会话Id
+     * @return 错误码
+     */
+    int callAnswer(final String sessionId);
+
     /**
      * @brief 本地推流时设置本地视频显示控件，如果本地视频不推流则不需要设置
      * @param localView: 本地视频显示控件
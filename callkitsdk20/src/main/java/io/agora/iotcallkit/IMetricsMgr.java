@@ -0,0 +1,171 @@
+/**
+ * @file IMetricsMgr.java
+ * @brief This file define the interface of SDK metrics
+ * @author xiaohua.lu
+ * @email luxiaohua@agora.io
+ * @version 1.0.0.1
+ * @date 2022-01-26
+ * @license Copyright (C) 2021 AgoraIO Inc. All rights reserved.
+ */
+package io.agora.iotcallkit;
+
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * @brief SDK运行指标接口，可以用来监控HTTP请求的耗时和错误
+ */
+public interface IMetricsMgr {
+
+    /**
+     * @brief 耗时统计信息，单位毫秒，百分位数是估算值(误差不超过25%)
+     */
+    public static class LatencyStats {
+        public long mCount;             ///< 样本数
+        public long mAverage;           ///< 平均值
+        public long mP50;               ///< 50百分位
+        public long mP90;               ///< 90百分位
+        public long mP99;               ///< 99百分位
+        public long mMax;               ///< 最大值
+
+        @Override
+        public String toString() {
+            String infoText = "{ mCount=" + mCount + ", mAverage=" + mAverage
+                    + ", mP50=" + mP50 + ", mP90=" + mP90 + ", mP99=" + mP99
+                    + ", mMax=" + mMax + " }";
+            return infoText;
+        }
+    }
+
+    /**
+     * @brief 单个HTTP请求端点的统计信息
+     */
+    public static class HttpEndpointStats {
+        public String mEndpoint;                ///< 端点路径，例如 "/api/call-service/v1/call"
+        public long mRequestCount;              ///< 请求总次数
+        public long mCoalescedCount;            ///< 与相同请求合并、没有实际发送的次数
+        public LatencyStats mConnect;           ///< 获取连接耗时(包括DNS解析和建立连接，复用连接时接近0)
+        public LatencyStats mFirstByte;         ///< 从发起请求到收到回应头的耗时
+        public LatencyStats mTotal;             ///< 请求总耗时
+        public Map<Integer, Long> mErrorCounts; ///< 错误码 -> 出现次数
+
+        @Override
+        public String toString() {
+            String infoText = "{ mEndpoint=" + mEndpoint + ", mRequestCount=" + mRequestCount
+                    + ", mCoalescedCount=" + mCoalescedCount
+                    + ", mConnect=" + mConnect + ", mFirstByte=" + mFirstByte
+                    + ", mTotal=" + mTotal + ", mErrorCounts=" + mErrorCounts + " }";
+            return infoText;
+        }
+    }
+
+    /**
+     * @brief SDK内部工作通道事件队列的统计信息
+     */
+    public static class EventQueueStats {
+        public String mName;                    ///< 队列名称，例如 "call"
+        public long mPostCount;                 ///< 投递的事件总数
+        public long mCoalescedCount;            ///< 被后续相同事件合并、没有处理的次数
+        public int mDepth;                      ///< 当前排队的事件数
+        public int mMaxDepth;                   ///< 最大排队事件数
+        public LatencyStats mDwell;             ///< 事件从投递到开始处理的排队耗时
+
+        @Override
+        public String toString() {
+            String infoText = "{ mName=" + mName + ", mPostCount=" + mPostCount
+                    + ", mCoalescedCount=" + mCoalescedCount
+                    + ", mDepth=" + mDepth + ", mMaxDepth=" + mMaxDepth
+                    + ", mDwell=" + mDwell + " }";
+            return infoText;
+        }
+    }
+
+    /**
+     * @brief 应用层监听器单个回调方法的耗时统计，耗时长说明监听器在回调中做了耗时操作
+     */
+    public static class ListenerStats {
+        public String mDispatcher;              ///< 回调分发器名称，例如 "call"
+        public String mListener;                ///< 监听器的类名
+        public String mCallback;                ///< 回调方法名，例如 "onPeerIncoming"
+        public long mSlowCount;                 ///< 耗时超过100毫秒的次数
+        public LatencyStats mDuration;          ///< 回调耗时
+
+        @Override
+        public String toString() {
+            String infoText = "{ mDispatcher=" + mDispatcher + ", mListener=" + mListener
+                    + ", mCallback=" + mCallback + ", mSlowCount=" + mSlowCount
+                    + ", mDuration=" + mDuration + " }";
+            return infoText;
+        }
+    }
+
+    /**
+     * @brief 登录后连接预热的命中统计，每次预热后只统计第一个呼叫或者接听请求
+     */
+    public static class WarmUpStats {
+        public long mHitCount;                  ///< 复用了预热连接的次数
+        public long mMissCount;                 ///< 没有复用预热连接、重新建立连接的次数
+        public boolean mLastHit;                ///< 最近一次是否复用了预热连接
+        public long mLastConnectTime;           ///< 最近一次建立连接的耗时，复用连接时接近0，没有统计时为-1
+        public String mLastRequestUrl;          ///< 最近一次统计的实际请求地址
+
+        @Override
+        public String toString() {
+            String infoText = "{ mHitCount=" + mHitCount + ", mMissCount=" + mMissCount
+                    + ", mLastHit=" + mLastHit + ", mLastConnectTime=" + mLastConnectTime
+                    + ", mLastRequestUrl=" + mLastRequestUrl + " }";
+            return infoText;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////////// Public Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /**
+     * @brief 获取所有HTTP请求端点的统计信息
+     * @return 每个端点的统计信息
+     */
+    List<HttpEndpointStats> getHttpStats();
+
+    /**
+     * @brief 清除所有HTTP请求的统计信息
+     */
+    void resetHttpStats();
+
+    /**
+     * @brief 获取SDK内部事件队列的统计信息，事件排队耗时过长说明工作线程处理不过来
+     * @return 每个事件队列的统计信息
+     */
+    List<EventQueueStats> getEventQueueStats();
+
+    /**
+     * @brief 清除事件队列的统计信息
+     */
+    void resetEventQueueStats();
+
+    /**
+     * @brief 获取应用层监听器的回调耗时统计
+     * @return 每个监听器每个回调方法的统计信息
+     */
+    List<ListenerStats> getListenerStats();
+
+    /**
+     * @brief 清除监听器回调的耗时统计
+     */
+    void resetListenerStats();
+
+    /**
+     * @brief 获取登录后连接预热的命中统计
+     * @return 预热命中统计信息
+     */
+    WarmUpStats getWarmUpStats();
+
+    /**
+     * @brief 清除连接预热的命中统计
+     */
+    void resetWarmUpStats();
+
+}
@@ -13,6 +13,7 @@ import com.amazonaws.regions.Regions;
 import org.json.JSONObject;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -97,6 +98,24 @@ public class AWSUtils {
         }
     }
 
+    /**
+     * 主动刷新AWS服务证书，当前MQTT连接保持不变，之后重连时使用新的证书
+     * 返回新证书的过期时间(毫秒时间戳)，失败返回-1
+     */
+    public long refreshCredentials() {
+        try {
+            if (mCredentialsProvider == null) {
+                return -1;
+            }
+            mCredentialsProvider.refresh();
+            Date expiration = mCredentialsProvider.getSessionCredentitalsExpiration();
+            return (expiration != null) ? expiration.getTime() : -1;
+        } catch (Exception e) {
+            Log.e(TAG, "refreshCredentials error.", e);
+            return -1;
+        }
+    }
+
     /* 订阅所需的MQTT topic */
     private void subscribe(String clientId, String inventDevciceName) {
         final String topic = "+/+/device/connect";                  //设备上下线通知
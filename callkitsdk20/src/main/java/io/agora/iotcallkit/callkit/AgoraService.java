@@ -4,19 +4,38 @@ import io.agora.iotcallkit.ErrCode;
 import io.agora.iotcallkit.logger.ALog;
 import io.agora.iotcallkit.lowservice.AgoraLowService;
 import io.agora.iotcallkit.sdkimpl.AccountMgr;
-import org.json.JSONArray;
+import io.agora.iotcallkit.transport.AsyncRequest;
+import io.agora.iotcallkit.transport.CancelToken;
+import io.agora.iotcallkit.transport.HttpTransport;
+import io.agora.iotcallkit.transport.ConnWarmer;
+import io.agora.iotcallkit.transport.EndpointSelector;
+import io.agora.iotcallkit.transport.JsonBodyWriter;
+import io.agora.iotcallkit.transport.JsonStreamUtil;
+import io.agora.iotcallkit.transport.LatencyWindow;
+import io.agora.iotcallkit.transport.MultipartBody;
+import io.agora.iotcallkit.transport.ResumableUploader;
+import android.util.JsonReader;
 import org.json.JSONException;
 import org.json.JSONObject;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 
@@ -33,14 +52,35 @@ public class AgoraService {
         public int mErrorCode;              ///< 错误码
         public int mRespCode;               ///< 回应数据包中HTTP代码
         public String mTip;                 ///< 回应数据
-        public JSONObject mRespJsonObj;     ///< 回应包中的JSON对象
+        public boolean mHasData;            ///< 回应包中是否有 "data" 对象，有则已经由解析器解析
+
+        @Override
+        public String toString() {
+            String infoText = "{ mErrorCode=" + mErrorCode + ", mRespCode=" + mRespCode
+                    + ", mTip=" + mTip + ", mHasData=" + mHasData + " }";
+            return infoText;
+        }
+    }
+
+    /*
+     * @brief 回应数据包中 "data" 对象的解析器，在读取回应数据流的同时直接解析出结果
+     *        调用时 reader 正好位于 "data" 对象的开始位置，必须完整读取该对象
+     */
+    private interface IRespDataDecoder {
+        void decodeData(JsonReader reader) throws IOException;
     }
 
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Constant Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "IOTSDK/AgoraService";
-    private static final int HTTP_TIMEOUT = 8000;
+    private static final int ASYNC_THREAD_COUNT = 4;            ///< 异步请求的最大并发线程数
+    private static final long ASYNC_THREAD_IDLE_TIME = 30000;   ///< 异步请求线程的空闲退出时间
+    private static final int DIAL_LATENCY_SAMPLES = 64;         ///< 计算对冲延时的呼叫耗时样本数
+    private static final int HEDGE_MIN_SAMPLES = 8;             ///< 开始对冲需要的最少样本数
+    private static final long HEDGE_MIN_DELAY = 200;            ///< 最小对冲延时
+    private static final int HEDGE_THREAD_COUNT = 4;            ///< 对冲请求的最大并发线程数
+    private static final String UPLOAD_BOUNDARY = "########";   ///< 上传文件的分段分隔符
 
     public static final int RESP_CODE_IN_TALKING = 100001;      ///<	对端通话中，无法接听
     public static final int RESP_CODE_ANSWER = 100002;          ///<	未通话，无法接听
@@ -50,6 +90,22 @@ public class AgoraService {
     public static final int RESP_CODE_INVALID_ANSWER = 100006;  ///< 无效的Answer应答
     public static final int RESP_CODE_PEER_UNREG = 999999;      ///< 被叫端未注册
 
+    //
+    // 呼叫和应答请求包的预编码字段名
+    //
+    private static final byte[] KEY_HEADER = JsonBodyWriter.encodeName("header");
+    private static final byte[] KEY_TRACE_ID = JsonBodyWriter.encodeName("traceId");
+    private static final byte[] KEY_TIMESTAMP = JsonBodyWriter.encodeName("timestamp");
+    private static final byte[] KEY_PAYLOAD = JsonBodyWriter.encodeName("payload");
+    private static final byte[] KEY_APP_ID = JsonBodyWriter.encodeName("appId");
+    private static final byte[] KEY_CALLER_ID = JsonBodyWriter.encodeName("callerId");
+    private static final byte[] KEY_CALLEE_ID = JsonBodyWriter.encodeName("calleeId");
+    private static final byte[] KEY_CALLEE_IDS = JsonBodyWriter.encodeName("calleeIds");
+    private static final byte[] KEY_ATTACH_MSG = JsonBodyWriter.encodeName("attachMsg");
+    private static final byte[] KEY_LOCAL_ID = JsonBodyWriter.encodeName("localId");
+    private static final byte[] KEY_SESSION_ID = JsonBodyWriter.encodeName("sessionId");
+    private static final byte[] KEY_ANSWER = JsonBodyWriter.encodeName("answer");
+
 
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Variable Definition ///////////////////////////
@@ -57,14 +113,68 @@ public class AgoraService {
     private static AgoraService mInstance = null;
 
     ///< 服务器请求站点
-    private String mBaseUrl = "";
-    private String mCallkitBaseUrl= "http://iot-api-gateway.sh.agoralab.co/api/call-service/v1";
-    private String mAuthBaseUrl   = "http://iot-api-gateway.sh.agoralab.co/api/oauth";
+    private volatile String mBaseUrl = "";
+    private volatile String mBackupUrl = null;     ///< 主地址熔断时切换的备用地址
+    private volatile String mCallkitBaseUrl= "http://iot-api-gateway.sh.agoralab.co/api/call-service/v1";
+    private volatile String mAuthBaseUrl   = "http://iot-api-gateway.sh.agoralab.co/api/oauth";
+
+    ///< HTTP传输层，负责连接复用、并发限制、超时和统计
+    private final HttpTransport mTransport;
+
+    ///< 多个候选网关时按探测时延选择最快的节点
+    private final EndpointSelector mGatewaySelector;
+
+    ///< 异步请求的执行线程池，空闲线程自动退出
+    private final ThreadPoolExecutor mAsyncExecutor;
+
+    ///< 对冲呼叫请求的执行线程池，和异步请求分开，避免异步呼叫占满线程后对冲请求无法执行
+    private final ThreadPoolExecutor mHedgeExecutor;
+
+    private final Object mHedgeLock = new Object();
+    private int mHedgePercentile = 0;       ///< 呼叫请求对冲的耗时百分位，0表示不进行对冲
+    private int mHedgeFiredCount = 0;       ///< 发送对冲请求的次数
+    private final LatencyWindow mDialLatency = new LatencyWindow(DIAL_LATENCY_SAMPLES);  ///< 最近的呼叫请求耗时
 
 
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods //////////////////////////////
     ////////////////////////////////////////////////////////////////////////
+    private AgoraService() {
+        HttpTransport.Config config = new HttpTransport.Config();
+        config.mTag = TAG;
+        mTransport = new HttpTransport(config);
+        mGatewaySelector = new EndpointSelector(new EndpointSelector.IListener() {
+            @Override
+            public void onEndpointsRanked(final String[] rankedUrls) {
+                mTransport.setBaseUrls(rankedUrls);     // 请求按排序选择第一个没有熔断的网关
+            }
+        });
+
+        mAsyncExecutor = new ThreadPoolExecutor(ASYNC_THREAD_COUNT, ASYNC_THREAD_COUNT,
+                ASYNC_THREAD_IDLE_TIME, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AgoraServiceAsync");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mAsyncExecutor.allowCoreThreadTimeOut(true);
+
+        mHedgeExecutor = new ThreadPoolExecutor(HEDGE_THREAD_COUNT, HEDGE_THREAD_COUNT,
+                ASYNC_THREAD_IDLE_TIME, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AgoraServiceHedge");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mHedgeExecutor.allowCoreThreadTimeOut(true);
+    }
+
     public static AgoraService getInstance() {
         if (mInstance == null) {
             synchronized (AgoraService.class) {
@@ -77,11 +187,135 @@ public class AgoraService {
     }
 
     public void setBaseUrl(final String baseUrl) {
+        setBaseUrl(baseUrl, null);
+    }
+
+    /*
+     * @brief 设置服务地址和备用地址，主地址熔断时请求自动切换到备用地址
+     * @param baseUrl : 主地址
+     * @param backupUrl : 备用地址，为null或者空字符串表示没有备用地址
+     */
+    public void setBaseUrl(final String baseUrl, final String backupUrl) {
         mBaseUrl = baseUrl;
+        mBackupUrl = backupUrl;
         mCallkitBaseUrl= baseUrl + "/call-service/v1";
         mAuthBaseUrl   = baseUrl + "/oauth";
+        if ((backupUrl != null) && (!backupUrl.isEmpty())) {
+            mTransport.setBaseUrls(new String[] { baseUrl, backupUrl });
+        } else {
+            mTransport.setBaseUrls(null);
+        }
         ALog.getInstance().e(TAG, "<setBaseUrl> mCallkitBaseUrl=" + mCallkitBaseUrl);
-        ALog.getInstance().e(TAG, "<setBaseUrl> mAuthBaseUrl=" + mAuthBaseUrl);
+        ALog.getInstance().e(TAG, "<setBaseUrl> mAuthBaseUrl=" + mAuthBaseUrl
+                + ", backupUrl=" + backupUrl);
+    }
+
+    /*
+     * @brief 设置多个候选网关地址，在后台定时探测各个网关的时延，请求发送到最快的可用网关
+     *        第一次探测完成之前使用第一个网关。之前通过 setBaseUrl() 设置的备用地址也加入候选列表，
+     *        所有网关都熔断时仍然可以切换到备用地址
+     * @param gatewayUrls : 候选网关地址列表，每个地址的含义与 setBaseUrl() 的参数相同
+     * @param probeInterval : 探测间隔(毫秒)，<=0 表示使用默认值
+     */
+    public void setGatewayUrls(final String[] gatewayUrls, long probeInterval) {
+        if ((gatewayUrls == null) || (gatewayUrls.length <= 0)) {
+            return;
+        }
+        String backupUrl = mBackupUrl;
+        ArrayList<String> candidateList = new ArrayList<>(Arrays.asList(gatewayUrls));
+        if ((backupUrl != null) && (!backupUrl.isEmpty()) && (!candidateList.contains(backupUrl))) {
+            candidateList.add(backupUrl);
+        }
+
+        setBaseUrl(gatewayUrls[0], backupUrl);
+        if (candidateList.size() > 1) {
+            mTransport.setBaseUrls(candidateList.toArray(new String[candidateList.size()]));
+        }
+        mGatewaySelector.start(candidateList, probeInterval);
+    }
+
+    /*
+     * @brief 停止网关时延探测，在SDK释放时调用
+     */
+    public void stopGatewayProbe() {
+        mGatewaySelector.release();
+    }
+
+    public String getCallkitBaseUrl() {
+        return mCallkitBaseUrl;
+    }
+
+    public String getAuthBaseUrl() {
+        return mAuthBaseUrl;
+    }
+
+    /*
+     * @brief 预热到呼叫服务和鉴权服务的HTTP连接，在独立线程中异步进行
+     */
+    public void warmUpConnections() {
+        String callkitBaseUrl = mCallkitBaseUrl;
+        String authBaseUrl = mAuthBaseUrl;
+        String bestUrl = mGatewaySelector.getBestUrl();
+        if ((bestUrl != null) && (!bestUrl.equals(mBaseUrl))) {   // 预热当前选中的网关
+            callkitBaseUrl = bestUrl + callkitBaseUrl.substring(mBaseUrl.length());
+            authBaseUrl = bestUrl + authBaseUrl.substring(mBaseUrl.length());
+        }
+        ArrayList<String> urlList = new ArrayList<>();
+        urlList.add(callkitBaseUrl);
+        urlList.add(authBaseUrl);
+        ConnWarmer.getInstance().start(urlList, new String[] { "/call", "/answer" });
+    }
+
+    /*
+     * @brief 设置请求超时时间的上下限，实际超时时间根据每个端点的往返时延在上下限之间动态调整
+     * @param timeoutFloor : 超时时间下限(毫秒)
+     * @param timeoutCeiling : 超时时间上限(毫秒)，没有时延样本时使用该值
+     */
+    public void setTimeoutBounds(int timeoutFloor, int timeoutCeiling) {
+        mTransport.setTimeoutBounds(timeoutFloor, timeoutCeiling);
+        ALog.getInstance().d(TAG, "<setTimeoutBounds> timeoutFloor=" + timeoutFloor
+                + ", timeoutCeiling=" + timeoutCeiling);
+    }
+
+    /*
+     * @brief 设置请求端点单独的超时时间下限，服务端需要较长处理时间的端点使用，默认所有端点都使用全局下限
+     * @param endpoint : 端点路径后缀，例如 "/call"
+     * @param timeoutFloor : 超时时间下限(毫秒)，<=0 表示取消单独设置
+     */
+    public void setEndpointTimeoutFloor(final String endpoint, int timeoutFloor) {
+        mTransport.setEndpointTimeoutFloor(endpoint, timeoutFloor);
+        ALog.getInstance().d(TAG, "<setEndpointTimeoutFloor> endpoint=" + endpoint
+                + ", timeoutFloor=" + timeoutFloor);
+    }
+
+    /*
+     * @brief 设置呼叫请求对冲，呼叫请求超过最近耗时的指定百分位还没有回应时，
+     *        再发送一个相同的请求，使用最先成功的结果，另外一个请求也成功时挂断它创建的会话。
+     *        默认不进行对冲，服务器确认按幂等键去重之前不要开启
+     * @param percentile : 耗时百分位，例如 95，<=0 表示不进行对冲
+     */
+    public void setDialHedging(int percentile) {
+        synchronized (mHedgeLock) {
+            mHedgePercentile = Math.min(percentile, 100);
+        }
+        ALog.getInstance().d(TAG, "<setDialHedging> percentile=" + percentile);
+    }
+
+    public int getHedgeFiredCount() {
+        synchronized (mHedgeLock) {
+            return mHedgeFiredCount;
+        }
+    }
+
+    /*
+     * @brief 设置请求端点的最大并发请求数，超过的请求会公平排队等待
+     * @param endpoint : 端点路径，例如 "/call"、"/answer"，为null表示设置所有端点的默认值
+     * @param maxConcurrent : 最大并发请求数
+     */
+    public void setEndpointConcurrency(final String endpoint, int maxConcurrent) {
+        mTransport.setEndpointConcurrency(endpoint, maxConcurrent);
+        ALog.getInstance().d(TAG, "<setEndpointConcurrency> endpoint=" + endpoint
+                + ", maxConcurrent=" + maxConcurrent);
     }
 
 
@@ -103,105 +337,357 @@ public class AgoraService {
 
     public CallReqResult makeCall(final String token, final String appid, final String identityId,
                                   final String peerId, final String attachMsg) {
-        Map<String, String> params = new HashMap();
-        JSONObject body = new JSONObject();
-        CallReqResult callReqResult = new CallReqResult();
+        return makeCall(token, appid, identityId, peerId, attachMsg, null);
+    }
 
+    /*
+     * @brief 可取消的呼叫请求，cancelToken 被取消时立即断开连接并返回 XERR_HTTP_CANCELED
+     */
+    public CallReqResult makeCall(final String token, final String appid, final String identityId,
+                                  final String peerId, final String attachMsg,
+                                  final CancelToken cancelToken) {
         // 请求URL
         String requestUrl = mCallkitBaseUrl + "/call";
 
-        // body内容
-        JSONObject header = new JSONObject();
+        // body内容，直接编码到当前线程复用的缓冲区中
+        long timestamp = System.currentTimeMillis();
+        String traceId = appid + "-" + identityId;
+        JsonBodyWriter body = JsonBodyWriter.obtain();
+        body.beginObject()
+                .beginObject(KEY_HEADER)
+                    .field(KEY_TRACE_ID, traceId)
+                    .field(KEY_TIMESTAMP, timestamp)
+                .endObject()
+                .beginObject(KEY_PAYLOAD)
+                    .field(KEY_APP_ID, appid)
+                    .field(KEY_CALLER_ID, identityId)
+                    .beginArray(KEY_CALLEE_IDS)
+                        .value(peerId)                      // TODO：目前不支持一呼多
+                    .endArray()
+                    .field(KEY_ATTACH_MSG, attachMsg)
+                .endObject()
+            .endObject();
+
+        long hedgeDelay = getDialHedgeDelay();
+        if (hedgeDelay <= 0) {  // 不进行对冲，直接发送请求
+            DialAttempt attempt = doMakeCall(requestUrl, token, body.getBuffer(), body.size(),
+                                            identityId, peerId, null, cancelToken);
+            onDialAttemptDone(attempt);
+            return attempt.mResult;
+        }
+
+        // 两次请求使用相同的请求包和幂等键，服务器据此去重
+        byte[] bodyData = Arrays.copyOf(body.getBuffer(), body.size());
+        String idempotencyKey = traceId + "-" + timestamp;
+        return makeHedgedCall(requestUrl, token, bodyData, identityId, peerId, idempotencyKey,
+                            hedgeDelay, cancelToken);
+    }
+
+    /*
+     * @brief 单次呼叫请求的结果
+     */
+    private static class DialAttempt {
+        public CallReqResult mResult;       ///< 呼叫请求结果
+        public boolean mResponded;          ///< 是否收到了服务器的完整回应(业务错误也算回应)
+        public long mCostTime;              ///< 请求耗时
+    }
+
+    /*
+     * @brief 一次对冲呼叫中各个请求共享的状态
+     */
+    private static class HedgeState {
+        public DialAttempt mWinner;                                     ///< 最终采用的成功请求
+        public final ArrayList<DialAttempt> mDoneList = new ArrayList<>();  ///< 选出结果前已经完成的请求
+    }
+
+    /*
+     * @brief 对冲呼叫请求：第一个请求在 hedgeDelay 时间内没有回应时，再发送一个相同的请求，
+     *        使用最先成功的结果。另外一个请求不取消，它也成功创建了会话时挂断该会话
+     */
+    private CallReqResult makeHedgedCall(final String requestUrl, final String token,
+                                         final byte[] bodyData, final String identityId,
+                                         final String peerId, final String idempotencyKey,
+                                         long hedgeDelay, final CancelToken cancelToken) {
+        CompletionService<DialAttempt> completionService =
+                new ExecutorCompletionService<>(mHedgeExecutor);
+        final CancelToken[] attemptTokens = new CancelToken[] {
+                new CancelToken(cancelToken), new CancelToken(cancelToken) };
+        final HedgeState hedgeState = new HedgeState();
+        int launchedCount = 0;
+        DialAttempt winner = null;
+        DialAttempt respondedAttempt = null;
+        DialAttempt lastAttempt = null;
+
         try {
-            header.put("traceId", appid + "-" + identityId);
-            header.put("timestamp", System.currentTimeMillis());
-            body.put("header", header);
-            JSONObject payload = new JSONObject();
-            payload.put("appId", appid);
-            payload.put("callerId", identityId);
-            JSONArray calleeDeviceIds = new JSONArray();
-            calleeDeviceIds.put(peerId);                    // TODO：目前不支持一呼多
-            payload.put("calleeIds", calleeDeviceIds);
-            payload.put("attachMsg", attachMsg);
-            body.put("payload", payload);
-        } catch (JSONException e) {
+            for (int i = 0; i < attemptTokens.length; i++) {
+                final CancelToken attemptToken = attemptTokens[i];
+                completionService.submit(new Callable<DialAttempt>() {
+                    @Override
+                    public DialAttempt call() {
+                        DialAttempt attempt = doMakeCall(requestUrl, token, bodyData, bodyData.length,
+                                                        identityId, peerId, idempotencyKey, attemptToken);
+                        onHedgeAttemptDone(hedgeState, attempt, token, identityId);
+                        return attempt;
+                    }
+                });
+                launchedCount++;
+
+                // 第一个请求在对冲延时内完成则不再发送第二个请求，不存在竞争
+                Future<DialAttempt> future = (i == 0)
+                        ? completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS) : null;
+                if (future != null) {
+                    launchedCount--;
+                    lastAttempt = future.get();
+                    if (lastAttempt.mResponded || isCancelled(cancelToken)) {
+                        winner = lastAttempt;
+                        break;
+                    }
+                    // 第一个请求网络失败，立即发送第二个请求
+                    ALog.getInstance().d(TAG, "<makeHedgedCall> first attempt failed, retry at once");
+                } else if (i == 0) {
+                    ALog.getInstance().d(TAG, "<makeHedgedCall> no response after "
+                            + hedgeDelay + "ms, send hedged request");
+                    synchronized (mHedgeLock) {
+                        mHedgeFiredCount++;
+                    }
+                }
+            }
+
+            // 等待最先成功的请求，失败的结果(包括业务错误)不能胜出
+            while ((winner == null) && (launchedCount > 0)) {
+                lastAttempt = completionService.take().get();
+                launchedCount--;
+                if (lastAttempt.mResult.mErrCode == ErrCode.XOK) {
+                    winner = lastAttempt;
+                } else if (lastAttempt.mResponded && (respondedAttempt == null)) {
+                    respondedAttempt = lastAttempt;
+                }
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
             e.printStackTrace();
-            callReqResult.mErrCode = ErrCode.XERR_HTTP_JSON_WRITE;
+        }
+
+        if ((winner != null) && (winner.mResult.mErrCode == ErrCode.XOK)) {
+            // 还没有完成的请求继续执行，成功后由它自己挂断重复的会话
+            setHedgeWinner(hedgeState, winner, token, identityId);
+        } else {
+            for (CancelToken attemptToken : attemptTokens) {   // 没有成功的请求，取消还在执行的请求
+                attemptToken.cancel();
+            }
+        }
+
+        if (winner == null) {
+            winner = (respondedAttempt != null) ? respondedAttempt : lastAttempt;
+        }
+        if (winner == null) {
+            CallReqResult callReqResult = new CallReqResult();
+            callReqResult.mErrCode = isCancelled(cancelToken) ? ErrCode.XERR_HTTP_CANCELED
+                                                               : ErrCode.XERR_HTTP_NO_RESPONSE;
             return callReqResult;
         }
+        onDialAttemptDone(winner);
+        return winner.mResult;
+    }
+
+    /*
+     * @brief 对冲线程中执行，单个请求完成后检查是否已经选出了结果，已经选出时挂断本请求创建的重复会话
+     */
+    private void onHedgeAttemptDone(final HedgeState hedgeState, final DialAttempt attempt,
+                                    final String token, final String identityId) {
+        DialAttempt winner;
+        synchronized (hedgeState) {
+            if (hedgeState.mWinner == null) {
+                hedgeState.mDoneList.add(attempt);
+                return;
+            }
+            winner = hedgeState.mWinner;
+        }
+        hangupHedgeLoser(winner, attempt, token, identityId);
+    }
+
+    /*
+     * @brief 记录最终采用的请求，并且挂断在此之前已经完成的其他成功请求创建的会话
+     */
+    private void setHedgeWinner(final HedgeState hedgeState, final DialAttempt winner,
+                                final String token, final String identityId) {
+        final ArrayList<DialAttempt> loserList = new ArrayList<>();
+        synchronized (hedgeState) {
+            hedgeState.mWinner = winner;
+            for (DialAttempt attempt : hedgeState.mDoneList) {
+                if (attempt != winner) {
+                    loserList.add(attempt);
+                }
+            }
+            hedgeState.mDoneList.clear();
+        }
+        if (loserList.isEmpty()) {
+            return;
+        }
+
+        // 在对冲线程中挂断，不阻塞呼叫结果的返回
+        mHedgeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (DialAttempt loser : loserList) {
+                    hangupHedgeLoser(winner, loser, token, identityId);
+                }
+            }
+        });
+    }
+
+    /*
+     * @brief 没有被采用的请求也成功创建了会话，并且和采用的会话不同时，挂断该会话
+     */
+    private void hangupHedgeLoser(final DialAttempt winner, final DialAttempt loser,
+                                  final String token, final String identityId) {
+        if (loser.mResult.mErrCode != ErrCode.XOK) {
+            return;
+        }
+        CallkitContext winnerCtx = winner.mResult.mCallkitCtx;
+        CallkitContext loserCtx = loser.mResult.mCallkitCtx;
+        if ((loserCtx == null) || (loserCtx.sessionId == null)) {
+            return;
+        }
+        if ((winnerCtx != null) && loserCtx.sessionId.equals(winnerCtx.sessionId)) {
+            return;     // 服务器已经去重，两个请求是同一个会话
+        }
+
+        ALog.getInstance().w(TAG, "<hangupHedgeLoser> hang up duplicated session, sessionId="
+                + loserCtx.sessionId);
+        int errCode = makeAnswer(token, loserCtx.sessionId, loserCtx.callerId, loserCtx.calleeId,
+                                identityId, false);
+        if (errCode != ErrCode.XOK) {
+            ALog.getInstance().e(TAG, "<hangupHedgeLoser> failure, errCode=" + errCode);
+        }
+    }
+
+    /*
+     * @brief 发送一次呼叫请求，并且解析返回结果
+     */
+    private DialAttempt doMakeCall(final String requestUrl, final String token,
+                                   final byte[] bodyData, int bodyLength,
+                                   final String identityId, final String peerId,
+                                   final String idempotencyKey, final CancelToken cancelToken) {
+        Map<String, String> params = new HashMap();
+        CallReqResult callReqResult = new CallReqResult();
+        DialAttempt attempt = new DialAttempt();
+        attempt.mResult = callReqResult;
+        long startTime = System.currentTimeMillis();
+
+        // 呼叫请求返回结果直接从回应数据流中解析
+        final CallkitContext rtcInfo = new CallkitContext();
+        IRespDataDecoder decoder = new IRespDataDecoder() {
+            @Override
+            public void decodeData(JsonReader reader) throws IOException {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "appId":
+                            rtcInfo.appId = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "channelName":
+                            rtcInfo.channelName = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "rtcToken":
+                            rtcInfo.rtcToken = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "uid":
+                            rtcInfo.uid = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "peerUid":
+                            rtcInfo.peerUid = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "deviceAlias":
+                            rtcInfo.deviceAlias = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "sessionId":
+                            rtcInfo.sessionId = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "callStatus":
+                            rtcInfo.callStatus = JsonStreamUtil.nextInt(reader, -1);
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
+                }
+                reader.endObject();
+            }
+        };
+        rtcInfo.callStatus = -1;
 
         AgoraService.ResponseObj responseObj = requestToServer(requestUrl, "POST",
-                token, params, body);
+                token, params, bodyData, bodyLength, idempotencyKey, decoder, cancelToken);
         if (responseObj == null) {
             ALog.getInstance().e(TAG, "<makeCall> failure with no response!");
             callReqResult.mErrCode = ErrCode.XERR_HTTP_NO_RESPONSE;
-            return callReqResult;
+            return attempt;
         }
         ALog.getInstance().d(TAG, "<makeCall> responseObj=" + responseObj.toString());
+        attempt.mCostTime = System.currentTimeMillis() - startTime;
+        attempt.mResponded = (responseObj.mErrorCode == ErrCode.XOK);
         if (responseObj.mErrorCode != ErrCode.XOK) {
             ALog.getInstance().e(TAG, "<makeCall> failure, mErrorCode=" + responseObj.mErrorCode);
-            callReqResult.mErrCode = ErrCode.XERR_HTTP_RESP_DATA;
-            return callReqResult;
+            callReqResult.mErrCode = (responseObj.mErrorCode == ErrCode.XERR_HTTP_CANCELED)
+                    ? ErrCode.XERR_HTTP_CANCELED : ErrCode.XERR_HTTP_RESP_DATA;
+            return attempt;
         }
 
         if (responseObj.mRespCode == RESP_CODE_IN_TALKING) {
             ALog.getInstance().e(TAG, "<makeCall> bad status IN_TALKING, mRespCode="
                     + responseObj.mRespCode);
             callReqResult.mErrCode = ErrCode.XERR_CALLKIT_PEER_BUSY;
-            return callReqResult;
+            return attempt;
 
         } else if (responseObj.mRespCode == RESP_CODE_ANSWER) {
             ALog.getInstance().e(TAG, "<makeCall> bad status ANSWER");
             callReqResult.mErrCode = ErrCode.XERR_CALLKIT_ANSWER;
-            return callReqResult;
+            return attempt;
 
         } else if (responseObj.mRespCode == RESP_CODE_HANGUP) {
             ALog.getInstance().e(TAG, "<makeCall> bad status HANGUP");
             callReqResult.mErrCode = ErrCode.XERR_CALLKIT_HANGUP;
-            return callReqResult;
+            return attempt;
 
         } else if (responseObj.mRespCode == RESP_CODE_ANSWER_TIMEOUT) {
             ALog.getInstance().e(TAG, "<makeCall> bad status ANSWER_TIMEOUT");
             callReqResult.mErrCode = ErrCode.XERR_CALLKIT_TIMEOUT;
-            return callReqResult;
+            return attempt;
 
         } else if (responseObj.mRespCode == RESP_CODE_CALL) {
             ALog.getInstance().e(TAG, "<makeCall> bad status CALL");
             callReqResult.mErrCode = ErrCode.XERR_CALLKIT_LOCAL_BUSY;
-            return callReqResult;
+            return attempt;
 
         } else if (responseObj.mRespCode == RESP_CODE_INVALID_ANSWER) {
             ALog.getInstance().e(TAG, "<makeCall> bad status INVALID_ANSWER");
             callReqResult.mErrCode = ErrCode.XERR_CALLKIT_ERR_OPT;
-            return callReqResult;
+            return attempt;
 
         } else if (responseObj.mRespCode == RESP_CODE_PEER_UNREG) {
             ALog.getInstance().e(TAG, "<makeCall> bad status PEER_UNREG");
             callReqResult.mErrCode = ErrCode.XERR_CALLKIT_PEER_UNREG;
-            return callReqResult;
+            return attempt;
 
         } else if (responseObj.mRespCode != ErrCode.XOK) {
             ALog.getInstance().e(TAG, "<makeCall> status failure, mRespCode="
                     + responseObj.mRespCode);
             callReqResult.mErrCode = ErrCode.XERR_HTTP_RESP_CODE;
-            return callReqResult;
+            return attempt;
         }
 
-        // 解析呼叫请求返回结果
-        CallkitContext rtcInfo = new CallkitContext();
+        // 呼叫请求返回结果已经在读取回应数据时解析
+        if (!responseObj.mHasData) {
+            ALog.getInstance().e(TAG, "<makeCall> failure, no data object");
+            callReqResult.mErrCode =  ErrCode.XERR_HTTP_JSON_PARSE;
+            return attempt;
+        }
         try {
-            JSONObject dataObj = responseObj.mRespJsonObj.getJSONObject("data");
-            rtcInfo.appId = parseJsonStringValue(dataObj, "appId", null);
             rtcInfo.callerId = identityId;
             rtcInfo.calleeId = peerId;
-            rtcInfo.channelName = parseJsonStringValue(dataObj, "channelName", null);
-            rtcInfo.rtcToken = parseJsonStringValue(dataObj, "rtcToken", null);
-            rtcInfo.uid = parseJsonStringValue(dataObj, "uid", null);
-            rtcInfo.peerUid = parseJsonStringValue(dataObj, "peerUid", null);
-            rtcInfo.deviceAlias = parseJsonStringValue(dataObj, "deviceAlias", null);
-            rtcInfo.sessionId = parseJsonStringValue(dataObj, "sessionId", null);
-            rtcInfo.callStatus = parseJsonIntValue(dataObj, "callStatus", -1);
-
             if (rtcInfo.uid != null) {
                 rtcInfo.mLocalUid = Integer.valueOf(rtcInfo.uid);
             }
@@ -212,13 +698,40 @@ public class AgoraService {
             callReqResult.mErrCode = ErrCode.XOK;
             callReqResult.mCallkitCtx = rtcInfo;
 
-        } catch (JSONException e) {
+        } catch (NumberFormatException e) {
             e.printStackTrace();
             callReqResult.mErrCode =  ErrCode.XERR_HTTP_JSON_PARSE;
-            return callReqResult;
+            return attempt;
         }
 
-        return callReqResult;
+        return attempt;
+    }
+
+    /*
+     * @brief 收到服务器回应的呼叫请求耗时计入统计，作为对冲延时的依据
+     */
+    private void onDialAttemptDone(final DialAttempt attempt) {
+        if (attempt.mResponded) {
+            mDialLatency.add(attempt.mCostTime);
+        }
+    }
+
+    /*
+     * @brief 根据最近的呼叫请求耗时计算对冲延时
+     * @return 对冲延时，<=0 表示不进行对冲
+     */
+    private long getDialHedgeDelay() {
+        int percentile;
+        synchronized (mHedgeLock) {
+            percentile = mHedgePercentile;
+        }
+        if (percentile <= 0) {
+            return 0;
+        }
+        if (mDialLatency.size() < HEDGE_MIN_SAMPLES) {   // 样本太少，百分位数没有参考意义
+            return 0;
+        }
+        return Math.max(mDialLatency.percentile(percentile), HEDGE_MIN_DELAY);
     }
 
     /*
@@ -232,39 +745,44 @@ public class AgoraService {
     public int makeAnswer(final String token,
                           final String sessionId, final String callerId, final String calleeId,
                           final String localId, final boolean isAccept)  {
+        return makeAnswer(token, sessionId, callerId, calleeId, localId, isAccept, null);
+    }
+
+    public int makeAnswer(final String token,
+                          final String sessionId, final String callerId, final String calleeId,
+                          final String localId, final boolean isAccept,
+                          final CancelToken cancelToken)  {
         Map<String, String> params = new HashMap();
-        JSONObject body = new JSONObject();
 
         // 请求URL
         String requestUrl = mCallkitBaseUrl + "/answer";
 
-        // body内容
-        JSONObject header = new JSONObject();
-        try {
-            header.put("traceId", sessionId + "-" + callerId + "-" + calleeId);
-            header.put("timestamp", System.currentTimeMillis());
-            body.put("header", header);
-            JSONObject payload = new JSONObject();
-            payload.put("callerId", callerId);
-            payload.put("calleeId", calleeId);
-            payload.put("localId", localId);
-            payload.put("sessionId", sessionId);
-            payload.put("answer", isAccept ? 0 : 1);
-            body.put("payload", payload);
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return ErrCode.XERR_HTTP_JSON_WRITE;
-        }
+        // body内容，直接编码到当前线程复用的缓冲区中
+        JsonBodyWriter body = JsonBodyWriter.obtain();
+        body.beginObject()
+                .beginObject(KEY_HEADER)
+                    .field(KEY_TRACE_ID, sessionId + "-" + callerId + "-" + calleeId)
+                    .field(KEY_TIMESTAMP, System.currentTimeMillis())
+                .endObject()
+                .beginObject(KEY_PAYLOAD)
+                    .field(KEY_CALLER_ID, callerId)
+                    .field(KEY_CALLEE_ID, calleeId)
+                    .field(KEY_LOCAL_ID, localId)
+                    .field(KEY_SESSION_ID, sessionId)
+                    .field(KEY_ANSWER, isAccept ? 0 : 1)
+                .endObject()
+            .endObject();
 
         AgoraService.ResponseObj responseObj = requestToServer(requestUrl, "POST",
-                token, params, body);
+                token, params, body, null, cancelToken);
         if (responseObj == null) {
             ALog.getInstance().e(TAG, "<makeAnswer> failure with no response!");
             return ErrCode.XERR_HTTP_NO_RESPONSE;
         }
         if (responseObj.mErrorCode != ErrCode.XOK) {
             ALog.getInstance().e(TAG, "<makeAnswer> failure, mErrorCode=" + responseObj.mErrorCode);
-            return ErrCode.XERR_CALLKIT_ANSWER;
+            return (responseObj.mErrorCode == ErrCode.XERR_HTTP_CANCELED)
+                    ? ErrCode.XERR_HTTP_CANCELED : ErrCode.XERR_CALLKIT_ANSWER;
         }
         if (responseObj.mRespCode != ErrCode.XOK) {
             ALog.getInstance().e(TAG, "<makeAnswer> failure, mRespCode="
@@ -276,7 +794,68 @@ public class AgoraService {
     }
 
 
+    //////////////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Methods for File Module ////////////////////////////////
+    //////////////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 上传内存中的文件内容
+     */
+    public int uploadFile(final String uploadUrl, final String token, final String fileName,
+                          final String fileDir, boolean rename, final byte[] fileContent,
+                          final String contentType) {
+        return uploadFile(uploadUrl, token, fileName, fileDir, rename,
+                new ByteArrayInputStream(fileContent), fileContent.length, contentType, null);
+    }
+
+    /*
+     * @brief 流式上传文件，文件内容通过固定大小的缓冲区从输入流中读取，不会整体加载到内存中
+     *        该函数是阻塞等待调用，因此最好是在工作线程中执行
+     * @param uploadUrl : 上传地址
+     * @param fileName : 服务器上保存的文件名
+     * @param fileDir : 服务器上保存的目录
+     * @param rename : 文件已经存在时是否重命名
+     * @param fileStream : 文件内容输入流，由调用者负责关闭，
+     *                     例如 FileInputStream 或者 Channels.newInputStream(fileChannel)
+     * @param fileLength : 文件长度，<0 表示长度未知，使用分块传输模式
+     * @param contentType : 文件的MIME类型，例如 "image/jpeg"，为null时使用 "application/octet-stream"
+     * @param cancelToken : 取消标记，可以为null
+     * @return 错误码
+     */
+    public int uploadFile(final String uploadUrl, final String token, final String fileName,
+                          final String fileDir, boolean rename, final InputStream fileStream,
+                          long fileLength, final String contentType, final CancelToken cancelToken) {
+        String fileType = (contentType != null) ? contentType : "application/octet-stream";
+        AgoraService.ResponseObj responseObj = requestFileToServer(uploadUrl, token, fileName,
+                fileDir, rename, fileStream, fileLength, fileType, cancelToken);
+        if (responseObj.mErrorCode != ErrCode.XOK) {
+            ALog.getInstance().e(TAG, "<uploadFile> failure, mErrorCode=" + responseObj.mErrorCode);
+            return responseObj.mErrorCode;
+        }
+        if (responseObj.mRespCode != ErrCode.XOK) {
+            ALog.getInstance().e(TAG, "<uploadFile> failure, mRespCode=" + responseObj.mRespCode);
+            return ErrCode.XERR_HTTP_RESP_CODE;
+        }
 
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 可续传的分块上传，用于抓图、日志等较大的文件
+     *        上传进度保存在 journalDir 中，失败或者进程重启后用相同参数再次调用，从服务器确认的偏移量继续上传
+     *        该函数是阻塞等待调用，因此最好是在工作线程中执行
+     * @param uploadUrl : 分块上传地址，服务端约定见 ResumableUploader
+     * @param file : 要上传的文件
+     * @param journalDir : 上传日志存放目录，通常是应用的私有目录，例如 context.getFilesDir()
+     * @param cancelToken : 取消标记，可以为null；取消后保留上传进度
+     * @return 错误码，XOK 表示整个文件上传完成
+     */
+    public int uploadFileResumable(final String uploadUrl, final String token, final File file,
+                                   final File journalDir, final CancelToken cancelToken) {
+        ResumableUploader uploader = new ResumableUploader(mTransport, journalDir);
+        int errCode = uploader.upload(uploadUrl, token, file, cancelToken);
+        ALog.getInstance().d(TAG, "<uploadFileResumable> done, file=" + file + ", errCode=" + errCode);
+        return errCode;
+    }
 
 
     //////////////////////////////////////////////////////////////////////////////////
@@ -288,6 +867,10 @@ public class AgoraService {
      * @return 错误码
      */
     public int accountRegister(final String userName)  {
+        return accountRegister(userName, null);
+    }
+
+    public int accountRegister(final String userName, final CancelToken cancelToken)  {
         Map<String, String> params = new HashMap();
         JSONObject body = new JSONObject();
         ALog.getInstance().d(TAG, "<accountRegister> [Enter] userName=" + userName);
@@ -306,7 +889,7 @@ public class AgoraService {
         }
 
         AgoraService.ResponseObj responseObj = requestToServer(requestUrl, "POST",
-                null, params, body);
+                null, params, body, null, cancelToken);
         if (responseObj == null) {
             ALog.getInstance().e(TAG, "<accountRegister> [EXIT] failure with no response!");
             return ErrCode.XERR_HTTP_NO_RESPONSE;
@@ -319,7 +902,8 @@ public class AgoraService {
         if (responseObj.mErrorCode != ErrCode.XOK) {
             ALog.getInstance().e(TAG, "<accountRegister> [EXIT] failure, mErrorCode="
                     + responseObj.mErrorCode);
-            return ErrCode.XERR_HTTP_RESP_DATA;
+            return (responseObj.mErrorCode == ErrCode.XERR_HTTP_CANCELED)
+                    ? ErrCode.XERR_HTTP_CANCELED : ErrCode.XERR_HTTP_RESP_DATA;
         }
 
         ALog.getInstance().d(TAG, "<accountRegister> [EXIT] successful");
@@ -369,10 +953,99 @@ public class AgoraService {
         }
     }
 
+    /*
+     * @brief 解析匿名登录回应中的 "info" 对象，包括其中的 "pool" 和 "proof" 对象
+     */
+    private void decodeLoginInfo(JsonReader reader, LoginResult loginResult) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "account":
+                    loginResult.mAnonymosName = JsonStreamUtil.nextString(reader, null);
+                    break;
+                case "endpoint":
+                    loginResult.mEndpoint = JsonStreamUtil.nextString(reader, null);
+                    break;
+                case "region":
+                    loginResult.mRegion = JsonStreamUtil.nextString(reader, null);
+                    break;
+                case "expiration":
+                    loginResult.mExpiration = JsonStreamUtil.nextLong(reader, -1);
+                    break;
+                case "granwin_token":
+                    loginResult.mPlatformToken = JsonStreamUtil.nextString(reader, null);
+                    break;
+
+                case "pool":
+                    if (!JsonStreamUtil.isObject(reader)) {
+                        break;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "identifier":
+                                loginResult.mPoolIdentifier = JsonStreamUtil.nextString(reader, null);
+                                break;
+                            case "identityId":
+                                loginResult.mPoolIdentityId = JsonStreamUtil.nextString(reader, null);
+                                break;
+                            case "identityPoolId":
+                                loginResult.mIdentityPoolId = JsonStreamUtil.nextString(reader, null);
+                                break;
+                            case "token":
+                                loginResult.mPoolToken = JsonStreamUtil.nextString(reader, null);
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }
+                    reader.endObject();
+                    break;
+
+                case "proof":
+                    if (!JsonStreamUtil.isObject(reader)) {
+                        break;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "accessKeyId":
+                                loginResult.mProofAccessKeyId = JsonStreamUtil.nextString(reader, null);
+                                break;
+                            case "secretKey":
+                                loginResult.mProofSecretKey = JsonStreamUtil.nextString(reader, null);
+                                break;
+                            case "sessionToken":
+                                loginResult.mProofSessionToken = JsonStreamUtil.nextString(reader, null);
+                                break;
+                            case "sessionExpiration":
+                                loginResult.mProofSessionExpiration = JsonStreamUtil.nextLong(reader, -1);
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }
+                    reader.endObject();
+                    break;
+
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
     public LoginResult accountLogin(final String userName)  {
+        return accountLogin(userName, null);
+    }
+
+    public LoginResult accountLogin(final String userName, final CancelToken cancelToken)  {
         Map<String, String> params = new HashMap();
         JSONObject body = new JSONObject();
-        LoginResult loginResult = new LoginResult();
+        final LoginResult loginResult = new LoginResult();
         ALog.getInstance().d(TAG, "<accountLogin> [Enter] userName=" + userName);
 
         // 请求URL
@@ -381,9 +1054,31 @@ public class AgoraService {
         // param 内容
         params.put("username", userName);
 
+        // 匿名登录请求返回结果直接从回应数据流中解析，只有 "info" 对象存在才算有效
+        final boolean[] hasInfo = new boolean[] { false };
+        IRespDataDecoder decoder = new IRespDataDecoder() {
+            @Override
+            public void decodeData(JsonReader reader) throws IOException {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!reader.nextName().equals("info")) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    if (JsonStreamUtil.isObject(reader)) {   // 不是对象时已经被跳过
+                        hasInfo[0] = true;
+                        decodeLoginInfo(reader, loginResult);
+                    }
+                }
+                reader.endObject();
+            }
+        };
+        loginResult.mExpiration = -1;
+        loginResult.mProofSessionExpiration = -1;
+
         // 发送请求包
         AgoraService.ResponseObj responseObj = requestToServer(requestUrl, "POST",
-                null, params, body);
+                null, params, body, decoder, cancelToken);
         if (responseObj == null) {
             ALog.getInstance().e(TAG, "<accountLogin> [EXIT] failure with no response!");
             loginResult.mErrCode = ErrCode.XERR_HTTP_NO_RESPONSE;
@@ -398,52 +1093,29 @@ public class AgoraService {
         if (responseObj.mErrorCode != ErrCode.XOK) {
             ALog.getInstance().e(TAG, "<accountLogin> [EXIT] failure, mErrorCode="
                     + responseObj.mErrorCode);
-            loginResult.mErrCode = ErrCode.XERR_HTTP_RESP_DATA;
+            loginResult.mErrCode = (responseObj.mErrorCode == ErrCode.XERR_HTTP_CANCELED)
+                    ? ErrCode.XERR_HTTP_CANCELED : ErrCode.XERR_HTTP_RESP_DATA;
             return loginResult;
         }
 
-        // 解析匿名登录请求返回结果
-        try {
-            JSONObject dataObj = responseObj.mRespJsonObj.getJSONObject("data");
-            if (dataObj == null) {
-                ALog.getInstance().e(TAG, "<accountLogin> [EXIT] failure, no dataObj");
-                loginResult.mErrCode = ErrCode.XERR_HTTP_RESP_DATA;
-                return loginResult;
-            }
-
-            loginResult.mAccount = userName;
-
-            JSONObject infoObj = dataObj.getJSONObject("info");
-            loginResult.mAnonymosName = parseJsonStringValue(infoObj, "account", null);
-            loginResult.mEndpoint = parseJsonStringValue(infoObj, "endpoint", null);
-            loginResult.mRegion = parseJsonStringValue(infoObj, "region", null);
-            loginResult.mExpiration = parseJsonLongValue(infoObj, "expiration", -1);
-            loginResult.mPlatformToken = parseJsonStringValue(infoObj, "granwin_token", null);
-
-            JSONObject poolObj = infoObj.getJSONObject("pool");
-            loginResult.mPoolIdentifier = parseJsonStringValue(poolObj, "identifier", null);
-            loginResult.mPoolIdentityId = parseJsonStringValue(poolObj,"identityId", null);
-            loginResult.mIdentityPoolId = parseJsonStringValue(poolObj,"identityPoolId", null);
-            loginResult.mPoolToken = parseJsonStringValue(poolObj,"token", null);
-
-            JSONObject proofObj = infoObj.getJSONObject("proof");
-            loginResult.mProofAccessKeyId = parseJsonStringValue(proofObj, "accessKeyId", null);
-            loginResult.mProofSecretKey = parseJsonStringValue(proofObj,"secretKey", null);
-            loginResult.mProofSessionToken = parseJsonStringValue(proofObj,"sessionToken", null);
-            loginResult.mProofSessionExpiration = parseJsonLongValue(proofObj,"sessionExpiration", -1);
-
-            // 拼接user映射的虚拟设备thing name
-            loginResult.mInventDeviceName = AgoraLowService.getInstance().queryInventDeviceName(
-                                                loginResult.mPlatformToken);
-
-            loginResult.mErrCode = ErrCode.XOK;
-
-        } catch (JSONException e) {
-            e.printStackTrace();
+        // 匿名登录请求返回结果已经在读取回应数据时解析
+        if (!responseObj.mHasData) {
+            ALog.getInstance().e(TAG, "<accountLogin> [EXIT] failure, no dataObj");
+            loginResult.mErrCode = ErrCode.XERR_HTTP_RESP_DATA;
+            return loginResult;
+        }
+        if (!hasInfo[0]) {
+            ALog.getInstance().e(TAG, "<accountLogin> [EXIT] failure, no infoObj");
             loginResult.mErrCode = ErrCode.XERR_HTTP_JSON_PARSE;
-            ALog.getInstance().e(TAG, "<accountLogin> [EXIT] failure, exp=" + e.toString());
             return loginResult;
         }
+        loginResult.mAccount = userName;
+
+        // 拼接user映射的虚拟设备thing name
+        loginResult.mInventDeviceName = AgoraLowService.getInstance().queryInventDeviceName(
+                                            loginResult.mPlatformToken);
+
+        loginResult.mErrCode = ErrCode.XOK;
 
         ALog.getInstance().d(TAG, "<accountLogin> [EXIT] successful, loginResult="
                 + loginResult.toString());
@@ -464,13 +1136,15 @@ public class AgoraService {
         public String mScope;
         public String mClientId;
         public String mSecretKey;
+        public String mRefreshToken;        ///< grant_type 为 refresh_token 时使用的刷新凭证
 
         @Override
         public String toString() {
             String infoText = "{ mGrantType=" + mGrantType
                     + ", mUserName=" + mUserName + ", mPassword=" + mPassword
                     + ", mScope=" + mScope + ", mClientId=" + mClientId
-                    + ", mSecretKey=" + mSecretKey + " }";
+                    + ", mSecretKey=" + mSecretKey
+                    + ", mRefreshToken=" + mRefreshToken + " }";
             return infoText;
         }
     }
@@ -494,7 +1168,12 @@ public class AgoraService {
     }
 
     public AccountTokenInfo accountGetToken(final RetrieveTokenParam retrieveParam)  {
-        AccountTokenInfo retreieveResult = new AccountTokenInfo();
+        return accountGetToken(retrieveParam, null);
+    }
+
+    public AccountTokenInfo accountGetToken(final RetrieveTokenParam retrieveParam,
+                                            final CancelToken cancelToken)  {
+        final AccountTokenInfo retreieveResult = new AccountTokenInfo();
         Map<String, String> params = new HashMap();
         JSONObject body = new JSONObject();
         ALog.getInstance().d(TAG, "<accountGetToken> [Enter] param=" + retrieveParam.toString());
@@ -528,6 +1207,10 @@ public class AgoraService {
                 body.put("client_secret", retrieveParam.mSecretKey);
             }
 
+            if (retrieveParam.mRefreshToken != null) {
+                body.put("refresh_token", retrieveParam.mRefreshToken);
+            }
+
         } catch (JSONException e) {
             e.printStackTrace();
             retreieveResult.mErrCode = ErrCode.XERR_HTTP_JSON_WRITE;
@@ -535,8 +1218,40 @@ public class AgoraService {
             return retreieveResult;
         }
 
+        // Token请求返回结果直接从回应数据流中解析
+        IRespDataDecoder decoder = new IRespDataDecoder() {
+            @Override
+            public void decodeData(JsonReader reader) throws IOException {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "scope":
+                            retreieveResult.mScope = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "token_type":
+                            retreieveResult.mTokenType = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "access_token":
+                            retreieveResult.mAccessToken = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "refresh_token":
+                            retreieveResult.mRefreshToken = JsonStreamUtil.nextString(reader, null);
+                            break;
+                        case "expires_in":
+                            retreieveResult.mExpriesIn = JsonStreamUtil.nextLong(reader, -1);
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
+                }
+                reader.endObject();
+            }
+        };
+        retreieveResult.mExpriesIn = -1;
+
         AgoraService.ResponseObj responseObj = requestToServer(requestUrl, "POST",
-                null, params, body);
+                null, params, body, decoder, cancelToken);
         if (responseObj == null) {
             ALog.getInstance().e(TAG, "<accountGetToken> [EXIT] failure with no response!");
             retreieveResult.mErrCode = ErrCode.XERR_HTTP_NO_RESPONSE;
@@ -551,33 +1266,19 @@ public class AgoraService {
         if (responseObj.mErrorCode != ErrCode.XOK) {
             ALog.getInstance().e(TAG, "<accountGetToken> [EXIT] failure, mErrorCode="
                     + responseObj.mErrorCode);
-            retreieveResult.mErrCode = ErrCode.XERR_HTTP_RESP_DATA;
+            retreieveResult.mErrCode = (responseObj.mErrorCode == ErrCode.XERR_HTTP_CANCELED)
+                    ? ErrCode.XERR_HTTP_CANCELED : ErrCode.XERR_HTTP_RESP_DATA;
             return retreieveResult;
         }
 
 
-        // 解析呼叫请求返回结果
-        try {
-            JSONObject dataObj = responseObj.mRespJsonObj.getJSONObject("data");
-            if (dataObj == null) {
-                ALog.getInstance().e(TAG, "<accountGetToken> [EXIT] failure, no dataObj");
-                retreieveResult.mErrCode = ErrCode.XERR_HTTP_RESP_DATA;
-                return retreieveResult;
-            }
-
-            retreieveResult.mScope = parseJsonStringValue(dataObj, "scope", null);
-            retreieveResult.mTokenType = parseJsonStringValue(dataObj, "token_type", null);
-            retreieveResult.mAccessToken = parseJsonStringValue(dataObj, "access_token", null);
-            retreieveResult.mRefreshToken = parseJsonStringValue(dataObj, "refresh_token", null);
-            retreieveResult.mExpriesIn = parseJsonLongValue(dataObj, "expires_in", -1);
-            retreieveResult.mErrCode = ErrCode.XOK;
-
-        } catch (JSONException e) {
-            e.printStackTrace();
-            retreieveResult.mErrCode = ErrCode.XERR_HTTP_JSON_PARSE;
-            ALog.getInstance().e(TAG, "<accountGetToken> [EXIT] failure, exp=" + e.toString());
+        // Token请求返回结果已经在读取回应数据时解析
+        if (!responseObj.mHasData) {
+            ALog.getInstance().e(TAG, "<accountGetToken> [EXIT] failure, no dataObj");
+            retreieveResult.mErrCode = ErrCode.XERR_HTTP_RESP_DATA;
             return retreieveResult;
         }
+        retreieveResult.mErrCode = ErrCode.XOK;
 
         ALog.getInstance().d(TAG, "<accountGetToken> [EXIT] successful, retreieveResult="
                 + retreieveResult.toString());
@@ -596,24 +1297,29 @@ public class AgoraService {
         public AccountMgr.AccountInfo mAccountInfo = new AccountMgr.AccountInfo();
     }
      public AnonymousLoginResult  anonymousLogin(final RetrieveTokenParam retrieveParam)  {
+        return anonymousLogin(retrieveParam, null);
+    }
+
+    public AnonymousLoginResult  anonymousLogin(final RetrieveTokenParam retrieveParam,
+                                                final CancelToken cancelToken)  {
         AnonymousLoginResult anonymousResult = new AnonymousLoginResult();
 
         // 登录
-        LoginResult loginResult = accountLogin(retrieveParam.mUserName);
+        LoginResult loginResult = accountLogin(retrieveParam.mUserName, cancelToken);
         if (loginResult.mErrCode != ErrCode.XOK) {
             anonymousResult.mErrCode = loginResult.mErrCode;
             return anonymousResult;
         }
 
         // 注册
-        int errCode = accountRegister(retrieveParam.mUserName);
+        int errCode = accountRegister(retrieveParam.mUserName, cancelToken);
         if (errCode != ErrCode.XOK) {
             anonymousResult.mErrCode = errCode;
             return anonymousResult;
         }
 
         // 获取Token
-        AccountTokenInfo tokenResult = accountGetToken(retrieveParam);
+        AccountTokenInfo tokenResult = accountGetToken(retrieveParam, cancelToken);
         if (tokenResult.mErrCode != ErrCode.XOK) {
             anonymousResult.mErrCode = tokenResult.mErrCode;
             return anonymousResult;
@@ -648,348 +1354,256 @@ public class AgoraService {
 
 
     ////////////////////////////////////////////////////////////////////////
-    ///////////////////////////// Inner Methods ///////////////////////////
+    ///////////////////////// Asynchronous Methods /////////////////////////
     ////////////////////////////////////////////////////////////////////////
     /*
-     * @brief 给服务器发送HTTP请求，并且等待接收回应数据
-     *        该函数是阻塞等待调用，因此最好是在工作线程中执行
+     * @brief 以下方法是对应阻塞方法的异步版本，请求在内部线程池中执行，立即返回请求对象
+     *        请求完成后在请求线程中回调结果，callback可以为null，也可以通过 get() 等待结果
+     *        调用返回对象的 cancel() 会立即断开正在进行的连接，被取消的请求不会回调
      */
-    private synchronized AgoraService.ResponseObj requestToServer(String baseUrl, String method, String token,
-                                                                    Map<String, String> params, JSONObject body) {
-
-        AgoraService.ResponseObj responseObj = new AgoraService.ResponseObj();
-
-        if (!baseUrl.startsWith("http://") && !baseUrl.startsWith("https://")) {
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_URL;
-            ALog.getInstance().e(TAG, "<requestToServer> Invalid url=" + baseUrl);
-            return responseObj;
-        }
-
-        // 拼接URL和请求参数生成最终URL
-        String realURL = baseUrl;
-        if (!params.isEmpty()) {
-            Iterator<Map.Entry<String, String>> it = params.entrySet().iterator();
-            Map.Entry<String, String> entry =  it.next();
-            realURL += "?" + entry.getKey() + "=" + entry.getValue();
-            while (it.hasNext()) {
-                entry =  it.next();
-                realURL += "&" + entry.getKey() + "=" + entry.getValue();
+    public AsyncRequest<CallReqResult> makeCallAsync(final String token, final String appid,
+                                                      final String identityId, final String peerId,
+                                                      final String attachMsg,
+                                                      final AsyncRequest.ICallback<CallReqResult> callback) {
+        final CancelToken cancelToken = new CancelToken();
+        AsyncRequest<CallReqResult> request = new AsyncRequest<>(new Callable<CallReqResult>() {
+            @Override
+            public CallReqResult call() {
+                return makeCall(token, appid, identityId, peerId, attachMsg, cancelToken);
             }
-        }
-
-        // 支持json格式消息体
-        String realBody = String.valueOf(body);
-
-        ALog.getInstance().d(TAG, "<requestToServer> requestUrl=" + realURL
-                + ", requestBody="  + realBody.toString());
-
-        //开启子线程来发起网络请求
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-        StringBuilder response = new StringBuilder();
-
+        }, cancelToken, callback);
+        mAsyncExecutor.execute(request);
+        return request;
+    }
 
-        //同步方式请求HTTP，因此请求操作最好放在工作线程中进行
-        try {
-            java.net.URL url = new URL(realURL);
-            connection = (HttpURLConnection) url.openConnection();
-            // 设置token
-            if ((token != null) && (!token.isEmpty())) {
-                connection.setRequestProperty("authorization", "Bearer " + token);
+    public AsyncRequest<Integer> makeAnswerAsync(final String token, final String sessionId,
+                                                 final String callerId, final String calleeId,
+                                                 final String localId, final boolean isAccept,
+                                                 final AsyncRequest.ICallback<Integer> callback) {
+        final CancelToken cancelToken = new CancelToken();
+        AsyncRequest<Integer> request = new AsyncRequest<>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return makeAnswer(token, sessionId, callerId, calleeId, localId, isAccept, cancelToken);
             }
+        }, cancelToken, callback);
+        mAsyncExecutor.execute(request);
+        return request;
+    }
 
-            switch (method) {
-                case "GET":
-                    connection.setRequestMethod("GET");
-                    break;
-
-                case "POST":
-                    connection.setDoOutput(true);
-                    connection.setDoInput(true);
-                    connection.setRequestMethod("POST");
-                    connection.setRequestProperty("Content-Type", "application/json;charset=utf-8");
-                    DataOutputStream os = new DataOutputStream(connection.getOutputStream());
-                    os.write(realBody.getBytes());  // 必须是原始数据流，否则中文乱码
-                    os.flush();
-                    os.close();
-                    break;
-
-                case "SET":
-                    connection.setRequestMethod("SET");
-                    break;
-
-                case "DELETE":
-                    connection.setRequestMethod("DELETE");
-                    break;
-
-                default:
-                    ALog.getInstance().e(TAG, "<requestToServer> Invalid method=" + method);
-                    responseObj.mErrorCode = ErrCode.XERR_HTTP_METHOD;
-                    return responseObj;
-            }
-            connection.setReadTimeout(HTTP_TIMEOUT);
-            connection.setConnectTimeout(HTTP_TIMEOUT);
-            responseObj.mRespCode = connection.getResponseCode();
-            if (responseObj.mRespCode != HttpURLConnection.HTTP_OK) {
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_CODE + responseObj.mRespCode;
-                ALog.getInstance().e(TAG, "<requestToServer> Error response code="
-                        + responseObj.mRespCode + ", errMessage=" + connection.getResponseMessage());
-                return responseObj;
+    public AsyncRequest<Integer> uploadFileAsync(final String uploadUrl, final String token,
+                                                 final String fileName, final String fileDir,
+                                                 final boolean rename, final InputStream fileStream,
+                                                 final long fileLength, final String contentType,
+                                                 final AsyncRequest.ICallback<Integer> callback) {
+        final CancelToken cancelToken = new CancelToken();
+        AsyncRequest<Integer> request = new AsyncRequest<>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return uploadFile(uploadUrl, token, fileName, fileDir, rename, fileStream,
+                                  fileLength, contentType, cancelToken);
             }
+        }, cancelToken, callback);
+        mAsyncExecutor.execute(request);
+        return request;
+    }
 
-            // 读取回应数据包
-            InputStream inputStream = connection.getInputStream();
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+    public AsyncRequest<Integer> uploadFileResumableAsync(final String uploadUrl, final String token,
+                                                          final File file, final File journalDir,
+                                                          final AsyncRequest.ICallback<Integer> callback) {
+        final CancelToken cancelToken = new CancelToken();
+        AsyncRequest<Integer> request = new AsyncRequest<>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return uploadFileResumable(uploadUrl, token, file, journalDir, cancelToken);
             }
+        }, cancelToken, callback);
+        mAsyncExecutor.execute(request);
+        return request;
+    }
 
-            JSONObject data = null;
-            try {
-                responseObj.mRespJsonObj = new JSONObject(response.toString());
-                responseObj.mRespCode = responseObj.mRespJsonObj.getInt("code");
-                responseObj.mTip = responseObj.mRespJsonObj.getString("timestamp");
-
-            } catch (JSONException e) {
-                e.printStackTrace();
-                ALog.getInstance().e(TAG, "<requestToServer> Invalied json=" + response);
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_DATA;
-                responseObj.mRespJsonObj = null;
+    public AsyncRequest<AccountTokenInfo> accountGetTokenAsync(final RetrieveTokenParam retrieveParam,
+                                                   final AsyncRequest.ICallback<AccountTokenInfo> callback) {
+        final CancelToken cancelToken = new CancelToken();
+        AsyncRequest<AccountTokenInfo> request = new AsyncRequest<>(new Callable<AccountTokenInfo>() {
+            @Override
+            public AccountTokenInfo call() {
+                return accountGetToken(retrieveParam, cancelToken);
             }
+        }, cancelToken, callback);
+        mAsyncExecutor.execute(request);
+        return request;
+    }
 
-            ALog.getInstance().d(TAG, "<requestToServer> finished, response="  + response.toString());
-            return responseObj;
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_CONNECT;
-            return responseObj;
-
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+    public AsyncRequest<AnonymousLoginResult> anonymousLoginAsync(final RetrieveTokenParam retrieveParam,
+                                               final AsyncRequest.ICallback<AnonymousLoginResult> callback) {
+        final CancelToken cancelToken = new CancelToken();
+        AsyncRequest<AnonymousLoginResult> request = new AsyncRequest<>(new Callable<AnonymousLoginResult>() {
+            @Override
+            public AnonymousLoginResult call() {
+                return anonymousLogin(retrieveParam, cancelToken);
             }
-            if (connection != null) {
-                connection.disconnect();
-            }
-        }
+        }, cancelToken, callback);
+        mAsyncExecutor.execute(request);
+        return request;
     }
 
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
     /*
-     * @brief 发送HTTP请求上传文件处理，并且等待接收回应数据
+     * @brief 给服务器发送HTTP请求，并且等待接收回应数据
      *        该函数是阻塞等待调用，因此最好是在工作线程中执行
+     *        不同端点的请求可以并发执行，同一端点超过并发数时排队等待
      */
-    private synchronized AgoraService.ResponseObj requestFileToServer(String baseUrl,
-                                                                      String token,
-                                                                      String fileName,
-                                                                      String fileDir,
-                                                                      boolean rename,
-                                                                      byte[] fileContent ) {
-
-        AgoraService.ResponseObj responseObj = new AgoraService.ResponseObj();
-
-        if (!baseUrl.startsWith("http://") && !baseUrl.startsWith("https://")) {
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_URL;
-            ALog.getInstance().e(TAG, "<requestFileToServer> Invalid url=" + baseUrl);
-            return responseObj;
-        }
-
-        // 拼接URL和请求参数生成最终URL
-        String realURL = baseUrl;
-        ALog.getInstance().d(TAG, "<requestFileToServer> requestUrl=" + realURL);
-
-
-        //开启子线程来发起网络请求
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-        StringBuilder response = new StringBuilder();
-
-
-        //同步方式请求HTTP，因此请求操作最好放在工作线程中进行
-        try {
-            java.net.URL url = new URL(realURL);
-            connection = (HttpURLConnection) url.openConnection();
-            // 设置token
-            if ((token != null) && (!token.isEmpty())) {
-                connection.setRequestProperty("authorization", "Bearer " + token);
-            }
-
-
-            final String NEWLINE = "\r\n";
-            final String PREFIX = "--";
-            final String BOUNDARY = "########";
-
-
-            // 调用HttpURLConnection对象setDoOutput(true)、setDoInput(true)、setRequestMethod("POST")；
-            connection.setDoInput(true);
-            connection.setDoOutput(true);
-            connection.setUseCaches(false);
-            connection.setRequestMethod("POST");
-
-            // 设置Http请求头信息；（Accept、Connection、Accept-Encoding、Cache-Control、Content-Type、User-Agent）
-            connection.setRequestProperty("Connection", "Keep-Alive");
-            connection.setRequestProperty("Accept", "*/*");
-            connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
-            connection.setRequestProperty("Cache-Control", "no-cache");
-            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
-
-            // 调用HttpURLConnection对象的connect()方法，建立与服务器的真实连接；
-            connection.connect();
-
-            // 调用HttpURLConnection对象的getOutputStream()方法构建输出流对象；
-            DataOutputStream os = new DataOutputStream(connection.getOutputStream());
-
-            //
-            // 写入文件头的键值信息
-            //
-            String fileKey = "file";
-            String fileContentType = "image/jpeg";
-            String fileHeader = "Content-Disposition: form-data; name=\"" + fileKey
-                                + "\"; filename=\"" + fileName + "\"" + NEWLINE;
-            String contentType = "Content-Type: " + fileContentType + NEWLINE;
-            String encodingType = "Content-Transfer-Encoding: binary" + NEWLINE;
-            os.writeBytes(PREFIX + BOUNDARY + NEWLINE);
-            os.writeBytes(fileHeader);
-            os.writeBytes(contentType);
-            os.writeBytes(encodingType);
-            os.writeBytes(NEWLINE);
-
-            //
-            // 写入文件内容
-            //
-            os.write(fileContent);
-            os.writeBytes(NEWLINE);
-
-            //
-            // 写入其他参数数据
-            //
-            Map<String, String> params = new HashMap<String, String>();
-            params.put("fileName", fileName);
-            params.put("fileDir", fileDir);
-            params.put("renameFile", (rename ? "true" : "false"));
-
-            for (Map.Entry<String, String> entry : params.entrySet()) {
-                String key = entry.getKey();
-                String value = params.get(key);
-
-                os.writeBytes(PREFIX + BOUNDARY + NEWLINE);
-                os.writeBytes("Content-Disposition: form-data; name=\"" + key + "\"" + NEWLINE);
-                os.writeBytes(NEWLINE);
-
-                os.write(value.getBytes());
-                os.writeBytes(NEWLINE);
-            }
+    private AgoraService.ResponseObj requestToServer(String baseUrl, String method, String token,
+                                                     Map<String, String> params, JSONObject body,
+                                                     IRespDataDecoder decoder, CancelToken cancelToken) {
+        // 支持json格式消息体
+        byte[] bodyData = String.valueOf(body).getBytes();  // 必须是原始数据流，否则中文乱码
+        return requestToServer(baseUrl, method, token, params, bodyData, bodyData.length, null,
+                                decoder, cancelToken);
+    }
 
-            //
-            // 写入整体结束所有的数据
-            //
-            os.writeBytes(PREFIX + BOUNDARY + PREFIX + NEWLINE);
-            os.flush();
-            os.close();
-
-            connection.setReadTimeout(HTTP_TIMEOUT);
-            connection.setConnectTimeout(HTTP_TIMEOUT);
-            responseObj.mRespCode = connection.getResponseCode();
-            if (responseObj.mRespCode != HttpURLConnection.HTTP_OK) {
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_CODE + responseObj.mRespCode;
-                ALog.getInstance().e(TAG, "<requestFileToServer> Error response code="
-                        + responseObj.mRespCode + ", errMessage=" + connection.getResponseMessage());
-                return responseObj;
-            }
+    /*
+     * @brief 使用预编码的请求包发送请求，写入器的缓冲区在请求过程中不能被修改
+     */
+    private AgoraService.ResponseObj requestToServer(String baseUrl, String method, String token,
+                                                     Map<String, String> params, JsonBodyWriter body,
+                                                     IRespDataDecoder decoder, CancelToken cancelToken) {
+        return requestToServer(baseUrl, method, token, params, body.getBuffer(), body.size(), null,
+                                decoder, cancelToken);
+    }
 
-            // 读取回应数据包
-            InputStream inputStream = connection.getInputStream();
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+    private AgoraService.ResponseObj requestToServer(String baseUrl, String method, String token,
+                                                     Map<String, String> params,
+                                                     byte[] bodyData, int bodyLength,
+                                                     String idempotencyKey,
+                                                     final IRespDataDecoder decoder, CancelToken cancelToken) {
+        final AgoraService.ResponseObj responseObj = new AgoraService.ResponseObj();
+
+        HttpTransport.Request request = new HttpTransport.Request();
+        request.mUrl = baseUrl;
+        request.mMethod = method;
+        request.mToken = token;
+        request.mParams = params;
+        request.mBody = bodyData;
+        request.mBodyLength = bodyLength;
+        request.mIdempotencyKey = idempotencyKey;
+        request.mCancelToken = cancelToken;
+
+        HttpTransport.Response response = mTransport.request(request, new HttpTransport.IResponseDecoder() {
+            @Override
+            public void decode(InputStream inputStream) throws IOException {
+                decodeResponse(new JsonReader(new InputStreamReader(inputStream, "UTF-8")),
+                               responseObj, decoder);
             }
+        });
+        fillResponse(response, responseObj);
 
-            JSONObject data = null;
-            try {
-                responseObj.mRespJsonObj = new JSONObject(response.toString());
-                responseObj.mRespCode = responseObj.mRespJsonObj.getInt("code");
-                responseObj.mTip = responseObj.mRespJsonObj.getString("timestamp");
-
-            } catch (JSONException e) {
-                e.printStackTrace();
-                ALog.getInstance().e(TAG, "<requestFileToServer> Invalied json=" + response);
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_DATA;
-                responseObj.mRespJsonObj = null;
-            }
+        ALog.getInstance().d(TAG, "<requestToServer> finished, response="  + responseObj.toString());
+        return responseObj;
+    }
 
-            ALog.getInstance().d(TAG, "<requestFileToServer> finished, response="  + response.toString());
-            return responseObj;
+    /*
+     * @brief 发送HTTP请求上传文件处理，并且等待接收回应数据
+     *        文件内容从输入流中通过固定大小的缓冲区流式上传，不会整体加载到内存中：
+     *        文件长度已知时使用固定长度流式模式，未知时使用分块传输模式。
+     *        该函数是阻塞等待调用，因此最好是在工作线程中执行
+     * @param fileStream : 文件内容输入流，由调用者负责关闭，
+     *                     例如 FileInputStream 或者 Channels.newInputStream(fileChannel)
+     * @param fileLength : 文件长度，<0 表示长度未知
+     * @param contentType : 文件的MIME类型
+     */
+    private AgoraService.ResponseObj requestFileToServer(String baseUrl,
+                                                         String token,
+                                                         String fileName,
+                                                         String fileDir,
+                                                         boolean rename,
+                                                         InputStream fileStream,
+                                                         long fileLength,
+                                                         String contentType,
+                                                         CancelToken cancelToken) {
+        final AgoraService.ResponseObj responseObj = new AgoraService.ResponseObj();
+
+        //
+        // 文件之后附带的其他参数数据
+        //
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("fileName", fileName);
+        params.put("fileDir", fileDir);
+        params.put("renameFile", (rename ? "true" : "false"));
+        MultipartBody body = new MultipartBody(UPLOAD_BOUNDARY, "file", fileName,
+                                               contentType, params);
+
+        HttpTransport.Response response = mTransport.upload(baseUrl, token, body, fileStream, fileLength,
+                new HttpTransport.IResponseDecoder() {
+                    @Override
+                    public void decode(InputStream inputStream) throws IOException {
+                        decodeResponse(new JsonReader(new InputStreamReader(inputStream, "UTF-8")),
+                                       responseObj, null);
+                    }
+                }, cancelToken);
+        fillResponse(response, responseObj);
+
+        ALog.getInstance().d(TAG, "<requestFileToServer> finished, response="  + responseObj.toString());
+        return responseObj;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_CONNECT;
-            return responseObj;
-
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (connection != null) {
-                connection.disconnect();
-            }
+    /*
+     * @brief 将传输层的结果填入回应数据，HTTP回应码不是200时没有回应数据包
+     */
+    private static void fillResponse(final HttpTransport.Response response,
+                                     AgoraService.ResponseObj responseObj) {
+        responseObj.mErrorCode = response.mErrorCode;
+        if (response.mHttpCode != HttpURLConnection.HTTP_OK) {
+            responseObj.mRespCode = response.mHttpCode;
         }
     }
 
-    int parseJsonIntValue(JSONObject jsonState, String fieldName, int defVal) {
-        try {
-            int value = jsonState.getInt(fieldName);
-            return value;
-
-        } catch (JSONException e) {
-            ALog.getInstance().e(TAG, "<parseJsonIntValue> "
-                    + ", fieldName=" + fieldName + ", exp=" + e.toString());
-            return defVal;
-        }
+    private static boolean isCancelled(final CancelToken cancelToken) {
+        return ((cancelToken != null) && cancelToken.isCancelled());
     }
 
-    long parseJsonLongValue(JSONObject jsonState, String fieldName, long defVal) {
-        try {
-            long value = jsonState.getLong(fieldName);
-            return value;
+    /*
+     * @brief 解析回应数据包，"code" 字段必须存在，"data" 对象交由解析器直接解析
+     */
+    private void decodeResponse(JsonReader reader, AgoraService.ResponseObj responseObj,
+                                IRespDataDecoder decoder) throws IOException {
+        boolean hasCode = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "code":
+                    responseObj.mRespCode = JsonStreamUtil.nextInt(reader, ErrCode.XERR_UNKNOWN);
+                    hasCode = true;
+                    break;
 
-        } catch (JSONException e) {
-            ALog.getInstance().e(TAG, "<parseJsonLongValue> "
-                    + ", fieldName=" + fieldName + ", exp=" + e.toString());
-            return defVal;
-        }
-    }
+                case "timestamp":
+                    responseObj.mTip = JsonStreamUtil.nextString(reader, null);
+                    break;
 
-    boolean parseJsonBoolValue(JSONObject jsonState, String fieldName, boolean defVal) {
-        try {
-            boolean value = jsonState.getBoolean(fieldName);
-            return value;
+                case "data":
+                    if (JsonStreamUtil.isObject(reader)) {
+                        responseObj.mHasData = true;
+                        if (decoder != null) {
+                            decoder.decodeData(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    break;
 
-        } catch (JSONException e) {
-            ALog.getInstance().e(TAG, "<parseJsonBoolValue> "
-                    + ", fieldName=" + fieldName + ", exp=" + e.toString());
-            return defVal;
+                default:
+                    reader.skipValue();
+                    break;
+            }
         }
-    }
+        reader.endObject();
 
-    String parseJsonStringValue(JSONObject jsonState, String fieldName, String defVal) {
-        try {
-            String value = jsonState.getString(fieldName);
-            return value;
-
-        } catch (JSONException e) {
-            ALog.getInstance().e(TAG, "<parseJsonIntValue> "
-                    + ", fieldName=" + fieldName + ", exp=" + e.toString());
-            return defVal;
+        if (!hasCode) {
+            throw new IllegalStateException("no field: code");
         }
     }
 
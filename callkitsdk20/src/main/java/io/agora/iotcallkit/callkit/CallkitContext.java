@@ -31,6 +31,61 @@ public class CallkitContext implements Cloneable {
         return null;
     }
 
+    /*
+     * @brief 复制当前上下文，用更新数据中的有效字段覆盖，当前对象保持不变
+     *        CallkitMgr 发布出去的上下文都是只读快照，每次更新都生成新的对象
+     * @param update : 更新数据，字符串为null 或者 整数小于0 的字段保持原值
+     */
+    public CallkitContext merge(final CallkitContext update) {
+        CallkitContext merged = clone();
+        if (update.appId != null) {
+            merged.appId = update.appId;
+        }
+        if (update.channelName != null) {
+            merged.channelName = update.channelName;
+        }
+        if (update.rtcToken != null) {
+            merged.rtcToken = update.rtcToken;
+        }
+        if (update.uid != null) {
+            merged.uid = update.uid;
+        }
+        if (update.peerUid != null) {
+            merged.peerUid = update.peerUid;
+        }
+        if (update.sessionId != null) {
+            merged.sessionId = update.sessionId;
+        }
+        if (update.callerId != null) {
+            merged.callerId = update.callerId;
+        }
+        if (update.calleeId != null) {
+            merged.calleeId = update.calleeId;
+        }
+        if (update.attachMsg != null) {
+            merged.attachMsg = update.attachMsg;
+        }
+        if (update.deviceAlias != null) {
+            merged.deviceAlias = update.deviceAlias;
+        }
+        if (update.cloudRcdStatus >= 0) {
+            merged.cloudRcdStatus = update.cloudRcdStatus;
+        }
+        if (update.callStatus >= 0) {
+            merged.callStatus = update.callStatus;
+        }
+        if (update.reason >= 0) {
+            merged.reason = update.reason;
+        }
+        if (update.uid != null && !update.uid.isEmpty()) {   // 这里的uid是本地localUid
+            merged.mLocalUid = Integer.valueOf(update.uid);
+        }
+        if (update.peerUid != null && !update.peerUid.isEmpty()) {    // 这里的uid是对端的peerUid
+            merged.mPeerUid = Integer.valueOf(update.peerUid);
+        }
+        return merged;
+    }
+
     @Override
     public String toString() {
         String infoText = "{\n appId=" + appId
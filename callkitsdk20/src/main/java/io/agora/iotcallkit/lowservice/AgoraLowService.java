@@ -7,13 +7,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
@@ -24,6 +21,8 @@ import java.util.Map;
 import io.agora.iotcallkit.ErrCode;
 import io.agora.iotcallkit.IAccountMgr;
 import io.agora.iotcallkit.logger.ALog;
+import io.agora.iotcallkit.transport.HttpTransport;
+import io.agora.iotcallkit.transport.TtlResponseCache;
 
 public class AgoraLowService {
 
@@ -115,7 +114,9 @@ public class AgoraLowService {
     //////////////////////// Constant Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "AgoraLowService";
-    private static final int HTTP_TIMEOUT = 8000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String EP_INVENT_DEVICE = "/device/invent/certificate/get";
+    private static final long INVENT_DEVICE_CACHE_TTL = 30 * 60 * 1000;   ///< 虚拟设备名称的缓存有效期
 
 
     ////////////////////////////////////////////////////////////////////////
@@ -127,10 +128,28 @@ public class AgoraLowService {
     private String mServerBaseUrl = "https://un2nfllop5.execute-api.cn-north-1.amazonaws.com.cn/Prod";
     private String mAppShadowProductKey = "EJImmKSK6m54R5l";  ///< APP影子虚拟设备
 
+    ///< HTTP传输层，负责连接复用、并发限制、超时和统计
+    private final HttpTransport mTransport;
+
 
     ////////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods //////////////////////////////
     ////////////////////////////////////////////////////////////////////////
+    private AgoraLowService() {
+        HttpTransport.Config config = new HttpTransport.Config();
+        config.mTag = TAG;
+        config.mTokenHeader = "token";
+        config.mTokenPrefix = "";
+        mTransport = new HttpTransport(config);
+
+        // 虚拟设备名称创建后不会变化，缓存查询结果
+        TtlResponseCache responseCache = new TtlResponseCache(TtlResponseCache.DEF_MAX_ENTRIES,
+                                                        TtlResponseCache.DEF_MAX_BYTES);
+        responseCache.setTtl(EP_INVENT_DEVICE, INVENT_DEVICE_CACHE_TTL);
+        mTransport.setResponseCache(responseCache);
+        mTransport.setCoalesceEndpoint(EP_INVENT_DEVICE, true);
+    }
+
     public static AgoraLowService getInstance() {
         if(mInstance == null) {
             synchronized (AgoraLowService.class) {
@@ -143,8 +162,37 @@ public class AgoraLowService {
     }
 
     public void setBaseUrl(final String baseUrl) {
+        setBaseUrl(baseUrl, null);
+    }
+
+    /*
+     * @brief 设置服务地址和备用地址，主地址熔断时请求自动切换到备用地址
+     * @param backupUrl : 备用地址，为null或者空字符串表示没有备用地址
+     */
+    public void setBaseUrl(final String baseUrl, final String backupUrl) {
         mServerBaseUrl = baseUrl;
-        ALog.getInstance().e(TAG, "<setBaseUrl> mServerBaseUrl=" + mServerBaseUrl);
+        if ((backupUrl != null) && (!backupUrl.isEmpty())) {
+            mTransport.setBaseUrls(new String[] { baseUrl, backupUrl });
+        } else {
+            mTransport.setBaseUrls(null);
+        }
+        ALog.getInstance().e(TAG, "<setBaseUrl> mServerBaseUrl=" + mServerBaseUrl
+                + ", backupUrl=" + backupUrl);
+    }
+
+    /*
+     * @brief 设置请求超时时间的上下限，实际超时时间根据每个端点的往返时延在上下限之间动态调整
+     */
+    public void setTimeoutBounds(int timeoutFloor, int timeoutCeiling) {
+        mTransport.setTimeoutBounds(timeoutFloor, timeoutCeiling);
+    }
+
+    /*
+     * @brief 清除所有查询结果的缓存，账号登出或者Token失效时调用
+     */
+    public void clearCache() {
+        mTransport.getResponseCache().clear();
+        ALog.getInstance().d(TAG, "<clearCache> done");
     }
 
 
@@ -351,130 +399,42 @@ public class AgoraLowService {
      * @brief 给服务器发送HTTP请求，并且等待接收回应数据
      *        该函数是阻塞等待调用，因此最好是在工作线程中执行
      */
-    private synchronized ResponseObj requestToServer(String baseUrl, String method, String token,
-                                                     Map<String, String> params, JSONObject body) {
-
-        ResponseObj responseObj = new ResponseObj();
-
-        if (!baseUrl.startsWith("http://") && !baseUrl.startsWith("https://")) {
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_URL;
-            ALog.getInstance().e(TAG, "<requestToServer> Invalid url=" + baseUrl);
-            return responseObj;
-        }
-
-        // 拼接URL和请求参数生成最终URL
-        String realURL = baseUrl;
-        if (!params.isEmpty()) {
-            Iterator<Map.Entry<String, String>> it = params.entrySet().iterator();
-            Map.Entry<String, String> entry =  it.next();
-            realURL += "?" + entry.getKey() + "=" + entry.getValue();
-            while (it.hasNext()) {
-                entry =  it.next();
-                realURL += "&" + entry.getKey() + "=" + entry.getValue();
-            }
-        }
-
-        // 支持json格式消息体
-        String realBody = String.valueOf(body);
-
-        ALog.getInstance().d(TAG, "<requestToServer> requestUrl=" + realURL
-                + ", requestBody="  + realBody.toString());
-
-        //开启子线程来发起网络请求
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-        StringBuilder response = new StringBuilder();
-
-
-        //同步方式请求HTTP，因此请求操作最好放在工作线程中进行
-        try {
-            java.net.URL url = new URL(realURL);
-            connection = (HttpURLConnection) url.openConnection();
-            // 设置token
-            if ((token != null) && (!token.isEmpty())) {
-                connection.setRequestProperty("token", token);
-            }
-
-            switch (method) {
-                case "GET":
-                    connection.setRequestMethod("GET");
-                    break;
-
-                case "POST":
-                    connection.setDoOutput(true);
-                    connection.setDoInput(true);
-                    connection.setRequestMethod("POST");
-                    connection.setRequestProperty("Content-Type", "application/json;charset=utf-8");
-                    DataOutputStream os = new DataOutputStream(connection.getOutputStream());
-                    os.write(realBody.getBytes());  // 必须是原始数据流，否则中文乱码
-                    os.flush();
-                    os.close();
-                    break;
-
-                case "SET":
-                    connection.setRequestMethod("SET");
-                    break;
-
-                case "DELETE":
-                    connection.setRequestMethod("DELETE");
-                    break;
-
-                default:
-                    ALog.getInstance().e(TAG, "<requestToServer> Invalid method=" + method);
-                    responseObj.mErrorCode = ErrCode.XERR_HTTP_METHOD;
-                    return responseObj;
-            }
-            connection.setReadTimeout(HTTP_TIMEOUT);
-            connection.setConnectTimeout(HTTP_TIMEOUT);
-            responseObj.mRespCode = connection.getResponseCode();
-            if (responseObj.mRespCode != HttpURLConnection.HTTP_OK) {
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_CODE + responseObj.mRespCode;
-                ALog.getInstance().e(TAG, "<requestToServer> Error response code="
-                        + responseObj.mRespCode + ", errMessage=" + connection.getResponseMessage());
-                return responseObj;
-            }
-
-            // 读取回应数据包
-            InputStream inputStream = connection.getInputStream();
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-
-            JSONObject data = null;
-            try {
-                responseObj.mRespJsonObj = new JSONObject(response.toString());
+    private ResponseObj requestToServer(String baseUrl, String method, String token,
+                                        Map<String, String> params, JSONObject body) {
+        final ResponseObj responseObj = new ResponseObj();
+
+        HttpTransport.Request request = new HttpTransport.Request();
+        request.mUrl = baseUrl;
+        request.mMethod = method;
+        request.mToken = token;
+        request.mParams = params;
+        request.mBody = String.valueOf(body).getBytes(UTF8);  // 必须是原始数据流，否则中文乱码
+        request.mBodyLength = request.mBody.length;
+
+        HttpTransport.Response response = mTransport.request(request, new HttpTransport.IResponseDecoder() {
+            @Override
+            public void decode(InputStream inputStream) throws IOException, JSONException {
+                responseObj.mRespJsonObj = HttpTransport.readJsonObject(inputStream);
                 responseObj.mRespCode = responseObj.mRespJsonObj.getInt("code");
                 responseObj.mTip = responseObj.mRespJsonObj.getString("tip");
-
-            } catch (JSONException e) {
-                e.printStackTrace();
-                ALog.getInstance().e(TAG, "<requestToServer> Invalied json=" + response);
-                responseObj.mErrorCode = ErrCode.XERR_HTTP_RESP_DATA;
-                responseObj.mRespJsonObj = null;
             }
 
-            ALog.getInstance().d(TAG, "<requestToServer> finished, response="  + response.toString());
-            return responseObj;
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            responseObj.mErrorCode = ErrCode.XERR_HTTP_CONNECT;
-            return responseObj;
-
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            @Override
+            public boolean isCacheable() {   // 业务错误的回应不缓存，否则有效期内一直返回该错误
+                return (responseObj.mRespCode == RESP_OK);
             }
-            if (connection != null) {
-                connection.disconnect();
+        });
+        responseObj.mErrorCode = response.mErrorCode;
+        if (response.mErrorCode != ErrCode.XOK) {
+            responseObj.mRespJsonObj = null;
+            if (response.mHttpCode != HttpURLConnection.HTTP_OK) {
+                responseObj.mRespCode = response.mHttpCode;
             }
         }
+
+        ALog.getInstance().d(TAG, "<requestToServer> finished, mErrorCode=" + responseObj.mErrorCode
+                + ", mRespCode=" + responseObj.mRespCode + ", mTip=" + responseObj.mTip);
+        return responseObj;
     }
 
 
@@ -488,7 +448,7 @@ public class AgoraLowService {
         JSONObject body = new JSONObject();
 
         // 请求URL
-        String requestUrl = mServerBaseUrl + "/device/invent/certificate/get";
+        String requestUrl = mServerBaseUrl + EP_INVENT_DEVICE;
 
         ResponseObj responseObj = requestToServer(requestUrl, "POST",
                 srvToken, params, body);
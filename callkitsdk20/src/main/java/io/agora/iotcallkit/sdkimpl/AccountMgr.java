@@ -14,8 +14,6 @@ import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 
 import io.agora.iotcallkit.ErrCode;
 import io.agora.iotcallkit.IAccountMgr;
@@ -24,8 +22,9 @@ import io.agora.iotcallkit.aws.AWSUtils;
 import io.agora.iotcallkit.callkit.AgoraService;
 import io.agora.iotcallkit.logger.ALog;
 import io.agora.iotcallkit.lowservice.AgoraLowService;
+import io.agora.iotcallkit.transport.ConnWarmer;
 
-import java.util.ArrayList;
+import java.util.Random;
 
 
 
@@ -85,6 +84,9 @@ public class AccountMgr implements IAccountMgr {
     //////////////////////// Constant Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
     private static final String TAG = "IOTSDK/AccountMgr";
+    private static final long REFRESH_MIN_DELAY = 10 * 1000;            ///< 凭证刷新的最小间隔
+    private static final long REFRESH_RETRY_DELAY = 15 * 1000;          ///< 刷新失败后首次重试间隔，之后逐次翻倍
+    private static final long REFRESH_RETRY_MAX_DELAY = 5 * 60 * 1000;  ///< 刷新失败重试的最大间隔
 
 
 
@@ -97,14 +99,16 @@ public class AccountMgr implements IAccountMgr {
     private static final int MSGID_AWSLOGIN_DONE = 0x1004;
     private static final int MSGID_ACCOUNT_LOGOUT = 0x1005;
     private static final int MSGID_ACCOUNT_TOKEN_INVALID = 0x1006;
+    private static final int MSGID_ACCOUNT_TOKEN_REFRESH = 0x1007;
+    private static final int MSGID_AWS_CRED_REFRESH = 0x1008;
 
 
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Variable Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
-    private ArrayList<IAccountMgr.ICallback> mCallbackList = new ArrayList<>();
+    private ListenerDispatcher<IAccountMgr.ICallback> mDispatcher;    ///< 应用层监听器的回调分发
     private AgoraCallkitSdk mSdkInstance;                        ///< 由外部输入的
-    private Handler mWorkHandler;                               ///< 工作线程Handler，从SDK获取到
+    private EventBus mEventBus;                                 ///< 账号通道的事件队列
     private Bundle mMetaData;
 
     private static final Object mDataLock = new Object();       ///< 同步访问锁,类中所有变量需要进行加锁处理
@@ -113,13 +117,28 @@ public class AccountMgr implements IAccountMgr {
     private AgoraLowService.AccountInfo mLoginAccount;          ///< 当前正在登录的底层账号信息
     private AccountInfo mLocalAccount;                          ///< 当前已经登录账号, null表示未登录
 
+    private final Random mRefreshRandom = new Random();         ///< 刷新时间的随机抖动
+    private long mAgoraTokenExpireTime = -1;                    ///< Agora Token过期时间戳(毫秒)，只在工作线程访问
+    private long mAwsCredExpireTime = -1;                       ///< AWS证书过期时间戳(毫秒)，只在工作线程访问
+    private int mAgoraRefreshFailCount = 0;                     ///< Agora Token连续刷新失败次数
+    private int mAwsRefreshFailCount = 0;                       ///< AWS证书连续刷新失败次数
+
 
     ///////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods  ////////////////////////////
     ///////////////////////////////////////////////////////////////////////
     int initialize(AgoraCallkitSdk sdkInstance) {
         mSdkInstance = sdkInstance;
-        mWorkHandler = sdkInstance.getWorkHandler();
+        mEventBus = new EventBus("account",
+                sdkInstance.getWorkHandler(AgoraCallkitSdk.LANE_ACCOUNT).getLooper(),
+                EventBus.DEF_CAPACITY, new EventBus.IHandler() {
+                    @Override
+                    public void onEvent(EventBus.Event event) {
+                        workThreadProcessMessage(event);
+                    }
+                });
+        mEventBus.setIdempotent(MSGID_ACCOUNT_TOKEN_INVALID);
+        mDispatcher = new ListenerDispatcher<>("account", sdkInstance.getCallbackExecutor());
         mStateMachine = ACCOUNT_STATE_IDLE;
 
         //获取applicationInfo标签内的数据
@@ -140,12 +159,12 @@ public class AccountMgr implements IAccountMgr {
     void release() {
         workThreadClearMessage();
 
-        synchronized (mCallbackList) {
-            mCallbackList.clear();
+        if (mDispatcher != null) {
+            mDispatcher.clear();
         }
     }
 
-    void workThreadProcessMessage(Message msg) {
+    void workThreadProcessMessage(EventBus.Event msg) {
         switch (msg.what) {
             case MSGID_ACCOUNT_LOGIN: {
                 DoAccountLogin(msg);
@@ -162,43 +181,43 @@ public class AccountMgr implements IAccountMgr {
               case MSGID_ACCOUNT_TOKEN_INVALID: {
                 DoTokenInvalid(msg);
             } break;
+
+            case MSGID_ACCOUNT_TOKEN_REFRESH: {
+                DoAgoraTokenRefresh(msg);
+            } break;
+
+            case MSGID_AWS_CRED_REFRESH: {
+                DoAwsCredRefresh(msg);
+            } break;
         }
     }
 
     void workThreadClearMessage() {
-        if (mWorkHandler != null) {
-            mWorkHandler.removeMessages(MSGID_ACCOUNT_LOGIN);
-            mWorkHandler.removeMessages(MSGID_AWSLOGIN_DONE);
-            mWorkHandler.removeMessages(MSGID_ACCOUNT_LOGOUT);
-            mWorkHandler.removeMessages(MSGID_ACCOUNT_TOKEN_INVALID);
-            mWorkHandler = null;
+        if (mEventBus != null) {
+            mEventBus.close();
         }
     }
 
     void sendMessage(int what, int arg1, int arg2, Object obj) {
-        Message msg = new Message();
-        msg.what = what;
-        msg.arg1 = arg1;
-        msg.arg2 = arg2;
-        msg.obj = obj;
-        if (mWorkHandler != null) {
-            mWorkHandler.removeMessages(what);
-            mWorkHandler.sendMessage(msg);
+        if (mEventBus != null) {
+            mEventBus.post(what, arg1, arg2, obj);
         }
     }
 
     void sendMessageDelay(int what, int arg1, int arg2, Object obj, long delayTime) {
-        Message msg = new Message();
-        msg.what = what;
-        msg.arg1 = arg1;
-        msg.arg2 = arg2;
-        msg.obj = obj;
-        if (mWorkHandler != null) {
-            mWorkHandler.removeMessages(what);
-            mWorkHandler.sendMessageDelayed(msg, delayTime);
+        if (mEventBus != null) {
+            mEventBus.postDelayed(what, arg1, arg2, obj, delayTime);
         }
     }
 
+    EventBus getEventBus() {
+        return mEventBus;
+    }
+
+    ListenerDispatcher<IAccountMgr.ICallback> getDispatcher() {
+        return mDispatcher;
+    }
+
 
     ///////////////////////////////////////////////////////////////////////
     /////////////////// Override Methods of IAccountMgr //////////////////
@@ -213,17 +232,13 @@ public class AccountMgr implements IAccountMgr {
 
     @Override
     public int registerListener(IAccountMgr.ICallback callback) {
-        synchronized (mCallbackList) {
-            mCallbackList.add(callback);
-        }
+        mDispatcher.addListener(callback);
         return ErrCode.XOK;
     }
 
     @Override
     public int unregisterListener(IAccountMgr.ICallback callback) {
-        synchronized (mCallbackList) {
-            mCallbackList.remove(callback);
-        }
+        mDispatcher.removeListener(callback);
         return ErrCode.XOK;
     }
 
@@ -299,7 +314,7 @@ public class AccountMgr implements IAccountMgr {
     /*
      * @brief 工作线程中进行实际的登录操作
      */
-    void DoAccountLogin(Message msg) {
+    void DoAccountLogin(EventBus.Event msg) {
         LoginParam loginParam = (LoginParam)(msg.obj);
         IAgoraCallkitSdk.InitParam initParam = mSdkInstance.getInitParam();
 
@@ -394,7 +409,7 @@ public class AccountMgr implements IAccountMgr {
     /*
      * @brief 工作线程中进行AWS的初始化完成处理
      */
-    void DoAwsLoginDone(Message msg) {
+    void DoAwsLoginDone(EventBus.Event msg) {
         int errCode = msg.arg1;
         ALog.getInstance().d(TAG, "<DoAwsLoginDone> errCode=" + errCode);
 
@@ -434,6 +449,8 @@ public class AccountMgr implements IAccountMgr {
                 mStateMachine = ACCOUNT_STATE_RUNNING;  // 状态机切换到 已经登录 状态
             }
             mSdkInstance.setStateMachine(IAgoraCallkitSdk.SDK_STATE_RUNNING);
+            mSdkInstance.connWarmUp();      // 预热HTTP连接，减少第一次呼叫的建连耗时
+            startTokenRefresh();            // 启动凭证的后台定时刷新
             ALog.getInstance().d(TAG, "<DoAwsLoginDone> finished successful");
             CallbackLogInDone(ErrCode.XOK, mLocalAccount.mAccount);
 
@@ -453,12 +470,13 @@ public class AccountMgr implements IAccountMgr {
         }
     }
 
-    void CallbackLogInDone(int errCode, String account) {
-        synchronized (mCallbackList) {
-            for (IAccountMgr.ICallback listener : mCallbackList) {
+    void CallbackLogInDone(final int errCode, final String account) {
+        mDispatcher.dispatch("onLoginDone", new ListenerDispatcher.ICall<IAccountMgr.ICallback>() {
+            @Override
+            public void invoke(IAccountMgr.ICallback listener) {
                 listener.onLoginDone(errCode, account);
             }
-        }
+        });
     }
 
 
@@ -468,7 +486,7 @@ public class AccountMgr implements IAccountMgr {
     /*
      * @brief 工作线程中进行实际的登出操作，需要等登出结果消息回来
      */
-    void DoAccountLogout(Message msg)
+    void DoAccountLogout(EventBus.Event msg)
     {
         // 断开 AWS 联接
         AWSUtils.getInstance().disConnect();
@@ -479,16 +497,20 @@ public class AccountMgr implements IAccountMgr {
             mStateMachine = ACCOUNT_STATE_IDLE;    // 状态机切换到 未登录 状态
         }
         mSdkInstance.setStateMachine(IAgoraCallkitSdk.SDK_STATE_READY);
+        stopTokenRefresh();
+        ConnWarmer.getInstance().stop();
+        AgoraLowService.getInstance().clearCache();
         ALog.getInstance().d(TAG, "<DoAccountLogout> finished with successful");
         CallbackLogoutDone(ErrCode.XOK, account);
     }
 
-    void CallbackLogoutDone(int errCode, String account) {
-        synchronized (mCallbackList) {
-            for (IAccountMgr.ICallback listener : mCallbackList) {
+    void CallbackLogoutDone(final int errCode, final String account) {
+        mDispatcher.dispatch("onLogoutDone", new ListenerDispatcher.ICall<IAccountMgr.ICallback>() {
+            @Override
+            public void invoke(IAccountMgr.ICallback listener) {
                 listener.onLogoutDone(errCode, account);
             }
-        }
+        });
     }
 
 
@@ -505,7 +527,7 @@ public class AccountMgr implements IAccountMgr {
         sendMessageDelay(MSGID_ACCOUNT_TOKEN_INVALID, 0, 0, null, 500);
     }
 
-    void DoTokenInvalid(Message msg) {
+    void DoTokenInvalid(EventBus.Event msg) {
         // 断开 AWS 联接
         AWSUtils.getInstance().disConnect();
         String account;
@@ -515,13 +537,194 @@ public class AccountMgr implements IAccountMgr {
             mStateMachine = ACCOUNT_STATE_IDLE;    // 状态机切换到 未登录 状态
         }
         mSdkInstance.setStateMachine(IAgoraCallkitSdk.SDK_STATE_READY);
+        stopTokenRefresh();
+        ConnWarmer.getInstance().stop();
+        AgoraLowService.getInstance().clearCache();
         ALog.getInstance().d(TAG, "<DoTokenInvalid> finished with successful");
 
-        synchronized (mCallbackList) {  // 回调给应用层
-            for (IAccountMgr.ICallback listener : mCallbackList) {
+        // 回调给应用层
+        mDispatcher.dispatch("onTokenInvalid", new ListenerDispatcher.ICall<IAccountMgr.ICallback>() {
+            @Override
+            public void invoke(IAccountMgr.ICallback listener) {
                 listener.onTokenInvalid();
             }
+        });
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    ///////////////////// Methods for Token Refresh ///////////////////////
+    ///////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 登录成功后启动各个凭证的后台定时刷新，在有效期过去配置比例时提前刷新，
+     *        这样呼叫请求不会遇到Token过期，也不需要断开MQTT连接重新登录
+     */
+    void startTokenRefresh() {
+        IAgoraCallkitSdk.InitParam initParam = mSdkInstance.getInitParam();
+        if (initParam.mTokenRefreshRatio <= 0) {
+            return;
+        }
+
+        long agoraExpiresIn;
+        String agoraRefreshToken;
+        long proofExpiration;
+        synchronized (mDataLock) {
+            if (mLocalAccount == null) {
+                return;
+            }
+            agoraExpiresIn = mLocalAccount.mAgoraExpriesIn;
+            agoraRefreshToken = mLocalAccount.mAgoraRefreshToken;
+            proofExpiration = mLocalAccount.mProofSessionExpiration;
+        }
+
+        long currTime = System.currentTimeMillis();
+        mAgoraRefreshFailCount = 0;
+        mAwsRefreshFailCount = 0;
+
+        if ((agoraExpiresIn > 0) && (agoraRefreshToken != null)) {
+            mAgoraTokenExpireTime = currTime + agoraExpiresIn * 1000;
+            sendMessageDelay(MSGID_ACCOUNT_TOKEN_REFRESH, 0, 0, null,
+                    calcRefreshDelay(agoraExpiresIn * 1000));
+        }
+
+        long proofExpireTime = toMillisTimestamp(proofExpiration);
+        if (proofExpireTime > currTime) {
+            mAwsCredExpireTime = proofExpireTime;
+            sendMessageDelay(MSGID_AWS_CRED_REFRESH, 0, 0, null,
+                    calcRefreshDelay(proofExpireTime - currTime));
+        }
+
+        ALog.getInstance().d(TAG, "<startTokenRefresh> agoraExpiresIn=" + agoraExpiresIn
+                + ", proofExpireTime=" + proofExpireTime);
+    }
+
+    /*
+     * @brief 登出或者Token失效时停止所有凭证的定时刷新
+     */
+    void stopTokenRefresh() {
+        if (mEventBus != null) {
+            mEventBus.remove(MSGID_ACCOUNT_TOKEN_REFRESH);
+            mEventBus.remove(MSGID_AWS_CRED_REFRESH);
+        }
+        mAgoraTokenExpireTime = -1;
+        mAwsCredExpireTime = -1;
+    }
+
+    /*
+     * @brief 工作线程中使用 refresh_token 刷新Agora Token，只更新本地账号中的Token信息
+     */
+    void DoAgoraTokenRefresh(EventBus.Event msg) {
+        if (getStateMachine() != ACCOUNT_STATE_RUNNING) {
+            return;
+        }
+
+        AgoraService.RetrieveTokenParam refreshParam = new AgoraService.RetrieveTokenParam();
+        synchronized (mDataLock) {
+            if (mLocalAccount == null) {
+                return;
+            }
+            refreshParam.mGrantType = "refresh_token";
+            refreshParam.mRefreshToken = mLocalAccount.mAgoraRefreshToken;
+            refreshParam.mScope = mLocalAccount.mAgoraScope;
+        }
+
+        AgoraService.AccountTokenInfo tokenInfo = AgoraService.getInstance().accountGetToken(refreshParam);
+        long currTime = System.currentTimeMillis();
+        if ((tokenInfo.mErrCode == ErrCode.XOK) && (tokenInfo.mAccessToken != null)) {
+            synchronized (mDataLock) {
+                if ((mLocalAccount == null) || (mStateMachine != ACCOUNT_STATE_RUNNING)) {
+                    return;     // 刷新期间已经登出
+                }
+                mLocalAccount.mAgoraAccessToken = tokenInfo.mAccessToken;
+                if (tokenInfo.mRefreshToken != null) {
+                    mLocalAccount.mAgoraRefreshToken = tokenInfo.mRefreshToken;
+                }
+                if (tokenInfo.mTokenType != null) {
+                    mLocalAccount.mAgoraTokenType = tokenInfo.mTokenType;
+                }
+                if (tokenInfo.mScope != null) {
+                    mLocalAccount.mAgoraScope = tokenInfo.mScope;
+                }
+                mLocalAccount.mAgoraExpriesIn = tokenInfo.mExpriesIn;
+            }
+            mAgoraRefreshFailCount = 0;
+            if (tokenInfo.mExpriesIn > 0) {
+                mAgoraTokenExpireTime = currTime + tokenInfo.mExpriesIn * 1000;
+                sendMessageDelay(MSGID_ACCOUNT_TOKEN_REFRESH, 0, 0, null,
+                        calcRefreshDelay(tokenInfo.mExpriesIn * 1000));
+            }
+            ALog.getInstance().d(TAG, "<DoAgoraTokenRefresh> done, mExpriesIn=" + tokenInfo.mExpriesIn);
+            return;
+        }
+
+        // 刷新失败，Token还没过期就继续重试，已经过期才走Token失效的流程
+        mAgoraRefreshFailCount++;
+        if (currTime >= mAgoraTokenExpireTime) {
+            ALog.getInstance().e(TAG, "<DoAgoraTokenRefresh> token expired, errCode=" + tokenInfo.mErrCode);
+            onTokenInvalid();
+            return;
+        }
+        long retryDelay = calcRetryDelay(mAgoraRefreshFailCount, mAgoraTokenExpireTime - currTime);
+        sendMessageDelay(MSGID_ACCOUNT_TOKEN_REFRESH, 0, 0, null, retryDelay);
+        ALog.getInstance().e(TAG, "<DoAgoraTokenRefresh> failure, errCode=" + tokenInfo.mErrCode
+                + ", retryDelay=" + retryDelay);
+    }
+
+    /*
+     * @brief 工作线程中刷新AWS临时证书，MQTT连接不受影响，证书过期后也只是继续重试
+     */
+    void DoAwsCredRefresh(EventBus.Event msg) {
+        if (getStateMachine() != ACCOUNT_STATE_RUNNING) {
+            return;
+        }
+
+        long expireTime = AWSUtils.getInstance().refreshCredentials();
+        long currTime = System.currentTimeMillis();
+        if (expireTime > currTime) {
+            mAwsRefreshFailCount = 0;
+            mAwsCredExpireTime = expireTime;
+            sendMessageDelay(MSGID_AWS_CRED_REFRESH, 0, 0, null,
+                    calcRefreshDelay(expireTime - currTime));
+            ALog.getInstance().d(TAG, "<DoAwsCredRefresh> done, expireTime=" + expireTime);
+            return;
+        }
+
+        mAwsRefreshFailCount++;
+        long retryDelay = calcRetryDelay(mAwsRefreshFailCount, mAwsCredExpireTime - currTime);
+        sendMessageDelay(MSGID_AWS_CRED_REFRESH, 0, 0, null, retryDelay);
+        ALog.getInstance().e(TAG, "<DoAwsCredRefresh> failure, retryDelay=" + retryDelay);
+    }
+
+    /*
+     * @brief 根据凭证有效期计算下次刷新的延时：有效期 * (刷新比例 ± 抖动)
+     */
+    long calcRefreshDelay(long lifetime) {
+        IAgoraCallkitSdk.InitParam initParam = mSdkInstance.getInitParam();
+        double ratio = Math.min(initParam.mTokenRefreshRatio, 1.0f);
+        double jitter = (mRefreshRandom.nextDouble() * 2 - 1) * initParam.mTokenRefreshJitter;
+        long delay = (long)(lifetime * (ratio + jitter));
+        return Math.max(REFRESH_MIN_DELAY, Math.min(delay, lifetime));
+    }
+
+    /*
+     * @brief 刷新失败后的重试延时，逐次翻倍，并尽量在凭证过期之前再重试一次
+     */
+    long calcRetryDelay(int failCount, long remaining) {
+        long delay = REFRESH_RETRY_DELAY << Math.min(failCount - 1, 5);
+        delay = Math.min(delay, REFRESH_RETRY_MAX_DELAY);
+        if (remaining > 0) {
+            delay = Math.min(delay, remaining);
+        }
+        return Math.max(REFRESH_MIN_DELAY, delay);
+    }
+
+    /*
+     * @brief 服务器返回的过期时间可能是秒或者毫秒时间戳，统一转换成毫秒
+     */
+    static long toMillisTimestamp(long timestamp) {
+        if ((timestamp > 0) && (timestamp < 100000000000L)) {
+            return timestamp * 1000;
         }
+        return timestamp;
     }
 
     ///////////////////////////////////////////////////////////////////////
@@ -530,7 +733,7 @@ public class AccountMgr implements IAccountMgr {
     /*
      * @brief 工作线程中处理账号异地登录事件，本地被强制登出结果
      */
-    void DoAccountLoginOtherDev(Message msg)
+    void DoAccountLoginOtherDev(EventBus.Event msg)
     {
 //        synchronized (mDataLock) {
 //            mLocalAccount = null;               // 清空本地账号
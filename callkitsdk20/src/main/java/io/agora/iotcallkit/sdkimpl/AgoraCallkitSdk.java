@@ -14,7 +14,7 @@ import android.content.Context;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.Message;
+import android.os.Process;
 import android.util.Log;
 
 
@@ -22,14 +22,22 @@ import io.agora.iotcallkit.ErrCode;
 import io.agora.iotcallkit.IAccountMgr;
 import io.agora.iotcallkit.IAgoraCallkitSdk;
 import io.agora.iotcallkit.ICallkitMgr;
+import io.agora.iotcallkit.IMetricsMgr;
 import io.agora.iotcallkit.aws.AWSUtils;
 import io.agora.iotcallkit.callkit.AgoraService;
 import io.agora.iotcallkit.logger.ALog;
 import io.agora.iotcallkit.lowservice.AgoraLowService;
+import io.agora.iotcallkit.transport.ConnWarmer;
+import io.agora.iotcallkit.transport.EndpointLimiter;
+import io.agora.iotcallkit.transport.HttpConnPool;
 
 import org.json.JSONObject;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 
 
@@ -46,9 +54,12 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
     private static final int EXIT_WAIT_TIMEOUT = 3000;
 
     //
-    // The mesage Id
+    // The work lanes, each sub-module processes its messages serially in its own thread
     //
-    private static final int MSGID_WORK_EXIT = 0xFFFF;
+    static final int LANE_ACCOUNT = 0;          ///< 账号管理：登录、登出、令牌刷新
+    static final int LANE_CALL = 1;             ///< 呼叫信令：呼叫请求、AWS事件、呼叫状态机
+    static final int LANE_RTC = 2;              ///< RTC控制：加入/离开频道、推流控制
+    private static final int LANE_COUNT = 3;
 
 
 
@@ -58,12 +69,14 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
     private InitParam mInitParam;
     private AccountMgr mAccountMgr;
     private CallkitMgr mCallkitMgr;
+    private MetricsMgr mMetricsMgr = new MetricsMgr();
 
 
     public static final Object mDataLock = new Object();    ///< 同步访问锁,类中所有变量需要进行加锁处理
-    private HandlerThread mWorkThread;  ///< 整个SDK的工作线程
-    private Handler mWorkHandler;
-    private final Object mWorkExitEvent = new Object();
+    private final HandlerThread[] mLaneThreads = new HandlerThread[LANE_COUNT];   ///< 各个工作通道的线程
+    private final Handler[] mLaneHandlers = new Handler[LANE_COUNT];
+    private Executor mCallbackExecutor;                     ///< 应用层回调的执行器
+    private ExecutorService mCallbackThread;                ///< 没有设置回调执行器时，SDK内部的回调线程
 
     private volatile int mStateMachine = SDK_STATE_INVALID;     ///< 当前呼叫状态机
 
@@ -87,18 +100,45 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
             }
         }
 
+        // 多个会话的 /call、/answer(接听和挂断) 请求互不排队：端点并发数和单主机连接数按会话数放大
+        int maxSessions = Math.max(initParam.mMaxCallSessions, 1);
+        if (maxSessions > 1) {
+            int endpointConcurrent = Math.max(EndpointLimiter.DEF_MAX_CONCURRENT, maxSessions + 1);
+            int maxConnPerHost = Math.max(HttpConnPool.DEF_MAX_CONN_PER_HOST, 2 * endpointConcurrent);
+            AgoraService.getInstance().setEndpointConcurrency("/call", endpointConcurrent);
+            AgoraService.getInstance().setEndpointConcurrency("/answer", endpointConcurrent);
+            HttpConnPool.getInstance().setConfig(maxConnPerHost,
+                    Math.max(HttpConnPool.DEF_MAX_IDLE_CONNS, maxConnPerHost),
+                    HttpConnPool.DEF_KEEP_ALIVE_TIME);
+        }
+
+        // HTTP/2 需要在发起第一个HTTP请求之前开启
+        if (initParam.mHttp2Enabled) {
+            HttpConnPool.getInstance().setHttp2Enabled(true);
+        }
+
         // 设置基本的BaseUrl
         if (initParam.mSlaveServerUrl != null) {
-            AgoraService.getInstance().setBaseUrl(initParam.mSlaveServerUrl);
+            AgoraService.getInstance().setBaseUrl(initParam.mSlaveServerUrl, initParam.mSlaveBackupUrl);
         }
         if (initParam.mMasterServerUrl != null) {
-            AgoraLowService.getInstance().setBaseUrl(initParam.mMasterServerUrl);
+            AgoraLowService.getInstance().setBaseUrl(initParam.mMasterServerUrl, initParam.mMasterBackupUrl);
+        }
+        if ((initParam.mGatewayUrls != null) && (initParam.mGatewayUrls.length > 0)) {
+            AgoraService.getInstance().setGatewayUrls(initParam.mGatewayUrls,
+                                                      initParam.mGatewayProbeInterval);
         }
+        AgoraService.getInstance().setTimeoutBounds(initParam.mHttpTimeoutFloor,
+                                                    initParam.mHttpTimeoutCeiling);
+        AgoraLowService.getInstance().setTimeoutBounds(initParam.mHttpTimeoutFloor,
+                                                       initParam.mHttpTimeoutCeiling);
+        AgoraService.getInstance().setDialHedging(initParam.mDialHedgePercentile);
 
         //
         // 启动工作线程
         //
         workThreadCreate();
+        callbackExecutorCreate(initParam.mCallbackExecutor);
 
         //
         // 创建接口实例对象
@@ -109,6 +149,12 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
         mCallkitMgr = new CallkitMgr();
         mCallkitMgr.initialize(this);
 
+        mMetricsMgr.addEventBus(mAccountMgr.getEventBus());
+        mMetricsMgr.addEventBus(mCallkitMgr.getEventBus());
+        mMetricsMgr.addEventBus(mCallkitMgr.getRtcEventBus());
+        mMetricsMgr.addDispatcher(mAccountMgr.getDispatcher());
+        mMetricsMgr.addDispatcher(mCallkitMgr.getDispatcher());
+
 
         //
         // 设置AwsUtil的回调
@@ -136,7 +182,7 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
                 }  if (status.compareToIgnoreCase("ConnectionLost") == 0) {
                     if (mStateMachine == SDK_STATE_RUNNING) {
                         ALog.getInstance().e(TAG, "<onConnectStatusChange> callback network error");
-                        mCallkitMgr.CallbackError(ErrCode.XERR_NETWORK);
+                        mCallkitMgr.CallbackError(null, ErrCode.XERR_NETWORK);
                     }
                 }
             }
@@ -199,6 +245,8 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
         // 销毁工作线程
         //
         workThreadDestroy();
+        ConnWarmer.getInstance().release();
+        AgoraService.getInstance().stopGatewayProbe();
 
         //
         // 销毁接口实例对象
@@ -213,6 +261,10 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
             mCallkitMgr = null;
         }
 
+        mMetricsMgr.clearEventBus();
+        mMetricsMgr.clearDispatcher();
+        callbackExecutorDestroy();
+
         synchronized (mDataLock) {
             mStateMachine = SDK_STATE_INVALID;  // 状态机切换到 无效状态
         }
@@ -237,6 +289,20 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
         return mCallkitMgr;
     }
 
+    @Override
+    public IMetricsMgr getMetricsMgr() {
+        return mMetricsMgr;
+    }
+
+    @Override
+    public void onAppForeground() {
+        if (getStateMachine() != SDK_STATE_RUNNING) {
+            ALog.getInstance().d(TAG, "<onAppForeground> not login, ignore");
+            return;
+        }
+        connWarmUp();
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////
     //////////////////////// Methods for each sub-module ///////////////////////
@@ -254,8 +320,29 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
         return mInitParam;
     }
 
-    Handler getWorkHandler() {
-        return mWorkHandler;
+    /*
+     * @brief 获取工作通道的Handler
+     * @param lane : 工作通道，LANE_ACCOUNT / LANE_CALL / LANE_RTC
+     */
+    Handler getWorkHandler(int lane) {
+        return mLaneHandlers[lane];
+    }
+
+    /*
+     * @brief 获取应用层回调的执行器，所有模块共用，保证账号和呼叫回调之间的顺序
+     */
+    Executor getCallbackExecutor() {
+        return mCallbackExecutor;
+    }
+
+    /*
+     * @brief 开启了连接预热时，异步预热到服务器的HTTP连接
+     */
+    void connWarmUp() {
+        if ((mInitParam == null) || (!mInitParam.mConnWarmUp)) {
+            return;
+        }
+        AgoraService.getInstance().warmUpConnections();
     }
 
     AccountMgr.AccountInfo getAccountInfo() {
@@ -268,69 +355,84 @@ public class AgoraCallkitSdk implements IAgoraCallkitSdk {
     ///////////////////////////////////////////////////////////////////////////
     //////////////////////// Innternal Utility Methods ////////////////////////
     ///////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 创建工作通道，每个通道是一个独立的串行线程，互不阻塞：
+     *        账号通道中的登录和令牌刷新请求不会推迟呼叫信令，呼叫通道中的HTTP请求不会推迟RTC的频道操作。
+     *        通道之间的顺序约定：
+     *        每个子模块通过自己的 EventBus 向通道投递事件。
+     *          1. 同一个通道内的消息按投递顺序执行，每个子模块的状态机只在自己的通道中修改；
+     *          2. 不同通道之间没有执行顺序的保证，通道之间只通过投递消息交互，不能同步等待其他通道；
+     *          3. 一个通道向另一个通道先后投递的消息，按投递顺序执行，例如呼叫通道投递的 加入频道、推流、离开频道；
+     *          4. 跨通道共享的数据通过各个模块的 mDataLock 访问
+     */
     void workThreadCreate() {
-        mWorkThread = new HandlerThread("AppSdk");
-        mWorkThread.start();
-        mWorkHandler = new Handler(mWorkThread.getLooper()) {
-            @Override
-            public void handleMessage(Message msg) {
-                super.handleMessage(msg);
-                mAccountMgr.workThreadProcessMessage(msg);
-                mCallkitMgr.workThreadProcessMessage(msg);
-                workThreadProcessMessage(msg);
-            }
-        };
+        laneCreate(LANE_ACCOUNT, "AppSdk-Account", Process.THREAD_PRIORITY_BACKGROUND);
+        laneCreate(LANE_CALL, "AppSdk-Call", Process.THREAD_PRIORITY_DEFAULT);
+        laneCreate(LANE_RTC, "AppSdk-Rtc", Process.THREAD_PRIORITY_FOREGROUND);
     }
 
     void workThreadDestroy() {
-        if (mWorkHandler != null) {
-
-            // 清除所有消息队列中消息
+        // 清除所有消息队列中消息
+        if (mAccountMgr != null) {
             mAccountMgr.workThreadClearMessage();
+        }
 
-            // 同步等待线程中所有任务处理完成后，才能正常退出线程
-            mWorkHandler.sendEmptyMessage(MSGID_WORK_EXIT);
-            synchronized (mWorkExitEvent) {
-                try {
-                    mWorkExitEvent.wait(EXIT_WAIT_TIMEOUT);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    ALog.getInstance().e(TAG, "<release> exception=" + e.getMessage());
-                }
+        // 按 账号 -> 呼叫 -> RTC 的顺序退出，每个通道处理完已经投递的消息后才退出，
+        // 因此呼叫通道退出前投递的RTC操作(例如离开频道)仍然会被执行
+        for (int lane = 0; lane < LANE_COUNT; lane++) {
+            HandlerThread laneThread = mLaneThreads[lane];
+            if (laneThread == null) {
+                continue;
             }
-
-            mWorkHandler = null;
+            laneThread.quitSafely();
+            try {
+                laneThread.join(EXIT_WAIT_TIMEOUT);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                ALog.getInstance().e(TAG, "<workThreadDestroy> exception=" + e.getMessage());
+            }
+            mLaneThreads[lane] = null;
+            mLaneHandlers[lane] = null;
         }
+    }
 
-        if (mWorkThread != null) {
-            mWorkThread.quit();
-            mWorkThread = null;
-        }
+    void laneCreate(int lane, final String threadName, int priority) {
+        HandlerThread laneThread = new HandlerThread(threadName, priority);
+        laneThread.start();
+        mLaneThreads[lane] = laneThread;
+        mLaneHandlers[lane] = new Handler(laneThread.getLooper());
     }
 
-    void workThreadProcessMessage(Message msg) {
-        switch (msg.what) {
-            case MSGID_WORK_EXIT:  // 工作线程退出消息
-                synchronized (mWorkExitEvent) {
-                    mWorkExitEvent.notify();    // 事件通知
-                }
-                break;
+    /*
+     * @brief 创建应用层回调的执行器，工作通道把回调提交给执行器后立即返回，不会被应用层的处理阻塞
+     * @param executor : 应用设置的执行器，null表示创建SDK内部的串行回调线程
+     */
+    void callbackExecutorCreate(final Executor executor) {
+        if (executor != null) {
+            mCallbackExecutor = executor;
+            return;
         }
+        mCallbackThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AppSdk-Callback");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mCallbackExecutor = mCallbackThread;
     }
 
-    void sendMessage(int messageId, int arg1, int arg2, Object obj) {
-        if (mWorkHandler != null) {
-            Message msg = new Message();
-            msg.what = messageId;
-            msg.arg1 = arg1;
-            msg.arg2 = arg2;
-            msg.obj = obj;
-            mWorkHandler.removeMessages(messageId);
-            mWorkHandler.sendMessage(msg);
+    /*
+     * @brief 销毁SDK内部的回调线程，已经提交的回调仍然会执行完
+     */
+    void callbackExecutorDestroy() {
+        if (mCallbackThread != null) {
+            mCallbackThread.shutdown();
+            mCallbackThread = null;
         }
+        mCallbackExecutor = null;
     }
 
 
-
-
 }
@@ -0,0 +1,188 @@
+/**
+ * @file CallSession.java
+ * @brief This file implement the state of one call session
+ * @author xiaohua.lu
+ * @email luxiaohua@agora.io
+ * @version 1.0.0.1
+ * @date 2022-01-26
+ * @license Copyright (C) 2021 AgoraIO Inc. All rights reserved.
+ */
+package io.agora.iotcallkit.sdkimpl;
+
+
+import io.agora.iotcallkit.ICallkitMgr;
+import io.agora.iotcallkit.callkit.AgoraService;
+import io.agora.iotcallkit.callkit.CallkitContext;
+import io.agora.iotcallkit.transport.AsyncRequest;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/*
+ * @brief 一个呼叫会话，每个会话有自己的状态机、呼叫上下文和正在进行的请求
+ *        状态快照通过CAS整体替换，任意线程读取不需要加锁，会话之间互不影响
+ */
+class CallSession {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 会话状态快照，发布之后不再修改
+     */
+    static final class Snapshot {
+        final int mStateMachine;            ///< 会话状态机
+        final CallkitContext mCallkitCtx;   ///< 呼叫上下文数据，只读
+        final String mPeerAccountId;        ///< 通信的对端账号Id
+
+        Snapshot(int stateMachine, final CallkitContext callkitCtx, final String peerAccountId) {
+            mStateMachine = stateMachine;
+            mCallkitCtx = callkitCtx;
+            mPeerAccountId = peerAccountId;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final String mLocalKey;                 ///< 创建时分配的本地Id，服务器分配sessionId之前作为会话表的键
+    private volatile String mKey;                   ///< 当前在会话表中的键
+    private final AtomicReference<Snapshot> mSnapshot;
+    private final AtomicBoolean mClosed = new AtomicBoolean(false);
+
+    volatile AsyncRequest<AgoraService.CallReqResult> mDialRequest;  ///< 正在进行的呼叫请求，呼叫请求中挂断时取消
+    volatile AsyncRequest<Integer> mAnswerRequest;  ///< 正在进行的接听请求
+    int mDialSeq = 0;                               ///< 正在进行的呼叫请求序号，只在呼叫通道访问
+    int mAnswerSeq = 0;                             ///< 正在进行的接听请求序号，只在呼叫通道访问
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    CallSession(final String localKey, int stateMachine, final String peerAccountId) {
+        mLocalKey = localKey;
+        mKey = localKey;
+        mSnapshot = new AtomicReference<>(new Snapshot(stateMachine, null, peerAccountId));
+    }
+
+    String getLocalKey() {
+        return mLocalKey;
+    }
+
+    String getKey() {
+        return mKey;
+    }
+
+    void setKey(final String key) {
+        mKey = key;
+    }
+
+    Snapshot getSnapshot() {
+        return mSnapshot.get();
+    }
+
+    int getStateMachine() {
+        return mSnapshot.get().mStateMachine;
+    }
+
+    CallkitContext getCallkitCtx() {
+        return mSnapshot.get().mCallkitCtx;
+    }
+
+    String getPeerAccountId() {
+        return mSnapshot.get().mPeerAccountId;
+    }
+
+    boolean isClosed() {
+        return mClosed.get();
+    }
+
+    /*
+     * @brief 当前状态是 expectState 时切换到 newState
+     * @return 当前状态不是 expectState 或者会话已经结束时返回false
+     */
+    boolean transitState(int expectState, int newState) {
+        Snapshot oldSnapshot;
+        do {
+            oldSnapshot = mSnapshot.get();
+            if ((oldSnapshot.mStateMachine != expectState) || mClosed.get()) {
+                return false;
+            }
+        } while (!mSnapshot.compareAndSet(oldSnapshot,
+                    new Snapshot(newState, oldSnapshot.mCallkitCtx, oldSnapshot.mPeerAccountId)));
+        return true;
+    }
+
+    /*
+     * @brief CAS方式更新状态快照
+     * @param newState : 新的状态机，小于0表示保持不变
+     * @param callkitCtx : 新的呼叫上下文，null表示保持不变
+     * @param peerAccountId : 新的对端账号Id，null表示保持不变
+     * @return 更新后的快照
+     */
+    Snapshot updateSnapshot(int newState, final CallkitContext callkitCtx, final String peerAccountId) {
+        Snapshot oldSnapshot, newSnapshot;
+        do {
+            oldSnapshot = mSnapshot.get();
+            newSnapshot = new Snapshot((newState >= 0) ? newState : oldSnapshot.mStateMachine,
+                    (callkitCtx != null) ? callkitCtx : oldSnapshot.mCallkitCtx,
+                    (peerAccountId != null) ? peerAccountId : oldSnapshot.mPeerAccountId);
+        } while (!mSnapshot.compareAndSet(oldSnapshot, newSnapshot));
+        return newSnapshot;
+    }
+
+    /*
+     * @brief 在当前呼叫上下文的副本上合并更新数据，然后整体替换
+     * @return 更新后的快照
+     */
+    Snapshot mergeCallContext(final CallkitContext update) {
+        Snapshot oldSnapshot, newSnapshot;
+        do {
+            oldSnapshot = mSnapshot.get();
+            CallkitContext baseCtx = (oldSnapshot.mCallkitCtx != null) ? oldSnapshot.mCallkitCtx
+                                        : new CallkitContext();
+            newSnapshot = new Snapshot(oldSnapshot.mStateMachine, baseCtx.merge(update),
+                                        oldSnapshot.mPeerAccountId);
+        } while (!mSnapshot.compareAndSet(oldSnapshot, newSnapshot));
+        return newSnapshot;
+    }
+
+    /*
+     * @brief 结束会话，状态机切换到空闲，保留呼叫上下文用于日志
+     * @return 只有第一次结束时返回true
+     */
+    boolean close() {
+        if (!mClosed.compareAndSet(false, true)) {
+            return false;
+        }
+        updateSnapshot(ICallkitMgr.CALLKIT_STATE_IDLE, null, null);
+        cancelPendingRequests();
+        return true;
+    }
+
+    /*
+     * @brief 取消正在进行的呼叫和接听请求，之后到达的请求结果会被丢弃
+     */
+    void cancelPendingRequests() {
+        AsyncRequest<AgoraService.CallReqResult> dialRequest = mDialRequest;
+        mDialRequest = null;
+        if (dialRequest != null) {
+            dialRequest.cancel();
+        }
+        AsyncRequest<Integer> answerRequest = mAnswerRequest;
+        mAnswerRequest = null;
+        if (answerRequest != null) {
+            answerRequest.cancel();
+        }
+    }
+
+    @Override
+    public String toString() {
+        Snapshot snapshot = mSnapshot.get();
+        String infoText = "{ mKey=" + mKey + ", mStateMachine=" + snapshot.mStateMachine
+                + ", mPeerAccountId=" + snapshot.mPeerAccountId + " }";
+        return infoText;
+    }
+}
@@ -13,8 +13,6 @@ package io.agora.iotcallkit.sdkimpl;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.icu.util.Calendar;
-import android.os.Handler;
-import android.os.Message;
 import android.view.SurfaceView;
 
 import io.agora.iotcallkit.ErrCode;
@@ -24,11 +22,16 @@ import io.agora.iotcallkit.callkit.AgoraService;
 import io.agora.iotcallkit.callkit.CallkitContext;
 import io.agora.iotcallkit.logger.ALog;
 import io.agora.iotcallkit.rtcsdk.TalkingEngine;
+import io.agora.iotcallkit.transport.AsyncRequest;
 import com.amazonaws.util.Base32;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 import io.agora.rtc2.Constants;
@@ -64,6 +67,17 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
     private static final int MSGID_CALL_RTC_PEER_OFFLINE = 0x3006;  ///< 对端RTC掉线
     private static final int MSGID_CALL_RTC_PEER_FIRSTVIDEO = 0x3007;  ///< 对端RTC首帧出图
     private static final int MSGID_CALL_AWSEVENT_TIMEOUT = 0x3008;  ///< HTTP请求后, AWS超时无响应
+    private static final int MSGID_CALL_DIAL_DONE = 0x3009;         ///< 呼叫请求完成
+    private static final int MSGID_CALL_ANSWER_DONE = 0x300A;       ///< 接听请求完成
+    private static final int MSGID_CALL_HANGUP_DONE = 0x300B;       ///< 挂断请求完成
+
+    //
+    // The RTC lane message Id
+    //
+    private static final int MSGID_RTC_JOIN_CHANNEL = 0x3101;       ///< 加入频道并设置初始推流
+    private static final int MSGID_RTC_PUBLISH = 0x3102;            ///< 开始通话，推送本地音视频流
+    private static final int MSGID_RTC_LEAVE_CHANNEL = 0x3103;      ///< 离开频道
+    private static final int MSGID_RTC_SET_PEER_VIEW = 0x3104;      ///< 设置对端视频显示控件
 
     //
     // Reason code
@@ -77,38 +91,78 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
 
 
 
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief RTC频道的占用信息，所有会话共用一个通话引擎，同一时间只有一个会话在频道内
+     *        前台会话(呼叫、接听、通话)独占频道；没有前台会话时，来电会话可以进入频道预览
+     *        只在呼叫通道中修改，保证 离开、加入 频道的消息按顺序投递到RTC通道
+     */
+    private static final class MediaLease {
+        final CallSession mSession;         ///< 占用频道的会话
+        final boolean mForeground;          ///< 是否是前台会话，false表示来电预览
+
+        MediaLease(final CallSession session, boolean foreground) {
+            mSession = session;
+            mForeground = foreground;
+        }
+    }
+
+
+
     ////////////////////////////////////////////////////////////////////////
     //////////////////////// Variable Definition ///////////////////////////
     ////////////////////////////////////////////////////////////////////////
-    private ArrayList<ICallkitMgr.ICallback> mCallbackList = new ArrayList<>();
+    private ListenerDispatcher<ICallkitMgr.ICallback> mDispatcher;    ///< 应用层监听器的回调分发
     private AgoraCallkitSdk mSdkInstance;                        ///< 由外部输入的
-    private Handler mWorkHandler;                               ///< 工作线程Handler，从SDK获取到
+    private EventBus mEventBus;                                 ///< 呼叫通道的事件队列
+    private EventBus mRtcEventBus;                              ///< RTC通道的事件队列，所有频道操作在该通道中串行执行
 
-    private static final Object mDataLock = new Object();       ///< 同步访问锁,类中所有变量需要进行加锁处理
     private final Object mReqDialEvent = new Object();
     private final Object mReqHangupEvent = new Object();
     private final Object mReqAnswerEvent = new Object();
 
-    private volatile int mStateMachine = CALLKIT_STATE_IDLE;    ///< 当前呼叫状态机
+    private final ConcurrentHashMap<String, CallSession> mSessionTable = new ConcurrentHashMap<>();  ///< sessionId -> 会话
+    private final AtomicInteger mSessionCount = new AtomicInteger(0);   ///< 当前会话数，包括还没有分配sessionId的呼叫
+    private final AtomicInteger mLocalKeySeq = new AtomicInteger(0);    ///< 本地临时Id序号
+    private volatile MediaLease mMediaLease;        ///< 当前占用RTC频道的会话，只在呼叫通道中修改
+    private int mMaxSessions = 1;                   ///< 同时进行的最大会话数
     private String mAppId;
-    private CallkitContext mCallkitCtx;             ///< 当前呼叫的上下文数据
-    private String mPeerAccountId;                  ///< 通信的对端账号Id
+    private int mRequestSeq = 0;                    ///< 请求序号，用于丢弃已经过期的请求结果，只在工作线程访问
 
     private TalkingEngine mTalkEngine;              ///< 通话引擎
     private SurfaceView mPeerVidew;                 ///< 对端视频帧显示控件
 
-
-
     ///////////////////////////////////////////////////////////////////////
     ////////////////////////// Public Methods  ////////////////////////////
     ///////////////////////////////////////////////////////////////////////
     int initialize(AgoraCallkitSdk sdkInstance) {
         mSdkInstance = sdkInstance;
-        mWorkHandler = sdkInstance.getWorkHandler();
-        mStateMachine = CALLKIT_STATE_IDLE;
+        mEventBus = new EventBus("call",
+                sdkInstance.getWorkHandler(AgoraCallkitSdk.LANE_CALL).getLooper(),
+                EventBus.DEF_CAPACITY, new EventBus.IHandler() {
+                    @Override
+                    public void onEvent(EventBus.Event event) {
+                        workThreadProcessMessage(event);
+                    }
+                });
+        mEventBus.setIdempotent(MSGID_CALL_RTC_PEER_FIRSTVIDEO);   // 只关心最新的首帧尺寸
+
+        mRtcEventBus = new EventBus("rtc",
+                sdkInstance.getWorkHandler(AgoraCallkitSdk.LANE_RTC).getLooper(),
+                EventBus.DEF_CAPACITY, new EventBus.IHandler() {
+                    @Override
+                    public void onEvent(EventBus.Event event) {
+                        rtcThreadProcessMessage(event);
+                    }
+                });
+        mRtcEventBus.setIdempotent(MSGID_RTC_SET_PEER_VIEW);
+        mDispatcher = new ListenerDispatcher<>("call", sdkInstance.getCallbackExecutor());
 
         IAgoraCallkitSdk.InitParam sdkInitParam = sdkInstance.getInitParam();
         mAppId = sdkInitParam.mRtcAppId;
+        mMaxSessions = Math.max(sdkInitParam.mMaxCallSessions, 1);
 
         // 初始化通话引擎
         mTalkEngine = new TalkingEngine();
@@ -132,9 +186,18 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
 
     void release() {
         workThreadClearMessage();
+        for (CallSession session : mSessionTable.values()) {   // 结束所有会话，取消正在进行的请求
+            session.close();
+        }
+        mSessionTable.clear();
+        mSessionCount.set(0);
+        mMediaLease = null;
+        if (mRtcEventBus != null) {
+            mRtcEventBus.close();
+        }
 
-        synchronized (mCallbackList) {
-            mCallbackList.clear();
+        if (mDispatcher != null) {
+            mDispatcher.clear();
         }
 
         // 销毁通话引擎
@@ -151,15 +214,10 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
      */
     void onAwsUpdateClient(JSONObject jsonState) {
         //ALog.getInstance().d(TAG, "<onAwsUpdateClient> jsonState=" + jsonState.toString());
-        if (mWorkHandler != null) {
-            Message msg = new Message();
-            msg.what = MSGID_CALL_PROCESS_AWSEVENT;
-            msg.obj = jsonState;
-            mWorkHandler.sendMessage(msg);   // 所有事件都不要遗漏，全部发送
-        }
+        sendMessage(MSGID_CALL_PROCESS_AWSEVENT, 0, 0, jsonState);   // 所有事件都不要遗漏，全部发送
     }
 
-    void workThreadProcessMessage(Message msg) {
+    void workThreadProcessMessage(EventBus.Event msg) {
         switch (msg.what) {
             case MSGID_CALL_PROCESS_AWSEVENT:
                 DoAwsEventProcess(msg);
@@ -181,6 +239,18 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
                 DoAwsEventTimeout(msg);
                 break;
 
+            case MSGID_CALL_DIAL_DONE:
+                DoRequestDialDone(msg);
+                break;
+
+            case MSGID_CALL_ANSWER_DONE:
+                DoRequestAnswerDone(msg);
+                break;
+
+            case MSGID_CALL_HANGUP_DONE:
+                DoRequestHangupDone(msg);
+                break;
+
             case MSGID_CALL_RTC_PEER_ONLINE:
                 DoRtcPeerOnline(msg);
                 break;
@@ -195,67 +265,114 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
         }
     }
 
+    /*
+     * @brief RTC通道中运行，处理频道操作消息
+     */
+    void rtcThreadProcessMessage(EventBus.Event msg) {
+        switch (msg.what) {
+            case MSGID_RTC_JOIN_CHANNEL:
+                DoRtcJoinChannel(msg);
+                break;
+
+            case MSGID_RTC_PUBLISH:
+                DoRtcPublish(msg);
+                break;
+
+            case MSGID_RTC_LEAVE_CHANNEL:
+                DoRtcLeaveChannel(msg);
+                break;
+
+            case MSGID_RTC_SET_PEER_VIEW:
+                DoRtcSetPeerView(msg);
+                break;
+        }
+    }
+
     void workThreadClearMessage() {
-        if (mWorkHandler != null) {
-            mWorkHandler.removeMessages(MSGID_CALL_PROCESS_AWSEVENT);
-            mWorkHandler.removeMessages(MSGID_CALL_REQ_DIAL);
-            mWorkHandler.removeMessages(MSGID_CALL_REQ_ANSWER);
-            mWorkHandler.removeMessages(MSGID_CALL_REQ_HANGUP);
-            mWorkHandler.removeMessages(MSGID_CALL_RTC_PEER_ONLINE);
-            mWorkHandler.removeMessages(MSGID_CALL_RTC_PEER_OFFLINE);
-            mWorkHandler.removeMessages(MSGID_CALL_AWSEVENT_TIMEOUT);
-            mWorkHandler = null;
+        if (mEventBus != null) {
+            mEventBus.close();
         }
     }
 
     void sendMessage(int what, int arg1, int arg2, Object obj) {
-        Message msg = new Message();
-        msg.what = what;
-        msg.arg1 = arg1;
-        msg.arg2 = arg2;
-        msg.obj = obj;
-        if (mWorkHandler != null) {
-            mWorkHandler.removeMessages(what);
-            mWorkHandler.sendMessage(msg);
+        if (mEventBus != null) {
+            mEventBus.post(what, arg1, arg2, obj);
         }
     }
 
     void sendMessageDelay(int what, int arg1, int arg2, Object obj, long delayTime) {
-        Message msg = new Message();
-        msg.what = what;
-        msg.arg1 = arg1;
-        msg.arg2 = arg2;
-        msg.obj = obj;
-        if (mWorkHandler != null) {
-            mWorkHandler.removeMessages(what);
-            mWorkHandler.sendMessageDelayed(msg, delayTime);
+        if (mEventBus != null) {
+            mEventBus.postDelayed(what, arg1, arg2, obj, delayTime);
         }
     }
 
+    /*
+     * @brief 投递频道操作到RTC通道，不合并相同的消息，保证 加入、推流、离开 按投递顺序执行
+     */
+    void sendRtcMessage(int what, int arg1, int arg2, Object obj) {
+        if (mRtcEventBus != null) {
+            mRtcEventBus.post(what, arg1, arg2, obj);
+        }
+    }
+
+    EventBus getEventBus() {
+        return mEventBus;
+    }
+
+    EventBus getRtcEventBus() {
+        return mRtcEventBus;
+    }
+
+    ListenerDispatcher<ICallkitMgr.ICallback> getDispatcher() {
+        return mDispatcher;
+    }
+
 
     ///////////////////////////////////////////////////////////////////////
     /////////////////// Override Methods of ICallkitMgr //////////////////
     ///////////////////////////////////////////////////////////////////////
     @Override
     public int getStateMachine() {
-        synchronized (mDataLock) {
-            return mStateMachine;
-        }
+        CallSession session = getPrimarySession();
+        return (session != null) ? session.getStateMachine() : CALLKIT_STATE_IDLE;
+    }
+
+    @Override
+    public int getStateMachine(final String sessionId) {
+        CallSession session = findSession(sessionId);
+        return (session != null) ? session.getStateMachine() : CALLKIT_STATE_IDLE;
+    }
+
+    @Override
+    public List<SessionInfo> getSessionList() {
+        ArrayList<SessionInfo> sessionList = new ArrayList<>();
+        MediaLease mediaLease = mMediaLease;
+        for (Map.Entry<String, CallSession> entry : mSessionTable.entrySet()) {
+            CallSession session = entry.getValue();
+            if (!entry.getKey().equals(session.getKey())) {    // 正在替换会话Id，跳过旧的表项
+                continue;
+            }
+            CallSession.Snapshot snapshot = session.getSnapshot();
+            SessionInfo sessionInfo = new SessionInfo();
+            sessionInfo.mSessionId = entry.getKey();
+            sessionInfo.mPeerAccountId = snapshot.mPeerAccountId;
+            sessionInfo.mStateMachine = snapshot.mStateMachine;
+            sessionInfo.mAttachMsg = (snapshot.mCallkitCtx != null) ? snapshot.mCallkitCtx.attachMsg : null;
+            sessionInfo.mMediaActive = ((mediaLease != null) && (mediaLease.mSession == session));
+            sessionList.add(sessionInfo);
+        }
+        return sessionList;
     }
 
     @Override
     public int registerListener(ICallkitMgr.ICallback callback) {
-        synchronized (mCallbackList) {
-            mCallbackList.add(callback);
-        }
+        mDispatcher.addListener(callback);
         return ErrCode.XOK;
     }
 
     @Override
     public int unregisterListener(ICallkitMgr.ICallback callback) {
-        synchronized (mCallbackList) {
-            mCallbackList.remove(callback);
-        }
+        mDispatcher.removeListener(callback);
         return ErrCode.XOK;
     }
 
@@ -266,75 +383,149 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
                     + mSdkInstance.getStateMachine());
             return ErrCode.XERR_BAD_STATE;
         }
-        int currState = getStateMachine();
-        if (currState != CALLKIT_STATE_IDLE) {
-            ALog.getInstance().e(TAG, "<callDial> bad state, currState=" + currState);
-            return ErrCode.XERR_BAD_STATE;
+        // 同一时间只能有一个会话在呼叫或者通话
+        if (hasForegroundSession(null)) {
+            ALog.getInstance().e(TAG, "<callDial> local busy, currState=" + getStateMachine());
+            return ErrCode.XERR_CALLKIT_LOCAL_BUSY;
+        }
+        // 占用一个会话名额，超过最大会话数时返回本地忙
+        if (!reserveSessionSlot()) {
+            ALog.getInstance().e(TAG, "<callDial> too many sessions, sessionCount=" + mSessionCount.get());
+            return ErrCode.XERR_CALLKIT_LOCAL_BUSY;
         }
 
+        // 创建会话，服务器分配sessionId之前使用本地临时Id
+        CallSession session = new CallSession(newLocalKey(), CALLKIT_STATE_DIAL_REQING, peerAccountId);
+        mSessionTable.put(session.getKey(), session);
+
         // 发送请求消息
-        setStateMachine(CALLKIT_STATE_DIAL_REQING);  // 呼叫请求中
-        Object callParams = new Object[] {peerAccountId, attachMsg};
+        Object callParams = new Object[] {session, attachMsg};
         sendMessage(MSGID_CALL_REQ_DIAL, 0, 0, callParams);
 
-        ALog.getInstance().d(TAG, "<callDial> done, peerAccountId=" + peerAccountId
-                + ", attachMsg=" + attachMsg);
+        ALog.getInstance().d(TAG, "<callDial> done, sessionId=" + session.getKey()
+                + ", peerAccountId=" + peerAccountId + ", attachMsg=" + attachMsg);
         return ErrCode.XOK;
     }
 
     @Override
     public int callHangup() {
+        CallSession session = getPrimarySession();
+        if (session == null) {
+            ALog.getInstance().e(TAG, "<callHangup> bad state, no session");
+            return ErrCode.XERR_BAD_STATE;
+        }
+        return hangupSession(session);
+    }
+
+    @Override
+    public int callHangup(final String sessionId) {
+        CallSession session = findSession(sessionId);
+        if (session == null) {
+            ALog.getInstance().e(TAG, "<callHangup> session not found, sessionId=" + sessionId);
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+        return hangupSession(session);
+    }
+
+    @Override
+    public int callAnswer() {
+        // 优先接听正在频道内预览的来电
+        MediaLease mediaLease = mMediaLease;
+        if ((mediaLease != null) && (mediaLease.mSession.getStateMachine() == CALLKIT_STATE_INCOMING)) {
+            return answerSession(mediaLease.mSession);
+        }
+        for (CallSession session : mSessionTable.values()) {
+            if (session.getStateMachine() == CALLKIT_STATE_INCOMING) {
+                return answerSession(session);
+            }
+        }
+
+        ALog.getInstance().e(TAG, "<callAnswer> bad state, currState=" + getStateMachine());
+        return ErrCode.XERR_BAD_STATE;
+    }
+
+    @Override
+    public int callAnswer(final String sessionId) {
+        CallSession session = findSession(sessionId);
+        if (session == null) {
+            ALog.getInstance().e(TAG, "<callAnswer> session not found, sessionId=" + sessionId);
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+        return answerSession(session);
+    }
+
+    /*
+     * @brief 挂断一个会话，可以在任意线程中调用
+     */
+    int hangupSession(final CallSession session) {
         if (mSdkInstance.getStateMachine() != IAgoraCallkitSdk.SDK_STATE_RUNNING) {
-            ALog.getInstance().e(TAG, "<callHangup> bad state, sdkState="
+            ALog.getInstance().e(TAG, "<hangupSession> bad state, sdkState="
                     + mSdkInstance.getStateMachine());
             return ErrCode.XERR_BAD_STATE;
         }
-        int currState = getStateMachine();
+        // 呼叫请求还在进行中，直接断开请求连接，呼叫请求完成的处理中清理状态
+        CallSession.Snapshot snapshot = session.getSnapshot();
+        AsyncRequest<AgoraService.CallReqResult> dialRequest = session.mDialRequest;
+        if ((snapshot.mStateMachine == CALLKIT_STATE_DIAL_REQING) && (dialRequest != null)) {
+            dialRequest.getCancelToken().cancel();
+            ALog.getInstance().d(TAG, "<hangupSession> done, cancel dial request, sessionId=" + session.getKey());
+            return ErrCode.XOK;
+        }
+
+        int currState = snapshot.mStateMachine;
         if ((currState != CALLKIT_STATE_DIALING) &&
             (currState != CALLKIT_STATE_TALKING) &&
             (currState != CALLKIT_STATE_INCOMING)) {
-            ALog.getInstance().e(TAG, "<callHangup> bad state, currState=" + currState);
+            ALog.getInstance().e(TAG, "<hangupSession> bad state, currState=" + currState);
             return ErrCode.XERR_BAD_STATE;
         }
-        synchronized (mDataLock) {
-            if (mCallkitCtx == null) {
-                ALog.getInstance().e(TAG, "<callHangup> bad state, mCallkitCtx is NULL");
-                return ErrCode.XERR_BAD_STATE;
-            }
+        if (snapshot.mCallkitCtx == null) {
+            ALog.getInstance().e(TAG, "<hangupSession> bad state, mCallkitCtx is NULL");
+            return ErrCode.XERR_BAD_STATE;
         }
 
-        // 发送请求消息，同步等待执行完成
-        setStateMachine(CALLKIT_STATE_HANGUP_REQING);  // 挂断请求中
-        sendMessage(MSGID_CALL_REQ_HANGUP, 0, 0, null);
+        // 切换到 挂断请求中，状态已经被工作线程改变时返回错误
+        if (!session.transitState(currState, CALLKIT_STATE_HANGUP_REQING)) {
+            ALog.getInstance().e(TAG, "<hangupSession> state changed, currState=" + session.getStateMachine());
+            return ErrCode.XERR_BAD_STATE;
+        }
+        sendMessage(MSGID_CALL_REQ_HANGUP, 0, 0, session);
 
-        ALog.getInstance().d(TAG, "<callHangup> done");
+        ALog.getInstance().d(TAG, "<hangupSession> done, sessionId=" + session.getKey());
         return ErrCode.XOK;
     }
 
-    @Override
-    public int callAnswer() {
+    /*
+     * @brief 接听一个来电会话，可以在任意线程中调用
+     */
+    int answerSession(final CallSession session) {
         if (mSdkInstance.getStateMachine() != IAgoraCallkitSdk.SDK_STATE_RUNNING) {
-            ALog.getInstance().e(TAG, "<callAnswer> bad state, sdkState="
+            ALog.getInstance().e(TAG, "<answerSession> bad state, sdkState="
                     + mSdkInstance.getStateMachine());
             return ErrCode.XERR_BAD_STATE;
         }
-        int currState = getStateMachine();
-        if (currState != CALLKIT_STATE_INCOMING) {
-            ALog.getInstance().e(TAG, "<callAnswer> bad state, currState=" + currState);
+        CallSession.Snapshot snapshot = session.getSnapshot();
+        if (snapshot.mStateMachine != CALLKIT_STATE_INCOMING) {
+            ALog.getInstance().e(TAG, "<answerSession> bad state, currState=" + snapshot.mStateMachine);
             return ErrCode.XERR_BAD_STATE;
         }
-        synchronized (mDataLock) {
-            if (mCallkitCtx == null) {
-                ALog.getInstance().e(TAG, "<callAnswer> bad state, mCallkitCtx is NULL");
-                return ErrCode.XERR_BAD_STATE;
-            }
+        if (snapshot.mCallkitCtx == null) {
+            ALog.getInstance().e(TAG, "<answerSession> bad state, mCallkitCtx is NULL");
+            return ErrCode.XERR_BAD_STATE;
+        }
+        if (hasForegroundSession(session)) {    // 其他会话正在呼叫或者通话
+            ALog.getInstance().e(TAG, "<answerSession> local busy, sessionId=" + session.getKey());
+            return ErrCode.XERR_CALLKIT_LOCAL_BUSY;
         }
 
-        // 发送请求消息，同步等待执行完成
-        setStateMachine(CALLKIT_STATE_ANSWER_REQING);  // 应答请求中
-        sendMessage(MSGID_CALL_REQ_ANSWER, 0, 0, null);
+        // 切换到 应答请求中，状态已经被工作线程改变时返回错误
+        if (!session.transitState(CALLKIT_STATE_INCOMING, CALLKIT_STATE_ANSWER_REQING)) {
+            ALog.getInstance().e(TAG, "<answerSession> state changed, currState=" + session.getStateMachine());
+            return ErrCode.XERR_BAD_STATE;
+        }
+        sendMessage(MSGID_CALL_REQ_ANSWER, 0, 0, session);
 
-        ALog.getInstance().d(TAG, "<callAnswer> done");
+        ALog.getInstance().d(TAG, "<answerSession> done, sessionId=" + session.getKey());
         return ErrCode.XOK;
     }
 
@@ -483,140 +674,246 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
     /////////////////////////// APP端发送RESTful请求到服务器 //////////////////////
     /////////////////////////////////////////////////////////////////////////////
     /*
-     * @brief 工作线程中运行，发送HTTP呼叫请求
+     * @brief 工作线程中运行，异步发送HTTP呼叫请求，请求结果通过 MSGID_CALL_DIAL_DONE 消息返回，
+     *        请求期间工作线程继续处理AWS事件和RTC事件
      */
-    void DoRequestDial(Message msg) {
+    void DoRequestDial(EventBus.Event msg) {
         Object[] callParams = (Object[]) (msg.obj);
-        String peerAccountId = (String)(callParams[0]);
+        final CallSession session = (CallSession)(callParams[0]);
         String attachMsg = (String)(callParams[1]);
-        synchronized (mDataLock) {
-            mPeerAccountId = peerAccountId;
+        String peerAccountId = session.getPeerAccountId();
+        if (session.isClosed()) {   // 请求发送之前会话已经结束
+            ALog.getInstance().d(TAG, "<DoRequestDial> session closed, sessionId=" + session.getKey());
+            return;
+        }
+
+        // 成为前台会话，其他会话正在呼叫或者通话时本地忙
+        if (!acquireMedia(session, false)) {
+            ALog.getInstance().e(TAG, "<DoRequestDial> local busy, sessionId=" + session.getKey());
+            closeSession(session);
+            CallbackCallDialDone(session.getKey(), ErrCode.XERR_CALLKIT_LOCAL_BUSY, peerAccountId);
+            return;
         }
 
+        final int dialSeq = ++mRequestSeq;
         AccountMgr.AccountInfo accountInfo = mSdkInstance.getAccountInfo();
-        AgoraService.CallReqResult callReqResult = AgoraService.getInstance().makeCall(
+        session.mDialSeq = dialSeq;
+        session.mDialRequest = AgoraService.getInstance().makeCallAsync(
                 accountInfo.mAgoraAccessToken, mAppId,
-                accountInfo.mInventDeviceName,  peerAccountId, attachMsg);
+                accountInfo.mInventDeviceName,  peerAccountId, attachMsg,
+                new AsyncRequest.ICallback<AgoraService.CallReqResult>() {
+                    @Override
+                    public void onResult(AgoraService.CallReqResult result) {
+                        sendMessage(MSGID_CALL_DIAL_DONE, dialSeq, 0, new Object[] {session, result});
+                    }
+                });
+
+        ALog.getInstance().d(TAG, "<DoRequestDial> done, dialSeq=" + dialSeq
+                + ", sessionId=" + session.getKey() + ", peerAccountId=" + peerAccountId);
+    }
 
-        if (callReqResult.mErrCode != ErrCode.XOK)   {  // 呼叫失败
-            ALog.getInstance().d(TAG, "<DoRequestDial> failure, errCode=" + callReqResult.mErrCode);
-            exceptionProcess();
-            CallbackCallDialDone(callReqResult.mErrCode, peerAccountId); // 回调主叫拨号失败
+    /*
+     * @brief 工作线程中运行，处理呼叫请求的结果
+     *        AWS的主叫事件可能先于HTTP回应到达，此时状态机已经切换到主叫状态，只需要记录结果
+     */
+    void DoRequestDialDone(EventBus.Event msg) {
+        Object[] resultParams = (Object[]) (msg.obj);
+        CallSession session = (CallSession)(resultParams[0]);
+        AgoraService.CallReqResult callReqResult = (AgoraService.CallReqResult)(resultParams[1]);
+        AsyncRequest<AgoraService.CallReqResult> dialRequest = session.mDialRequest;
+        if ((dialRequest == null) || (msg.arg1 != session.mDialSeq)) {     // 请求已经过期，会话已经结束
+            ALog.getInstance().d(TAG, "<DoRequestDialDone> discard stale result, dialSeq=" + msg.arg1
+                    + ", errCode=" + callReqResult.mErrCode);
+            return;
+        }
+        boolean cancelled = dialRequest.getCancelToken().isCancelled();
+        session.mDialRequest = null;    // 之后的挂断走正常的挂断流程
+        String peerAccountId = session.getPeerAccountId();
+        if (callReqResult.mErrCode == ErrCode.XOK) {   // 会话表改用服务器分配的sessionId
+            bindSessionId(session, callReqResult.mCallkitCtx.sessionId);
+        }
+        if (cancelled && (callReqResult.mErrCode == ErrCode.XOK)) {
+            session.updateSnapshot(-1, callReqResult.mCallkitCtx, null);  // 请求已经成功，需要通知服务器挂断
+        }
+        if (cancelled) {    // 呼叫请求中被挂断
+            ALog.getInstance().d(TAG, "<DoRequestDialDone> cancelled by hangup, errCode="
+                    + callReqResult.mErrCode);
+            exceptionProcess(session);
+            CallbackCallDialDone(session.getKey(), ErrCode.XERR_HTTP_CANCELED, peerAccountId);
             return;
         }
 
+        int stateMachine = session.getStateMachine();
+        if (stateMachine != CALLKIT_STATE_DIAL_REQING) {    // AWS主叫事件已经先到达并处理
+            ALog.getInstance().d(TAG, "<DoRequestDialDone> dial event arrived first"
+                    + ", currState=" + getStateMachineTip(stateMachine)
+                    + ", errCode=" + callReqResult.mErrCode);
+            return;
+        }
 
-        // 更新呼叫上下文数据
-        synchronized (mDataLock) {
-            mCallkitCtx = callReqResult.mCallkitCtx;
+        if (callReqResult.mErrCode != ErrCode.XOK)   {  // 呼叫失败
+            ALog.getInstance().d(TAG, "<DoRequestDialDone> failure, errCode=" + callReqResult.mErrCode);
+            exceptionProcess(session);
+            CallbackCallDialDone(session.getKey(), callReqResult.mErrCode, peerAccountId); // 回调主叫拨号失败
+            return;
         }
 
-        // 切换到 等待主叫响应状态
-        setStateMachine(CALLKIT_STATE_DIAL_RSPING);
+        // 更新呼叫上下文数据，切换到 等待主叫响应状态
+        CallkitContext callkitCtx = callReqResult.mCallkitCtx;
+        session.updateSnapshot(CALLKIT_STATE_DIAL_RSPING, callkitCtx, null);
 
         // 进入频道，准备主叫通话
-        talkingPrepare(true, callReqResult.mCallkitCtx.channelName,
-                callReqResult.mCallkitCtx.rtcToken,
-                mCallkitCtx.mLocalUid,
-                mCallkitCtx.mPeerUid);
+        talkingPrepare(session, true);
 
-        // 启动AWS Event超时定时器
-        sendMessageDelay(MSGID_CALL_AWSEVENT_TIMEOUT, HTTP_REQID_DIAL, 0, null, AWS_EVENT_TIMEOUT);
+        // 启动会话的AWS Event超时定时器
+        sendMessageDelay(MSGID_CALL_AWSEVENT_TIMEOUT, HTTP_REQID_DIAL, 0, session, AWS_EVENT_TIMEOUT);
 
-        ALog.getInstance().d(TAG, "<DoRequestDial> done, mCallkitCtx=" + mCallkitCtx.toString());
+        ALog.getInstance().d(TAG, "<DoRequestDialDone> done, mCallkitCtx=" + callkitCtx.toString());
     }
 
     /*
-     * @brief 工作线程中运行，发送HTTP挂断请求
+     * @brief 工作线程中运行，异步发送HTTP挂断请求，不等待请求结果，立即结束会话
      */
-    void DoRequestHangup(Message msg) {
-        CallkitContext callkitCtx;
-        synchronized (mDataLock) {
-            callkitCtx = mCallkitCtx;
-        }
+    void DoRequestHangup(EventBus.Event msg) {
+        CallSession session = (CallSession)(msg.obj);
+        CallkitContext callkitCtx = session.getCallkitCtx();
 
-        int errCode;
-        if ((callkitCtx != null) || (callkitCtx.sessionId != null)) {
+        if ((callkitCtx != null) && (callkitCtx.sessionId != null)) {
             // 发送挂断请求
+            final int hangupSeq = ++mRequestSeq;
             AccountMgr.AccountInfo accountInfo = mSdkInstance.getAccountInfo();
-            errCode = AgoraService.getInstance().makeAnswer(accountInfo.mAgoraAccessToken,
+            AgoraService.getInstance().makeAnswerAsync(accountInfo.mAgoraAccessToken,
                     callkitCtx.sessionId, callkitCtx.callerId, callkitCtx.calleeId,
-                    accountInfo.mInventDeviceName, false);
+                    accountInfo.mInventDeviceName, false,
+                    new AsyncRequest.ICallback<Integer>() {
+                        @Override
+                        public void onResult(Integer errCode) {
+                            sendMessage(MSGID_CALL_HANGUP_DONE, hangupSeq, 0, errCode);
+                        }
+                    });
         } else {
-            ALog.getInstance().e(TAG, "<DoRequestAnswer> bad status, callkit is NULL");
-            errCode = ErrCode.XERR_BAD_STATE;
+            ALog.getInstance().e(TAG, "<DoRequestHangup> bad status, callkit is NULL");
         }
 
         //
-        // 不管前面是否异常状态，总是停止所有处理，清零到空闲状态
+        // 不管前面是否异常状态，总是结束会话
         //
-        mTalkEngine.leaveChannel();     // 离开频道，结束通话
-        synchronized (mDataLock) {      // 清除当前呼叫上下文数据，恢复状态
-            mStateMachine = CALLKIT_STATE_IDLE;
-            mCallkitCtx = null;
-            mPeerAccountId = null;
-        }
-        if (mWorkHandler != null) {   // 取消AWS Event超时定时器
-            mWorkHandler.removeMessages(MSGID_CALL_AWSEVENT_TIMEOUT);
-        }
+        talkingStop(session);
 
-        ALog.getInstance().d(TAG, "<DoRequestHangup> done, errCode=" + errCode);
+        ALog.getInstance().d(TAG, "<DoRequestHangup> done, sessionId=" + session.getKey());
+    }
+
+    /*
+     * @brief 工作线程中运行，挂断请求完成，本地会话已经结束，只记录结果
+     */
+    void DoRequestHangupDone(EventBus.Event msg) {
+        int errCode = (Integer)(msg.obj);
+        ALog.getInstance().d(TAG, "<DoRequestHangupDone> hangupSeq=" + msg.arg1 + ", errCode=" + errCode);
     }
 
 
     /*
-     * @brief 工作线程中运行，发送HTTP接听请求
+     * @brief 工作线程中运行，异步发送HTTP接听请求，请求结果通过 MSGID_CALL_ANSWER_DONE 消息返回
      */
-    void DoRequestAnswer(Message msg) {
-        CallkitContext callkitCtx;
-        synchronized (mDataLock) {
-            callkitCtx = mCallkitCtx;
+    void DoRequestAnswer(EventBus.Event msg) {
+        final CallSession session = (CallSession)(msg.obj);
+        CallkitContext callkitCtx = session.getCallkitCtx();
+        if (session.isClosed()) {   // 接听之前会话已经结束，例如对端已经挂断
+            ALog.getInstance().d(TAG, "<DoRequestAnswer> session closed, sessionId=" + session.getKey());
+            return;
         }
 
         if ((callkitCtx == null) || (callkitCtx.sessionId == null)) { // 异常状态，直接清除，恢复状态
             ALog.getInstance().e(TAG, "<DoRequestAnswer> bad status, callkit is NULL");
-            exceptionProcess();
-            CallbackError(ErrCode.XERR_INVALID_PARAM);
+            exceptionProcess(session);
+            CallbackError(session.getKey(), ErrCode.XERR_INVALID_PARAM);
+            return;
+        }
+
+        // 成为前台会话，来电预览的会话让出频道
+        if (!acquireMedia(session, true)) {
+            ALog.getInstance().e(TAG, "<DoRequestAnswer> local busy, sessionId=" + session.getKey());
+            exceptionProcess(session);
+            CallbackError(session.getKey(), ErrCode.XERR_CALLKIT_LOCAL_BUSY);
             return;
         }
 
+        final int answerSeq = ++mRequestSeq;
         AccountMgr.AccountInfo accountInfo = mSdkInstance.getAccountInfo();
-        int errCode = AgoraService.getInstance().makeAnswer(accountInfo.mAgoraAccessToken,
+        session.mAnswerSeq = answerSeq;
+        session.mAnswerRequest = AgoraService.getInstance().makeAnswerAsync(accountInfo.mAgoraAccessToken,
                 callkitCtx.sessionId, callkitCtx.callerId, callkitCtx.calleeId,
-                accountInfo.mInventDeviceName, true);
+                accountInfo.mInventDeviceName, true,
+                new AsyncRequest.ICallback<Integer>() {
+                    @Override
+                    public void onResult(Integer errCode) {
+                        sendMessage(MSGID_CALL_ANSWER_DONE, answerSeq, 0, new Object[] {session, errCode});
+                    }
+                });
+
+        ALog.getInstance().d(TAG, "<DoRequestAnswer> done, answerSeq=" + answerSeq
+                + ", sessionId=" + session.getKey());
+    }
+
+    /*
+     * @brief 工作线程中运行，处理接听请求的结果
+     *        AWS的通话事件可能先于HTTP回应到达，此时状态机已经切换到通话状态，只需要记录结果
+     */
+    void DoRequestAnswerDone(EventBus.Event msg) {
+        Object[] resultParams = (Object[]) (msg.obj);
+        CallSession session = (CallSession)(resultParams[0]);
+        int errCode = (Integer)(resultParams[1]);
+        if ((session.mAnswerRequest == null) || (msg.arg1 != session.mAnswerSeq)) {  // 请求已经过期，会话已经结束
+            ALog.getInstance().d(TAG, "<DoRequestAnswerDone> discard stale result, answerSeq="
+                    + msg.arg1 + ", errCode=" + errCode);
+            return;
+        }
+        session.mAnswerRequest = null;
+
+        int stateMachine = session.getStateMachine();
+        if (stateMachine != CALLKIT_STATE_ANSWER_REQING) {  // AWS通话事件已经先到达并处理
+            ALog.getInstance().d(TAG, "<DoRequestAnswerDone> talking event arrived first"
+                    + ", currState=" + getStateMachineTip(stateMachine) + ", errCode=" + errCode);
+            return;
+        }
 
         if (errCode != ErrCode.XOK) {  // 接听失败
-            ALog.getInstance().d(TAG, "<DoRequestAnswer> failure, errCode=" + errCode);
-            exceptionProcess();         // 直接退出频道和挂断处理
-            CallbackError(errCode);  // 回调错误
+            ALog.getInstance().d(TAG, "<DoRequestAnswerDone> failure, errCode=" + errCode);
+            exceptionProcess(session);  // 直接退出频道和挂断处理
+            CallbackError(session.getKey(), errCode);  // 回调错误
             return;
         }
 
         // 切换到 等待接听响应状态
-        setStateMachine(CALLKIT_STATE_ANSWER_RSPING);
+        session.updateSnapshot(CALLKIT_STATE_ANSWER_RSPING, null, null);
 
-        // 启动AWS Event超时定时器
-        sendMessageDelay(MSGID_CALL_AWSEVENT_TIMEOUT, HTTP_REQID_ANSWER, 0, null, AWS_EVENT_TIMEOUT);
+        // 启动会话的AWS Event超时定时器
+        sendMessageDelay(MSGID_CALL_AWSEVENT_TIMEOUT, HTTP_REQID_ANSWER, 0, session, AWS_EVENT_TIMEOUT);
 
-        ALog.getInstance().d(TAG, "<DoRequestAnswer> done");
+        ALog.getInstance().d(TAG, "<DoRequestAnswerDone> done, sessionId=" + session.getKey());
     }
 
     /*
      * @brief 工作线程中运行，发送HTTP请求（主叫或者接听）后，超时无AWS事件，进行挂断处理
      *        正常情况下，永远不应该进入这个消息处理
      */
-    void DoAwsEventTimeout(Message msg) {
-        ALog.getInstance().e(TAG, "<DoAwsEventTimeout> done, from=" + msg.arg1);
+    void DoAwsEventTimeout(EventBus.Event msg) {
+        CallSession session = (CallSession)(msg.obj);
+        ALog.getInstance().e(TAG, "<DoAwsEventTimeout> done, from=" + msg.arg1
+                + ", sessionId=" + session.getKey());
+        if (session.isClosed()) {
+            return;
+        }
         switch (msg.arg1) {
             case HTTP_REQID_DIAL: {  // 发送主叫HTTP请求后，超时无AWS事件响应
-                String peerAccountId = mPeerAccountId;
-                exceptionProcess();
-                CallbackCallDialDone(ErrCode.XERR_TIMEOUT, peerAccountId);  // 回调拨号失败
+                String peerAccountId = session.getPeerAccountId();
+                exceptionProcess(session);
+                CallbackCallDialDone(session.getKey(), ErrCode.XERR_TIMEOUT, peerAccountId);  // 回调拨号失败
             } break;
 
             case HTTP_REQID_ANSWER: {  // 发送接听HTTP请求后，超时无AWS事件响应
-                exceptionProcess();
-                CallbackError(ErrCode.XERR_CALLKIT_ANSWER);  // 回调错误
+                exceptionProcess(session);
+                CallbackError(session.getKey(), ErrCode.XERR_CALLKIT_ANSWER);  // 回调错误
             } break;
         }
     }
@@ -627,11 +924,11 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
     ///////////////////////////// 处理AWS的事件 ////////////////////////////
     ///////////////////////////////////////////////////////////////////////
     /*
-     * @brief 工作线程中运行，处理AWS要求切换到空闲状态事件
+     * @brief 工作线程中运行，处理AWS要求会话切换到空闲状态事件
      */
-    void DoAwsEventToIdle(int reason, JSONObject jsonState) {
-        int stateMachine = getStateMachine();
-        ALog.getInstance().w(TAG, "<DoAwsEventToIdle> "
+    void DoAwsEventToIdle(final CallSession session, int reason) {
+        int stateMachine = session.getStateMachine();
+        ALog.getInstance().w(TAG, "<DoAwsEventToIdle> sessionId=" + session.getKey()
                 + ", currState=" + getStateMachineTip(stateMachine)
                 + ", reason=" + getReasonTip(reason));
         if (stateMachine == CALLKIT_STATE_IDLE || stateMachine == CALLKIT_STATE_HANGUP_REQING) {
@@ -643,137 +940,116 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
         {
             case REASON_LOCAL_HANGUP: {  // 本地挂断，不管当前处于什么状态，立即挂断处理
                 ALog.getInstance().d(TAG, "<DoAwsEventToIdle> local hangup");
-                talkingStop();  // 停止通话，恢复状态机空闲，清除呼叫和对端信息
+                talkingStop(session);  // 结束会话，离开频道
 
             } break;
 
             case REASON_PEER_HANGUP: {  // 对端挂断，不管当前处于什么状态，立即挂断处理
                 ALog.getInstance().d(TAG, "<DoAwsEventProcess> peer hangup");
-                String callbackAccountId = mPeerAccountId;
-                talkingStop();  // 停止通话，恢复状态机空闲，清除呼叫和对端信息
-                CallbackPeerHangup(callbackAccountId);    // 回调对端挂断
+                String callbackAccountId = session.getPeerAccountId();
+                talkingStop(session);  // 结束会话，离开频道
+                CallbackPeerHangup(session.getKey(), callbackAccountId);    // 回调对端挂断
 
             } break;
 
             case REASON_CALL_TIMEOUT: { // 呼叫超时，对端超时无响应，立即挂断处理
                 ALog.getInstance().d(TAG, "<DoAwsEventProcess> call timeout during dialing");
-                String callbackAccountId = mPeerAccountId;
-                talkingStop();  // 停止通话，恢复状态机空闲，清除呼叫和对端信息
-                CallbackPeerTimeout(callbackAccountId);   // 回调对端超时
+                String callbackAccountId = session.getPeerAccountId();
+                talkingStop(session);  // 结束会话，离开频道
+                CallbackPeerTimeout(session.getKey(), callbackAccountId);   // 回调对端超时
             } break;
         }
     }
 
     /*
-     * @brief 工作线程中运行，处理AWS要求切换到主叫状态事件
+     * @brief 工作线程中运行，处理AWS要求会话切换到主叫状态事件
      */
-    void DoAwsEventToDial(int reason, JSONObject jsonState) {
-        int stateMachine = getStateMachine();
-        ALog.getInstance().w(TAG, "<DoAwsEventToDial> "
+    void DoAwsEventToDial(final CallSession session, int reason) {
+        int stateMachine = session.getStateMachine();
+        ALog.getInstance().w(TAG, "<DoAwsEventToDial> sessionId=" + session.getKey()
                 + ", currState=" + getStateMachineTip(stateMachine)
                 + ", reason=" + getReasonTip(reason));
 
-        if (stateMachine != CALLKIT_STATE_DIAL_RSPING) {  // 不是等待呼叫响应，呼叫状态有问题
+        if ((stateMachine != CALLKIT_STATE_DIAL_RSPING) &&
+            (stateMachine != CALLKIT_STATE_DIAL_REQING)) {  // 不是呼叫请求中或等待呼叫响应，呼叫状态有问题
             ALog.getInstance().e(TAG, "<DoAwsEventToDial> bad state machine, auto hangup");
-            exceptionProcess();
-            CallbackError(ErrCode.XERR_BAD_STATE);  // 回调状态错误
+            exceptionProcess(session);
+            CallbackError(session.getKey(), ErrCode.XERR_BAD_STATE);  // 回调状态错误
             return;
         }
 
         ALog.getInstance().d(TAG, "<DoAwsEventToDial> local dialing success.");
-        synchronized (mDataLock) {
-            if (mCallkitCtx == null) {
-                mCallkitCtx = new CallkitContext();  // 要创建新的呼叫上下文数据
-            }
-        }
-        updateCallContext(jsonState);  // 本地主叫成功，更新上呼叫上下文数据
-        String channelName, rtcToken;
-        int localUid = 0, peerUid = 0;
-        synchronized (mDataLock) {
-            mStateMachine = CALLKIT_STATE_DIALING;      // 切换当前状态机
-            channelName = mCallkitCtx.channelName;
-            rtcToken = mCallkitCtx.rtcToken;
-            localUid = mCallkitCtx.mLocalUid;
-            peerUid = mCallkitCtx.mPeerUid;
-        }
+        CallSession.Snapshot snapshot = session.updateSnapshot(CALLKIT_STATE_DIALING, null, null);
 
         // 进入频道，准备主叫通话
-        talkingPrepare(true, channelName, rtcToken, localUid, peerUid);
+        talkingPrepare(session, true);
 
-        CallbackCallDialDone(ErrCode.XOK, mPeerAccountId); // 回调主叫拨号成功
+        CallbackCallDialDone(session.getKey(), ErrCode.XOK, snapshot.mPeerAccountId); // 回调主叫拨号成功
     }
 
     /*
-     * @brief 工作线程中运行，处理AWS要求切换到被叫状态事件
+     * @brief 工作线程中运行，处理AWS要求会话切换到被叫状态事件
      */
-    void DoAwsEventToIncoming(int reason, JSONObject jsonState) {
-        int stateMachine = getStateMachine();
-        ALog.getInstance().w(TAG, "<DoAwsEventToIncoming> "
+    void DoAwsEventToIncoming(final CallSession session, int reason) {
+        int stateMachine = session.getStateMachine();
+        ALog.getInstance().w(TAG, "<DoAwsEventToIncoming> sessionId=" + session.getKey()
                 + ", currState=" + getStateMachineTip(stateMachine)
                 + ", reason=" + getReasonTip(reason));
 
-        if (stateMachine != CALLKIT_STATE_IDLE) {    // 不是在空闲状态中来电，呼叫状态有问题
+        if (stateMachine != CALLKIT_STATE_IDLE) {    // 不是新建的会话中来电，呼叫状态有问题
             ALog.getInstance().e(TAG, "<DoAwsEventToIncoming> bad state machine, auto hangup");
-            exceptionProcess();
-            CallbackError(ErrCode.XERR_BAD_STATE);  // 回调状态错误
+            exceptionProcess(session);
+            CallbackError(session.getKey(), ErrCode.XERR_BAD_STATE);  // 回调状态错误
             return;
         }
 
         ALog.getInstance().d(TAG, "<DoAwsEventToIncoming> peer incoming call...");
-        updateCallContext(jsonState);  // 更新上呼叫上下文数据
-
-        String channelName, rtcToken;
-        int localUid = 0, peerUid = 0;
-        synchronized (mDataLock) {
-            mStateMachine = CALLKIT_STATE_INCOMING;      // 切换当前状态机到来电
-            if (mCallkitCtx.calleeId == null) {   // 如果来电数据没有被呼账号，用本地填充
-                AccountMgr.AccountInfo accountInfo = mSdkInstance.getAccountInfo();
-                mCallkitCtx.calleeId = accountInfo.mInventDeviceName;
-            }
-
-            channelName = mCallkitCtx.channelName;
-            rtcToken = mCallkitCtx.rtcToken;
-            localUid = mCallkitCtx.mLocalUid;
-            peerUid = mCallkitCtx.mPeerUid;
-
-            //  创建一个新对端账号Id
-            mPeerAccountId = mCallkitCtx.calleeId;
-            ALog.getInstance().e(TAG, "<DoAwsEventToIncoming> cannot found incoming device"
-                    + ", callerId=" + mCallkitCtx.callerId);
-
+        CallkitContext callkitCtx = session.getCallkitCtx();
+        if (callkitCtx.calleeId == null) {   // 如果来电数据没有被呼账号，用本地填充
+            AccountMgr.AccountInfo accountInfo = mSdkInstance.getAccountInfo();
+            callkitCtx = callkitCtx.clone();     // 发布的上下文是只读的，在副本上修改
+            callkitCtx.calleeId = accountInfo.mInventDeviceName;
         }
 
-        // 进入频道，准备被叫通话
-        talkingPrepare(false, channelName, rtcToken, localUid, peerUid);
+        //  切换会话状态机到来电，创建一个新对端账号Id
+        CallSession.Snapshot snapshot = session.updateSnapshot(CALLKIT_STATE_INCOMING, callkitCtx,
+                                                                callkitCtx.calleeId);
+        ALog.getInstance().e(TAG, "<DoAwsEventToIncoming> cannot found incoming device"
+                + ", callerId=" + callkitCtx.callerId);
+
+        // 频道空闲时进入频道，准备被叫通话
+        previewMedia(session);
 
-        CallbackPeerIncoming(mPeerAccountId, mCallkitCtx.attachMsg); // 回调对端来电
+        CallbackPeerIncoming(session.getKey(), snapshot.mPeerAccountId, callkitCtx.attachMsg); // 回调对端来电
     }
 
 
     /*
-     * @brief 工作线程中运行，处理AWS要求切换到通话状态事件
+     * @brief 工作线程中运行，处理AWS要求会话切换到通话状态事件
      */
-    void DoAwsEventToTalking(int reason, JSONObject jsonState) {
-        int stateMachine = getStateMachine();
-        ALog.getInstance().w(TAG, "<DoAwsEventToTalking> "
+    void DoAwsEventToTalking(final CallSession session, int reason) {
+        int stateMachine = session.getStateMachine();
+        ALog.getInstance().w(TAG, "<DoAwsEventToTalking> sessionId=" + session.getKey()
                 + ", currState=" + getStateMachineTip(stateMachine)
                 + ", reason=" + getReasonTip(reason));
 
         if ((reason == REASON_PEER_ANSWER) && (stateMachine == CALLKIT_STATE_DIALING)) {
             // 主叫时对端接听
             ALog.getInstance().d(TAG, "<DoAwsEventToTalking> enter talk during dialing");
-            talkingStart(); // 在频道内推送音频流，开始通话
-            CallbackPeerAnswer(ErrCode.XOK, mPeerAccountId); // 回调对端接听，进入通话状态
+            talkingStart(session); // 在频道内推送音频流，开始通话
+            CallbackPeerAnswer(session.getKey(), ErrCode.XOK, session.getPeerAccountId()); // 回调对端接听，进入通话状态
 
-        } else if ((reason == REASON_LOCAL_ANSWER) && (stateMachine == CALLKIT_STATE_ANSWER_RSPING)) {
-            // 被叫时本地接听
+        } else if ((reason == REASON_LOCAL_ANSWER) &&
+                   ((stateMachine == CALLKIT_STATE_ANSWER_RSPING) ||
+                    (stateMachine == CALLKIT_STATE_ANSWER_REQING))) {
+            // 被叫时本地接听，AWS事件可能先于接听请求的回应到达
             ALog.getInstance().d(TAG, "<DoAwsEventProcess> enter talk during incoming");
-            talkingStart(); // 在频道内推送音频流，开始通话
+            talkingStart(session); // 在频道内推送音频流，开始通话
 
         } else {
             ALog.getInstance().e(TAG, "<DoAwsEventToTalking>  bad state machine, auto hangup");
-            exceptionProcess();
-            CallbackError(ErrCode.XERR_BAD_STATE);  // 回调状态错误
+            exceptionProcess(session);
+            CallbackError(session.getKey(), ErrCode.XERR_BAD_STATE);  // 回调状态错误
         }
     }
 
@@ -781,134 +1057,188 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
     /*
      * brief 工作线程中运行，处理AWS的事件，这里提取到的信息
      *       callStatus: 服务器要求APP端切换到的目标状态，
+     *       sessionId: 事件所属的会话，按sessionId分发到各个会话
      */
-    void DoAwsEventProcess(Message msg) {
+    void DoAwsEventProcess(EventBus.Event msg) {
         JSONObject jsonState = (JSONObject)(msg.obj);
         if (!jsonState.has("callStatus")) {
             ALog.getInstance().e(TAG, "<DoAwsEventProcess> no field: callStatus");
             return;
         }
-        updateCallContext(jsonState);
+        CallkitContext updateCtx = parseCallContext(jsonState);
         int targetState = parseJsonIntValue(jsonState, "callStatus", -1);
         int reason = parseJsonIntValue(jsonState, "reason", REASON_NONE);
-        int stateMachine = getStateMachine();
-        ALog.getInstance().d(TAG, "<DoAwsEventProcess> "
+
+        CallSession session = findAwsSession(targetState, updateCtx);
+        if (session == null) {
+            if (targetState != CALLKIT_STATE_INCOMING) {    // 已经结束或者被拒接的会话
+                ALog.getInstance().w(TAG, "<DoAwsEventProcess> no session, ignore event"
+                        + ", targetState=" + getStateMachineTip(targetState)
+                        + ", sessionId=" + updateCtx.sessionId);
+                return;
+            }
+            session = createIncomingSession(updateCtx);
+            if (session == null) {      // 会话数已满，已经拒接
+                return;
+            }
+        }
+
+        CallSession.Snapshot snapshot = session.mergeCallContext(updateCtx);
+        ALog.getInstance().d(TAG, "<DoAwsEventProcess> sessionId=" + session.getKey()
                 + ", targetState=" + getStateMachineTip(targetState)
-                + ", currState=" + getStateMachineTip(stateMachine)
-                + ", reason=" + getReasonTip(reason));
+                + ", currState=" + getStateMachineTip(snapshot.mStateMachine)
+                + ", reason=" + getReasonTip(reason)
+                + ", mCallkitCtx=" + snapshot.mCallkitCtx.toString());
 
-        if (mWorkHandler != null) {   // 取消 AWS 超时定时器
-            mWorkHandler.removeMessages(MSGID_CALL_AWSEVENT_TIMEOUT);
+        if (mEventBus != null) {   // 取消会话的AWS超时定时器
+            mEventBus.remove(MSGID_CALL_AWSEVENT_TIMEOUT, session);
         }
 
         switch (targetState) {
             case CALLKIT_STATE_IDLE: {  // 要求APP端切换到空闲状态
-                DoAwsEventToIdle(reason, jsonState);
+                DoAwsEventToIdle(session, reason);
             } break;
 
             case CALLKIT_STATE_DIALING: {   // 要求APP端切换到主叫状态
-                DoAwsEventToDial(reason, jsonState);
+                DoAwsEventToDial(session, reason);
             } break;
 
             case CALLKIT_STATE_INCOMING: {  // 要求APP端切换到被叫状态
-                DoAwsEventToIncoming(reason, jsonState);
+                DoAwsEventToIncoming(session, reason);
             } break;
 
             case CALLKIT_STATE_TALKING: {  // 要求APP端切换到通话状态
-                DoAwsEventToTalking(reason, jsonState);
+                DoAwsEventToTalking(session, reason);
             } break;
         }
     }
 
     /*
-     * @brief 主叫或者被叫时准备通话，本地直接推流，订阅对端音视频流
+     * @brief 根据AWS事件查找所属的会话
+     *        1. 按 sessionId 查找；
+     *        2. 主叫事件可能先于呼叫请求的回应到达，此时按被叫账号匹配还没有sessionId的呼叫会话；
+     *        3. 事件没有 sessionId 并且只有一个会话时，就是这个会话
      */
-    void talkingPrepare(boolean dial, final String channelName, final String rtcToken,
-                        int localUid, int peerUid) {
-        if (!mTalkEngine.isInChannel()) {  // 不在频道内时要加入频道进行处理
-            IAgoraCallkitSdk.InitParam initParam = mSdkInstance.getInitParam();
-            mTalkEngine.setPeerUid(peerUid);
-            mTalkEngine.joinChannel(channelName, rtcToken, localUid);
-            if (dial) {  // 主叫时
-                mTalkEngine.muteLocalVideoStream(!initParam.mPublishVideo);     // 本地推视频流
-                mTalkEngine.muteLocalAudioStream(!initParam.mPublishAudio);     // 本地推音频流
+    CallSession findAwsSession(int targetState, final CallkitContext updateCtx) {
+        if (updateCtx.sessionId != null) {
+            CallSession session = mSessionTable.get(updateCtx.sessionId);
+            if (session != null) {
+                return session;
+            }
+        }
 
-            } else { // 被叫时
-                mTalkEngine.muteLocalVideoStream(true);     // 本地不推视频流
-                mTalkEngine.muteLocalAudioStream(true);     // 本地不推音频流
+        if (targetState == CALLKIT_STATE_DIALING) {
+            for (CallSession session : mSessionTable.values()) {
+                CallSession.Snapshot snapshot = session.getSnapshot();
+                boolean dialing = ((snapshot.mStateMachine == CALLKIT_STATE_DIAL_REQING) ||
+                                   (snapshot.mStateMachine == CALLKIT_STATE_DIAL_RSPING));
+                boolean unbound = ((snapshot.mCallkitCtx == null) || (snapshot.mCallkitCtx.sessionId == null));
+                if (dialing && unbound &&
+                    ((updateCtx.calleeId == null) || updateCtx.calleeId.equals(snapshot.mPeerAccountId))) {
+                    bindSessionId(session, updateCtx.sessionId);
+                    return session;
+                }
             }
+        }
 
+        if ((updateCtx.sessionId == null) && (mSessionTable.size() == 1)) {
+            for (CallSession session : mSessionTable.values()) {
+                return session;
+            }
         }
+        return null;
     }
 
     /*
-     * @brief 应答对方或者对方应答后，奔溃开始推音频流，通话
+     * @brief 工作线程中运行，为新来电创建会话，会话数已满时直接拒接
+     * @return 拒接时返回null
      */
-    void talkingStart() {
-        synchronized (mDataLock) {
-            mStateMachine = CALLKIT_STATE_TALKING;  // 切换到 通话状态机
+    CallSession createIncomingSession(final CallkitContext updateCtx) {
+        if (!reserveSessionSlot()) {
+            ALog.getInstance().e(TAG, "<createIncomingSession> too many sessions, reject"
+                    + ", sessionId=" + updateCtx.sessionId + ", callerId=" + updateCtx.callerId);
+            if (updateCtx.sessionId != null) {   // 异步发送拒接，不等待结果
+                AccountMgr.AccountInfo accountInfo = mSdkInstance.getAccountInfo();
+                String calleeId = (updateCtx.calleeId != null) ? updateCtx.calleeId : accountInfo.mInventDeviceName;
+                AgoraService.getInstance().makeAnswerAsync(accountInfo.mAgoraAccessToken, updateCtx.sessionId,
+                        updateCtx.callerId, calleeId, accountInfo.mInventDeviceName, false, null);
+            }
+            return null;
         }
 
-        if (mTalkEngine.isInChannel()) {   // 已经在频道内进行处理
-            IAgoraCallkitSdk.InitParam initParam = mSdkInstance.getInitParam();
-            mTalkEngine.muteLocalVideoStream(!initParam.mPublishVideo);    // 本地推送视频流
-            mTalkEngine.muteLocalAudioStream(!initParam.mPublishAudio);    // 本地推送音频流
-        } else {
-            ALog.getInstance().e(TAG, "<talkingStart> NOT in a channel");
+        CallSession session = new CallSession(newLocalKey(), CALLKIT_STATE_IDLE, null);
+        mSessionTable.put(session.getKey(), session);
+        bindSessionId(session, updateCtx.sessionId);
+        ALog.getInstance().d(TAG, "<createIncomingSession> sessionId=" + session.getKey()
+                + ", sessionCount=" + mSessionCount.get());
+        return session;
+    }
+
+    /*
+     * @brief 主叫或者被叫时准备通话，会话占用频道时进入频道，订阅对端音视频流
+     */
+    void talkingPrepare(final CallSession session, boolean dial) {
+        MediaLease mediaLease = mMediaLease;
+        if ((mediaLease != null) && (mediaLease.mSession == session)) {
+            talkingJoin(session, dial);
         }
     }
 
     /*
-     * @brief 停止通话，状态机切换到空闲，清除对端设备和peerUid
+     * @brief 投递加入会话频道的消息，主叫时直接推流，被叫时接听之前不推流
      */
-    void talkingStop() {
-        mTalkEngine.leaveChannel();     // 离开频道，结束通话
-        synchronized (mDataLock) {      // 清除当前呼叫上下文数据，恢复状态
-            mStateMachine = CALLKIT_STATE_IDLE;
-            mCallkitCtx = null;
-            mPeerAccountId = null;
+    void talkingJoin(final CallSession session, boolean dial) {
+        CallkitContext callkitCtx = session.getCallkitCtx();
+        if ((callkitCtx == null) || (callkitCtx.channelName == null)) {  // 还没有频道信息
+            return;
         }
+        Object joinParams = new Object[] {callkitCtx.channelName, callkitCtx.rtcToken,
+                                          callkitCtx.mLocalUid, callkitCtx.mPeerUid};
+        sendRtcMessage(MSGID_RTC_JOIN_CHANNEL, (dial ? 1 : 0), 0, joinParams);
+    }
+
+    /*
+     * @brief 应答对方或者对方应答后，开始推音频流，通话
+     */
+    void talkingStart(final CallSession session) {
+        session.updateSnapshot(CALLKIT_STATE_TALKING, null, null);  // 切换到 通话状态机
 
-        if (mWorkHandler != null) {   // 取消AWS Event超时定时器
-            mWorkHandler.removeMessages(MSGID_CALL_AWSEVENT_TIMEOUT);
+        MediaLease mediaLease = mMediaLease;
+        if ((mediaLease != null) && (mediaLease.mSession == session)) {
+            sendRtcMessage(MSGID_RTC_PUBLISH, 0, 0, null);
         }
     }
 
+    /*
+     * @brief 停止通话，结束会话，会话占用的频道让给其他来电
+     */
+    void talkingStop(final CallSession session) {
+        closeSession(session);
+    }
+
 
     /*
      * @brief 异常情况下的处理
-     *          主动挂断，停止通话，状态机切换到空闲，清除对端设备和peerUid
+     *          主动挂断，停止通话，结束会话
      */
-    void exceptionProcess() {
+    void exceptionProcess(final CallSession session) {
         // 直接调用本地挂断请求
-        CallkitContext callkitCtx;
-        synchronized (mDataLock) {
-            callkitCtx = mCallkitCtx;
-        }
-        if ((callkitCtx != null) && (callkitCtx.sessionId != null)) {
+        CallkitContext callkitCtx = session.getCallkitCtx();
+        if ((callkitCtx != null) && (callkitCtx.sessionId != null)) {   // 异步发送，不等待结果
             AccountMgr.AccountInfo accountInfo = mSdkInstance.getAccountInfo();
-            AgoraService.getInstance().makeAnswer(accountInfo.mAgoraAccessToken, callkitCtx.sessionId,
-                    callkitCtx.callerId, callkitCtx.calleeId, accountInfo.mInventDeviceName, false);
-        }
-
-        mTalkEngine.leaveChannel();     // 离开频道，结束通话
-        synchronized (mDataLock) {      // 清除当前呼叫上下文数据，恢复状态
-            mStateMachine = CALLKIT_STATE_IDLE;
-            mCallkitCtx = null;
-            mPeerAccountId = null;
+            AgoraService.getInstance().makeAnswerAsync(accountInfo.mAgoraAccessToken, callkitCtx.sessionId,
+                    callkitCtx.callerId, callkitCtx.calleeId, accountInfo.mInventDeviceName, false, null);
         }
 
-        if (mWorkHandler != null) {   // 取消AWS Event超时定时器
-            mWorkHandler.removeMessages(MSGID_CALL_AWSEVENT_TIMEOUT);
-        }
+        closeSession(session);
 
-        ALog.getInstance().d(TAG, "<exceptionProcess> done");
+        ALog.getInstance().d(TAG, "<exceptionProcess> done, sessionId=" + session.getKey());
     }
 
     /*
-     * @brief 根据JSON数据更当前 呼叫上下文数据
+     * @brief 根据JSON数据生成 呼叫上下文的更新数据，没有的字段为空
      */
-    void updateCallContext( JSONObject jsonState) {
+    CallkitContext parseCallContext(JSONObject jsonState) {
         CallkitContext newCallkitCtx = new CallkitContext();
         newCallkitCtx.appId = parseJsonStringValue(jsonState,"appId", null);
         newCallkitCtx.channelName = parseJsonStringValue(jsonState,"channelName", null);
@@ -923,61 +1253,7 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
         newCallkitCtx.cloudRcdStatus = parseJsonIntValue(jsonState,"cloudRcdStatus", -1);
         newCallkitCtx.callStatus = parseJsonIntValue(jsonState,"callStatus", -1);
         newCallkitCtx.reason = parseJsonIntValue(jsonState,"reason", -1);
-
-        synchronized (mDataLock) {  // 更新呼叫上下文数据
-            if (mCallkitCtx == null) {
-                mCallkitCtx = new CallkitContext();
-            }
-
-            if (newCallkitCtx.appId != null) {
-                mCallkitCtx.appId = newCallkitCtx.appId;
-            }
-            if (newCallkitCtx.channelName != null) {
-                mCallkitCtx.channelName = newCallkitCtx.channelName;
-            }
-            if (newCallkitCtx.rtcToken != null) {
-                mCallkitCtx.rtcToken = newCallkitCtx.rtcToken;
-            }
-            if (newCallkitCtx.uid != null) {
-                mCallkitCtx.uid = newCallkitCtx.uid;
-            }
-
-            if (newCallkitCtx.sessionId != null) {
-                mCallkitCtx.sessionId = newCallkitCtx.sessionId;
-            }
-            if (newCallkitCtx.callerId != null) {
-                mCallkitCtx.callerId = newCallkitCtx.callerId;
-            }
-            if (newCallkitCtx.calleeId != null) {
-                mCallkitCtx.calleeId = newCallkitCtx.calleeId;
-            }
-
-            if (newCallkitCtx.attachMsg != null) {
-                mCallkitCtx.attachMsg = newCallkitCtx.attachMsg;
-            }
-            if (newCallkitCtx.deviceAlias != null) {
-                mCallkitCtx.deviceAlias = newCallkitCtx.deviceAlias;
-            }
-            if (newCallkitCtx.cloudRcdStatus >= 0) {
-                mCallkitCtx.cloudRcdStatus = newCallkitCtx.cloudRcdStatus;
-            }
-
-            if (newCallkitCtx.callStatus >= 0) {
-                mCallkitCtx.callStatus = newCallkitCtx.callStatus;
-            }
-            if (newCallkitCtx.reason >= 0) {
-                mCallkitCtx.reason = newCallkitCtx.reason;
-            }
-
-            if (newCallkitCtx.uid != null && !newCallkitCtx.uid.isEmpty()) {   // 这里的uid是本地localUid
-                mCallkitCtx.mLocalUid = Integer.valueOf(newCallkitCtx.uid);
-            }
-            if (newCallkitCtx.peerUid != null && !newCallkitCtx.peerUid.isEmpty()) {    // 这里的uid是对端的peerUid
-                mCallkitCtx.mPeerUid = Integer.valueOf(newCallkitCtx.peerUid);
-            }
-        }
-
-        ALog.getInstance().d(TAG, "<updateCallContext> mCallkitCtx=" + mCallkitCtx.toString());
+        return newCallkitCtx;
     }
 
     int parseJsonIntValue(JSONObject jsonState, String fieldName, int defVal) {
@@ -1005,6 +1281,75 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
     }
 
 
+    /////////////////////////////////////////////////////////////////////////////
+    /////////////////////////// RTC通道中的频道操作 ///////////////////////////////
+    /////////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief RTC通道中运行，不在频道内时加入频道，主叫时直接推流，被叫时接听之前不推流
+     */
+    void DoRtcJoinChannel(EventBus.Event msg) {
+        if (mTalkEngine == null) {
+            return;
+        }
+        boolean dial = (msg.arg1 != 0);
+        Object[] joinParams = (Object[]) (msg.obj);
+        String channelName = (String)(joinParams[0]);
+        String rtcToken = (String)(joinParams[1]);
+        int localUid = (Integer)(joinParams[2]);
+        int peerUid = (Integer)(joinParams[3]);
+
+        if (!mTalkEngine.isInChannel()) {  // 不在频道内时要加入频道进行处理
+            IAgoraCallkitSdk.InitParam initParam = mSdkInstance.getInitParam();
+            mTalkEngine.setPeerUid(peerUid);
+            mTalkEngine.joinChannel(channelName, rtcToken, localUid);
+            if (dial) {  // 主叫时
+                mTalkEngine.muteLocalVideoStream(!initParam.mPublishVideo);     // 本地推视频流
+                mTalkEngine.muteLocalAudioStream(!initParam.mPublishAudio);     // 本地推音频流
+
+            } else { // 被叫时
+                mTalkEngine.muteLocalVideoStream(true);     // 本地不推视频流
+                mTalkEngine.muteLocalAudioStream(true);     // 本地不推音频流
+            }
+        }
+    }
+
+    /*
+     * @brief RTC通道中运行，开始通话，推送本地音视频流
+     */
+    void DoRtcPublish(EventBus.Event msg) {
+        if (mTalkEngine == null) {
+            return;
+        }
+        if (mTalkEngine.isInChannel()) {   // 已经在频道内进行处理
+            IAgoraCallkitSdk.InitParam initParam = mSdkInstance.getInitParam();
+            mTalkEngine.muteLocalVideoStream(!initParam.mPublishVideo);    // 本地推送视频流
+            mTalkEngine.muteLocalAudioStream(!initParam.mPublishAudio);    // 本地推送音频流
+        } else {
+            ALog.getInstance().e(TAG, "<DoRtcPublish> NOT in a channel");
+        }
+    }
+
+    /*
+     * @brief RTC通道中运行，离开频道，结束通话
+     */
+    void DoRtcLeaveChannel(EventBus.Event msg) {
+        if (mTalkEngine == null) {
+            return;
+        }
+        mTalkEngine.leaveChannel();
+    }
+
+    /*
+     * @brief RTC通道中运行，对端上线后设置对端视频显示控件
+     */
+    void DoRtcSetPeerView(EventBus.Event msg) {
+        if ((mTalkEngine == null) || (mPeerVidew == null)) {
+            return;
+        }
+        mTalkEngine.setRemoteVideoView(mPeerVidew);
+    }
+
+
     /////////////////////////////////////////////////////////////////////////////
     //////////////////// TalkingEngine.ICallback 回调处理 ////////////////////////
     /////////////////////////////////////////////////////////////////////////////
@@ -1048,7 +1393,7 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
     /*
      * @brief 工作线程中运行，对端RTC上线
      */
-    void DoRtcPeerOnline(Message msg) {
+    void DoRtcPeerOnline(EventBus.Event msg) {
         int localUid = msg.arg1;
         int peerUid = msg.arg2;
         int stateMachine = getStateMachine();
@@ -1056,50 +1401,63 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
                 + ", peerUid=" + peerUid
                 + ", stateMachine=" + stateMachine);
 
-        if (mPeerVidew != null) {
-            mTalkEngine.setRemoteVideoView(mPeerVidew);
-        }
+        sendRtcMessage(MSGID_RTC_SET_PEER_VIEW, 0, 0, null);
     }
 
     /*
-     * @brief 工作线程中运行，对端RTC下线
+     * @brief 工作线程中运行，对端RTC下线，只处理当前占用频道的会话
      */
-    void DoRtcPeerOffline(Message msg) {
+    void DoRtcPeerOffline(EventBus.Event msg) {
         int localUid = msg.arg1;
         int peerUid = msg.arg2;
-        int stateMachine = getStateMachine();
+        MediaLease mediaLease = mMediaLease;
+        CallSession session = (mediaLease != null) ? mediaLease.mSession : null;
+        int stateMachine = (session != null) ? session.getStateMachine() : CALLKIT_STATE_IDLE;
         ALog.getInstance().d(TAG, "<DoRtcPeerOffline> localUid=" + localUid
                 + ", peerUid=" + peerUid
                 + ", stateMachine=" + stateMachine);
+        if (session == null) {
+            return;
+        }
+        CallkitContext callkitCtx = session.getCallkitCtx();
+        if ((callkitCtx != null) && (callkitCtx.mPeerUid != 0) && (callkitCtx.mPeerUid != peerUid)) {
+            // 之前会话的频道中的事件
+            ALog.getInstance().d(TAG, "<DoRtcPeerOffline> not current peer, sessionId=" + session.getKey());
+            return;
+        }
 
         if (stateMachine == CALLKIT_STATE_INCOMING ||
             stateMachine == CALLKIT_STATE_ANSWER_REQING ||
             stateMachine == CALLKIT_STATE_TALKING)  {
-            String callbackAccountId = mPeerAccountId;
-            exceptionProcess();
-            CallbackPeerHangup(callbackAccountId);   // 回调对端挂断
+            String callbackAccountId = session.getPeerAccountId();
+            exceptionProcess(session);
+            CallbackPeerHangup(session.getKey(), callbackAccountId);   // 回调对端挂断
         }
     }
 
     /*
      * @brief 工作线程中运行，对端RTC首帧出图
      */
-    void DoRtcPeerFirstVideo(Message msg) {
-        int width = msg.arg1;
-        int height = msg.arg2;
-        int stateMachine = getStateMachine();
+    void DoRtcPeerFirstVideo(EventBus.Event msg) {
+        final int width = msg.arg1;
+        final int height = msg.arg2;
+        MediaLease mediaLease = mMediaLease;
+        CallSession session = (mediaLease != null) ? mediaLease.mSession : null;
+        int stateMachine = (session != null) ? session.getStateMachine() : CALLKIT_STATE_IDLE;
         ALog.getInstance().d(TAG, "<DoRtcPeerFirstVideo> width=" + width
                 + ", height=" + height);
 
         if ((stateMachine != CALLKIT_STATE_IDLE) && (stateMachine != CALLKIT_STATE_HANGUP_REQING)) {
-            String callbackAccountId = mPeerAccountId;
+            final String callbackSessionId = session.getKey();
+            final String callbackAccountId = session.getPeerAccountId();
 
             // 回调对端首帧出图
-            synchronized (mCallbackList) {
-                for (ICallkitMgr.ICallback listener : mCallbackList) {
-                    listener.onPeerFirstVideo(callbackAccountId, width, height);
+            mDispatcher.dispatch("onPeerFirstVideo", new ListenerDispatcher.ICall<ICallkitMgr.ICallback>() {
+                @Override
+                public void invoke(ICallkitMgr.ICallback listener) {
+                    listener.onPeerFirstVideo(callbackSessionId, callbackAccountId, width, height);
                 }
-            }
+            });
         }
     }
 
@@ -1107,61 +1465,227 @@ public class CallkitMgr implements ICallkitMgr, TalkingEngine.ICallback {
     /////////////////////////////////////////////////////////////////////////////
     /////////////////////////////// 所有的对上层回调处理 //////////////////////////
     /////////////////////////////////////////////////////////////////////////////
-    void CallbackCallDialDone(int errCode, String peerAccountId) {
-        synchronized (mCallbackList) {
-            for (ICallkitMgr.ICallback listener : mCallbackList) {
-                listener.onDialDone(errCode, peerAccountId);
+    void CallbackCallDialDone(final String sessionId, final int errCode, final String peerAccountId) {
+        mDispatcher.dispatch("onDialDone", new ListenerDispatcher.ICall<ICallkitMgr.ICallback>() {
+            @Override
+            public void invoke(ICallkitMgr.ICallback listener) {
+                listener.onDialDone(sessionId, errCode, peerAccountId);
             }
-        }
+        });
     }
 
-    void CallbackPeerIncoming(String peerAccountId, String attachMsg) {
-        synchronized (mCallbackList) {
-            for (ICallkitMgr.ICallback listener : mCallbackList) {
-                listener.onPeerIncoming(peerAccountId, attachMsg);
+    void CallbackPeerIncoming(final String sessionId, final String peerAccountId, final String attachMsg) {
+        mDispatcher.dispatch("onPeerIncoming", new ListenerDispatcher.ICall<ICallkitMgr.ICallback>() {
+            @Override
+            public void invoke(ICallkitMgr.ICallback listener) {
+                listener.onPeerIncoming(sessionId, peerAccountId, attachMsg);
             }
-        }
+        });
     }
 
-    void CallbackPeerAnswer(int errCode, String peerAccountId) {
-        synchronized (mCallbackList) {
-            for (ICallkitMgr.ICallback listener : mCallbackList) {
-                listener.onPeerAnswer(peerAccountId);
+    void CallbackPeerAnswer(final String sessionId, int errCode, final String peerAccountId) {
+        mDispatcher.dispatch("onPeerAnswer", new ListenerDispatcher.ICall<ICallkitMgr.ICallback>() {
+            @Override
+            public void invoke(ICallkitMgr.ICallback listener) {
+                listener.onPeerAnswer(sessionId, peerAccountId);
             }
+        });
+    }
+
+    void CallbackPeerHangup(final String sessionId, final String peerAccountId) {
+        mDispatcher.dispatch("onPeerHangup", new ListenerDispatcher.ICall<ICallkitMgr.ICallback>() {
+            @Override
+            public void invoke(ICallkitMgr.ICallback listener) {
+                listener.onPeerHangup(sessionId, peerAccountId);
+            }
+        });
+    }
+
+    void CallbackPeerTimeout(final String sessionId, final String peerAccountId) {
+        mDispatcher.dispatch("onPeerTimeout", new ListenerDispatcher.ICall<ICallkitMgr.ICallback>() {
+            @Override
+            public void invoke(ICallkitMgr.ICallback listener) {
+                listener.onPeerTimeout(sessionId, peerAccountId);
+            }
+        });
+    }
+
+    void CallbackError(final String sessionId, final int errCode) {
+        mDispatcher.dispatch("onCallkitError", new ListenerDispatcher.ICall<ICallkitMgr.ICallback>() {
+            @Override
+            public void invoke(ICallkitMgr.ICallback listener) {
+                listener.onCallkitError(sessionId, errCode);
+            }
+        });
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////
+    ////////////////////////////// Inner Methods //////////////////////////
+    ///////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 按会话Id查找会话，也可以使用呼叫请求完成之前的临时Id
+     */
+    CallSession findSession(final String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        CallSession session = mSessionTable.get(sessionId);
+        if (session != null) {
+            return session;
         }
+        for (CallSession item : mSessionTable.values()) {   // 临时Id已经被服务器分配的sessionId替换
+            if (sessionId.equals(item.getLocalKey())) {
+                return item;
+            }
+        }
+        return null;
     }
 
-    void CallbackPeerHangup(String peerAccountId) {
-        synchronized (mCallbackList) {
-            for (ICallkitMgr.ICallback listener : mCallbackList) {
-                listener.onPeerHangup(peerAccountId);
+    /*
+     * @brief 获取主会话，用于不带sessionId的接口：
+     *        占用频道的前台会话 > 其他前台会话 > 来电预览的会话 > 任意会话
+     */
+    CallSession getPrimarySession() {
+        MediaLease mediaLease = mMediaLease;
+        if ((mediaLease != null) && mediaLease.mForeground && !mediaLease.mSession.isClosed()) {
+            return mediaLease.mSession;
+        }
+        CallSession primary = null;
+        for (CallSession session : mSessionTable.values()) {
+            int stateMachine = session.getStateMachine();
+            if ((stateMachine != CALLKIT_STATE_INCOMING) && (stateMachine != CALLKIT_STATE_IDLE)) {
+                return session;
+            }
+            if (primary == null) {
+                primary = session;
             }
         }
+        if ((mediaLease != null) && !mediaLease.mSession.isClosed()) {
+            return mediaLease.mSession;
+        }
+        return primary;
     }
 
-    void CallbackPeerTimeout(String peerAccountId) {
-        synchronized (mCallbackList) {
-            for (ICallkitMgr.ICallback listener : mCallbackList) {
-                listener.onPeerTimeout(peerAccountId);
+    /*
+     * @brief 是否有其他会话正在呼叫、接听或者通话，只在响铃的来电会话不算
+     */
+    boolean hasForegroundSession(final CallSession exclude) {
+        for (CallSession session : mSessionTable.values()) {
+            int stateMachine = session.getStateMachine();
+            if ((session != exclude) &&
+                (stateMachine != CALLKIT_STATE_INCOMING) && (stateMachine != CALLKIT_STATE_IDLE)) {
+                return true;
             }
         }
+        return false;
     }
 
-    void CallbackError(int errCode) {
-        synchronized (mCallbackList) {
-            for (ICallkitMgr.ICallback listener : mCallbackList) {
-                listener.onCallkitError(errCode);
+    /*
+     * @brief CAS方式占用一个会话名额
+     * @return 已经达到最大会话数时返回false
+     */
+    boolean reserveSessionSlot() {
+        int count;
+        do {
+            count = mSessionCount.get();
+            if (count >= mMaxSessions) {
+                return false;
             }
+        } while (!mSessionCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    String newLocalKey() {
+        return ("local_" + mLocalKeySeq.incrementAndGet());
+    }
+
+    /*
+     * @brief 工作线程中运行，会话表改用服务器分配的sessionId作为键
+     *        先加入新键再移除旧键，其他线程查找时会话始终在表中
+     */
+    void bindSessionId(final CallSession session, final String sessionId) {
+        String oldKey = session.getKey();
+        if ((sessionId == null) || sessionId.equals(oldKey) || session.isClosed()) {
+            return;
         }
+        CallSession existing = mSessionTable.putIfAbsent(sessionId, session);
+        if ((existing != null) && (existing != session)) {
+            ALog.getInstance().e(TAG, "<bindSessionId> duplicated sessionId=" + sessionId);
+            return;
+        }
+        session.setKey(sessionId);
+        mSessionTable.remove(oldKey, session);
     }
 
+    /*
+     * @brief 工作线程中运行，结束会话：取消请求和超时定时器，从会话表中移除，让出占用的频道
+     */
+    void closeSession(final CallSession session) {
+        if (!session.close()) {
+            return;
+        }
+        mSessionTable.remove(session.getKey(), session);
+        mSessionCount.decrementAndGet();
+        if (mEventBus != null) {   // 取消会话的AWS Event超时定时器
+            mEventBus.remove(MSGID_CALL_AWSEVENT_TIMEOUT, session);
+        }
+        releaseMedia(session);
 
-    ///////////////////////////////////////////////////////////////////////
-    ////////////////////////////// Inner Methods //////////////////////////
-    ///////////////////////////////////////////////////////////////////////
-    void setStateMachine(int newStateMachine) {
-        synchronized (mDataLock) {
-            mStateMachine = newStateMachine;
+        ALog.getInstance().d(TAG, "<closeSession> sessionId=" + session.getKey()
+                + ", sessionCount=" + mSessionCount.get());
+    }
+
+    /*
+     * @brief 工作线程中运行，会话成为前台会话并占用频道，来电预览的会话让出频道
+     * @param joinNow : 是否立即加入会话的频道，呼叫请求完成之前还没有频道信息
+     * @return 其他前台会话正在占用频道时返回false
+     */
+    boolean acquireMedia(final CallSession session, boolean joinNow) {
+        MediaLease mediaLease = mMediaLease;
+        boolean joined = ((mediaLease != null) && (mediaLease.mSession == session));
+        if ((mediaLease != null) && !joined && mediaLease.mForeground) {
+            return false;
+        }
+        if ((mediaLease != null) && !joined) {   // 来电预览的会话让出频道
+            ALog.getInstance().d(TAG, "<acquireMedia> preempt preview, from=" + mediaLease.mSession.getKey()
+                    + ", to=" + session.getKey());
+            sendRtcMessage(MSGID_RTC_LEAVE_CHANNEL, 0, 0, null);
+        }
+        mMediaLease = new MediaLease(session, true);
+        if (joinNow && !joined) {
+            talkingJoin(session, false);
+        }
+        return true;
+    }
+
+    /*
+     * @brief 工作线程中运行，频道空闲时来电会话进入频道预览
+     */
+    void previewMedia(final CallSession session) {
+        if (mMediaLease != null) {
+            return;
+        }
+        mMediaLease = new MediaLease(session, false);
+        talkingJoin(session, false);
+    }
+
+    /*
+     * @brief 工作线程中运行，会话让出频道，频道空闲后让其他来电会话预览
+     */
+    void releaseMedia(final CallSession session) {
+        MediaLease mediaLease = mMediaLease;
+        if ((mediaLease == null) || (mediaLease.mSession != session)) {
+            return;
+        }
+        sendRtcMessage(MSGID_RTC_LEAVE_CHANNEL, 0, 0, null);     // 离开频道，结束通话
+        mMediaLease = null;
+
+        for (CallSession other : mSessionTable.values()) {
+            if (other.getStateMachine() == CALLKIT_STATE_INCOMING) {
+                previewMedia(other);
+                break;
+            }
         }
     }
 
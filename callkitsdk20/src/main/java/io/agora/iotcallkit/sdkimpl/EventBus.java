@@ -0,0 +1,349 @@
+/**
+ * @file EventBus.java
+ * @brief This file implement the ordered event queue of each work lane
+ * @author xiaohua.lu
+ * @email luxiaohua@agora.io
+ * @version 1.0.0.1
+ * @date 2022-01-26
+ * @license Copyright (C) 2021 AgoraIO Inc. All rights reserved.
+ */
+package io.agora.iotcallkit.sdkimpl;
+
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import io.agora.iotcallkit.IMetricsMgr;
+import io.agora.iotcallkit.logger.ALog;
+import io.agora.iotcallkit.transport.HttpMetrics;
+import io.agora.iotcallkit.transport.LatencyHistogram;
+
+
+/*
+ * @brief 工作通道的有序事件队列
+ *        事件保存在预分配的环形缓冲中，投递时不创建对象，多个线程可以同时投递，在工作通道线程中按投递顺序处理。
+ *        事件不会被丢弃：只有通过 setIdempotent() 标记的事件，新投递时才会合并掉还没有处理的相同事件；
+ *        缓冲满时容量翻倍。定时事件由工作通道的Handler计时，到期后进入环形缓冲，与其他事件一起排序；
+ *        定时事件按 事件Id + obj 区分，不同 obj 的同一种定时事件可以同时存在，例如每个呼叫会话各自的超时定时器
+ */
+public class EventBus {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/EventBus";
+    public static final int DEF_CAPACITY = 64;              ///< 默认的环形缓冲容量
+    private static final int MAX_DRAIN_BATCH = 32;          ///< 每次连续处理的最大事件数，之后让出线程给定时消息
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 事件，字段与 android.os.Message 相同
+     *        处理回调返回后事件对象会被复用，不能保存事件对象的引用
+     */
+    public static class Event {
+        public int what;
+        public int arg1;
+        public int arg2;
+        public Object obj;
+        long mPostTime;             ///< 投递时间，用于统计排队耗时
+        boolean mDropped;           ///< 已经被后续相同事件合并或者被移除
+    }
+
+    /*
+     * @brief 事件处理回调，在工作通道线程中回调
+     */
+    public interface IHandler {
+        void onEvent(final Event event);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final String mName;
+    private final IHandler mHandler;
+    private final Handler mLaneHandler;                 ///< 工作通道的Handler，用于唤醒处理和定时事件
+    private final Object mLock = new Object();
+    private Event[] mRing;                              ///< 环形缓冲，容量是2的幂次
+    private int mMask;
+    private long mReadSeq = 0;                          ///< 下一个要处理的事件序号
+    private long mWriteSeq = 0;                         ///< 下一个要写入的事件序号
+    private boolean mDrainScheduled = false;            ///< 是否已经唤醒工作通道处理事件
+    private boolean mClosed = false;
+    private int[] mIdempotentIds = new int[0];          ///< 可以合并的事件Id
+    private final Event mCurrent = new Event();         ///< 正在处理的事件，只在工作通道线程中使用
+
+    private int mPendingCount = 0;                      ///< 当前排队的有效事件数
+    private int mMaxPendingCount = 0;                   ///< 最大排队事件数
+    private long mPostCount = 0;                        ///< 投递的事件总数
+    private long mCoalescedCount = 0;                   ///< 被合并掉的事件数
+    private final LatencyHistogram mDwellHistogram = new LatencyHistogram();   ///< 从投递到开始处理的耗时
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @param name : 队列名称，用于日志和运行指标
+     * @param looper : 工作通道线程的Looper
+     * @param capacity : 环形缓冲初始容量，会向上取整到2的幂次
+     * @param handler : 事件处理回调
+     */
+    public EventBus(final String name, final Looper looper, int capacity, final IHandler handler) {
+        mName = name;
+        mHandler = handler;
+        mLaneHandler = new Handler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {   // 定时事件到期
+                post(msg.what, msg.arg1, msg.arg2, msg.obj);
+                return true;
+            }
+        });
+
+        int ringSize = 1;
+        while (ringSize < Math.max(capacity, 2)) {
+            ringSize <<= 1;
+        }
+        mRing = allocRing(ringSize);
+        mMask = ringSize - 1;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /*
+     * @brief 标记可以合并的事件，例如只关心最新状态的事件，必须在投递事件之前设置
+     */
+    public void setIdempotent(int what) {
+        synchronized (mLock) {
+            int[] idempotentIds = new int[mIdempotentIds.length + 1];
+            System.arraycopy(mIdempotentIds, 0, idempotentIds, 0, mIdempotentIds.length);
+            idempotentIds[mIdempotentIds.length] = what;
+            mIdempotentIds = idempotentIds;
+        }
+    }
+
+    /*
+     * @brief 投递事件，可以在任意线程中调用
+     * @return 队列已经关闭时返回false
+     */
+    public boolean post(int what, int arg1, int arg2, Object obj) {
+        boolean wakeup = false;
+        synchronized (mLock) {
+            if (mClosed) {
+                return false;
+            }
+            if (isIdempotent(what)) {
+                dropPending(what, null, true);
+            }
+            if (mWriteSeq - mReadSeq > mMask) {     // 缓冲已满，扩容，保证不丢事件
+                growRing();
+            }
+
+            Event event = mRing[(int)(mWriteSeq & mMask)];
+            event.what = what;
+            event.arg1 = arg1;
+            event.arg2 = arg2;
+            event.obj = obj;
+            event.mPostTime = SystemClock.uptimeMillis();
+            event.mDropped = false;
+            mWriteSeq++;
+
+            mPostCount++;
+            mPendingCount++;
+            mMaxPendingCount = Math.max(mMaxPendingCount, mPendingCount);
+            if (!mDrainScheduled) {
+                mDrainScheduled = true;
+                wakeup = true;
+            }
+        }
+
+        if (wakeup) {
+            mLaneHandler.post(mDrainTask);
+        }
+        return true;
+    }
+
+    /*
+     * @brief 延时投递事件，用作定时器：重新设置会替换还没有到期 或者 到期了还没有处理的相同事件
+     *        obj 不为null时只替换 obj 相同的事件，obj 为null时替换所有相同Id的事件
+     */
+    public boolean postDelayed(int what, int arg1, int arg2, Object obj, long delayTime) {
+        synchronized (mLock) {
+            if (mClosed) {
+                return false;
+            }
+            dropPending(what, obj, false);
+        }
+        mLaneHandler.removeMessages(what, obj);
+        return mLaneHandler.sendMessageDelayed(mLaneHandler.obtainMessage(what, arg1, arg2, obj), delayTime);
+    }
+
+    /*
+     * @brief 移除还没有到期的定时事件 和 还没有处理的事件
+     */
+    public void remove(int what) {
+        remove(what, null);
+    }
+
+    /*
+     * @brief 移除 obj 相同的定时事件和还没有处理的事件，obj 为null时移除所有相同Id的事件
+     */
+    public void remove(int what, Object obj) {
+        mLaneHandler.removeMessages(what, obj);
+        synchronized (mLock) {
+            dropPending(what, obj, false);
+        }
+    }
+
+    /*
+     * @brief 关闭队列，移除所有还没有处理的事件，之后投递的事件都被忽略
+     */
+    public void close() {
+        synchronized (mLock) {
+            mClosed = true;
+            for (long seq = mReadSeq; seq < mWriteSeq; seq++) {
+                Event event = mRing[(int)(seq & mMask)];
+                event.obj = null;
+                event.mDropped = true;
+            }
+            mPendingCount = 0;
+        }
+        mLaneHandler.removeCallbacksAndMessages(null);
+    }
+
+    /*
+     * @brief 获取队列的运行指标
+     */
+    public IMetricsMgr.EventQueueStats getStats() {
+        IMetricsMgr.EventQueueStats stats = new IMetricsMgr.EventQueueStats();
+        synchronized (mLock) {
+            stats.mName = mName;
+            stats.mPostCount = mPostCount;
+            stats.mCoalescedCount = mCoalescedCount;
+            stats.mDepth = mPendingCount;
+            stats.mMaxDepth = mMaxPendingCount;
+        }
+        stats.mDwell = HttpMetrics.toLatencyStats(mDwellHistogram);
+        return stats;
+    }
+
+    public void resetStats() {
+        synchronized (mLock) {
+            mPostCount = 0;
+            mCoalescedCount = 0;
+            mMaxPendingCount = mPendingCount;
+        }
+        mDwellHistogram.reset();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 工作通道线程中运行，按顺序处理排队的事件
+     */
+    private void drain() {
+        for (int count = 0; count < MAX_DRAIN_BATCH; count++) {
+            synchronized (mLock) {
+                if (!takeNext()) {
+                    mDrainScheduled = false;
+                    return;
+                }
+            }
+
+            mDwellHistogram.record(SystemClock.uptimeMillis() - mCurrent.mPostTime);
+            try {
+                mHandler.onEvent(mCurrent);
+            } catch (RuntimeException e) {
+                ALog.getInstance().e(TAG, "<drain> [" + mName + "] event=" + mCurrent.what
+                        + ", exp=" + e.toString());
+            }
+            mCurrent.obj = null;
+        }
+
+        mLaneHandler.post(mDrainTask);      // 还有事件，让出线程后继续处理
+    }
+
+    /*
+     * @brief 取出下一个有效事件到 mCurrent，释放缓冲中的槽位
+     */
+    private boolean takeNext() {
+        while (mReadSeq < mWriteSeq) {
+            Event event = mRing[(int)(mReadSeq & mMask)];
+            mReadSeq++;
+            if (event.mDropped) {
+                continue;
+            }
+            mCurrent.what = event.what;
+            mCurrent.arg1 = event.arg1;
+            mCurrent.arg2 = event.arg2;
+            mCurrent.obj = event.obj;
+            mCurrent.mPostTime = event.mPostTime;
+            event.obj = null;
+            event.mDropped = true;
+            mPendingCount--;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isIdempotent(int what) {
+        for (int idempotentId : mIdempotentIds) {
+            if (idempotentId == what) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dropPending(int what, Object obj, boolean coalesced) {
+        for (long seq = mReadSeq; seq < mWriteSeq; seq++) {
+            Event event = mRing[(int)(seq & mMask)];
+            if (!event.mDropped && (event.what == what) && ((obj == null) || (event.obj == obj))) {
+                event.obj = null;
+                event.mDropped = true;
+                mPendingCount--;
+                if (coalesced) {
+                    mCoalescedCount++;
+                }
+            }
+        }
+    }
+
+    private void growRing() {
+        int oldSize = mRing.length;
+        Event[] newRing = allocRing(oldSize * 2);
+        int count = (int)(mWriteSeq - mReadSeq);
+        for (int i = 0; i < count; i++) {
+            newRing[i] = mRing[(int)((mReadSeq + i) & mMask)];
+        }
+        mRing = newRing;
+        mMask = newRing.length - 1;
+        mReadSeq = 0;
+        mWriteSeq = count;
+        ALog.getInstance().w(TAG, "<growRing> [" + mName + "] capacity=" + newRing.length);
+    }
+
+    private static Event[] allocRing(int ringSize) {
+        Event[] ring = new Event[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            ring[i] = new Event();
+        }
+        return ring;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * @file ListenerDispatcher.java
+ * @brief This file implement the listener dispatching of SDK callbacks
+ * @author xiaohua.lu
+ * @email luxiaohua@agora.io
+ * @version 1.0.0.1
+ * @date 2022-01-26
+ * @license Copyright (C) 2021 AgoraIO Inc. All rights reserved.
+ */
+package io.agora.iotcallkit.sdkimpl;
+
+
+import android.os.SystemClock;
+
+import io.agora.iotcallkit.IMetricsMgr;
+import io.agora.iotcallkit.logger.ALog;
+import io.agora.iotcallkit.transport.HttpMetrics;
+import io.agora.iotcallkit.transport.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/*
+ * @brief 应用层监听器的回调分发
+ *        工作通道只负责把回调提交给回调执行器，不等待应用层处理，慢的监听器不会推迟信令处理。
+ *        监听器列表是写时复制的，分发时遍历的是提交时刻的快照，不需要加锁，注册和注销也不会被回调阻塞。
+ *        每个监听器的每个回调方法都统计耗时，超过阈值的打印告警，并且可以通过 IMetricsMgr 查询
+ */
+public class ListenerDispatcher<T> {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/ListenerDispatcher";
+    public static final long SLOW_THRESHOLD = 100;          ///< 单次回调耗时超过该值(毫秒)认为是慢回调
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 对单个监听器的回调调用
+     */
+    public interface ICall<T> {
+        void invoke(final T listener);
+    }
+
+    /*
+     * @brief 单个监听器单个回调方法的耗时统计
+     */
+    private static class Timing {
+        String mListener;
+        String mCallback;
+        long mSlowCount = 0;
+        final LatencyHistogram mHistogram = new LatencyHistogram();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final String mName;
+    private final Executor mExecutor;                       ///< 回调执行器，必须串行执行才能保证回调顺序
+    private final CopyOnWriteArrayList<T> mListenerList = new CopyOnWriteArrayList<>();
+    private final LinkedHashMap<String, Timing> mTimingMap = new LinkedHashMap<>();   ///< 监听器类名/回调方法 -> 耗时统计
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @param name : 分发器名称，用于日志和运行指标
+     * @param executor : 回调执行器
+     */
+    public ListenerDispatcher(final String name, final Executor executor) {
+        mName = name;
+        mExecutor = executor;
+    }
+
+    public void addListener(final T listener) {
+        mListenerList.add(listener);
+    }
+
+    public void removeListener(final T listener) {
+        mListenerList.remove(listener);
+    }
+
+    public void clear() {
+        mListenerList.clear();
+    }
+
+    /*
+     * @brief 把回调提交给回调执行器，立即返回，可以在任意线程中调用
+     * @param callbackName : 回调方法名，用于日志和运行指标
+     * @param call : 对每个监听器的调用
+     */
+    public void dispatch(final String callbackName, final ICall<T> call) {
+        final Object[] listeners = mListenerList.toArray();     // 提交时刻的快照
+        if (listeners.length <= 0) {
+            return;
+        }
+
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    invokeAll(callbackName, call, listeners);
+                }
+            });
+        } catch (RejectedExecutionException e) {   // SDK 已经释放
+            ALog.getInstance().e(TAG, "<dispatch> [" + mName + "] rejected, callback=" + callbackName);
+        }
+    }
+
+    /*
+     * @brief 获取每个监听器回调的耗时统计
+     */
+    public List<IMetricsMgr.ListenerStats> getStats() {
+        ArrayList<IMetricsMgr.ListenerStats> statsList = new ArrayList<>();
+        synchronized (mTimingMap) {
+            for (Timing timing : mTimingMap.values()) {
+                IMetricsMgr.ListenerStats stats = new IMetricsMgr.ListenerStats();
+                stats.mDispatcher = mName;
+                stats.mListener = timing.mListener;
+                stats.mCallback = timing.mCallback;
+                stats.mSlowCount = timing.mSlowCount;
+                stats.mDuration = HttpMetrics.toLatencyStats(timing.mHistogram);
+                statsList.add(stats);
+            }
+        }
+        return statsList;
+    }
+
+    public void resetStats() {
+        synchronized (mTimingMap) {
+            mTimingMap.clear();
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 回调执行器中运行，逐个回调监听器，一个监听器抛出异常不影响其他监听器
+     */
+    @SuppressWarnings("unchecked")
+    private void invokeAll(final String callbackName, final ICall<T> call, final Object[] listeners) {
+        for (Object listener : listeners) {
+            long startTime = SystemClock.uptimeMillis();
+            try {
+                call.invoke((T)listener);
+            } catch (RuntimeException e) {
+                ALog.getInstance().e(TAG, "<invokeAll> [" + mName + "] callback=" + callbackName
+                        + ", listener=" + listener.getClass().getName() + ", exp=" + e.toString());
+            }
+            long duration = SystemClock.uptimeMillis() - startTime;
+
+            boolean slow = (duration > SLOW_THRESHOLD);
+            recordTiming(listener.getClass().getName(), callbackName, duration, slow);
+            if (slow) {
+                ALog.getInstance().w(TAG, "<invokeAll> [" + mName + "] slow listener, callback=" + callbackName
+                        + ", listener=" + listener.getClass().getName() + ", duration=" + duration);
+            }
+        }
+    }
+
+    private void recordTiming(final String listenerName, final String callbackName, long duration, boolean slow) {
+        String key = listenerName + "/" + callbackName;
+        Timing timing;
+        synchronized (mTimingMap) {
+            timing = mTimingMap.get(key);
+            if (timing == null) {
+                timing = new Timing();
+                timing.mListener = listenerName;
+                timing.mCallback = callbackName;
+                mTimingMap.put(key, timing);
+            }
+            if (slow) {
+                timing.mSlowCount++;
+            }
+        }
+        timing.mHistogram.record(duration);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * @file MetricsMgr.java
+ * @brief This file implement the SDK metrics
+ * @author xiaohua.lu
+ * @email luxiaohua@agora.io
+ * @version 1.0.0.1
+ * @date 2022-01-26
+ * @license Copyright (C) 2021 AgoraIO Inc. All rights reserved.
+ */
+package io.agora.iotcallkit.sdkimpl;
+
+
+import io.agora.iotcallkit.IMetricsMgr;
+import io.agora.iotcallkit.transport.ConnWarmer;
+import io.agora.iotcallkit.transport.HttpMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/*
+ * @brief SDK运行指标管理，数据来自于各个模块的统计
+ */
+public class MetricsMgr implements IMetricsMgr {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final ArrayList<EventBus> mEventBusList = new ArrayList<>();   ///< 各个工作通道的事件队列
+    private final ArrayList<ListenerDispatcher<?>> mDispatcherList = new ArrayList<>();  ///< 各个模块的回调分发器
+
+
+    ///////////////////////////////////////////////////////////////////////
+    /////////////////// Override Methods of IMetricsMgr ///////////////////
+    ///////////////////////////////////////////////////////////////////////
+    @Override
+    public List<HttpEndpointStats> getHttpStats() {
+        return HttpMetrics.getInstance().getStats();
+    }
+
+    @Override
+    public void resetHttpStats() {
+        HttpMetrics.getInstance().reset();
+    }
+
+    @Override
+    public List<EventQueueStats> getEventQueueStats() {
+        ArrayList<EventQueueStats> statsList = new ArrayList<>();
+        synchronized (mEventBusList) {
+            for (EventBus eventBus : mEventBusList) {
+                statsList.add(eventBus.getStats());
+            }
+        }
+        return statsList;
+    }
+
+    @Override
+    public void resetEventQueueStats() {
+        synchronized (mEventBusList) {
+            for (EventBus eventBus : mEventBusList) {
+                eventBus.resetStats();
+            }
+        }
+    }
+
+    @Override
+    public List<ListenerStats> getListenerStats() {
+        ArrayList<ListenerStats> statsList = new ArrayList<>();
+        synchronized (mDispatcherList) {
+            for (ListenerDispatcher<?> dispatcher : mDispatcherList) {
+                statsList.addAll(dispatcher.getStats());
+            }
+        }
+        return statsList;
+    }
+
+    @Override
+    public void resetListenerStats() {
+        synchronized (mDispatcherList) {
+            for (ListenerDispatcher<?> dispatcher : mDispatcherList) {
+                dispatcher.resetStats();
+            }
+        }
+    }
+
+    @Override
+    public WarmUpStats getWarmUpStats() {
+        return ConnWarmer.getInstance().getStats();
+    }
+
+    @Override
+    public void resetWarmUpStats() {
+        ConnWarmer.getInstance().resetStats();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    //////////////////////// Methods for each sub-module ///////////////////////
+    //////////////////////////////////////////////////////////////////////////
+    void addEventBus(final EventBus eventBus) {
+        synchronized (mEventBusList) {
+            mEventBusList.add(eventBus);
+        }
+    }
+
+    void clearEventBus() {
+        synchronized (mEventBusList) {
+            mEventBusList.clear();
+        }
+    }
+
+    void addDispatcher(final ListenerDispatcher<?> dispatcher) {
+        synchronized (mDispatcherList) {
+            mDispatcherList.add(dispatcher);
+        }
+    }
+
+    void clearDispatcher() {
+        synchronized (mDispatcherList) {
+            mDispatcherList.clear();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.agora.iotcallkit.transport;
+
+
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import io.agora.iotcallkit.logger.ALog;
+
+
+/*
+ * @brief 可取消的异步请求
+ *        cancel() 会通过 CancelToken 立即断开正在进行的HTTP连接，
+ *        请求完成时(没有被取消)通过回调返回结果，也可以通过 get() 同步等待结果
+ */
+public class AsyncRequest<T> extends FutureTask<T> {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 请求结果回调，在请求线程中回调，被取消的请求不会回调
+     */
+    public interface ICallback<T> {
+        void onResult(T result);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/AsyncRequest";
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final CancelToken mCancelToken;
+    private final ICallback<T> mCallback;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public AsyncRequest(final Callable<T> callable, final CancelToken cancelToken,
+                        final ICallback<T> callback) {
+        super(callable);
+        mCancelToken = cancelToken;
+        mCallback = callback;
+    }
+
+    public CancelToken getCancelToken() {
+        return mCancelToken;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        mCancelToken.cancel();
+        return super.cancel(mayInterruptIfRunning);
+    }
+
+    /*
+     * @brief 取消请求并断开连接
+     */
+    public boolean cancel() {
+        return cancel(true);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    @Override
+    protected void done() {
+        if (isCancelled() || (mCallback == null)) {
+            return;
+        }
+        try {
+            mCallback.onResult(get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {    // 请求执行时抛出异常，没有结果可以回调
+            ALog.getInstance().e(TAG, "<done> request failed, exp="
+                    + Log.getStackTraceString(e.getCause()));
+        }
+    }
+}
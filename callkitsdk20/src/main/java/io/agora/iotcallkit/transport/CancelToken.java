@@ -0,0 +1,104 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+
+/*
+ * @brief HTTP请求的取消标记
+ *        请求过程中会将当前正在使用的连接绑定到标记上，取消时直接断开该连接，
+ *        阻塞在连接、写入或者读取上的请求线程会立即返回，而不需要等待超时。
+ *        子标记跟随父标记一起取消，也可以单独取消
+ */
+public class CancelToken {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private boolean mCancelled = false;             ///< 是否已经取消
+    private HttpURLConnection mConnection;          ///< 当前绑定的连接
+    private ArrayList<CancelToken> mChildList;      ///< 跟随取消的子标记
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public CancelToken() {
+    }
+
+    /*
+     * @brief 创建子标记，父标记为null时等同于独立的标记
+     */
+    public CancelToken(final CancelToken parent) {
+        if (parent != null) {
+            parent.addChild(this);
+        }
+    }
+
+    /*
+     * @brief 取消请求，可以在任意线程中调用，多次调用无副作用
+     */
+    public void cancel() {
+        HttpURLConnection connection;
+        ArrayList<CancelToken> childList;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            connection = mConnection;
+            mConnection = null;
+            childList = mChildList;
+            mChildList = null;
+        }
+        if (connection != null) {
+            connection.disconnect();   // 关闭底层socket，阻塞中的读写会抛出异常
+        }
+        if (childList != null) {
+            for (CancelToken child : childList) {
+                child.cancel();
+            }
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /*
+     * @brief 绑定当前请求的连接
+     * @return 已经被取消返回false，调用者需要放弃该请求
+     */
+    public synchronized boolean attach(HttpURLConnection connection) {
+        if (mCancelled) {
+            return false;
+        }
+        mConnection = connection;
+        return true;
+    }
+
+    /*
+     * @brief 请求结束后解除绑定，之后的取消不会再断开该连接(连接可能已经归还到连接池)
+     */
+    public synchronized void detach() {
+        mConnection = null;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private void addChild(final CancelToken child) {
+        synchronized (this) {
+            if (!mCancelled) {
+                if (mChildList == null) {
+                    mChildList = new ArrayList<>();
+                }
+                mChildList.add(child);
+                return;
+            }
+        }
+        child.cancel();     // 父标记已经取消，子标记直接取消
+    }
+}
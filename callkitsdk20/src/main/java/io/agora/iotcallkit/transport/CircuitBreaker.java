@@ -0,0 +1,189 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.util.HashMap;
+
+
+/*
+ * @brief 按服务地址的熔断器
+ *        关闭状态下统计最近若干次请求的错误率，超过阈值后打开，打开期间的请求直接失败不再等待超时；
+ *        打开一段时间后进入半开状态，只放行一个探测请求，探测成功则关闭，失败则重新打开并延长打开时间
+ */
+public class CircuitBreaker {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static final int STATE_CLOSED = 0;           ///< 关闭，请求正常放行
+    public static final int STATE_OPEN = 1;             ///< 打开，请求直接失败
+    public static final int STATE_HALF_OPEN = 2;        ///< 半开，只放行一个探测请求
+
+    private static final int DEF_WINDOW_SIZE = 20;              ///< 统计错误率的请求个数
+    private static final int DEF_MIN_SAMPLES = 10;              ///< 至少有这么多次请求才计算错误率
+    private static final int DEF_ERROR_PERCENT = 50;            ///< 错误率阈值(百分比)
+    private static final long DEF_OPEN_DURATION = 5 * 1000;     ///< 首次打开的持续时间
+    private static final long MAX_OPEN_DURATION = 60 * 1000;    ///< 连续探测失败时打开时间翻倍的上限
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 单个服务地址的熔断状态
+     */
+    private static class Breaker {
+        public int mState = STATE_CLOSED;
+        public boolean[] mWindow;           ///< 最近请求的结果环形缓冲，true表示失败
+        public int mWindowPos = 0;
+        public int mSampleCount = 0;        ///< 环形缓冲中的有效结果个数
+        public int mErrorCount = 0;         ///< 环形缓冲中的失败次数
+        public long mOpenDuration;          ///< 本次打开的持续时间
+        public long mOpenUntil = 0;         ///< 打开状态的结束时间
+        public boolean mProbing = false;    ///< 半开状态下是否已经放行了探测请求
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final HashMap<String, Breaker> mBreakerMap = new HashMap<>();   ///< 服务地址 -> 熔断状态
+    private int mWindowSize = DEF_WINDOW_SIZE;
+    private int mMinSamples = DEF_MIN_SAMPLES;
+    private int mErrorPercent = DEF_ERROR_PERCENT;
+    private long mOpenDuration = DEF_OPEN_DURATION;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 设置熔断参数，只影响之后新建的服务地址
+     * @param windowSize : 统计错误率的请求个数
+     * @param minSamples : 至少有这么多次请求才计算错误率
+     * @param errorPercent : 错误率阈值(百分比)
+     * @param openDuration : 首次打开的持续时间(毫秒)
+     */
+    public synchronized void setConfig(int windowSize, int minSamples, int errorPercent,
+                                       long openDuration) {
+        mWindowSize = Math.max(windowSize, 1);
+        mMinSamples = Math.max(Math.min(minSamples, mWindowSize), 1);
+        mErrorPercent = errorPercent;
+        mOpenDuration = openDuration;
+    }
+
+    /*
+     * @brief 判断是否可以向该服务地址发送请求，半开状态下放行的请求必须回报结果
+     */
+    public synchronized boolean allowRequest(final String key) {
+        Breaker breaker = getBreaker(key);
+        switch (breaker.mState) {
+            case STATE_OPEN:
+                if (System.currentTimeMillis() < breaker.mOpenUntil) {
+                    return false;
+                }
+                breaker.mState = STATE_HALF_OPEN;
+                breaker.mProbing = true;
+                return true;
+
+            case STATE_HALF_OPEN:
+                if (breaker.mProbing) {
+                    return false;
+                }
+                breaker.mProbing = true;
+                return true;
+
+            default:
+                return true;
+        }
+    }
+
+    /*
+     * @brief 请求得到服务器回应
+     */
+    public synchronized void onSuccess(final String key) {
+        Breaker breaker = getBreaker(key);
+        if (breaker.mState == STATE_HALF_OPEN) {
+            resetWindow(breaker);
+            breaker.mState = STATE_CLOSED;
+            breaker.mProbing = false;
+            breaker.mOpenDuration = mOpenDuration;
+            return;
+        }
+        addSample(breaker, false);
+    }
+
+    /*
+     * @brief 请求连接失败、超时 或者 服务器错误
+     */
+    public synchronized void onFailure(final String key) {
+        Breaker breaker = getBreaker(key);
+        if (breaker.mState == STATE_HALF_OPEN) {
+            breaker.mOpenDuration = Math.min(breaker.mOpenDuration * 2, MAX_OPEN_DURATION);
+            open(breaker);
+            return;
+        }
+        addSample(breaker, true);
+        if ((breaker.mState == STATE_CLOSED) && (breaker.mSampleCount >= mMinSamples)
+            && (breaker.mErrorCount * 100 >= breaker.mSampleCount * mErrorPercent)) {
+            open(breaker);
+        }
+    }
+
+    /*
+     * @brief 请求被取消等没有结果的情况，释放半开状态下的探测机会
+     */
+    public synchronized void onIgnored(final String key) {
+        Breaker breaker = getBreaker(key);
+        if (breaker.mState == STATE_HALF_OPEN) {
+            breaker.mProbing = false;
+        }
+    }
+
+    public synchronized int getState(final String key) {
+        Breaker breaker = mBreakerMap.get(key);
+        return (breaker != null) ? breaker.mState : STATE_CLOSED;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private Breaker getBreaker(final String key) {
+        Breaker breaker = mBreakerMap.get(key);
+        if (breaker == null) {
+            breaker = new Breaker();
+            breaker.mWindow = new boolean[mWindowSize];
+            breaker.mOpenDuration = mOpenDuration;
+            mBreakerMap.put(key, breaker);
+        }
+        return breaker;
+    }
+
+    private static void addSample(final Breaker breaker, boolean failed) {
+        if (breaker.mSampleCount == breaker.mWindow.length) {
+            if (breaker.mWindow[breaker.mWindowPos]) {
+                breaker.mErrorCount--;
+            }
+        } else {
+            breaker.mSampleCount++;
+        }
+        breaker.mWindow[breaker.mWindowPos] = failed;
+        if (failed) {
+            breaker.mErrorCount++;
+        }
+        breaker.mWindowPos = (breaker.mWindowPos + 1) % breaker.mWindow.length;
+    }
+
+    private static void resetWindow(final Breaker breaker) {
+        breaker.mWindowPos = 0;
+        breaker.mSampleCount = 0;
+        breaker.mErrorCount = 0;
+    }
+
+    private static void open(final Breaker breaker) {
+        breaker.mState = STATE_OPEN;
+        breaker.mProbing = false;
+        breaker.mOpenUntil = System.currentTimeMillis() + breaker.mOpenDuration;
+        resetWindow(breaker);
+    }
+}
@@ -0,0 +1,274 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.agora.iotcallkit.IMetricsMgr;
+import io.agora.iotcallkit.logger.ALog;
+
+
+/*
+ * @brief HTTP连接预热
+ *        登录成功或者应用回到前台后，提前进行DNS解析并建立到服务器的长连接放入连接池，
+ *        之后定时发送轻量的HEAD请求保活，直到连接被真正的请求使用或者保活时长结束。
+ *        预热和保活都在独立的线程中进行，不阻塞SDK工作线程。
+ *        预热后第一个统计端点的请求由 HttpTransport 上报实际建立连接的耗时，耗时接近0说明复用了池中的连接
+ */
+public class ConnWarmer {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/ConnWarmer";
+    private static final int WARM_TIMEOUT = 5000;                       ///< 预热请求超时时间
+    private static final long MIN_PING_INTERVAL = 30 * 1000;            ///< 最小保活间隔
+    private static final long MAX_KEEP_WARM_TIME = 10 * 60 * 1000;      ///< 最长保活时长10分钟
+    private static final long WARM_CONNECT_THRESHOLD = 10;              ///< 建立连接耗时不超过该值(毫秒)认为复用了空闲连接
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static ConnWarmer mInstance = null;
+
+    private ScheduledExecutorService mExecutor;         ///< 预热和保活的执行线程
+    private ScheduledFuture<?> mKeepAliveTask;          ///< 当前的保活定时任务
+    private final ArrayList<String> mWarmUrls = new ArrayList<>();  ///< 需要预热的服务器地址
+    private String[] mReportEndpoints = new String[0];  ///< 统计是否命中预热连接的端点后缀，例如 "/call"
+    private long mWarmStartTime = 0;                    ///< 最近一次开始预热的时间
+    private volatile boolean mPendingReport = false;    ///< 预热后的第一次请求是否还未统计
+
+    private long mWarmHitCount = 0;                     ///< 预热后第一次请求复用了空闲连接的次数
+    private long mWarmMissCount = 0;                    ///< 预热后第一次请求重新建立连接的次数
+    private boolean mLastWarmHit = false;               ///< 最近一次统计是否复用了空闲连接
+    private long mLastConnectTime = -1;                 ///< 最近一次统计的建立连接耗时
+    private String mLastRequestUrl;                     ///< 最近一次统计的实际请求地址
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static ConnWarmer getInstance() {
+        if (mInstance == null) {
+            synchronized (ConnWarmer.class) {
+                if (mInstance == null) {
+                    mInstance = new ConnWarmer();
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    /*
+     * @brief 开始预热到指定服务器的连接，并且定时保活
+     *        重复调用会重新开始计算保活时长
+     * @param urlList : 需要预热的服务器地址列表
+     * @param reportEndpoints : 预热后第一个请求这些端点(路径后缀)的请求，统计是否复用了空闲连接
+     */
+    public synchronized void start(final List<String> urlList, final String[] reportEndpoints) {
+        mReportEndpoints = (reportEndpoints != null) ? reportEndpoints.clone() : new String[0];
+        mWarmUrls.clear();
+        for (String url : urlList) {
+            if ((url != null) && (url.startsWith("http://") || url.startsWith("https://"))) {
+                mWarmUrls.add(url);
+            }
+        }
+        if (mWarmUrls.isEmpty()) {
+            ALog.getInstance().e(TAG, "<start> no valid url to warm");
+            return;
+        }
+
+        if (mExecutor == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ConnWarmer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            mExecutor = executor;
+        }
+        if (mKeepAliveTask != null) {
+            mKeepAliveTask.cancel(false);
+        }
+
+        // 保活间隔取连接池保活时长的一半，保证连接在被系统回收之前刷新
+        long interval = Math.max(HttpConnPool.getInstance().getKeepAliveTime() / 2, MIN_PING_INTERVAL);
+        mWarmStartTime = System.currentTimeMillis();
+        mPendingReport = true;
+        mKeepAliveTask = mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                doWarmUp();
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+        ALog.getInstance().d(TAG, "<start> mWarmUrls=" + mWarmUrls + ", interval=" + interval);
+    }
+
+    /*
+     * @brief 停止保活，已经在连接池中的空闲连接由系统按保活时长回收
+     */
+    public synchronized void stop() {
+        if (mKeepAliveTask != null) {
+            mKeepAliveTask.cancel(false);
+            mKeepAliveTask = null;
+        }
+        mPendingReport = false;
+        ALog.getInstance().d(TAG, "<stop> done");
+    }
+
+    /*
+     * @brief 释放预热线程，在SDK释放时调用
+     */
+    public synchronized void release() {
+        stop();
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    /*
+     * @brief 请求建立连接后由 HttpTransport 调用，统计预热后第一个统计端点的请求是否复用了空闲连接，并且停止保活
+     * @param requestUrl : 实际发送的请求地址，已经替换成选中的网关
+     * @param connectTime : 建立连接的耗时(毫秒)，不包括排队等待连接许可的时间
+     */
+    public void onRequestConnected(final String requestUrl, long connectTime) {
+        if (!mPendingReport) {
+            return;
+        }
+
+        boolean warm = (connectTime <= WARM_CONNECT_THRESHOLD);
+        synchronized (this) {
+            if (!mPendingReport || !isReportEndpoint(requestUrl)) {
+                return;
+            }
+            mPendingReport = false;
+            mLastWarmHit = warm;
+            mLastConnectTime = connectTime;
+            mLastRequestUrl = requestUrl;
+            if (warm) {
+                mWarmHitCount++;
+            } else {
+                mWarmMissCount++;
+            }
+            if (mKeepAliveTask != null) {   // 连接已经被真正的请求使用，不再需要保活
+                mKeepAliveTask.cancel(false);
+                mKeepAliveTask = null;
+            }
+        }
+
+        ALog.getInstance().d(TAG, "<onRequestConnected> first request after warm-up, warm=" + warm
+                + ", connectTime=" + connectTime + ", requestUrl=" + requestUrl);
+    }
+
+    /*
+     * @brief 获取预热命中的统计信息
+     */
+    public synchronized IMetricsMgr.WarmUpStats getStats() {
+        IMetricsMgr.WarmUpStats stats = new IMetricsMgr.WarmUpStats();
+        stats.mHitCount = mWarmHitCount;
+        stats.mMissCount = mWarmMissCount;
+        stats.mLastHit = mLastWarmHit;
+        stats.mLastConnectTime = mLastConnectTime;
+        stats.mLastRequestUrl = mLastRequestUrl;
+        return stats;
+    }
+
+    public synchronized void resetStats() {
+        mWarmHitCount = 0;
+        mWarmMissCount = 0;
+        mLastWarmHit = false;
+        mLastConnectTime = -1;
+        mLastRequestUrl = null;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private boolean isReportEndpoint(final String requestUrl) {
+        String path;
+        try {
+            path = new URL(requestUrl).getPath();
+        } catch (MalformedURLException e) {
+            return false;
+        }
+        for (String endpoint : mReportEndpoints) {
+            if (path.endsWith(endpoint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * @brief 预热线程中执行，对每个服务器进行DNS解析并发送一个HEAD请求
+     */
+    private void doWarmUp() {
+        ArrayList<String> urlList;
+        synchronized (this) {
+            if ((System.currentTimeMillis() - mWarmStartTime) > MAX_KEEP_WARM_TIME) {
+                ALog.getInstance().d(TAG, "<doWarmUp> keep warm time is over");
+                if (mKeepAliveTask != null) {
+                    mKeepAliveTask.cancel(false);
+                    mKeepAliveTask = null;
+                }
+                return;
+            }
+            urlList = new ArrayList<>(mWarmUrls);
+        }
+
+        for (String warmUrl : urlList) {
+            long startTime = System.currentTimeMillis();
+            int respCode = warmUpUrl(warmUrl);
+            ALog.getInstance().d(TAG, "<doWarmUp> warmUrl=" + warmUrl + ", respCode=" + respCode
+                    + ", costTime=" + (System.currentTimeMillis() - startTime));
+        }
+    }
+
+    /*
+     * @brief 对单个服务器进行预热，任何HTTP回应都说明连接已经建立，回应内容直接丢弃
+     * @return HTTP回应码，失败返回-1
+     */
+    private int warmUpUrl(final String warmUrl) {
+        URL url = null;
+        HttpURLConnection connection = null;
+        boolean reusable = false;
+        try {
+            url = new URL(warmUrl);
+            InetAddress.getAllByName(url.getHost());  // 提前解析DNS，结果由系统缓存
+
+            // 已经有空闲连接时仍然发送请求，用来刷新服务器端的空闲计时
+            connection = HttpConnPool.getInstance().openConnection(url, WARM_TIMEOUT);
+            connection.setConnectTimeout(WARM_TIMEOUT);
+            connection.setReadTimeout(WARM_TIMEOUT);
+            connection.setRequestMethod("HEAD");
+            int respCode = connection.getResponseCode();
+            reusable = true;
+            return respCode;
+
+        } catch (IOException e) {
+            ALog.getInstance().e(TAG, "<warmUpUrl> failure, warmUrl=" + warmUrl + ", exp=" + e.toString());
+            return -1;
+
+        } finally {
+            if (url != null) {
+                HttpConnPool.getInstance().releaseConnection(url, connection, reusable);
+            }
+        }
+    }
+}
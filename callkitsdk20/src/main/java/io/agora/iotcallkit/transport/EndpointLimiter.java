@@ -0,0 +1,150 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+/*
+ * @brief 按照请求端点(URL路径)限制并发请求数，超过限制的请求按先来先服务的顺序公平排队
+ *        不同端点之间的请求互不阻塞
+ */
+public class EndpointLimiter {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 可以调整许可总数的信号量
+     *        调小时扣减的许可会在正在进行的请求归还之后生效，调整期间并发数不会超过新旧两个值中较大的一个
+     */
+    private static class LimitSemaphore extends Semaphore {
+        private int mLimit;                     ///< 当前的许可总数
+
+        LimitSemaphore(int limit) {
+            super(limit, true);                 // 公平排队
+            mLimit = limit;
+        }
+
+        void resize(int newLimit) {
+            int delta = newLimit - mLimit;
+            mLimit = newLimit;
+            if (delta > 0) {
+                release(delta);
+            } else if (delta < 0) {
+                reducePermits(-delta);
+            }
+        }
+    }
+
+    /*
+     * @brief 获取到的并发许可，请求完成后必须调用 release() 归还
+     */
+    public static class Permit {
+        private final Semaphore mSemaphore;
+        private boolean mReleased = false;
+
+        private Permit(Semaphore semaphore) {
+            mSemaphore = semaphore;
+        }
+
+        public synchronized void release() {
+            if (!mReleased) {
+                mReleased = true;
+                mSemaphore.release();
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static final int DEF_MAX_CONCURRENT = 2;     ///< 默认每个端点最大并发请求数
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final HashMap<String, Integer> mConfigMap = new HashMap<>();     ///< 端点后缀 -> 最大并发数
+    private final HashMap<String, LimitSemaphore> mSemaphoreMap = new HashMap<>(); ///< 端点路径 -> 并发许可
+    private int mDefMaxConcurrent = DEF_MAX_CONCURRENT;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 设置默认的每个端点最大并发请求数
+     */
+    public synchronized void setDefaultMaxConcurrent(int maxConcurrent) {
+        mDefMaxConcurrent = (maxConcurrent > 0) ? maxConcurrent : DEF_MAX_CONCURRENT;
+        resizeAll();
+    }
+
+    /*
+     * @brief 设置某个端点的最大并发请求数
+     * @param endpoint : 端点路径后缀，例如 "/call"
+     * @param maxConcurrent : 最大并发数，<=0 表示恢复默认值
+     */
+    public synchronized void setMaxConcurrent(final String endpoint, int maxConcurrent) {
+        if (maxConcurrent > 0) {
+            mConfigMap.put(endpoint, maxConcurrent);
+        } else {
+            mConfigMap.remove(endpoint);
+        }
+        resizeAll();
+    }
+
+    /*
+     * @brief 获取端点的并发许可，超过并发数时公平排队等待
+     * @param endpointPath : 请求URL的路径
+     * @param timeout : 等待超时时间(毫秒)
+     * @return 获取到的许可，超时或者被中断返回null
+     */
+    public Permit acquire(final String endpointPath, long timeout) {
+        Semaphore semaphore = getSemaphore(endpointPath);
+        try {
+            if (!semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return new Permit(semaphore);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private synchronized Semaphore getSemaphore(final String endpointPath) {
+        LimitSemaphore semaphore = mSemaphoreMap.get(endpointPath);
+        if (semaphore == null) {
+            semaphore = new LimitSemaphore(getMaxConcurrent(endpointPath));
+            mSemaphoreMap.put(endpointPath, semaphore);
+        }
+        return semaphore;
+    }
+
+    private int getMaxConcurrent(final String endpointPath) {
+        for (Map.Entry<String, Integer> entry : mConfigMap.entrySet()) {
+            if (endpointPath.endsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return mDefMaxConcurrent;
+    }
+
+    /*
+     * @brief 配置变化后调整已有端点的许可总数
+     *        保留原来的信号量，已经获取的许可仍然归还到同一个信号量上，排队中的请求也不会丢失
+     */
+    private void resizeAll() {
+        for (Map.Entry<String, LimitSemaphore> entry : mSemaphoreMap.entrySet()) {
+            entry.getValue().resize(getMaxConcurrent(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.agora.iotcallkit.logger.ALog;
+
+
+/*
+ * @brief 按时延选择服务节点
+ *        在独立线程中定时向每个候选节点发送轻量的HEAD请求测量时延，平滑后按时延从小到大排序，
+ *        不可达的节点排在最后。只有新节点明显更快时才切换，避免在时延接近的节点之间来回切换
+ */
+public class EndpointSelector {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/EndpointSelector";
+    private static final int PROBE_TIMEOUT = 3000;                      ///< 探测请求超时时间
+    public static final long DEF_PROBE_INTERVAL = 60 * 1000;            ///< 默认探测间隔
+    private static final long MIN_PROBE_INTERVAL = 10 * 1000;           ///< 最小探测间隔
+    private static final float SMOOTH_FACTOR = 0.3f;                    ///< 时延平滑系数，新样本的权重
+    private static final float SWITCH_THRESHOLD = 0.8f;                 ///< 新节点时延低于当前节点的该比例才切换
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 节点排序结果回调，在探测线程中回调
+     */
+    public interface IListener {
+        void onEndpointsRanked(final String[] rankedUrls);
+    }
+
+    /*
+     * @brief 单个节点的探测状态
+     */
+    private static class Probe {
+        public String mUrl;
+        public long mLatency = -1;          ///< 平滑后的时延，-1表示还没有成功的探测
+        public boolean mHealthy = false;    ///< 最近一次探测是否成功
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final IListener mListener;
+    private ScheduledExecutorService mExecutor;             ///< 探测执行线程
+    private ScheduledFuture<?> mProbeTask;                  ///< 当前的探测定时任务
+    private final ArrayList<Probe> mProbeList = new ArrayList<>();  ///< 候选节点，保持配置的顺序
+    private String mBestUrl = null;                         ///< 当前选中的节点
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public EndpointSelector(final IListener listener) {
+        mListener = listener;
+    }
+
+    /*
+     * @brief 开始定时探测候选节点，立即进行第一次探测
+     *        第一次探测完成之前按配置的顺序使用，重复调用会替换候选节点
+     * @param urlList : 候选节点地址列表，排在前面的在时延相同时优先
+     * @param interval : 探测间隔(毫秒)，<=0 表示使用默认值
+     */
+    public synchronized void start(final List<String> urlList, long interval) {
+        mProbeList.clear();
+        for (String url : urlList) {
+            if ((url != null) && (url.startsWith("http://") || url.startsWith("https://"))) {
+                Probe probe = new Probe();
+                probe.mUrl = url;
+                mProbeList.add(probe);
+            }
+        }
+        mBestUrl = mProbeList.isEmpty() ? null : mProbeList.get(0).mUrl;
+        if (mProbeList.size() < 2) {    // 只有一个节点时没有选择的必要
+            ALog.getInstance().d(TAG, "<start> not enough endpoints, count=" + mProbeList.size());
+            stop();
+            return;
+        }
+
+        if (mExecutor == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "EndpointSelector");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            mExecutor = executor;
+        }
+        if (mProbeTask != null) {
+            mProbeTask.cancel(false);
+        }
+
+        interval = (interval > 0) ? Math.max(interval, MIN_PROBE_INTERVAL) : DEF_PROBE_INTERVAL;
+        mProbeTask = mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                doProbe();
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+        ALog.getInstance().d(TAG, "<start> endpointCount=" + mProbeList.size() + ", interval=" + interval);
+    }
+
+    /*
+     * @brief 停止探测，保持最后一次的排序结果
+     */
+    public synchronized void stop() {
+        if (mProbeTask != null) {
+            mProbeTask.cancel(false);
+            mProbeTask = null;
+        }
+    }
+
+    /*
+     * @brief 释放探测线程
+     */
+    public synchronized void release() {
+        stop();
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    public synchronized String getBestUrl() {
+        return mBestUrl;
+    }
+
+    /*
+     * @brief 获取节点平滑后的时延，-1表示不可达或者还没有探测
+     */
+    public synchronized long getLatency(final String url) {
+        for (Probe probe : mProbeList) {
+            if (probe.mUrl.equals(url)) {
+                return probe.mHealthy ? probe.mLatency : -1;
+            }
+        }
+        return -1;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 探测线程中执行，逐个探测候选节点，然后重新排序
+     */
+    private void doProbe() {
+        ArrayList<String> urlList = new ArrayList<>();
+        synchronized (this) {
+            for (Probe probe : mProbeList) {
+                urlList.add(probe.mUrl);
+            }
+        }
+
+        HashMap<String, Long> sampleMap = new HashMap<>();
+        for (String url : urlList) {
+            sampleMap.put(url, probeUrl(url));
+        }
+
+        String[] rankedUrls;
+        synchronized (this) {
+            for (Probe probe : mProbeList) {
+                Long sample = sampleMap.get(probe.mUrl);
+                if (sample == null) {       // 探测期间候选节点被替换
+                    continue;
+                }
+                probe.mHealthy = (sample >= 0);
+                if (probe.mHealthy) {
+                    probe.mLatency = (probe.mLatency < 0) ? sample
+                            : (long)(probe.mLatency * (1 - SMOOTH_FACTOR) + sample * SMOOTH_FACTOR);
+                }
+            }
+            rankedUrls = rankEndpoints();
+        }
+
+        ALog.getInstance().d(TAG, "<doProbe> samples=" + sampleMap
+                + ", rankedUrls=" + Arrays.toString(rankedUrls));
+        if ((rankedUrls != null) && (mListener != null)) {
+            mListener.onEndpointsRanked(rankedUrls);
+        }
+    }
+
+    /*
+     * @brief 按时延对候选节点排序，当前节点仍然可达并且没有明显更快的节点时保持在第一位
+     * @return 排序后的节点列表，没有可达的节点时返回null，保持原来的选择
+     */
+    private String[] rankEndpoints() {
+        ArrayList<Probe> sortList = new ArrayList<>(mProbeList);
+        Collections.sort(sortList, new Comparator<Probe>() {
+            @Override
+            public int compare(Probe probe1, Probe probe2) {
+                if (probe1.mHealthy != probe2.mHealthy) {
+                    return probe1.mHealthy ? -1 : 1;
+                }
+                if (!probe1.mHealthy) {
+                    return 0;
+                }
+                return Long.compare(probe1.mLatency, probe2.mLatency);
+            }
+        });
+        if (!sortList.get(0).mHealthy) {
+            return null;
+        }
+
+        Probe current = null;
+        for (Probe probe : sortList) {
+            if (probe.mUrl.equals(mBestUrl)) {
+                current = probe;
+                break;
+            }
+        }
+        Probe fastest = sortList.get(0);
+        if ((current != null) && current.mHealthy && (current != fastest)
+            && (fastest.mLatency >= current.mLatency * SWITCH_THRESHOLD)) {
+            sortList.remove(current);
+            sortList.add(0, current);
+        }
+
+        if (!sortList.get(0).mUrl.equals(mBestUrl)) {
+            ALog.getInstance().d(TAG, "<rankEndpoints> switch from " + mBestUrl
+                    + " to " + sortList.get(0).mUrl);
+            mBestUrl = sortList.get(0).mUrl;
+        }
+
+        String[] rankedUrls = new String[sortList.size()];
+        for (int i = 0; i < rankedUrls.length; i++) {
+            rankedUrls[i] = sortList.get(i).mUrl;
+        }
+        return rankedUrls;
+    }
+
+    /*
+     * @brief 向单个节点发送HEAD请求，任何HTTP回应都说明节点可达
+     *        使用连接池中的连接，稳定后测量的是往返时延，探测建立的连接也可以被之后的请求复用
+     * @return 收到回应的耗时，失败返回-1
+     */
+    private long probeUrl(final String probeUrl) {
+        URL url = null;
+        HttpURLConnection connection = null;
+        boolean reusable = false;
+        try {
+            url = new URL(probeUrl);
+            long startTime = System.currentTimeMillis();
+            connection = HttpConnPool.getInstance().openConnection(url, PROBE_TIMEOUT);
+            connection.setConnectTimeout(PROBE_TIMEOUT);
+            connection.setReadTimeout(PROBE_TIMEOUT);
+            connection.setRequestMethod("HEAD");
+            connection.getResponseCode();
+            reusable = true;
+            return System.currentTimeMillis() - startTime;
+
+        } catch (IOException e) {
+            ALog.getInstance().e(TAG, "<probeUrl> failure, probeUrl=" + probeUrl + ", exp=" + e.toString());
+            return -1;
+
+        } finally {
+            if (url != null) {
+                HttpConnPool.getInstance().releaseConnection(url, connection, reusable);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.OkUrlFactory;
+import okhttp3.Protocol;
+
+
+/*
+ * @brief 基于 OkHttp 的 HTTP/2 连接引擎
+ *        仍然以 HttpURLConnection 的形式提供连接，传输层的超时、取消、压缩和统计逻辑都不需要改变。
+ *        https 连接通过 ALPN 协商 HTTP/2，同一主机的并发请求复用一个连接，请求头使用 HPACK 压缩；
+ *        服务器不支持 HTTP/2、http 明文连接 或者 系统不支持 ALPN(Android 5.0以下) 时自动使用 HTTP/1.1。
+ *        只有 HttpConnPool 开启 HTTP/2 时才会加载该类，因此 OkHttp 库不存在时不影响默认的连接方式
+ */
+class Http2Engine {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final OkHttpClient mClient;
+    private final OkUrlFactory mUrlFactory;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @param maxIdleConns : 池中最大空闲连接数
+     * @param keepAliveTime : 空闲连接保活时长(毫秒)
+     */
+    Http2Engine(int maxIdleConns, long keepAliveTime) {
+        mClient = new OkHttpClient.Builder()
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectionPool(new ConnectionPool(maxIdleConns, keepAliveTime, TimeUnit.MILLISECONDS))
+                .build();
+        mUrlFactory = new OkUrlFactory(mClient);
+    }
+
+    HttpURLConnection open(final URL url) {
+        return mUrlFactory.open(url);
+    }
+
+    /*
+     * @brief 关闭所有空闲连接
+     */
+    void evictAll() {
+        mClient.connectionPool().evictAll();
+    }
+}
@@ -0,0 +1,337 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import io.agora.iotcallkit.logger.ALog;
+
+
+/*
+ * @brief HTTP长连接池管理
+ *        系统的 HttpURLConnection 内部自带连接池，但只有在回应数据被完整读取并关闭、
+ *        并且没有调用 disconnect() 的情况下，底层TCP/TLS连接才会被放回池中复用。
+ *        这里统一管理连接的获取和归还，并且提供 保活时长、空闲淘汰 和 单主机连接数限制。
+ *        可选开启 HTTP/2，由 Http2Engine 提供连接，同一主机的并发请求复用一个连接
+ */
+public class HttpConnPool {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 每个主机的连接统计信息
+     */
+    private static class HostEntry {
+        public Semaphore mPermits;              ///< 单主机并发连接数许可
+        public int mActiveCount;                ///< 当前正在使用的连接数
+        public int mIdleCount;                  ///< 当前池中可复用的空闲连接数（估算值）
+        public long mLastReleaseTime;           ///< 最后一次归还连接的时间戳
+    }
+
+    /*
+     * @brief 获取连接许可失败，请求还没有发送到网络
+     *        本地排队超时 或者 等待中线程被中断(请求被取消)，调用者不应当作为服务器故障处理
+     */
+    public static class AcquireException extends InterruptedIOException {
+        public final boolean mCancelled;        ///< true表示等待中被中断，false表示排队超时
+
+        AcquireException(final String message, boolean cancelled) {
+            super(message);
+            mCancelled = cancelled;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/HttpConnPool";
+    public static final int DEF_MAX_CONN_PER_HOST = 4;              ///< 默认单主机最大并发连接数
+    public static final int DEF_MAX_IDLE_CONNS = 5;                 ///< 默认池中最大空闲连接数
+    public static final long DEF_KEEP_ALIVE_TIME = 5 * 60 * 1000;   ///< 默认空闲连接保活时长5分钟
+    public static final int DEF_MAX_STREAMS_PER_HOST = 16;          ///< HTTP/2 时单主机最大并发请求数，请求复用同一个连接
+    public static final long DEF_ACQUIRE_TIMEOUT = 8000;            ///< 默认获取连接许可的超时时间
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static HttpConnPool mInstance = null;
+
+    private final HashMap<String, HostEntry> mHostMap = new HashMap<>();   ///< 所有主机的连接信息
+    private final IdentityHashMap<HttpURLConnection, HostEntry> mLeaseMap = new IdentityHashMap<>();  ///< 使用中的连接 -> 获取许可的主机信息
+    private int mMaxConnPerHost = DEF_MAX_CONN_PER_HOST;
+    private int mMaxIdleConns = DEF_MAX_IDLE_CONNS;
+    private long mKeepAliveTime = DEF_KEEP_ALIVE_TIME;
+    private volatile Http2Engine mHttp2Engine = null;   ///< HTTP/2 连接引擎，为null表示使用系统的 HttpURLConnection
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static HttpConnPool getInstance() {
+        if (mInstance == null) {
+            synchronized (HttpConnPool.class) {
+                if (mInstance == null) {
+                    mInstance = new HttpConnPool();
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    private HttpConnPool() {
+        applySystemProperties();
+    }
+
+    /*
+     * @brief 设置连接池参数，需要在发起第一个HTTP请求之前调用才能对系统连接池生效
+     * @param maxConnPerHost : 单主机最大并发连接数
+     * @param maxIdleConns : 池中最大空闲连接数
+     * @param keepAliveTime : 空闲连接保活时长(毫秒)，超过该时长的空闲连接会被淘汰
+     */
+    public synchronized void setConfig(int maxConnPerHost, int maxIdleConns, long keepAliveTime) {
+        mMaxConnPerHost = (maxConnPerHost > 0) ? maxConnPerHost : DEF_MAX_CONN_PER_HOST;
+        mMaxIdleConns = (maxIdleConns >= 0) ? maxIdleConns : DEF_MAX_IDLE_CONNS;
+        mKeepAliveTime = (keepAliveTime > 0) ? keepAliveTime : DEF_KEEP_ALIVE_TIME;
+        applySystemProperties();
+        if (mHttp2Engine != null) {
+            mHttp2Engine.evictAll();
+            mHttp2Engine = new Http2Engine(mMaxIdleConns, mKeepAliveTime);
+        }
+        resetHostEntries();     // 新的主机信息按照新的并发数创建许可
+        ALog.getInstance().d(TAG, "<setConfig> mMaxConnPerHost=" + mMaxConnPerHost
+                + ", mMaxIdleConns=" + mMaxIdleConns + ", mKeepAliveTime=" + mKeepAliveTime);
+    }
+
+    public synchronized long getKeepAliveTime() {
+        return mKeepAliveTime;
+    }
+
+    /*
+     * @brief 开启或关闭 HTTP/2，需要在发起第一个HTTP请求之前调用
+     *        开启后 https 请求优先协商 HTTP/2，协商失败时自动使用 HTTP/1.1；http 明文请求仍然使用 HTTP/1.1
+     * @return 是否设置成功，OkHttp 库不存在时开启失败，继续使用系统的 HttpURLConnection
+     */
+    public synchronized boolean setHttp2Enabled(boolean enable) {
+        if (!enable) {
+            if (mHttp2Engine != null) {
+                mHttp2Engine.evictAll();
+                mHttp2Engine = null;
+                resetHostEntries();     // HTTP/1.1 按连接数限制并发，不能沿用 HTTP/2 的并发流数
+            }
+            return true;
+        }
+        if (mHttp2Engine != null) {
+            return true;
+        }
+
+        try {
+            mHttp2Engine = new Http2Engine(mMaxIdleConns, mKeepAliveTime);
+        } catch (NoClassDefFoundError e) {
+            ALog.getInstance().e(TAG, "<setHttp2Enabled> OkHttp not found, keep using HTTP/1.1");
+            return false;
+        }
+        resetHostEntries();     // HTTP/2 按并发流数限制并发，不能沿用 HTTP/1.1 的连接数
+        ALog.getInstance().d(TAG, "<setHttp2Enabled> HTTP/2 enabled");
+        return true;
+    }
+
+    public boolean isHttp2Enabled() {
+        return (mHttp2Engine != null);
+    }
+
+    /*
+     * @brief 从连接池中获取一个到目标主机的连接，超过单主机连接数时排队等待
+     *        获取成功后必须调用 releaseConnection() 归还
+     */
+    public HttpURLConnection openConnection(final URL url) throws IOException {
+        return openConnection(url, DEF_ACQUIRE_TIMEOUT);
+    }
+
+    /*
+     * @param acquireTimeout : 排队等待连接许可的超时时间(毫秒)，一般使用调用者的请求超时时间
+     * @throws AcquireException : 排队超时 或者 等待中被中断
+     */
+    public HttpURLConnection openConnection(final URL url, long acquireTimeout) throws IOException {
+        HostEntry hostEntry = acquireHostEntry(url);
+        boolean acquired;
+        try {
+            acquired = hostEntry.mPermits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();     // 保留中断状态，由调用者处理取消
+            releaseHostEntry(hostEntry, false);
+            ALog.getInstance().d(TAG, "<openConnection> acquire interrupted, host=" + getHostKey(url));
+            throw new AcquireException("acquire connection cancelled", true);
+        }
+        if (!acquired) {
+            releaseHostEntry(hostEntry, false);
+            throw new AcquireException("acquire connection timeout", false);
+        }
+
+        HttpURLConnection connection;
+        Http2Engine http2Engine = mHttp2Engine;
+        try {
+            if (http2Engine != null) {
+                connection = http2Engine.open(url);
+            } else {
+                connection = (HttpURLConnection) url.openConnection();
+            }
+        } catch (IOException e) {
+            hostEntry.mPermits.release();
+            releaseHostEntry(hostEntry, false);
+            throw e;
+        }
+        if (http2Engine == null) {     // HTTP/2 不允许 Connection 请求头，由 OkHttp 自己管理连接复用
+            connection.setRequestProperty("Connection", "Keep-Alive");
+        }
+        synchronized (this) {
+            mLeaseMap.put(connection, hostEntry);
+        }
+        return connection;
+    }
+
+    /*
+     * @brief 归还连接到连接池
+     * @param url : 调用 openConnection() 时的URL
+     * @param connection : 要归还的连接
+     * @param reusable : 回应数据是否已经完整读取，true则底层连接放回池中复用，false则直接断开
+     */
+    public void releaseConnection(final URL url, HttpURLConnection connection, boolean reusable) {
+        if (connection == null) {
+            return;
+        }
+
+        if (reusable) {
+            // 读取剩余数据并关闭流，系统才会将底层连接放回池中
+            reusable = drainStream(getStreamQuietly(connection, false))
+                    && drainStream(getStreamQuietly(connection, true));
+        }
+        if (!reusable) {
+            connection.disconnect();
+        }
+
+        // 许可归还到获取时的主机信息上，期间主机信息可能已经因为配置变化被重建
+        HostEntry hostEntry;
+        synchronized (this) {
+            hostEntry = mLeaseMap.remove(connection);
+        }
+        if (hostEntry == null) {
+            return;
+        }
+        hostEntry.mPermits.release();
+        releaseHostEntry(hostEntry, reusable);
+    }
+
+    /*
+     * @brief 淘汰超过保活时长的空闲连接记录
+     */
+    public synchronized void evictIdleConnections() {
+        long currTime = System.currentTimeMillis();
+        Iterator<Map.Entry<String, HostEntry>> it = mHostMap.entrySet().iterator();
+        while (it.hasNext()) {
+            HostEntry hostEntry = it.next().getValue();
+            if ((currTime - hostEntry.mLastReleaseTime) < mKeepAliveTime) {
+                continue;
+            }
+            hostEntry.mIdleCount = 0;  // 系统连接池已经关闭这些超时连接
+            if (hostEntry.mActiveCount <= 0) {
+                it.remove();
+            }
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 丢弃所有主机信息，之后的请求按照当前配置重新创建许可。
+     *        使用中的连接仍然把许可归还到原来的主机信息上，不会影响新的许可数
+     */
+    private synchronized void resetHostEntries() {
+        mHostMap.clear();
+    }
+
+    /*
+     * @brief 系统 HttpURLConnection 的连接池参数通过系统属性配置
+     */
+    private void applySystemProperties() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(mMaxIdleConns));
+        System.setProperty("http.keepAliveDuration", String.valueOf(mKeepAliveTime));
+    }
+
+    /*
+     * @brief 获取主机信息并占用一个使用计数，使用计数不为0的主机信息不会被淘汰
+     */
+    private synchronized HostEntry acquireHostEntry(final URL url) {
+        evictIdleConnections();
+
+        String hostKey = getHostKey(url);
+        HostEntry hostEntry = mHostMap.get(hostKey);
+        if (hostEntry == null) {
+            hostEntry = new HostEntry();
+            // HTTP/2 的并发请求复用同一个连接，限制的是并发请求数而不是连接数
+            boolean multiplexed = (mHttp2Engine != null) && "https".equals(url.getProtocol());
+            int maxPermits = multiplexed ? Math.max(DEF_MAX_STREAMS_PER_HOST, mMaxConnPerHost) : mMaxConnPerHost;
+            hostEntry.mPermits = new Semaphore(maxPermits, true);  // 公平排队
+            hostEntry.mLastReleaseTime = System.currentTimeMillis();
+            mHostMap.put(hostKey, hostEntry);
+        }
+        hostEntry.mActiveCount++;
+        if (hostEntry.mIdleCount > 0) {
+            hostEntry.mIdleCount--;
+        }
+        return hostEntry;
+    }
+
+    private synchronized void releaseHostEntry(HostEntry hostEntry, boolean reusable) {
+        if (hostEntry.mActiveCount > 0) {
+            hostEntry.mActiveCount--;
+        }
+        if (reusable) {
+            hostEntry.mIdleCount = Math.min(hostEntry.mIdleCount + 1, mMaxIdleConns);
+            hostEntry.mLastReleaseTime = System.currentTimeMillis();
+        }
+    }
+
+    private static String getHostKey(final URL url) {
+        int port = (url.getPort() > 0) ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    private static InputStream getStreamQuietly(HttpURLConnection connection, boolean errorStream) {
+        try {
+            return errorStream ? connection.getErrorStream() : connection.getInputStream();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean drainStream(InputStream inputStream) {
+        if (inputStream == null) {
+            return true;
+        }
+        try {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            while (inputStream.read(buffer) != -1) {
+            }
+            inputStream.close();
+            return true;
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
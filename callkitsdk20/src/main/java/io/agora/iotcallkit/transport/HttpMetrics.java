@@ -0,0 +1,147 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.agora.iotcallkit.ErrCode;
+import io.agora.iotcallkit.IMetricsMgr;
+
+
+/*
+ * @brief HTTP请求的耗时和错误统计
+ *        每个端点(URL路径)分别统计 获取连接、首字节、总耗时 三个直方图，以及每个错误码的次数。
+ *        所有服务共用一个实例，统计操作无锁
+ */
+public class HttpMetrics {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 单个端点的统计数据
+     */
+    private static class EndpointEntry {
+        public final AtomicLong mRequestCount = new AtomicLong();
+        public final AtomicLong mCoalescedCount = new AtomicLong();
+        public final LatencyHistogram mConnect = new LatencyHistogram();
+        public final LatencyHistogram mFirstByte = new LatencyHistogram();
+        public final LatencyHistogram mTotal = new LatencyHistogram();
+        public final ConcurrentHashMap<Integer, AtomicLong> mErrorCounts = new ConcurrentHashMap<>();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static HttpMetrics mInstance = null;
+
+    private final ConcurrentHashMap<String, EndpointEntry> mEndpointMap = new ConcurrentHashMap<>();
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static HttpMetrics getInstance() {
+        if (mInstance == null) {
+            synchronized (HttpMetrics.class) {
+                if (mInstance == null) {
+                    mInstance = new HttpMetrics();
+                }
+            }
+        }
+        return mInstance;
+    }
+
+    /*
+     * @brief 记录一次请求的统计数据，没有到达的阶段耗时传入-1
+     * @param endpoint : 端点路径
+     * @param connectTime : 获取连接耗时
+     * @param firstByteTime : 首字节耗时
+     * @param totalTime : 总耗时
+     * @param errCode : 请求结果错误码
+     */
+    public void record(final String endpoint, long connectTime, long firstByteTime,
+                       long totalTime, int errCode) {
+        EndpointEntry entry = getEntry(endpoint);
+        entry.mRequestCount.incrementAndGet();
+        entry.mConnect.record(connectTime);
+        entry.mFirstByte.record(firstByteTime);
+        entry.mTotal.record(totalTime);
+        if (errCode != ErrCode.XOK) {
+            AtomicLong counter = entry.mErrorCounts.get(errCode);
+            if (counter == null) {
+                AtomicLong newCounter = new AtomicLong();
+                counter = entry.mErrorCounts.putIfAbsent(errCode, newCounter);
+                if (counter == null) {
+                    counter = newCounter;
+                }
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    /*
+     * @brief 记录一次被合并的请求，该请求共享了其他相同请求的回应，没有实际发送
+     */
+    public void recordCoalesced(final String endpoint) {
+        getEntry(endpoint).mCoalescedCount.incrementAndGet();
+    }
+
+    public List<IMetricsMgr.HttpEndpointStats> getStats() {
+        ArrayList<IMetricsMgr.HttpEndpointStats> statsList = new ArrayList<>();
+        for (Map.Entry<String, EndpointEntry> mapEntry : mEndpointMap.entrySet()) {
+            EndpointEntry entry = mapEntry.getValue();
+            IMetricsMgr.HttpEndpointStats stats = new IMetricsMgr.HttpEndpointStats();
+            stats.mEndpoint = mapEntry.getKey();
+            stats.mRequestCount = entry.mRequestCount.get();
+            stats.mCoalescedCount = entry.mCoalescedCount.get();
+            stats.mConnect = toLatencyStats(entry.mConnect);
+            stats.mFirstByte = toLatencyStats(entry.mFirstByte);
+            stats.mTotal = toLatencyStats(entry.mTotal);
+            stats.mErrorCounts = new HashMap<>();
+            for (Map.Entry<Integer, AtomicLong> errEntry : entry.mErrorCounts.entrySet()) {
+                stats.mErrorCounts.put(errEntry.getKey(), errEntry.getValue().get());
+            }
+            statsList.add(stats);
+        }
+        return statsList;
+    }
+
+    public void reset() {
+        mEndpointMap.clear();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private EndpointEntry getEntry(final String endpoint) {
+        EndpointEntry entry = mEndpointMap.get(endpoint);
+        if (entry == null) {
+            EndpointEntry newEntry = new EndpointEntry();
+            entry = mEndpointMap.putIfAbsent(endpoint, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    /*
+     * @brief 转换成对外的耗时统计信息
+     */
+    public static IMetricsMgr.LatencyStats toLatencyStats(final LatencyHistogram histogram) {
+        IMetricsMgr.LatencyStats stats = new IMetricsMgr.LatencyStats();
+        stats.mCount = histogram.getCount();
+        stats.mAverage = histogram.getAverage();
+        stats.mP50 = histogram.getPercentile(50);
+        stats.mP90 = histogram.getPercentile(90);
+        stats.mP99 = histogram.getPercentile(99);
+        stats.mMax = histogram.getMax();
+        return stats;
+    }
+}
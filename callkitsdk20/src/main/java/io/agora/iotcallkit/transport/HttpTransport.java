@@ -0,0 +1,780 @@
+package io.agora.iotcallkit.transport;
+
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import io.agora.iotcallkit.ErrCode;
+import io.agora.iotcallkit.logger.ALog;
+
+
+/*
+ * @brief 所有服务共用的HTTP传输层
+ *        统一负责：连接池复用、按端点的并发限制、根据往返时延动态计算的超时时间、
+ *        gzip回应压缩、请求取消、服务地址熔断和切换 以及 耗时和错误统计。
+ *        每个服务创建自己的实例，通过 Config 配置token请求头等差异，回应数据包由服务提供的解析器解析
+ */
+public class HttpTransport {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 传输层配置，不同服务的差异
+     */
+    public static class Config {
+        public String mTag = "IOTSDK/HttpTransport";    ///< 日志标签
+        public String mTokenHeader = "authorization";   ///< token请求头名称
+        public String mTokenPrefix = "Bearer ";         ///< token值的前缀，没有前缀时为空字符串
+        public boolean mAcceptGzip = true;              ///< 是否接受gzip压缩的回应数据
+        public int mConnectTimeout = DEF_CONNECT_TIMEOUT;   ///< 建立连接超时的上限，实际使用该值和端点动态超时中较小的一个
+        public long mAcquireTimeout = HttpConnPool.DEF_ACQUIRE_TIMEOUT;  ///< 排队等待并发许可和连接的超时
+    }
+
+    /*
+     * @brief 一次HTTP请求的参数
+     */
+    public static class Request {
+        public String mUrl;                             ///< 请求URL，不包括查询参数
+        public String mMethod = "POST";                 ///< 请求方法：GET、POST、SET、DELETE
+        public String mToken;                           ///< 授权token，可以为空
+        public Map<String, String> mParams;             ///< URL查询参数，可以为null
+        public byte[] mBody;                            ///< POST请求的消息体
+        public int mBodyLength;                         ///< 消息体有效长度
+        public String mContentType = "application/json;charset=utf-8";
+        public String mIdempotencyKey;                  ///< 幂等键，可以为null
+        public CancelToken mCancelToken;                ///< 取消标记，可以为null
+    }
+
+    /*
+     * @brief 回应数据包的解析器，只有HTTP回应码是200时才调用
+     *        inputStream 已经处理了压缩，解析器不需要关闭该流
+     */
+    public interface IResponseDecoder {
+        void decode(InputStream inputStream) throws IOException, JSONException;
+
+        /*
+         * @brief 刚解析的回应数据是否可以缓存，例如回应中的业务错误码表示失败时不应缓存
+         *        只对设置了缓存有效期的端点生效，在 decode() 成功之后调用
+         */
+        default boolean isCacheable() {
+            return true;
+        }
+    }
+
+    /*
+     * @brief 传输层的请求结果
+     */
+    public static class Response {
+        public int mErrorCode = ErrCode.XOK;            ///< 错误码
+        public int mHttpCode;                           ///< HTTP回应码
+    }
+
+    /*
+     * @brief 合并执行的请求结果，回应数据包由每个调用者各自解析
+     */
+    private static class FlightResult {
+        public Response mResponse;
+        public byte[] mBody;                            ///< 完整的回应数据包
+        public final AtomicInteger mShareCount = new AtomicInteger();  ///< 获取该结果的调用者数
+    }
+
+    /*
+     * @brief 可缓存请求的缓存参数
+     */
+    private static class CacheParam {
+        public TtlResponseCache mCache;
+        public String mKey;                             ///< 缓存键值
+        public long mTtl;                               ///< 缓存有效期
+        public TtlResponseCache.Entry mEntry;              ///< 已经过期的缓存条目，用于条件请求
+    }
+
+    /*
+     * @brief 请求实际发送的地址
+     */
+    private static class Route {
+        public String mUrl;                             ///< 替换服务地址之后的请求URL
+        public String mBreakerKey;                      ///< 所属服务地址的熔断器键值
+    }
+
+    /*
+     * @brief 请求消息体的写入方式
+     */
+    private interface IBodyWriter {
+        void prepare(HttpURLConnection connection) throws IOException;
+        void write(OutputStream os) throws IOException;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static final int DEF_CONNECT_TIMEOUT = RttEstimator.DEF_TIMEOUT_CEILING;    ///< 默认建立连接超时上限
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final Config mConfig;
+    private final String mTag;                      ///< 日志标签
+
+    ///< 每个请求端点的并发限制，不同端点的请求可以同时进行
+    private final EndpointLimiter mEndpointLimiter = new EndpointLimiter();
+
+    ///< 每个请求端点的往返时延估算，用于计算请求超时时间
+    private final RttEstimator mRttEstimator = new RttEstimator();
+
+    ///< 查询类请求的回应缓存，为null表示不缓存
+    private volatile TtlResponseCache mResponseCache = null;
+
+    ///< 相同的幂等请求合并执行，GET请求和配置的端点才会合并
+    private final SingleFlight<FlightResult> mSingleFlight = new SingleFlight<>();
+    private final HashSet<String> mCoalesceEndpoints = new HashSet<>();    ///< 可以合并的端点后缀
+
+    ///< 按服务地址的熔断器，服务地址不可用时请求直接失败或者切换到备用地址
+    private final CircuitBreaker mCircuitBreaker = new CircuitBreaker();
+    private volatile String[] mBaseUrls = null;     ///< 可以互相替换的服务地址，排在前面的优先使用
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public HttpTransport(final Config config) {
+        mConfig = config;
+        mTag = config.mTag;
+    }
+
+    /*
+     * @brief 设置请求超时时间的上下限，实际超时时间根据每个端点的往返时延在上下限之间动态调整
+     */
+    public void setTimeoutBounds(int timeoutFloor, int timeoutCeiling) {
+        mRttEstimator.setTimeoutBounds(timeoutFloor, timeoutCeiling);
+    }
+
+    /*
+     * @brief 设置请求端点单独的超时时间下限，服务端处理较慢的端点不会因为往返时延很小而过早超时
+     * @param endpoint : 端点路径后缀，例如 "/call"
+     * @param timeoutFloor : 超时时间下限(毫秒)，<=0 表示取消单独设置
+     */
+    public void setEndpointTimeoutFloor(final String endpoint, int timeoutFloor) {
+        mRttEstimator.setEndpointFloor(endpoint, timeoutFloor);
+    }
+
+    /*
+     * @brief 设置请求端点的最大并发请求数
+     * @param endpoint : 端点路径后缀，为null表示设置所有端点的默认值
+     */
+    public void setEndpointConcurrency(final String endpoint, int maxConcurrent) {
+        if (endpoint == null) {
+            mEndpointLimiter.setDefaultMaxConcurrent(maxConcurrent);
+        } else {
+            mEndpointLimiter.setMaxConcurrent(endpoint, maxConcurrent);
+        }
+    }
+
+    /*
+     * @brief 设置回应缓存，只有在缓存中配置了有效期的端点才会缓存
+     * @param responseCache : 回应缓存，为null表示不缓存
+     */
+    public void setResponseCache(final TtlResponseCache responseCache) {
+        mResponseCache = responseCache;
+    }
+
+    public TtlResponseCache getResponseCache() {
+        return mResponseCache;
+    }
+
+    /*
+     * @brief 设置端点的请求是否可以合并执行，只有幂等的查询请求才能合并
+     *        同时发起的方法、URL、参数、token和消息体都相同的请求，只发送一次网络请求，共享回应数据
+     *        GET请求总是可以合并，带取消标记的请求不合并
+     * @param endpoint : 端点路径后缀
+     */
+    public void setCoalesceEndpoint(final String endpoint, boolean coalesce) {
+        synchronized (mCoalesceEndpoints) {
+            if (coalesce) {
+                mCoalesceEndpoints.add(endpoint);
+            } else {
+                mCoalesceEndpoints.remove(endpoint);
+            }
+        }
+    }
+
+    /*
+     * @brief 获取被合并(没有实际发送)的请求次数
+     */
+    public long getCoalescedCount() {
+        return mSingleFlight.getCollapsedCount();
+    }
+
+    /*
+     * @brief 设置可以互相替换的服务地址，请求URL以其中某个地址开头时，
+     *        按顺序选择第一个没有熔断的地址发送，所有地址都熔断时请求直接失败
+     * @param baseUrls : 服务地址列表，第一个是主地址，为null表示不切换，只按请求的地址熔断
+     */
+    public void setBaseUrls(final String[] baseUrls) {
+        mBaseUrls = baseUrls;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /*
+     * @brief 发送HTTP请求，并且等待接收回应数据
+     *        端点配置了缓存有效期时，优先使用有效期内的缓存数据，过期后使用ETag进行条件请求
+     *        该函数是阻塞等待调用，因此最好是在工作线程中执行
+     *        不同端点的请求可以并发执行，同一端点超过并发数时排队等待
+     */
+    public Response request(final Request request, final IResponseDecoder decoder) {
+        final String method = request.mMethod;
+        final byte[] bodyData = (request.mBody != null) ? request.mBody : new byte[0];
+        final int bodyLength = (request.mBody != null) ? request.mBodyLength : 0;
+        String realURL = buildUrl(request.mUrl, request.mParams);
+        ALog.getInstance().d(mTag, "<request> requestUrl=" + realURL
+                + ", requestBody=" + new String(bodyData, 0, bodyLength));
+
+        IBodyWriter bodyWriter = new IBodyWriter() {
+            @Override
+            public void prepare(HttpURLConnection connection) throws IOException {
+                connection.setDoOutput(true);
+                connection.setDoInput(true);
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", request.mContentType);
+                connection.setFixedLengthStreamingMode(bodyLength);   // 直接写入socket，不再内部缓存一份
+            }
+
+            @Override
+            public void write(OutputStream os) throws IOException {
+                os.write(bodyData, 0, bodyLength);
+            }
+        };
+
+        switch (method) {
+            case "POST":
+                break;
+
+            case "GET":
+            case "SET":
+            case "DELETE":
+                bodyWriter = null;
+                break;
+
+            default:
+                ALog.getInstance().e(mTag, "<request> Invalid method=" + method);
+                Response response = new Response();
+                response.mErrorCode = ErrCode.XERR_HTTP_METHOD;
+                return response;
+        }
+
+        // 有效期内的缓存数据直接解析，不再发送请求
+        TtlResponseCache responseCache = mResponseCache;
+        CacheParam cacheParam = null;
+        if (responseCache != null) {
+            long ttl = responseCache.getTtl(request.mUrl);
+            if (ttl > 0) {
+                cacheParam = new CacheParam();
+                cacheParam.mCache = responseCache;
+                cacheParam.mTtl = ttl;
+                cacheParam.mKey = TtlResponseCache.buildKey(method, realURL, request.mToken,
+                                                         bodyData, bodyLength);
+                cacheParam.mEntry = responseCache.get(cacheParam.mKey);
+                if ((cacheParam.mEntry != null) && (!cacheParam.mEntry.isExpired())) {
+                    Response response = new Response();
+                    response.mHttpCode = HttpURLConnection.HTTP_OK;
+                    response.mErrorCode = decodeCached(cacheParam, decoder);
+                    if (response.mErrorCode == ErrCode.XOK) {
+                        ALog.getInstance().d(mTag, "<request> cache hit, requestUrl=" + realURL);
+                        return response;
+                    }
+                    cacheParam.mEntry = null;
+                }
+            }
+        }
+
+        if ((request.mCancelToken == null) && isCoalescable(method, request.mUrl)) {
+            String flightKey = (cacheParam != null) ? cacheParam.mKey
+                    : TtlResponseCache.buildKey(method, realURL, request.mToken, bodyData, bodyLength);
+            return coalesceRequest(flightKey, realURL, method, request.mToken, bodyWriter,
+                                   cacheParam, decoder);
+        }
+
+        return execute(realURL, method, request.mToken, request.mIdempotencyKey, bodyWriter,
+                       true, cacheParam, decoder, request.mCancelToken);
+    }
+
+    /*
+     * @brief 以 multipart/form-data 格式流式上传文件，并且等待接收回应数据
+     *        上传耗时与文件大小相关，不作为往返时延样本，超时时间使用上限值
+     * @param fileStream : 文件内容输入流，由调用者负责关闭
+     * @param fileLength : 文件长度，<0 表示长度未知，使用分块传输模式
+     */
+    public Response upload(final String uploadUrl, final String token, final MultipartBody body,
+                           final InputStream fileStream, final long fileLength,
+                           final IResponseDecoder decoder, final CancelToken cancelToken) {
+        ALog.getInstance().d(mTag, "<upload> requestUrl=" + uploadUrl + ", fileLength=" + fileLength);
+
+        IBodyWriter bodyWriter = new IBodyWriter() {
+            @Override
+            public void prepare(HttpURLConnection connection) throws IOException {
+                connection.setDoInput(true);
+                connection.setDoOutput(true);
+                connection.setUseCaches(false);
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Accept", "*/*");
+                connection.setRequestProperty("Cache-Control", "no-cache");
+                connection.setRequestProperty("Content-Type", body.getContentType());
+
+                // 流式上传，HttpURLConnection 不再缓存整个请求数据包
+                long contentLength = body.getContentLength(fileLength);
+                if (contentLength >= 0) {
+                    connection.setFixedLengthStreamingMode(contentLength);
+                } else {
+                    connection.setChunkedStreamingMode(MultipartBody.DEF_BUFFER_SIZE);
+                }
+            }
+
+            @Override
+            public void write(OutputStream os) throws IOException {
+                body.writeTo(os, fileStream, fileLength, new byte[MultipartBody.DEF_BUFFER_SIZE]);
+            }
+        };
+
+        return execute(uploadUrl, "POST", token, null, bodyWriter, false, null, decoder, cancelToken);
+    }
+
+    /*
+     * @brief 上传文件的一个分块，请求体是分块的原始数据，分块参数通过查询参数传递，用于可续传上传
+     *        耗时与分块大小相关，不作为往返时延样本，超时时间使用上限值
+     * @param params : URL查询参数，可以为null
+     * @param chunkData : 分块数据缓冲区，请求过程中不能被修改
+     * @param chunkLength : 分块有效长度
+     */
+    public Response uploadChunk(final String uploadUrl, final String token, final Map<String, String> params,
+                                final byte[] chunkData, final int chunkLength,
+                                final IResponseDecoder decoder, final CancelToken cancelToken) {
+        String realURL = buildUrl(uploadUrl, params);
+        ALog.getInstance().d(mTag, "<uploadChunk> requestUrl=" + realURL + ", chunkLength=" + chunkLength);
+
+        IBodyWriter bodyWriter = new IBodyWriter() {
+            @Override
+            public void prepare(HttpURLConnection connection) throws IOException {
+                connection.setDoInput(true);
+                connection.setDoOutput(true);
+                connection.setUseCaches(false);
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", "application/octet-stream");
+                connection.setFixedLengthStreamingMode(chunkLength);
+            }
+
+            @Override
+            public void write(OutputStream os) throws IOException {
+                os.write(chunkData, 0, chunkLength);
+            }
+        };
+
+        return execute(realURL, "POST", token, null, bodyWriter, false, null, decoder, cancelToken);
+    }
+
+    /*
+     * @brief 将回应数据流完整读取并解析成JSON对象，统一使用UTF-8解码
+     */
+    public static JSONObject readJsonObject(final InputStream inputStream)
+                            throws IOException, JSONException {
+        return new JSONObject(new String(readAll(inputStream), "UTF-8"));
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 拼接URL和请求参数生成最终URL
+     */
+    private static String buildUrl(final String baseUrl, final Map<String, String> params) {
+        if ((params == null) || params.isEmpty()) {
+            return baseUrl;
+        }
+        StringBuilder realURL = new StringBuilder(baseUrl);
+        Iterator<Map.Entry<String, String>> it = params.entrySet().iterator();
+        char separator = '?';
+        while (it.hasNext()) {
+            Map.Entry<String, String> entry = it.next();
+            realURL.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+            separator = '&';
+        }
+        return realURL.toString();
+    }
+
+    private boolean isCoalescable(final String method, final String url) {
+        if (method.equals("GET")) {
+            return true;
+        }
+        synchronized (mCoalesceEndpoints) {
+            for (String endpoint : mCoalesceEndpoints) {
+                if (url.endsWith(endpoint)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+     * @brief 合并执行相同的请求，实际执行的请求完整读取回应数据包，每个调用者各自解析
+     *        需要缓存时由发起请求的调用者先解析一次，判断回应是否可以缓存
+     */
+    private Response coalesceRequest(final String flightKey, final String realURL, final String method,
+                                     final String token, final IBodyWriter bodyWriter,
+                                     final CacheParam cacheParam, final IResponseDecoder decoder) {
+        FlightResult flightResult = mSingleFlight.execute(flightKey, new SingleFlight.ICall<FlightResult>() {
+            @Override
+            public FlightResult call() {
+                final FlightResult result = new FlightResult();
+                result.mResponse = execute(realURL, method, token, null, bodyWriter, true, cacheParam,
+                        new IResponseDecoder() {
+                            @Override
+                            public void decode(InputStream inputStream) throws IOException, JSONException {
+                                result.mBody = readAll(inputStream);
+                                if ((cacheParam != null) && (decoder != null)) {
+                                    decoder.decode(new ByteArrayInputStream(result.mBody));
+                                }
+                            }
+
+                            @Override
+                            public boolean isCacheable() {
+                                return (decoder == null) || decoder.isCacheable();
+                            }
+                        }, null);
+                return result;
+            }
+        });
+
+        if (flightResult.mShareCount.incrementAndGet() > 1) {
+            ALog.getInstance().d(mTag, "<coalesceRequest> shared response, url=" + realURL);
+            HttpMetrics.getInstance().recordCoalesced(getUrlPath(realURL));
+        }
+
+        Response response = new Response();
+        response.mErrorCode = flightResult.mResponse.mErrorCode;
+        response.mHttpCode = flightResult.mResponse.mHttpCode;
+        if ((response.mErrorCode == ErrCode.XOK) && (decoder != null) && (flightResult.mBody != null)) {
+            try {
+                decoder.decode(new ByteArrayInputStream(flightResult.mBody));
+            } catch (IOException | JSONException | IllegalStateException | NumberFormatException e) {
+                ALog.getInstance().e(mTag, "<coalesceRequest> Invalied response, exp=" + e.toString());
+                response.mErrorCode = ErrCode.XERR_HTTP_RESP_DATA;
+            }
+        }
+        return response;
+    }
+
+    /*
+     * @brief 选择请求实际发送的服务地址，没有可用的服务地址时返回null
+     */
+    private Route routeUrl(final String realURL) {
+        Route route = new Route();
+        String[] baseUrls = mBaseUrls;
+        if (baseUrls != null) {
+            for (String baseUrl : baseUrls) {
+                if ((baseUrl == null) || baseUrl.isEmpty() || (!realURL.startsWith(baseUrl))) {
+                    continue;
+                }
+                String pathUrl = realURL.substring(baseUrl.length());
+                for (String candidate : baseUrls) {
+                    if ((candidate != null) && (!candidate.isEmpty())
+                        && mCircuitBreaker.allowRequest(candidate)) {
+                        route.mUrl = candidate + pathUrl;
+                        route.mBreakerKey = candidate;
+                        return route;
+                    }
+                }
+                return null;
+            }
+        }
+
+        route.mUrl = realURL;
+        route.mBreakerKey = getUrlOrigin(realURL);
+        return mCircuitBreaker.allowRequest(route.mBreakerKey) ? route : null;
+    }
+
+    private static String getUrlOrigin(final String realURL) {
+        try {
+            URL url = new URL(realURL);
+            return url.getProtocol() + "://" + url.getAuthority();
+        } catch (MalformedURLException e) {
+            return realURL;
+        }
+    }
+
+    private static String getUrlPath(final String realURL) {
+        try {
+            return new URL(realURL).getPath();
+        } catch (MalformedURLException e) {
+            return realURL;
+        }
+    }
+
+    private Response execute(final String realURL, final String method, final String token,
+                             final String idempotencyKey, final IBodyWriter bodyWriter,
+                             boolean sampleRtt, final CacheParam cacheParam,
+                             final IResponseDecoder decoder,
+                             final CancelToken cancelToken) {
+        Response response = new Response();
+        if (!realURL.startsWith("http://") && !realURL.startsWith("https://")) {
+            response.mErrorCode = ErrCode.XERR_HTTP_URL;
+            ALog.getInstance().e(mTag, "<execute> Invalid url=" + realURL);
+            return response;
+        }
+        Route route = routeUrl(realURL);
+        if (route == null) {
+            response.mErrorCode = ErrCode.XERR_HTTP_CIRCUIT_OPEN;
+            ALog.getInstance().e(mTag, "<execute> circuit open, url=" + realURL);
+            return response;
+        }
+
+        //从连接池中获取连接来发起网络请求
+        HttpURLConnection connection = null;
+        InputStream inputStream = null;
+
+        //同步方式请求HTTP，因此请求操作最好放在工作线程中进行
+        URL url = null;
+        boolean reusable = false;   // 回应数据完整读取后，连接才能放回连接池复用
+        EndpointLimiter.Permit permit = null;
+        long startTime = 0;
+        long connectTime = -1;      // 获取连接耗时，包括DNS解析和建立连接
+        long firstByteTime = -1;    // 收到回应头的耗时
+        boolean responded = false;  // 服务器是否有回应
+        boolean failed = false;     // 连接失败、超时 或者 服务器错误，计入熔断的错误率
+        try {
+            url = new URL(route.mUrl);
+            // 连接和读超时根据该端点最近的往返时延动态计算，目标主机不可达时在往返时延量级内失败；
+            // 排队等待许可和连接不是网络耗时，使用单独固定的超时
+            int timeout = sampleRtt ? mRttEstimator.getTimeout(url.getPath())
+                                    : mRttEstimator.getTimeoutCeiling();
+            permit = mEndpointLimiter.acquire(url.getPath(), mConfig.mAcquireTimeout);
+            if (permit == null) {
+                ALog.getInstance().e(mTag, "<execute> endpoint busy, url=" + realURL);
+                response.mErrorCode = isCancelled(cancelToken) ? ErrCode.XERR_HTTP_CANCELED
+                                                               : ErrCode.XERR_TIMEOUT;
+                return response;
+            }
+            startTime = System.currentTimeMillis();
+            connection = HttpConnPool.getInstance().openConnection(url, mConfig.mAcquireTimeout);
+            connection.setReadTimeout(timeout);
+            connection.setConnectTimeout(Math.min(timeout, mConfig.mConnectTimeout));
+            if ((cancelToken != null) && (!cancelToken.attach(connection))) {
+                ALog.getInstance().d(mTag, "<execute> cancelled, url=" + realURL);
+                response.mErrorCode = ErrCode.XERR_HTTP_CANCELED;
+                return response;
+            }
+            // 设置token
+            if ((token != null) && (!token.isEmpty())) {
+                connection.setRequestProperty(mConfig.mTokenHeader, mConfig.mTokenPrefix + token);
+            }
+            // 设置幂等键，重复的请求由服务器去重
+            if (idempotencyKey != null) {
+                connection.setRequestProperty("Idempotency-Key", idempotencyKey);
+            }
+            // 显式声明接受gzip，由传输层自己解压，各个平台行为一致
+            if (mConfig.mAcceptGzip) {
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+            }
+            // 缓存过期后的条件请求，数据没有变化时服务器回应304
+            if ((cacheParam != null) && (cacheParam.mEntry != null) && (cacheParam.mEntry.mETag != null)) {
+                connection.setRequestProperty("If-None-Match", cacheParam.mEntry.mETag);
+            }
+            if (bodyWriter != null) {
+                bodyWriter.prepare(connection);
+            } else {
+                connection.setRequestMethod(method);
+            }
+
+            // 显式建立连接，单独统计连接耗时，复用连接池中的连接时接近0
+            long handshakeStart = System.currentTimeMillis();
+            connection.connect();
+            connectTime = System.currentTimeMillis() - startTime;
+            // 预热后的第一个请求是否复用了空闲连接，只看建立连接本身的耗时，不包括排队等待
+            ConnWarmer.getInstance().onRequestConnected(route.mUrl, System.currentTimeMillis() - handshakeStart);
+            if (bodyWriter != null) {
+                OutputStream os = connection.getOutputStream();
+                try {
+                    bodyWriter.write(os);
+                    os.flush();
+                } finally {
+                    os.close();
+                }
+            }
+
+            response.mHttpCode = connection.getResponseCode();
+            firstByteTime = System.currentTimeMillis() - startTime;
+            responded = true;
+            failed = (response.mHttpCode >= HttpURLConnection.HTTP_INTERNAL_ERROR);
+            if (sampleRtt) {
+                mRttEstimator.onSample(url.getPath(), firstByteTime);
+            }
+            if ((response.mHttpCode == HttpURLConnection.HTTP_NOT_MODIFIED)
+                && (cacheParam != null) && (cacheParam.mEntry != null)) {
+                reusable = true;
+                cacheParam.mCache.refresh(cacheParam.mKey, cacheParam.mTtl);
+                response.mHttpCode = HttpURLConnection.HTTP_OK;
+                response.mErrorCode = decodeCached(cacheParam, decoder);
+                ALog.getInstance().d(mTag, "<execute> not modified, use cache, url=" + realURL);
+                return response;
+            }
+            if (response.mHttpCode != HttpURLConnection.HTTP_OK) {
+                reusable = true;    // 错误回应的数据在归还连接时读取丢弃
+                response.mErrorCode = ErrCode.XERR_HTTP_RESP_CODE + response.mHttpCode;
+                ALog.getInstance().e(mTag, "<execute> Error response code="
+                        + response.mHttpCode + ", errMessage=" + connection.getResponseMessage());
+                return response;
+            }
+
+            // 流式读取并解析回应数据包
+            inputStream = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            try {
+                if (cacheParam != null) {
+                    // 需要缓存的回应数据先完整读取，解析成功后再放入缓存
+                    byte[] body = readAll(inputStream);
+                    reusable = true;
+                    if (decoder != null) {
+                        decoder.decode(new ByteArrayInputStream(body));
+                    }
+                    String cacheControl = connection.getHeaderField("Cache-Control");
+                    boolean cacheable = (decoder == null) || decoder.isCacheable();
+                    if (cacheable && ((cacheControl == null) || (!cacheControl.contains("no-store")))) {
+                        cacheParam.mCache.put(cacheParam.mKey, body,
+                                              connection.getHeaderField("ETag"), cacheParam.mTtl);
+                    }
+                } else {
+                    if (decoder != null) {
+                        decoder.decode(inputStream);
+                    }
+                    reusable = true;
+                }
+
+            } catch (IOException | JSONException | IllegalStateException | NumberFormatException e) {
+                ALog.getInstance().e(mTag, "<execute> Invalied response, url=" + realURL
+                        + ", exp=" + e.toString());
+                response.mErrorCode = isCancelled(cancelToken) ? ErrCode.XERR_HTTP_CANCELED
+                                                               : ErrCode.XERR_HTTP_RESP_DATA;
+            }
+            return response;
+
+        } catch (Exception e) {
+            if (isCancelled(cancelToken) || isAcquireCancelled(e)) {   // 取消时连接被主动断开，不是网络错误
+                ALog.getInstance().d(mTag, "<execute> cancelled, url=" + realURL);
+                response.mErrorCode = ErrCode.XERR_HTTP_CANCELED;
+                return response;
+            }
+            if (e instanceof HttpConnPool.AcquireException) {   // 本地排队等待连接超时，请求还没有发出，不计入熔断
+                ALog.getInstance().e(mTag, "<execute> acquire connection timeout, url=" + realURL);
+                response.mErrorCode = ErrCode.XERR_TIMEOUT;
+                return response;
+            }
+            if ((e instanceof SocketTimeoutException) && sampleRtt) {  // 超时后退避，下次请求的超时时间加倍
+                mRttEstimator.onTimeout(url.getPath());
+                ALog.getInstance().e(mTag, "<execute> timeout, url=" + route.mUrl
+                        + ", costTime=" + (System.currentTimeMillis() - startTime));
+            }
+            if (e instanceof IOException) {     // 网络错误只记录异常信息，调用栈没有意义
+                ALog.getInstance().e(mTag, "<execute> network error, url=" + route.mUrl
+                        + ", exp=" + e.toString());
+            } else {
+                ALog.getInstance().e(mTag, "<execute> unexpected error, url=" + route.mUrl
+                        + ", exp=" + Log.getStackTraceString(e));
+            }
+            failed = true;
+            response.mErrorCode = ErrCode.XERR_HTTP_CONNECT;
+            return response;
+
+        } finally {
+            if (cancelToken != null) {
+                cancelToken.detach();
+                reusable = reusable && (!cancelToken.isCancelled());
+            }
+            HttpConnPool.getInstance().releaseConnection(url, connection, reusable);
+            if (failed) {
+                mCircuitBreaker.onFailure(route.mBreakerKey);
+            } else if (responded) {
+                mCircuitBreaker.onSuccess(route.mBreakerKey);
+            } else {
+                mCircuitBreaker.onIgnored(route.mBreakerKey);
+            }
+            if (permit != null) {
+                permit.release();
+            }
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    ALog.getInstance().w(mTag, "<execute> fail to close response stream, exp=" + e.toString());
+                }
+            }
+            if (url != null) {
+                long totalTime = (startTime > 0) ? (System.currentTimeMillis() - startTime) : -1;
+                HttpMetrics.getInstance().record(url.getPath(), connectTime, firstByteTime,
+                                                 totalTime, response.mErrorCode);
+            }
+        }
+    }
+
+    /*
+     * @brief 使用缓存的回应数据进行解析，解析失败时删除该缓存
+     */
+    private int decodeCached(final CacheParam cacheParam, final IResponseDecoder decoder) {
+        if (decoder == null) {
+            return ErrCode.XOK;
+        }
+        try {
+            decoder.decode(new ByteArrayInputStream(cacheParam.mEntry.mBody));
+            return ErrCode.XOK;
+
+        } catch (IOException | JSONException | IllegalStateException | NumberFormatException e) {
+            ALog.getInstance().e(mTag, "<decodeCached> Invalied cache, exp=" + e.toString());
+            cacheParam.mCache.remove(cacheParam.mKey);
+            return ErrCode.XERR_HTTP_RESP_DATA;
+        }
+    }
+
+    private static byte[] readAll(final InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) > 0) {
+            bos.write(buffer, 0, count);
+        }
+        return bos.toByteArray();
+    }
+
+    private static boolean isCancelled(final CancelToken cancelToken) {
+        return ((cancelToken != null) && cancelToken.isCancelled());
+    }
+
+    /*
+     * @brief 排队等待连接时线程被中断，例如 AsyncRequest.cancel(true)
+     */
+    private static boolean isAcquireCancelled(final Exception e) {
+        return ((e instanceof HttpConnPool.AcquireException) && ((HttpConnPool.AcquireException)e).mCancelled);
+    }
+}
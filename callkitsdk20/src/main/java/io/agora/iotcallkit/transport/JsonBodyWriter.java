@@ -0,0 +1,292 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+
+/*
+ * @brief 预编码的JSON请求包写入器
+ *        字段名在类加载时预先编码成UTF-8字节，写入时直接拼接到可复用的字节缓冲区中，
+ *        不需要构造 JSONObject/JSONArray 对象树，也不需要中间的 String 转换。
+ *        每个线程复用一个实例，通过 obtain() 获取，不能跨线程使用
+ */
+public class JsonBodyWriter {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INIT_BUFFER_SIZE = 512;            ///< 初始缓冲区大小
+    private static final int MAX_RETAIN_BUFFER_SIZE = 16 * 1024;    ///< 超过该大小的缓冲区不再保留复用
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(UTF_8);
+
+    private static final ThreadLocal<JsonBodyWriter> mThreadWriter = new ThreadLocal<JsonBodyWriter>() {
+        @Override
+        protected JsonBodyWriter initialValue() {
+            return new JsonBodyWriter();
+        }
+    };
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private byte[] mBuffer = new byte[INIT_BUFFER_SIZE];    ///< 编码后的数据
+    private int mSize = 0;                                  ///< 当前数据长度
+    private boolean mNeedComma = false;                     ///< 下一个元素前是否需要逗号
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 获取当前线程的写入器，内容已经清空
+     */
+    public static JsonBodyWriter obtain() {
+        JsonBodyWriter writer = mThreadWriter.get();
+        writer.reset();
+        return writer;
+    }
+
+    /*
+     * @brief 预先编码字段名，结果为 "name": 的UTF-8字节，用于定义静态常量
+     */
+    public static byte[] encodeName(final String name) {
+        JsonBodyWriter writer = new JsonBodyWriter();
+        writer.writeString(name);
+        writer.writeByte(':');
+        byte[] nameData = new byte[writer.mSize];
+        System.arraycopy(writer.mBuffer, 0, nameData, 0, writer.mSize);
+        return nameData;
+    }
+
+    public void reset() {
+        if (mBuffer.length > MAX_RETAIN_BUFFER_SIZE) {
+            mBuffer = new byte[INIT_BUFFER_SIZE];
+        }
+        mSize = 0;
+        mNeedComma = false;
+    }
+
+    public JsonBodyWriter beginObject() {
+        writeSeparator();
+        writeByte('{');
+        mNeedComma = false;
+        return this;
+    }
+
+    public JsonBodyWriter beginObject(final byte[] name) {
+        writeName(name);
+        writeByte('{');
+        mNeedComma = false;
+        return this;
+    }
+
+    public JsonBodyWriter endObject() {
+        writeByte('}');
+        mNeedComma = true;
+        return this;
+    }
+
+    public JsonBodyWriter beginArray(final byte[] name) {
+        writeName(name);
+        writeByte('[');
+        mNeedComma = false;
+        return this;
+    }
+
+    public JsonBodyWriter endArray() {
+        writeByte(']');
+        mNeedComma = true;
+        return this;
+    }
+
+    /*
+     * @brief 写入字符串字段，value为null时不写入该字段(与 JSONObject.put() 的行为一致)
+     */
+    public JsonBodyWriter field(final byte[] name, final String value) {
+        if (value == null) {
+            return this;
+        }
+        writeName(name);
+        writeString(value);
+        mNeedComma = true;
+        return this;
+    }
+
+    public JsonBodyWriter field(final byte[] name, long value) {
+        writeName(name);
+        writeLong(value);
+        mNeedComma = true;
+        return this;
+    }
+
+    /*
+     * @brief 写入数组元素，value为null时写入 null
+     */
+    public JsonBodyWriter value(final String value) {
+        writeSeparator();
+        if (value == null) {
+            writeAscii("null");
+        } else {
+            writeString(value);
+        }
+        mNeedComma = true;
+        return this;
+    }
+
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(mBuffer, 0, mSize);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mBuffer, 0, mSize, UTF_8);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private void writeSeparator() {
+        if (mNeedComma) {
+            writeByte(',');
+        }
+    }
+
+    private void writeName(final byte[] name) {
+        writeSeparator();
+        ensureCapacity(name.length);
+        System.arraycopy(name, 0, mBuffer, mSize, name.length);
+        mSize += name.length;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            mBuffer[mSize++] = '-';
+            value = -value;
+        }
+        int start = mSize;
+        do {
+            mBuffer[mSize++] = (byte)('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+
+        // 数字是倒序写入的，翻转过来
+        for (int i = start, j = mSize - 1; i < j; i++, j--) {
+            byte temp = mBuffer[i];
+            mBuffer[i] = mBuffer[j];
+            mBuffer[j] = temp;
+        }
+    }
+
+    private void writeAscii(final String text) {
+        int length = text.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            mBuffer[mSize++] = (byte)text.charAt(i);
+        }
+    }
+
+    /*
+     * @brief 写入带引号的字符串，按照JSON规范转义，并且直接编码成UTF-8
+     */
+    private void writeString(final String text) {
+        int length = text.length();
+        ensureCapacity(length + 2);
+        mBuffer[mSize++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            ensureCapacity(6);  // 单个字符最多写入6字节(\\uXXXX转义)
+            switch (c) {
+                case '"':
+                case '\\':
+                    writeEscape((byte)c);
+                    break;
+                case '\b':
+                    writeEscape((byte)'b');
+                    break;
+                case '\f':
+                    writeEscape((byte)'f');
+                    break;
+                case '\n':
+                    writeEscape((byte)'n');
+                    break;
+                case '\r':
+                    writeEscape((byte)'r');
+                    break;
+                case '\t':
+                    writeEscape((byte)'t');
+                    break;
+
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        // 其他控制字符以及JS中的行分隔符使用 \\uXXXX 形式转义
+                        mBuffer[mSize++] = '\\';
+                        mBuffer[mSize++] = 'u';
+                        mBuffer[mSize++] = HEX_DIGITS[(c >> 12) & 0x0F];
+                        mBuffer[mSize++] = HEX_DIGITS[(c >> 8) & 0x0F];
+                        mBuffer[mSize++] = HEX_DIGITS[(c >> 4) & 0x0F];
+                        mBuffer[mSize++] = HEX_DIGITS[c & 0x0F];
+                    } else if (c < 0x80) {
+                        mBuffer[mSize++] = (byte)c;
+                    } else if (c < 0x800) {
+                        mBuffer[mSize++] = (byte)(0xC0 | (c >> 6));
+                        mBuffer[mSize++] = (byte)(0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && (i + 1 < length)
+                            && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                        mBuffer[mSize++] = (byte)(0xF0 | (codePoint >> 18));
+                        mBuffer[mSize++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                        mBuffer[mSize++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                        mBuffer[mSize++] = (byte)(0x80 | (codePoint & 0x3F));
+                    } else if (Character.isSurrogate(c)) {
+                        mBuffer[mSize++] = '?';     // 不成对的代理字符，与 String.getBytes() 一致
+                    } else {
+                        mBuffer[mSize++] = (byte)(0xE0 | (c >> 12));
+                        mBuffer[mSize++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                        mBuffer[mSize++] = (byte)(0x80 | (c & 0x3F));
+                    }
+                    break;
+            }
+        }
+        ensureCapacity(1);
+        mBuffer[mSize++] = '"';
+    }
+
+    private void writeEscape(byte escape) {
+        mBuffer[mSize++] = '\\';
+        mBuffer[mSize++] = escape;
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        mBuffer[mSize++] = (byte)value;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = mSize + extra;
+        if (required <= mBuffer.length) {
+            return;
+        }
+        int newLength = Math.max(mBuffer.length * 2, required);
+        byte[] newBuffer = new byte[newLength];
+        System.arraycopy(mBuffer, 0, newBuffer, 0, mSize);
+        mBuffer = newBuffer;
+    }
+}
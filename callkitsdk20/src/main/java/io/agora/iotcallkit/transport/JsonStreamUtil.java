@@ -0,0 +1,93 @@
+package io.agora.iotcallkit.transport;
+
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+
+
+/*
+ * @brief 流式JSON解析的辅助方法
+ *        字段缺失、为null或者类型不匹配时直接返回默认值，不抛出异常也不打印日志，
+ *        字符串和数字之间的转换规则与 JSONObject.getXXX() 保持一致
+ */
+public class JsonStreamUtil {
+
+    /*
+     * @brief 读取当前值为字符串，数字和布尔值转换成字符串，对象和数组跳过
+     */
+    public static String nextString(JsonReader reader, String defVal) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+
+            case NULL:
+                reader.nextNull();
+                return defVal;
+
+            default:
+                reader.skipValue();
+                return defVal;
+        }
+    }
+
+    /*
+     * @brief 读取当前值为长整型，字符串形式的数字也可以解析
+     */
+    public static long nextLong(JsonReader reader, long defVal) throws IOException {
+        String text = nextString(reader, null);
+        if (text == null) {
+            return defVal;
+        }
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(text);
+            } catch (NumberFormatException e2) {
+                return defVal;
+            }
+        }
+    }
+
+    /*
+     * @brief 读取当前值为整型，字符串形式的数字也可以解析
+     */
+    public static int nextInt(JsonReader reader, int defVal) throws IOException {
+        long value = nextLong(reader, Long.MIN_VALUE);
+        if (value == Long.MIN_VALUE || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            return defVal;
+        }
+        return (int) value;
+    }
+
+    /*
+     * @brief 读取当前值为布尔值，字符串 "true"/"false" 也可以解析
+     */
+    public static boolean nextBoolean(JsonReader reader, boolean defVal) throws IOException {
+        String text = nextString(reader, null);
+        if ("true".equalsIgnoreCase(text)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(text)) {
+            return false;
+        }
+        return defVal;
+    }
+
+    /*
+     * @brief 判断当前值是否是一个JSON对象，不是对象时跳过该值
+     */
+    public static boolean isObject(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            return true;
+        }
+        reader.skipValue();
+        return false;
+    }
+}
@@ -0,0 +1,127 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/*
+ * @brief 固定内存的耗时直方图
+ *        按照对数分桶，每个2的幂次区间再均分成4个子桶，统计误差不超过25%，
+ *        覆盖 0 ~ 131秒，超过范围的值计入最后一个桶。
+ *        记录操作无锁，可以在多个请求线程中同时调用
+ */
+public class LatencyHistogram {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final int SUB_BUCKET_BITS = 2;                       ///< 每个区间的子桶位数
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;   ///< 每个区间的子桶数
+    private static final int MAX_EXPONENT = 17;                         ///< 最大区间 2^17 毫秒
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT
+                                    + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();     ///< 样本总数
+    private final AtomicLong mSum = new AtomicLong();       ///< 样本总和，用于计算平均值
+    private final AtomicLong mMax = new AtomicLong();       ///< 最大样本值
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 记录一个耗时样本(毫秒)，负数忽略
+     */
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        mBuckets.incrementAndGet(getBucketIndex(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+
+        long currMax = mMax.get();
+        while ((value > currMax) && (!mMax.compareAndSet(currMax, value))) {
+            currMax = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public long getAverage() {
+        long count = mCount.get();
+        return (count > 0) ? (mSum.get() / count) : 0;
+    }
+
+    /*
+     * @brief 估算百分位数，返回样本所在桶的上边界
+     * @param percentile : 百分位，取值范围 (0, 100]
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mBuckets.get(i);
+            total += counts[i];
+        }
+        if (total <= 0) {
+            return 0;
+        }
+
+        long target = (long)Math.ceil(percentile / 100.0 * total);
+        long accumulate = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            accumulate += counts[i];
+            if (accumulate >= target) {
+                return Math.min(getBucketUpperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int)(value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((long)(SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,63 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.util.Arrays;
+
+
+/*
+ * @brief 最近若干次请求耗时的滑动窗口，用于计算耗时的百分位数
+ *        固定大小的环形缓冲区，新样本覆盖最旧的样本
+ */
+public class LatencyWindow {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final long[] mSamples;          ///< 耗时样本(毫秒)
+    private final long[] mSortBuffer;       ///< 计算百分位时的排序缓冲区，避免每次分配
+    private int mNextIndex = 0;             ///< 下一个样本写入的位置
+    private int mCount = 0;                 ///< 当前有效样本数
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public LatencyWindow(int capacity) {
+        mSamples = new long[capacity];
+        mSortBuffer = new long[capacity];
+    }
+
+    public synchronized void add(long latency) {
+        mSamples[mNextIndex] = latency;
+        mNextIndex = (mNextIndex + 1) % mSamples.length;
+        if (mCount < mSamples.length) {
+            mCount++;
+        }
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    public synchronized void clear() {
+        mNextIndex = 0;
+        mCount = 0;
+    }
+
+    /*
+     * @brief 计算当前样本的百分位数
+     * @param percentile : 百分位，取值范围 (0, 100]
+     * @return 对应百分位的耗时，没有样本时返回-1
+     */
+    public synchronized long percentile(int percentile) {
+        if (mCount <= 0) {
+            return -1;
+        }
+        System.arraycopy(mSamples, 0, mSortBuffer, 0, mCount);
+        Arrays.sort(mSortBuffer, 0, mCount);
+
+        int index = (int)Math.ceil(percentile / 100.0 * mCount) - 1;
+        index = Math.max(0, Math.min(index, mCount - 1));
+        return mSortBuffer[index];
+    }
+}
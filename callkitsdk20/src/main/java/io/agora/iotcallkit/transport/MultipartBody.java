@@ -0,0 +1,126 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+
+/*
+ * @brief multipart/form-data 上传数据包
+ *        文件内容不会整体缓存，而是通过固定大小的缓冲区从输入流逐块拷贝到连接的输出流，
+ *        文件之前的头部和文件之后的参数部分在构造时预先编码好。
+ *        文件长度已知时可以提前计算出整个数据包的长度，用于固定长度的流式上传
+ */
+public class MultipartBody {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static final int DEF_BUFFER_SIZE = 16 * 1024;        ///< 默认拷贝缓冲区大小
+    private static final String NEWLINE = "\r\n";
+    private static final String PREFIX = "--";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final String mBoundary;
+    private final byte[] mFileHeader;       ///< 文件内容之前的分段头
+    private final byte[] mTrailer;          ///< 文件内容之后的参数分段和结束分隔符
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 构造上传数据包
+     * @param boundary : 分段分隔符
+     * @param fileKey : 文件分段的字段名
+     * @param fileName : 文件名
+     * @param fileContentType : 文件内容类型
+     * @param params : 文件之后附带的其他参数，可以为null
+     */
+    public MultipartBody(final String boundary, final String fileKey, final String fileName,
+                         final String fileContentType, final Map<String, String> params) {
+        mBoundary = boundary;
+
+        StringBuilder header = new StringBuilder(256);
+        header.append(PREFIX).append(boundary).append(NEWLINE);
+        header.append("Content-Disposition: form-data; name=\"").append(fileKey)
+              .append("\"; filename=\"").append(fileName).append("\"").append(NEWLINE);
+        header.append("Content-Type: ").append(fileContentType).append(NEWLINE);
+        header.append("Content-Transfer-Encoding: binary").append(NEWLINE);
+        header.append(NEWLINE);
+        mFileHeader = header.toString().getBytes(UTF8);
+
+        StringBuilder trailer = new StringBuilder(256);
+        trailer.append(NEWLINE);
+        if (params != null) {
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                trailer.append(PREFIX).append(boundary).append(NEWLINE);
+                trailer.append("Content-Disposition: form-data; name=\"").append(entry.getKey())
+                       .append("\"").append(NEWLINE);
+                trailer.append(NEWLINE);
+                trailer.append(entry.getValue()).append(NEWLINE);
+            }
+        }
+        trailer.append(PREFIX).append(boundary).append(PREFIX).append(NEWLINE);
+        mTrailer = trailer.toString().getBytes(UTF8);
+    }
+
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + mBoundary;
+    }
+
+    /*
+     * @brief 计算整个数据包的长度
+     * @param fileLength : 文件长度，<0 表示未知
+     * @return 数据包长度，文件长度未知时返回-1
+     */
+    public long getContentLength(long fileLength) {
+        if (fileLength < 0) {
+            return -1;
+        }
+        return mFileHeader.length + fileLength + mTrailer.length;
+    }
+
+    /*
+     * @brief 将整个数据包写入输出流，文件内容从输入流中逐块读取
+     * @param os : 输出流
+     * @param fileStream : 文件内容输入流，由调用者负责关闭
+     * @param fileLength : 文件长度，>=0 时只拷贝这么多字节，输入流提前结束时抛出 EOFException；
+     *                     <0 时拷贝到输入流结束
+     * @param buffer : 拷贝缓冲区，决定了上传时占用的内存大小
+     * @return 实际写入的文件内容字节数
+     */
+    public long writeTo(final OutputStream os, final InputStream fileStream, long fileLength,
+                        final byte[] buffer) throws IOException {
+        os.write(mFileHeader);
+
+        long copied = 0;
+        while ((fileLength < 0) || (copied < fileLength)) {
+            int readSize = buffer.length;
+            if (fileLength >= 0) {
+                readSize = (int)Math.min(readSize, fileLength - copied);
+            }
+            int count = fileStream.read(buffer, 0, readSize);
+            if (count < 0) {
+                if (fileLength >= 0) {
+                    throw new EOFException("file stream ended at " + copied + " of " + fileLength);
+                }
+                break;
+            }
+            os.write(buffer, 0, count);
+            copied += count;
+        }
+
+        os.write(mTrailer);
+        os.flush();
+        return copied;
+    }
+}
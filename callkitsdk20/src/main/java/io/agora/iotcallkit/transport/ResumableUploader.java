@@ -0,0 +1,420 @@
+package io.agora.iotcallkit.transport;
+
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import io.agora.iotcallkit.ErrCode;
+import io.agora.iotcallkit.logger.ALog;
+
+
+/*
+ * @brief 可续传的分块文件上传，用于抓图和日志等较大文件的上传
+ *        文件按照固定大小分块依次上传，每个分块被服务器确认后将确认的偏移量写入本地日志文件，
+ *        上传中途网络断开时在本次调用内退避重试；重试次数用完或者进程重启后，
+ *        再次调用 upload() 会从日志中记录的偏移量继续上传，而不是从头开始。
+ *        分块请求都通过 HttpTransport 发送，共享连接池、并发限制、熔断和统计。
+ *
+ *        服务端约定：每个分块一个POST请求，请求体是分块的原始数据(application/octet-stream)
+ *          查询参数  uploadId : 本次上传的唯一标识，续传时保持不变
+ *                    offset   : 分块在文件中的起始偏移量
+ *                    length   : 文件总长度
+ *          回应      与网关其他接口相同的 {"code", "timestamp", "data"} 格式，
+ *                    data.offset 是服务器已经确认(持久化)的偏移量
+ *                    code=0   : 分块已经接收
+ *                    code=409 : 分块起始偏移量与服务器记录的不一致，从 data.offset 继续上传
+ *          data.offset 等于文件总长度时上传完成
+ */
+public class ResumableUploader {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 上传日志，记录一个文件的上传进度
+     */
+    private static class Journal {
+        public String mUploadId;            ///< 上传唯一标识
+        public String mFilePath;            ///< 文件绝对路径
+        public long mFileLength;            ///< 文件长度
+        public long mLastModified;          ///< 文件修改时间，文件变化后需要重新上传
+        public long mAckedOffset;           ///< 服务器已经确认的偏移量
+    }
+
+    /*
+     * @brief 单个分块的上传结果
+     */
+    private static class ChunkResult {
+        public int mErrCode = ErrCode.XOK;
+        public int mRespCode = -1;          ///< 回应数据包中的 "code"
+        public long mAckedOffset = -1;      ///< 服务器确认的偏移量
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "IOTSDK/ResumeUploader";
+    public static final int DEF_CHUNK_SIZE = 256 * 1024;            ///< 默认分块大小
+    public static final int DEF_MAX_RETRIES = 5;                    ///< 默认单次调用内连续失败重试次数
+    public static final long DEF_RETRY_INTERVAL = 1000;             ///< 默认首次重试间隔，之后每次加倍
+    private static final long MAX_RETRY_INTERVAL = 16000;           ///< 最大重试间隔
+    public static final int RESP_CODE_OFFSET_CONFLICT = 409;        ///< 分块偏移量与服务器记录不一致
+
+    private static final String PARAM_UPLOAD_ID = "uploadId";
+    private static final String PARAM_OFFSET = "offset";
+    private static final String PARAM_LENGTH = "length";
+
+    private static final String JOURNAL_PREFIX = "upload_";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String KEY_UPLOAD_ID = "uploadId";
+    private static final String KEY_FILE_PATH = "filePath";
+    private static final String KEY_FILE_LENGTH = "fileLength";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_ACKED_OFFSET = "ackedOffset";
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final HttpTransport mTransport;             ///< 发送分块请求的传输层
+    private final File mJournalDir;                     ///< 上传日志存放目录
+    private int mChunkSize = DEF_CHUNK_SIZE;
+    private int mMaxRetries = DEF_MAX_RETRIES;
+    private long mRetryInterval = DEF_RETRY_INTERVAL;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 构造上传器
+     * @param transport : 发送分块请求的传输层
+     * @param journalDir : 上传日志存放目录，通常是应用的私有目录，例如 context.getFilesDir()
+     */
+    public ResumableUploader(final HttpTransport transport, final File journalDir) {
+        mTransport = transport;
+        mJournalDir = journalDir;
+    }
+
+    /*
+     * @brief 设置上传参数
+     * @param chunkSize : 分块大小，<=0 表示使用默认值
+     * @param maxRetries : 单次调用内连续失败的最大重试次数，<0 表示使用默认值
+     * @param retryInterval : 首次重试间隔(毫秒)，<0 表示使用默认值
+     */
+    public synchronized void setConfig(int chunkSize, int maxRetries, long retryInterval) {
+        mChunkSize = (chunkSize > 0) ? chunkSize : DEF_CHUNK_SIZE;
+        mMaxRetries = (maxRetries >= 0) ? maxRetries : DEF_MAX_RETRIES;
+        mRetryInterval = (retryInterval >= 0) ? retryInterval : DEF_RETRY_INTERVAL;
+    }
+
+    /*
+     * @brief 上传文件，有上传日志时从日志中记录的偏移量继续上传
+     *        该函数是阻塞等待调用，因此最好是在工作线程中执行
+     * @param uploadUrl : 上传地址
+     * @param token : 授权token，可以为空
+     * @param file : 要上传的文件
+     * @param cancelToken : 取消标记，可以为null；取消后保留上传日志，后续可以继续上传
+     * @return 错误码，XOK 表示整个文件上传完成，上传日志被删除
+     */
+    public int upload(final String uploadUrl, final String token, final File file,
+                      final CancelToken cancelToken) {
+        if ((uploadUrl == null) || (file == null)) {
+            return ErrCode.XERR_INVALID_PARAM;
+        }
+        if (!file.isFile()) {
+            ALog.getInstance().e(TAG, "<upload> file not exist, file=" + file);
+            return ErrCode.XERR_FILE_NOT_EXIST;
+        }
+
+        int chunkSize, maxRetries;
+        long retryInterval;
+        synchronized (this) {
+            chunkSize = mChunkSize;
+            maxRetries = mMaxRetries;
+            retryInterval = mRetryInterval;
+        }
+
+        File journalFile = getJournalFile(file);
+        Journal journal = loadJournal(journalFile, file);
+        if (journal == null) {
+            journal = new Journal();
+            journal.mUploadId = UUID.randomUUID().toString();
+            journal.mFilePath = file.getAbsolutePath();
+            journal.mFileLength = file.length();
+            journal.mLastModified = file.lastModified();
+            journal.mAckedOffset = 0;
+            saveJournal(journalFile, journal);
+        } else {
+            ALog.getInstance().d(TAG, "<upload> resume, uploadId=" + journal.mUploadId
+                    + ", ackedOffset=" + journal.mAckedOffset + "/" + journal.mFileLength);
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            byte[] buffer = new byte[(int)Math.min(chunkSize, Math.max(journal.mFileLength, 1))];
+            int failCount = 0;
+
+            // 空文件也需要上传一个空分块，服务器才能完成上传
+            do {
+                if ((cancelToken != null) && cancelToken.isCancelled()) {
+                    ALog.getInstance().d(TAG, "<upload> canceled, ackedOffset=" + journal.mAckedOffset);
+                    return ErrCode.XERR_HTTP_CANCELED;
+                }
+
+                ChunkResult result = sendChunk(uploadUrl, token, journal, raf, buffer, cancelToken);
+                if (result.mErrCode == ErrCode.XERR_HTTP_CANCELED) {
+                    return result.mErrCode;
+                }
+
+                boolean progressed = false;
+                if ((result.mAckedOffset >= 0) && (result.mAckedOffset <= journal.mFileLength)) {
+                    progressed = (result.mAckedOffset > journal.mAckedOffset);
+                    journal.mAckedOffset = result.mAckedOffset;
+                    saveJournal(journalFile, journal);
+                }
+
+                if ((result.mErrCode == ErrCode.XOK) && progressed) {
+                    failCount = 0;
+                    continue;
+                }
+                if ((result.mErrCode == ErrCode.XOK) && (journal.mAckedOffset >= journal.mFileLength)) {
+                    break;      // 空文件，或者服务器已经确认了整个文件
+                }
+
+                // 上传失败或者没有进展，退避后重试
+                failCount++;
+                if (failCount > maxRetries) {
+                    ALog.getInstance().e(TAG, "<upload> retries exhausted, errCode=" + result.mErrCode
+                            + ", ackedOffset=" + journal.mAckedOffset + "/" + journal.mFileLength);
+                    return (result.mErrCode != ErrCode.XOK) ? result.mErrCode : ErrCode.XERR_SERVICE;
+                }
+                long interval = Math.min(retryInterval << (failCount - 1), MAX_RETRY_INTERVAL);
+                ALog.getInstance().d(TAG, "<upload> retry " + failCount + " after " + interval
+                        + "ms, errCode=" + result.mErrCode);
+                Thread.sleep(interval);
+
+            } while (journal.mAckedOffset < journal.mFileLength);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ErrCode.XERR_HTTP_CANCELED;
+
+        } catch (IOException e) {
+            ALog.getInstance().e(TAG, "<upload> read file failure, exp=" + e.toString());
+            return ErrCode.XERR_FILE_READ;
+
+        } finally {
+            closeQuietly(raf);
+        }
+
+        journalFile.delete();
+        ALog.getInstance().d(TAG, "<upload> done, uploadId=" + journal.mUploadId
+                + ", fileLength=" + journal.mFileLength);
+        return ErrCode.XOK;
+    }
+
+    /*
+     * @brief 查询文件已经被服务器确认的上传偏移量
+     * @return 已确认的偏移量，没有上传日志或者文件已变化时返回-1
+     */
+    public long getAckedOffset(final File file) {
+        Journal journal = loadJournal(getJournalFile(file), file);
+        return (journal != null) ? journal.mAckedOffset : -1;
+    }
+
+    /*
+     * @brief 放弃文件的上传进度，下次上传从头开始
+     */
+    public void discard(final File file) {
+        getJournalFile(file).delete();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 从已确认的偏移量开始上传一个分块
+     */
+    private ChunkResult sendChunk(final String uploadUrl, final String token, final Journal journal,
+                                  final RandomAccessFile raf, final byte[] buffer,
+                                  final CancelToken cancelToken) {
+        final ChunkResult result = new ChunkResult();
+        long offset = journal.mAckedOffset;
+        int chunkLength = (int)Math.min(buffer.length, journal.mFileLength - offset);
+        try {
+            raf.seek(offset);
+            raf.readFully(buffer, 0, chunkLength);
+        } catch (IOException e) {
+            ALog.getInstance().e(TAG, "<sendChunk> read file failure, exp=" + e.toString());
+            result.mErrCode = ErrCode.XERR_FILE_READ;
+            return result;
+        }
+
+        Map<String, String> params = new HashMap<>();
+        params.put(PARAM_UPLOAD_ID, journal.mUploadId);
+        params.put(PARAM_OFFSET, String.valueOf(offset));
+        params.put(PARAM_LENGTH, String.valueOf(journal.mFileLength));
+
+        HttpTransport.Response response = mTransport.uploadChunk(uploadUrl, token, params,
+                buffer, chunkLength, new HttpTransport.IResponseDecoder() {
+                    @Override
+                    public void decode(InputStream inputStream) throws IOException {
+                        decodeChunkResult(new JsonReader(new InputStreamReader(inputStream, "UTF-8")),
+                                          result);
+                    }
+                }, cancelToken);
+        if (response.mErrorCode != ErrCode.XOK) {
+            ALog.getInstance().e(TAG, "<sendChunk> failure, offset=" + offset
+                    + ", mErrorCode=" + response.mErrorCode);
+            result.mErrCode = response.mErrorCode;
+            result.mAckedOffset = -1;
+            return result;
+        }
+
+        if (result.mRespCode == RESP_CODE_OFFSET_CONFLICT) {
+            ALog.getInstance().d(TAG, "<sendChunk> offset conflict, local=" + offset
+                    + ", server=" + result.mAckedOffset);
+            result.mErrCode = (result.mAckedOffset >= 0) ? ErrCode.XOK : ErrCode.XERR_HTTP_RESP_DATA;
+        } else if (result.mRespCode != ErrCode.XOK) {
+            ALog.getInstance().e(TAG, "<sendChunk> failure, offset=" + offset
+                    + ", mRespCode=" + result.mRespCode);
+            result.mErrCode = ErrCode.XERR_HTTP_RESP_CODE;
+            result.mAckedOffset = -1;
+        } else if (result.mAckedOffset < 0) {
+            result.mErrCode = ErrCode.XERR_HTTP_RESP_DATA;
+        }
+        return result;
+    }
+
+    /*
+     * @brief 解析分块上传的回应数据包，只读取 "code" 和 "data.offset"
+     */
+    private static void decodeChunkResult(final JsonReader reader, final ChunkResult result)
+                                        throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("code")) {
+                result.mRespCode = reader.nextInt();
+            } else if (name.equals("data") && (reader.peek() == JsonToken.BEGIN_OBJECT)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("offset")) {
+                        result.mAckedOffset = reader.nextLong();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private File getJournalFile(final File file) {
+        String path = file.getAbsolutePath();
+        return new File(mJournalDir, JOURNAL_PREFIX + Integer.toHexString(path.hashCode()) + JOURNAL_SUFFIX);
+    }
+
+    /*
+     * @brief 读取上传日志，日志不存在、损坏或者文件已经变化时返回null
+     */
+    private Journal loadJournal(final File journalFile, final File file) {
+        if (!journalFile.isFile()) {
+            return null;
+        }
+
+        Properties props = new Properties();
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(journalFile);
+            props.load(fis);
+
+            Journal journal = new Journal();
+            journal.mUploadId = props.getProperty(KEY_UPLOAD_ID);
+            journal.mFilePath = props.getProperty(KEY_FILE_PATH);
+            journal.mFileLength = Long.parseLong(props.getProperty(KEY_FILE_LENGTH));
+            journal.mLastModified = Long.parseLong(props.getProperty(KEY_LAST_MODIFIED));
+            journal.mAckedOffset = Long.parseLong(props.getProperty(KEY_ACKED_OFFSET));
+
+            if ((journal.mUploadId == null) || (!file.getAbsolutePath().equals(journal.mFilePath))
+                || (journal.mFileLength != file.length()) || (journal.mLastModified != file.lastModified())
+                || (journal.mAckedOffset < 0) || (journal.mAckedOffset > journal.mFileLength)) {
+                ALog.getInstance().d(TAG, "<loadJournal> journal out of date, restart upload");
+                journalFile.delete();
+                return null;
+            }
+            return journal;
+
+        } catch (IOException | NumberFormatException | NullPointerException e) {
+            ALog.getInstance().e(TAG, "<loadJournal> invalid journal, exp=" + e.toString());
+            journalFile.delete();
+            return null;
+
+        } finally {
+            closeQuietly(fis);
+        }
+    }
+
+    /*
+     * @brief 保存上传日志，先写入临时文件再改名，避免写到一半时进程退出导致日志损坏
+     */
+    private void saveJournal(final File journalFile, final Journal journal) {
+        Properties props = new Properties();
+        props.setProperty(KEY_UPLOAD_ID, journal.mUploadId);
+        props.setProperty(KEY_FILE_PATH, journal.mFilePath);
+        props.setProperty(KEY_FILE_LENGTH, String.valueOf(journal.mFileLength));
+        props.setProperty(KEY_LAST_MODIFIED, String.valueOf(journal.mLastModified));
+        props.setProperty(KEY_ACKED_OFFSET, String.valueOf(journal.mAckedOffset));
+
+        File tmpFile = new File(journalFile.getPath() + ".tmp");
+        FileOutputStream fos = null;
+        try {
+            mJournalDir.mkdirs();
+            fos = new FileOutputStream(tmpFile);
+            props.store(fos, null);
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+            if (!tmpFile.renameTo(journalFile)) {
+                ALog.getInstance().e(TAG, "<saveJournal> rename journal failure");
+            }
+
+        } catch (IOException e) {
+            ALog.getInstance().e(TAG, "<saveJournal> write journal failure, exp=" + e.toString());
+
+        } finally {
+            closeQuietly(fos);
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            ALog.getInstance().e(TAG, "<closeQuietly> exp=" + e.toString());
+        }
+    }
+}
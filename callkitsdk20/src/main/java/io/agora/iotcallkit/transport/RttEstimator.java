@@ -0,0 +1,141 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/*
+ * @brief 按照请求端点估算往返时延，并据此计算HTTP请求的超时时间
+ *        计算方法与TCP重传超时(RFC 6298)相同：
+ *          SRTT   = 7/8 * SRTT + 1/8 * R
+ *          RTTVAR = 3/4 * RTTVAR + 1/4 * |SRTT - R|
+ *          RTO    = SRTT + max(G, 4 * RTTVAR)
+ *        请求超时后超时时间加倍(指数退避)，收到新的样本后恢复。
+ *        超时时间限制在 [下限, 上限] 之间，没有样本时使用上限。
+ *        呼叫等服务端处理较慢的端点可以单独设置更高的下限
+ */
+public class RttEstimator {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 单个端点的时延估算值
+     */
+    private static class RttEntry {
+        public long mSrtt;              ///< 平滑往返时延
+        public long mRttVar;            ///< 往返时延偏差
+        public int mBackoff;            ///< 连续超时的退避次数
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static final int DEF_TIMEOUT_FLOOR = 500;        ///< 默认超时时间下限
+    public static final int DEF_TIMEOUT_CEILING = 8000;     ///< 默认超时时间上限
+    private static final long CLOCK_GRANULARITY = 10;       ///< 计时粒度G
+    private static final int MAX_BACKOFF = 6;               ///< 最大退避次数
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final HashMap<String, RttEntry> mEntryMap = new HashMap<>();   ///< 端点路径 -> 时延估算值
+    private final HashMap<String, Integer> mFloorMap = new HashMap<>();    ///< 端点路径后缀 -> 单独的超时下限
+    private int mTimeoutFloor = DEF_TIMEOUT_FLOOR;
+    private int mTimeoutCeiling = DEF_TIMEOUT_CEILING;
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 设置超时时间的上下限
+     * @param timeoutFloor : 超时时间下限(毫秒)，<=0 表示使用默认值
+     * @param timeoutCeiling : 超时时间上限(毫秒)，<=0 表示使用默认值
+     */
+    public synchronized void setTimeoutBounds(int timeoutFloor, int timeoutCeiling) {
+        mTimeoutFloor = (timeoutFloor > 0) ? timeoutFloor : DEF_TIMEOUT_FLOOR;
+        mTimeoutCeiling = (timeoutCeiling > 0) ? timeoutCeiling : DEF_TIMEOUT_CEILING;
+        if (mTimeoutCeiling < mTimeoutFloor) {
+            mTimeoutCeiling = mTimeoutFloor;
+        }
+    }
+
+    public synchronized int getTimeoutCeiling() {
+        return mTimeoutCeiling;
+    }
+
+    /*
+     * @brief 设置端点单独的超时时间下限，实际下限取该值和全局下限中较大的一个
+     * @param endpoint : 端点路径后缀，例如 "/call"
+     * @param timeoutFloor : 超时时间下限(毫秒)，<=0 表示取消单独设置
+     */
+    public synchronized void setEndpointFloor(final String endpoint, int timeoutFloor) {
+        if (timeoutFloor > 0) {
+            mFloorMap.put(endpoint, timeoutFloor);
+        } else {
+            mFloorMap.remove(endpoint);
+        }
+    }
+
+    /*
+     * @brief 获取端点当前的请求超时时间
+     * @param endpointPath : 请求URL的路径
+     */
+    public synchronized int getTimeout(final String endpointPath) {
+        int timeoutFloor = getTimeoutFloor(endpointPath);
+        RttEntry entry = mEntryMap.get(endpointPath);
+        if (entry == null) {
+            return Math.max(timeoutFloor, mTimeoutCeiling);
+        }
+
+        long timeout = entry.mSrtt + Math.max(CLOCK_GRANULARITY, 4 * entry.mRttVar);
+        timeout <<= entry.mBackoff;
+        return (int)Math.max(timeoutFloor, Math.min(timeout, mTimeoutCeiling));
+    }
+
+    /*
+     * @brief 收到服务器回应时更新端点的时延估算值
+     * @param rtt : 从发起请求到收到回应的时长(毫秒)
+     */
+    public synchronized void onSample(final String endpointPath, long rtt) {
+        RttEntry entry = mEntryMap.get(endpointPath);
+        if (entry == null) {
+            entry = new RttEntry();
+            entry.mSrtt = rtt;
+            entry.mRttVar = rtt / 2;
+            mEntryMap.put(endpointPath, entry);
+            return;
+        }
+
+        long delta = Math.abs(entry.mSrtt - rtt);
+        entry.mRttVar = (3 * entry.mRttVar + delta) / 4;
+        entry.mSrtt = (7 * entry.mSrtt + rtt) / 8;
+        entry.mBackoff = 0;
+    }
+
+    /*
+     * @brief 请求超时后对端点的超时时间进行退避
+     */
+    public synchronized void onTimeout(final String endpointPath) {
+        RttEntry entry = mEntryMap.get(endpointPath);
+        if ((entry != null) && (entry.mBackoff < MAX_BACKOFF)) {
+            entry.mBackoff++;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private int getTimeoutFloor(final String endpointPath) {
+        for (Map.Entry<String, Integer> entry : mFloorMap.entrySet()) {
+            if (endpointPath.endsWith(entry.getKey())) {
+                return Math.max(mTimeoutFloor, entry.getValue());
+            }
+        }
+        return mTimeoutFloor;
+    }
+}
@@ -0,0 +1,107 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+
+/*
+ * @brief 相同请求的合并执行
+ *        同一个键值同时只有一个调用真正执行，执行期间到达的相同调用等待并共享该执行结果，
+ *        执行完成后再到达的调用会重新执行，因此不会返回过期的结果
+ */
+public class SingleFlight<T> {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 实际执行的调用
+     */
+    public interface ICall<T> {
+        T call();
+    }
+
+    /*
+     * @brief 正在执行的调用
+     */
+    private static class Flight<T> {
+        public final CountDownLatch mDone = new CountDownLatch(1);
+        public T mResult;
+        public RuntimeException mException;     ///< 执行时抛出的异常，同样传递给等待者
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final HashMap<String, Flight<T>> mFlightMap = new HashMap<>();   ///< 键值 -> 正在执行的调用
+    private long mExecutedCount = 0;        ///< 实际执行的次数
+    private long mCollapsedCount = 0;       ///< 被合并的调用次数
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 执行调用，相同键值的调用正在执行时等待其结果
+     * @param key : 调用的键值，键值相同的调用结果必须可以互相替代
+     * @param call : 实际执行的调用
+     * @return 调用结果，合并的调用返回同一个结果对象，调用者不能修改
+     */
+    public T execute(final String key, final ICall<T> call) {
+        Flight<T> flight;
+        boolean leader = false;
+        synchronized (this) {
+            flight = mFlightMap.get(key);
+            if (flight == null) {
+                flight = new Flight<>();
+                mFlightMap.put(key, flight);
+                mExecutedCount++;
+                leader = true;
+            } else {
+                mCollapsedCount++;
+            }
+        }
+
+        if (leader) {
+            try {
+                flight.mResult = call.call();
+            } catch (RuntimeException e) {
+                flight.mException = e;
+                throw e;
+            } finally {
+                synchronized (this) {
+                    mFlightMap.remove(key);
+                }
+                flight.mDone.countDown();
+            }
+            return flight.mResult;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                flight.mDone.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (flight.mException != null) {
+            throw flight.mException;
+        }
+        return flight.mResult;
+    }
+
+    public synchronized long getExecutedCount() {
+        return mExecutedCount;
+    }
+
+    public synchronized long getCollapsedCount() {
+        return mCollapsedCount;
+    }
+}
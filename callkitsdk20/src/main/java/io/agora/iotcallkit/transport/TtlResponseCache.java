@@ -0,0 +1,217 @@
+package io.agora.iotcallkit.transport;
+
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/*
+ * @brief 查询类请求的回应数据缓存
+ *        只缓存配置了有效期的端点，有效期内直接使用缓存的回应数据，不再发送请求；
+ *        过期后如果有 ETag 则发送带 If-None-Match 的条件请求，服务器回应304时继续使用缓存数据。
+ *        缓存按照最近最少使用的顺序淘汰，同时限制条目数和总字节数
+ */
+public class TtlResponseCache {
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Data Structure Definition /////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 缓存条目，数据不可修改
+     */
+    public static class Entry {
+        public final byte[] mBody;              ///< 回应数据包
+        public final String mETag;              ///< 服务器返回的ETag，可能为null
+        private volatile long mExpireTime;      ///< 过期时间戳
+
+        private Entry(byte[] body, String eTag, long expireTime) {
+            mBody = body;
+            mETag = eTag;
+            mExpireTime = expireTime;
+        }
+
+        public boolean isExpired() {
+            return (System.currentTimeMillis() >= mExpireTime);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Constant Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public static final int DEF_MAX_ENTRIES = 64;               ///< 默认最大缓存条目数
+    public static final int DEF_MAX_BYTES = 256 * 1024;         ///< 默认最大缓存字节数
+
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////////////////// Variable Definition ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    private final int mMaxEntries;
+    private final int mMaxBytes;
+    private int mTotalBytes = 0;
+    private final HashMap<String, Long> mTtlMap = new HashMap<>();     ///< 端点后缀 -> 有效期
+    private final LinkedHashMap<String, Entry> mEntryMap =             ///< 按访问顺序排列
+                                new LinkedHashMap<>(16, 0.75f, true);
+
+    private long mHitCount = 0;             ///< 有效期内直接命中次数
+    private long mRevalidateCount = 0;      ///< 条件请求回应304的次数
+    private long mMissCount = 0;            ///< 没有缓存或者缓存失效的次数
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ////////////////////////// Public Methods //////////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    public TtlResponseCache(int maxEntries, int maxBytes) {
+        mMaxEntries = (maxEntries > 0) ? maxEntries : DEF_MAX_ENTRIES;
+        mMaxBytes = (maxBytes > 0) ? maxBytes : DEF_MAX_BYTES;
+    }
+
+    /*
+     * @brief 设置端点的缓存有效期
+     * @param endpoint : 端点路径后缀，例如 "/device/invent/certificate/get"
+     * @param ttl : 有效期(毫秒)，<=0 表示该端点不缓存
+     */
+    public synchronized void setTtl(final String endpoint, long ttl) {
+        if (ttl > 0) {
+            mTtlMap.put(endpoint, ttl);
+        } else {
+            mTtlMap.remove(endpoint);
+            invalidate(endpoint);
+        }
+    }
+
+    /*
+     * @brief 获取请求URL对应端点的缓存有效期
+     * @param url : 请求URL，不包括查询参数
+     * @return 有效期(毫秒)，0表示不缓存
+     */
+    public synchronized long getTtl(final String url) {
+        for (Map.Entry<String, Long> entry : mTtlMap.entrySet()) {
+            if (url.endsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * @brief 生成缓存键值，相同方法、URL、token和消息体的请求才会使用同一个缓存
+     */
+    public static String buildKey(final String method, final String realUrl, final String token,
+                                  final byte[] body, int bodyLength) {
+        StringBuilder key = new StringBuilder(realUrl.length() + bodyLength + 64);
+        key.append(method).append(' ').append(realUrl).append('\n');
+        key.append((token != null) ? token : "").append('\n');
+        if (body != null) {
+            key.append(new String(body, 0, bodyLength));
+        }
+        return key.toString();
+    }
+
+    /*
+     * @brief 查询缓存，返回的条目可能已经过期，过期条目可以用来做条件请求
+     */
+    public synchronized Entry get(final String key) {
+        Entry entry = mEntryMap.get(key);
+        if ((entry == null) || entry.isExpired()) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return entry;
+    }
+
+    public synchronized void put(final String key, final byte[] body, final String eTag, long ttl) {
+        if (body.length > mMaxBytes) {
+            return;
+        }
+        Entry oldEntry = mEntryMap.put(key, new Entry(body, eTag, System.currentTimeMillis() + ttl));
+        if (oldEntry != null) {
+            mTotalBytes -= oldEntry.mBody.length;
+        }
+        mTotalBytes += body.length;
+        trim();
+    }
+
+    /*
+     * @brief 条件请求回应304后，延长缓存条目的有效期
+     */
+    public synchronized void refresh(final String key, long ttl) {
+        Entry entry = mEntryMap.get(key);
+        if (entry != null) {
+            entry.mExpireTime = System.currentTimeMillis() + ttl;
+            mRevalidateCount++;
+        }
+    }
+
+    public synchronized void remove(final String key) {
+        Entry entry = mEntryMap.remove(key);
+        if (entry != null) {
+            mTotalBytes -= entry.mBody.length;
+        }
+    }
+
+    /*
+     * @brief 删除某个端点的所有缓存
+     * @param endpoint : 端点路径后缀
+     */
+    public synchronized void invalidate(final String endpoint) {
+        Iterator<Map.Entry<String, Entry>> it = mEntryMap.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> mapEntry = it.next();
+            String url = getUrlPath(mapEntry.getKey());
+            if (url.endsWith(endpoint)) {
+                mTotalBytes -= mapEntry.getValue().mBody.length;
+                it.remove();
+            }
+        }
+    }
+
+    /*
+     * @brief 清除所有缓存，账号登出时调用
+     */
+    public synchronized void clear() {
+        mEntryMap.clear();
+        mTotalBytes = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getRevalidateCount() {
+        return mRevalidateCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////
+    ///////////////////////////// Inner Methods ///////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+    /*
+     * @brief 淘汰最近最少使用的条目，直到条目数和字节数都在限制之内
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = mEntryMap.entrySet().iterator();
+        while (((mEntryMap.size() > mMaxEntries) || (mTotalBytes > mMaxBytes)) && it.hasNext()) {
+            Map.Entry<String, Entry> mapEntry = it.next();
+            mTotalBytes -= mapEntry.getValue().mBody.length;
+            it.remove();
+        }
+    }
+
+    /*
+     * @brief 从缓存键值中取出不包括查询参数的URL
+     */
+    private static String getUrlPath(final String key) {
+        int start = key.indexOf(' ') + 1;
+        int end = key.indexOf('\n', start);
+        String url = key.substring(start, end);
+        int queryIndex = url.indexOf('?');
+        return (queryIndex >= 0) ? url.substring(0, queryIndex) : url;
+    }
+}
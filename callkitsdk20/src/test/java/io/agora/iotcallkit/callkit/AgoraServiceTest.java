@@ -0,0 +1,192 @@
+package io.agora.iotcallkit.callkit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import io.agora.iotcallkit.ErrCode;
+import io.agora.iotcallkit.lowservice.AgoraLowService;
+import io.agora.iotcallkit.mock.MockGatewayServer;
+import io.agora.iotcallkit.mock.MockGatewayServer.RecordedRequest;
+import io.agora.iotcallkit.mock.MockGatewayServer.Reply;
+
+import static org.junit.Assert.*;
+
+/**
+ * AgoraService request paths against the in-process mock gateway.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class AgoraServiceTest {
+
+    private MockGatewayServer mServer;
+    private AgoraService mService;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockGatewayServer();
+        mServer.start();
+        mService = AgoraService.getInstance();
+        mService.setBaseUrl(mServer.getGatewayUrl());
+        mService.setDialHedging(0);
+        AgoraLowService.getInstance().setBaseUrl(mServer.getLowServiceUrl());
+        AgoraLowService.getInstance().clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void makeCallReturnsChannelInfo() {
+        AgoraService.CallReqResult result = mService.makeCall("access_token", "app_id",
+                "caller", "callee", "hello");
+
+        assertEquals(ErrCode.XOK, result.mErrCode);
+        assertEquals("mock_channel", result.mCallkitCtx.channelName);
+        assertEquals("mock_session", result.mCallkitCtx.sessionId);
+        assertEquals(1001, result.mCallkitCtx.mLocalUid);
+        assertEquals(2002, result.mCallkitCtx.mPeerUid);
+        assertEquals("caller", result.mCallkitCtx.callerId);
+
+        RecordedRequest request = mServer.getRequests(MockGatewayServer.EP_CALL).get(0);
+        assertEquals("Bearer access_token", request.mHeaders.getFirst("authorization"));
+        assertTrue(request.mBody.contains("\"callerId\":\"caller\""));
+        assertTrue(request.mBody.contains("\"attachMsg\":\"hello\""));
+    }
+
+    @Test
+    public void makeCallEscapesAttachMsg() throws JSONException {
+        String attachMsg = "say \"hi\" \\ path\nnext\u0001ctl sep\u2028line \uD83D\uDE00 end";
+
+        assertEquals(ErrCode.XOK, mService.makeCall("access_token", "app_id",
+                "caller", "callee", attachMsg).mErrCode);
+
+        RecordedRequest request = mServer.getRequests(MockGatewayServer.EP_CALL).get(0);
+        JSONObject payload = new JSONObject(request.mBody).getJSONObject("payload");
+        assertEquals(attachMsg, payload.getString("attachMsg"));
+    }
+
+    @Test
+    public void makeCallMapsResponseCodes() {
+        mServer.enqueueReply(MockGatewayServer.EP_CALL, Reply.respCode(AgoraService.RESP_CODE_IN_TALKING));
+        mServer.enqueueReply(MockGatewayServer.EP_CALL, Reply.respCode(AgoraService.RESP_CODE_CALL));
+        mServer.enqueueReply(MockGatewayServer.EP_CALL, Reply.respCode(AgoraService.RESP_CODE_PEER_UNREG));
+
+        assertEquals(ErrCode.XERR_CALLKIT_PEER_BUSY,
+                mService.makeCall("token", "app_id", "caller", "callee", "").mErrCode);
+        assertEquals(ErrCode.XERR_CALLKIT_LOCAL_BUSY,
+                mService.makeCall("token", "app_id", "caller", "callee", "").mErrCode);
+        assertEquals(ErrCode.XERR_CALLKIT_PEER_UNREG,
+                mService.makeCall("token", "app_id", "caller", "callee", "").mErrCode);
+    }
+
+    @Test
+    public void makeCallFailsOnHttpError() {
+        mServer.enqueueReply(MockGatewayServer.EP_CALL, Reply.httpStatus(503));
+
+        AgoraService.CallReqResult result = mService.makeCall("token", "app_id", "caller", "callee", "");
+
+        assertNotEquals(ErrCode.XOK, result.mErrCode);
+        assertNull(result.mCallkitCtx);
+    }
+
+    @Test
+    public void makeAnswerSendsDecision() {
+        assertEquals(ErrCode.XOK, mService.makeAnswer("token", "session", "caller", "callee",
+                "callee", false));
+        mServer.enqueueReply(MockGatewayServer.EP_ANSWER, Reply.respCode(AgoraService.RESP_CODE_ANSWER));
+        assertEquals(ErrCode.XERR_CALLKIT_ANSWER, mService.makeAnswer("token", "session", "caller",
+                "callee", "callee", true));
+
+        List<RecordedRequest> requests = mServer.getRequests(MockGatewayServer.EP_ANSWER);
+        assertTrue(requests.get(0).mBody.contains("\"answer\":1"));
+        assertTrue(requests.get(1).mBody.contains("\"answer\":0"));
+    }
+
+    @Test
+    public void uploadFileStreamsWithContentType() {
+        byte[] content = "mock file content".getBytes();
+        String uploadUrl = mServer.getRootUrl() + MockGatewayServer.EP_UPLOAD;
+
+        assertEquals(ErrCode.XOK, mService.uploadFile(uploadUrl, "token", "clip.mp4", "videos", false,
+                new ByteArrayInputStream(content), -1, "video/mp4", null));
+        mServer.enqueueReply(MockGatewayServer.EP_UPLOAD, Reply.httpStatus(500));
+        assertNotEquals(ErrCode.XOK, mService.uploadFile(uploadUrl, "token", "clip.mp4", "videos",
+                false, content, "video/mp4"));
+
+        RecordedRequest request = mServer.getRequests(MockGatewayServer.EP_UPLOAD).get(0);
+        assertEquals("chunked", request.mHeaders.getFirst("Transfer-Encoding"));
+        assertTrue(request.mBody.contains("filename=\"clip.mp4\""));
+        assertTrue(request.mBody.contains("Content-Type: video/mp4"));
+        assertTrue(request.mBody.contains("mock file content"));
+    }
+
+    @Test
+    public void accountGetTokenWithRefreshGrant() {
+        AgoraService.RetrieveTokenParam param = new AgoraService.RetrieveTokenParam();
+        param.mGrantType = "refresh_token";
+        param.mRefreshToken = "old_refresh_token";
+
+        AgoraService.AccountTokenInfo tokenInfo = mService.accountGetToken(param);
+
+        assertEquals(ErrCode.XOK, tokenInfo.mErrCode);
+        assertEquals("mock_access_token", tokenInfo.mAccessToken);
+        assertEquals("mock_refresh_token", tokenInfo.mRefreshToken);
+        assertEquals(3600, tokenInfo.mExpriesIn);
+        String body = mServer.getRequests(MockGatewayServer.EP_TOKEN).get(0).mBody;
+        assertTrue(body.contains("\"refresh_token\":\"old_refresh_token\""));
+    }
+
+    @Test
+    public void anonymousLoginRunsFullFlow() {
+        AgoraService.RetrieveTokenParam param = new AgoraService.RetrieveTokenParam();
+        param.mGrantType = "password";
+        param.mUserName = "user";
+        param.mPassword = "password";
+
+        AgoraService.AnonymousLoginResult result = mService.anonymousLogin(param);
+
+        assertEquals(ErrCode.XOK, result.mErrCode);
+        assertEquals("user", result.mAccountInfo.mAccount);
+        assertEquals("mock_identity_id", result.mAccountInfo.mPoolIdentityId);
+        assertEquals("mock_session_token", result.mAccountInfo.mProofSessionToken);
+        assertEquals("mock_thing", result.mAccountInfo.mInventDeviceName);
+        assertEquals("mock_access_token", result.mAccountInfo.mAgoraAccessToken);
+        assertEquals("username=user", mServer.getRequests(MockGatewayServer.EP_ANONYMOUS_LOGIN).get(0).mQuery);
+        assertEquals(1, mServer.getRequestCount(MockGatewayServer.EP_REGISTER));
+        assertEquals("mock_platform_token",
+                mServer.getRequests(MockGatewayServer.EP_INVENT_DEVICE).get(0).mHeaders.getFirst("token"));
+    }
+
+    @Test
+    public void anonymousLoginStopsAtFailedStep() {
+        mServer.enqueueReply(MockGatewayServer.EP_REGISTER, Reply.respCode(500));
+
+        AgoraService.RetrieveTokenParam param = new AgoraService.RetrieveTokenParam();
+        param.mUserName = "user";
+
+        assertEquals(ErrCode.XERR_HTTP_RESP_CODE, mService.anonymousLogin(param).mErrCode);
+        assertEquals(0, mServer.getRequestCount(MockGatewayServer.EP_TOKEN));
+    }
+
+    @Test
+    public void scriptedLatencyDelaysResponse() {
+        mServer.enqueueReply(MockGatewayServer.EP_ANSWER, Reply.ok(null).latency(300));
+
+        long startTime = System.currentTimeMillis();
+        assertEquals(ErrCode.XOK, mService.makeAnswer("token", "session", "caller", "callee",
+                "callee", true));
+        assertTrue(System.currentTimeMillis() - startTime >= 300);
+    }
+}
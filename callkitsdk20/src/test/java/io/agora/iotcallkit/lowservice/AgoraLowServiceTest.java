@@ -0,0 +1,74 @@
+package io.agora.iotcallkit.lowservice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import io.agora.iotcallkit.mock.MockGatewayServer;
+import io.agora.iotcallkit.mock.MockGatewayServer.Reply;
+
+import static org.junit.Assert.*;
+
+/**
+ * AgoraLowService response caching against the in-process mock gateway.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class AgoraLowServiceTest {
+
+    private static final int RESP_SYS_EXCEPTION = 1016;
+
+    private MockGatewayServer mServer;
+    private AgoraLowService mService;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockGatewayServer();
+        mServer.start();
+        mService = AgoraLowService.getInstance();
+        mService.setBaseUrl(mServer.getLowServiceUrl());
+        mService.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void inventDeviceNameIsCached() {
+        assertEquals("mock_thing", mService.queryInventDeviceName("srv_token"));
+        assertEquals("mock_thing", mService.queryInventDeviceName("srv_token"));
+
+        assertEquals(1, mServer.getRequestCount(MockGatewayServer.EP_INVENT_DEVICE));
+    }
+
+    @Test
+    public void clearCacheDropsCachedReply() {
+        assertEquals("mock_thing", mService.queryInventDeviceName("srv_token"));
+
+        mService.clearCache();      // called on logout
+
+        assertEquals("mock_thing", mService.queryInventDeviceName("srv_token"));
+        assertEquals(2, mServer.getRequestCount(MockGatewayServer.EP_INVENT_DEVICE));
+    }
+
+    @Test
+    public void errorReplyIsNotCached() {
+        mServer.enqueueReply(MockGatewayServer.EP_INVENT_DEVICE, Reply.respCode(RESP_SYS_EXCEPTION));
+
+        assertNull(mService.queryInventDeviceName("srv_token"));
+
+        // the next query reaches the server and gets the success reply instead of the cached error
+        assertEquals("mock_thing", mService.queryInventDeviceName("srv_token"));
+        assertEquals(2, mServer.getRequestCount(MockGatewayServer.EP_INVENT_DEVICE));
+
+        assertEquals("mock_thing", mService.queryInventDeviceName("srv_token"));
+        assertEquals(2, mServer.getRequestCount(MockGatewayServer.EP_INVENT_DEVICE));
+    }
+}
@@ -0,0 +1,345 @@
+package io.agora.iotcallkit.mock;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process stand-in for the call-service gateway, the oauth service and the low service.
+ *
+ * Point AgoraService at {@link #getGatewayUrl()} and AgoraLowService at {@link #getLowServiceUrl()}.
+ * Every endpoint answers with a canned successful payload by default. Tests script latency, HTTP
+ * status, the "code" field (e.g. AgoraService.RESP_CODE_*) or the payload per endpoint, either
+ * for every request ({@link #setReply}) or for the next requests only ({@link #enqueueReply}).
+ * All requests are recorded so tests can assert on headers and bodies.
+ *
+ * {@link #EP_CHUNK_UPLOAD} is a stateful resumable-upload server following the contract documented
+ * on ResumableUploader: chunks are appended per uploadId, a chunk that does not start at the stored
+ * length gets code 409 with the stored offset. {@link #injectUploadFailure} fails the chunk at a
+ * given offset once, either before it is stored or after it is stored (a lost acknowledgement).
+ */
+public class MockGatewayServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final String GATEWAY_PATH = "/api";
+    public static final String LOW_SERVICE_PATH = "/lowservice";
+
+    public static final String EP_CALL = GATEWAY_PATH + "/call-service/v1/call";
+    public static final String EP_ANSWER = GATEWAY_PATH + "/call-service/v1/answer";
+    public static final String EP_TOKEN = GATEWAY_PATH + "/oauth/rest-token";
+    public static final String EP_REGISTER = GATEWAY_PATH + "/oauth/register";
+    public static final String EP_ANONYMOUS_LOGIN = GATEWAY_PATH + "/oauth/anonymous-login";
+    public static final String EP_UPLOAD = GATEWAY_PATH + "/file/upload";
+    public static final String EP_CHUNK_UPLOAD = GATEWAY_PATH + "/file/chunk-upload";
+    public static final String EP_INVENT_DEVICE = LOW_SERVICE_PATH + "/device/invent/certificate/get";
+
+    public static final String CALL_DATA = "{\"appId\":\"mock_app_id\",\"channelName\":\"mock_channel\","
+            + "\"rtcToken\":\"mock_rtc_token\",\"uid\":\"1001\",\"peerUid\":\"2002\","
+            + "\"deviceAlias\":\"mock_device\",\"sessionId\":\"mock_session\",\"callStatus\":2}";
+    public static final String TOKEN_DATA = "{\"scope\":\"mock_scope\",\"token_type\":\"bearer\","
+            + "\"access_token\":\"mock_access_token\",\"refresh_token\":\"mock_refresh_token\","
+            + "\"expires_in\":3600}";
+    public static final String LOGIN_DATA = "{\"info\":{\"account\":\"mock_anonymous\","
+            + "\"endpoint\":\"mock.iot.endpoint\",\"region\":\"cn-north-1\",\"expiration\":1700000000,"
+            + "\"granwin_token\":\"mock_platform_token\","
+            + "\"pool\":{\"identifier\":\"mock_identifier\",\"identityId\":\"mock_identity_id\","
+            + "\"identityPoolId\":\"mock_identity_pool\",\"token\":\"mock_pool_token\"},"
+            + "\"proof\":{\"accessKeyId\":\"mock_key_id\",\"secretKey\":\"mock_secret\","
+            + "\"sessionToken\":\"mock_session_token\",\"sessionExpiration\":1700000000}}}";
+    public static final String INVENT_DEVICE_INFO = "{\"thingName\":\"mock_thing\"}";
+
+    /**
+     * A scripted reply. The gateway wraps the payload as {"code", "timestamp", "data"},
+     * the low service as {"code", "tip", "info"}.
+     */
+    public static class Reply {
+        public int mHttpStatus = 200;
+        public int mRespCode = 0;           // value of the "code" field
+        public String mPayload;             // JSON text of "data" / "info", null to omit it
+        public String mRawBody;             // replaces the whole body when not null
+        public long mLatency = 0;           // delay before the response headers are sent
+
+        public static Reply ok(String payload) {
+            Reply reply = new Reply();
+            reply.mPayload = payload;
+            return reply;
+        }
+
+        public static Reply respCode(int respCode) {
+            Reply reply = new Reply();
+            reply.mRespCode = respCode;
+            return reply;
+        }
+
+        public static Reply httpStatus(int httpStatus) {
+            Reply reply = new Reply();
+            reply.mHttpStatus = httpStatus;
+            return reply;
+        }
+
+        public static Reply raw(String body) {
+            Reply reply = new Reply();
+            reply.mRawBody = body;
+            return reply;
+        }
+
+        public Reply latency(long latency) {
+            mLatency = latency;
+            return this;
+        }
+    }
+
+    public static final int FAIL_BEFORE_STORE = 1;     // reply 500 without storing the chunk
+    public static final int FAIL_AFTER_STORE = 2;      // store the chunk, then reply 500
+
+    /**
+     * A request received by the server.
+     */
+    public static class RecordedRequest {
+        public String mMethod;
+        public String mPath;
+        public String mQuery;
+        public Headers mHeaders;
+        public String mBody;
+    }
+
+    private final Map<String, Reply> mDefaultReplies = new HashMap<>();
+    private final Map<String, LinkedList<Reply>> mQueuedReplies = new HashMap<>();
+    private final List<RecordedRequest> mRequests = new ArrayList<>();
+    private final Map<String, ByteArrayOutputStream> mUploads = new HashMap<>();
+    private final Map<Long, Integer> mUploadFailures = new HashMap<>();
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    public MockGatewayServer() {
+        mDefaultReplies.put(EP_CALL, Reply.ok(CALL_DATA));
+        mDefaultReplies.put(EP_ANSWER, Reply.ok(null));
+        mDefaultReplies.put(EP_TOKEN, Reply.ok(TOKEN_DATA));
+        mDefaultReplies.put(EP_REGISTER, Reply.ok(null));
+        mDefaultReplies.put(EP_ANONYMOUS_LOGIN, Reply.ok(LOGIN_DATA));
+        mDefaultReplies.put(EP_INVENT_DEVICE, Reply.ok(INVENT_DEVICE_INFO));
+        mDefaultReplies.put(EP_UPLOAD, Reply.ok(null));
+    }
+
+    public void start() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleExchange(exchange);
+            }
+        });
+        // scripted latency must not hold back concurrent requests, e.g. hedged dials
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    public void stop() {
+        if (mServer != null) {
+            mServer.stop(0);
+            mServer = null;
+        }
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    public String getGatewayUrl() {
+        return getRootUrl() + GATEWAY_PATH;
+    }
+
+    public String getLowServiceUrl() {
+        return getRootUrl() + LOW_SERVICE_PATH;
+    }
+
+    public String getRootUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    /**
+     * Replies to every later request on the endpoint, unless a queued reply is pending.
+     */
+    public synchronized void setReply(String endpoint, Reply reply) {
+        mDefaultReplies.put(endpoint, reply);
+    }
+
+    /**
+     * Replies once to the next request on the endpoint, queued replies are used in order.
+     */
+    public synchronized void enqueueReply(String endpoint, Reply reply) {
+        LinkedList<Reply> queue = mQueuedReplies.get(endpoint);
+        if (queue == null) {
+            queue = new LinkedList<>();
+            mQueuedReplies.put(endpoint, queue);
+        }
+        queue.add(reply);
+    }
+
+    public synchronized List<RecordedRequest> getRequests(String endpoint) {
+        List<RecordedRequest> requests = new ArrayList<>();
+        for (RecordedRequest request : mRequests) {
+            if (request.mPath.equals(endpoint)) {
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    public synchronized int getRequestCount(String endpoint) {
+        return getRequests(endpoint).size();
+    }
+
+    /**
+     * Fails the next chunk that starts at the offset, see {@link #FAIL_BEFORE_STORE} and {@link #FAIL_AFTER_STORE}.
+     */
+    public synchronized void injectUploadFailure(long offset, int mode) {
+        mUploadFailures.put(offset, mode);
+    }
+
+    /**
+     * The bytes stored so far for an upload, null when the uploadId is unknown.
+     */
+    public synchronized byte[] getUploadedData(String uploadId) {
+        ByteArrayOutputStream stored = mUploads.get(uploadId);
+        return (stored != null) ? stored.toByteArray() : null;
+    }
+
+    /**
+     * Value of a query parameter of a recorded request, null when missing.
+     */
+    public static String getQueryParam(RecordedRequest request, String name) {
+        if (request.mQuery == null) {
+            return null;
+        }
+        for (String pair : request.mQuery.split("&")) {
+            int index = pair.indexOf('=');
+            if ((index > 0) && pair.substring(0, index).equals(name)) {
+                return pair.substring(index + 1);
+            }
+        }
+        return null;
+    }
+
+    private void handleExchange(HttpExchange exchange) throws IOException {
+        RecordedRequest request = new RecordedRequest();
+        request.mMethod = exchange.getRequestMethod();
+        request.mPath = exchange.getRequestURI().getPath();
+        request.mQuery = exchange.getRequestURI().getQuery();
+        request.mHeaders = exchange.getRequestHeaders();
+        byte[] rawBody = readAll(exchange.getRequestBody());
+        request.mBody = new String(rawBody, UTF8);
+
+        Reply reply;
+        synchronized (this) {
+            mRequests.add(request);
+            LinkedList<Reply> queue = mQueuedReplies.get(request.mPath);
+            if ((queue != null) && !queue.isEmpty()) {
+                reply = queue.poll();
+            } else if (request.mPath.equals(EP_CHUNK_UPLOAD)) {
+                reply = handleChunk(request, rawBody);
+            } else {
+                reply = mDefaultReplies.get(request.mPath);
+            }
+        }
+
+        try {
+            if (reply == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (reply.mLatency > 0) {
+                try {
+                    Thread.sleep(reply.mLatency);
+                } catch (InterruptedException e) {
+                    return;     // server stopped
+                }
+            }
+            if (reply.mHttpStatus != 200) {
+                exchange.sendResponseHeaders(reply.mHttpStatus, -1);
+                return;
+            }
+
+            byte[] body = buildBody(request.mPath, reply).getBytes(UTF8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json;charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(body);
+            os.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Reply handleChunk(RecordedRequest request, byte[] chunk) {
+        String uploadId = getQueryParam(request, "uploadId");
+        long offset = Long.parseLong(getQueryParam(request, "offset"));
+        ByteArrayOutputStream stored = mUploads.get(uploadId);
+        if (stored == null) {
+            stored = new ByteArrayOutputStream();
+            mUploads.put(uploadId, stored);
+        }
+
+        Integer failure = mUploadFailures.remove(offset);
+        if ((failure != null) && (failure == FAIL_BEFORE_STORE)) {
+            return Reply.httpStatus(500);
+        }
+        if (offset != stored.size()) {
+            Reply reply = Reply.ok("{\"offset\":" + stored.size() + "}");
+            reply.mRespCode = 409;
+            return reply;
+        }
+        stored.write(chunk, 0, chunk.length);
+        if ((failure != null) && (failure == FAIL_AFTER_STORE)) {
+            return Reply.httpStatus(500);
+        }
+        return Reply.ok("{\"offset\":" + stored.size() + "}");
+    }
+
+    private static String buildBody(String path, Reply reply) {
+        if (reply.mRawBody != null) {
+            return reply.mRawBody;
+        }
+        StringBuilder body = new StringBuilder();
+        body.append("{\"code\":").append(reply.mRespCode);
+        if (path.startsWith(LOW_SERVICE_PATH)) {
+            body.append(",\"tip\":\"mock\"");
+            if (reply.mPayload != null) {
+                body.append(",\"info\":").append(reply.mPayload);
+            }
+        } else {
+            body.append(",\"timestamp\":\"").append(System.currentTimeMillis()).append('"');
+            if (reply.mPayload != null) {
+                body.append(",\"data\":").append(reply.mPayload);
+            }
+        }
+        return body.append('}').toString();
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = is.read(buffer)) > 0) {
+            bos.write(buffer, 0, count);
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,110 @@
+package io.agora.iotcallkit.transport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * CircuitBreaker state transitions: closed -> open -> half-open -> closed / open.
+ */
+public class CircuitBreakerTest {
+
+    private static final String KEY = "https://gateway.example.com";
+    private static final int MIN_SAMPLES = 4;
+    private static final long OPEN_DURATION = 100;
+
+    private CircuitBreaker mBreaker;
+
+    @Before
+    public void setUp() {
+        mBreaker = new CircuitBreaker();
+        mBreaker.setConfig(MIN_SAMPLES, MIN_SAMPLES, 50, OPEN_DURATION);
+    }
+
+    @Test
+    public void opensAfterErrorThreshold() {
+        mBreaker.onSuccess(KEY);
+        mBreaker.onFailure(KEY);
+        mBreaker.onSuccess(KEY);
+        assertEquals(CircuitBreaker.STATE_CLOSED, mBreaker.getState(KEY));     // not enough samples yet
+
+        mBreaker.onFailure(KEY);     // 2 of 4 failed, reaches 50%
+
+        assertEquals(CircuitBreaker.STATE_OPEN, mBreaker.getState(KEY));
+        assertFalse(mBreaker.allowRequest(KEY));
+    }
+
+    @Test
+    public void staysClosedBelowThreshold() {
+        mBreaker.onFailure(KEY);
+        for (int i = 0; i < 10; i++) {
+            mBreaker.onSuccess(KEY);
+        }
+
+        assertEquals(CircuitBreaker.STATE_CLOSED, mBreaker.getState(KEY));
+        assertTrue(mBreaker.allowRequest(KEY));
+    }
+
+    @Test
+    public void halfOpenAllowsExactlyOneProbe() throws InterruptedException {
+        tripOpen();
+        Thread.sleep(OPEN_DURATION + 30);
+
+        assertTrue(mBreaker.allowRequest(KEY));
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, mBreaker.getState(KEY));
+        assertFalse(mBreaker.allowRequest(KEY));
+        assertFalse(mBreaker.allowRequest(KEY));
+
+        // a probe without result gives the chance to the next request
+        mBreaker.onIgnored(KEY);
+        assertTrue(mBreaker.allowRequest(KEY));
+        assertFalse(mBreaker.allowRequest(KEY));
+    }
+
+    @Test
+    public void closesWhenProbeSucceeds() throws InterruptedException {
+        tripOpen();
+        Thread.sleep(OPEN_DURATION + 30);
+        assertTrue(mBreaker.allowRequest(KEY));
+
+        mBreaker.onSuccess(KEY);
+
+        assertEquals(CircuitBreaker.STATE_CLOSED, mBreaker.getState(KEY));
+        assertTrue(mBreaker.allowRequest(KEY));
+        assertTrue(mBreaker.allowRequest(KEY));
+    }
+
+    @Test
+    public void reopensWhenProbeFails() throws InterruptedException {
+        tripOpen();
+        Thread.sleep(OPEN_DURATION + 30);
+        assertTrue(mBreaker.allowRequest(KEY));
+
+        mBreaker.onFailure(KEY);
+
+        assertEquals(CircuitBreaker.STATE_OPEN, mBreaker.getState(KEY));
+        assertFalse(mBreaker.allowRequest(KEY));
+
+        // the open duration doubles, so the breaker is still open after the first duration
+        Thread.sleep(OPEN_DURATION + 30);
+        assertFalse(mBreaker.allowRequest(KEY));
+        Thread.sleep(OPEN_DURATION);
+        assertTrue(mBreaker.allowRequest(KEY));
+    }
+
+    @Test
+    public void keysAreIndependent() {
+        tripOpen();
+
+        assertEquals(CircuitBreaker.STATE_CLOSED, mBreaker.getState("https://backup.example.com"));
+        assertTrue(mBreaker.allowRequest("https://backup.example.com"));
+    }
+
+    private void tripOpen() {
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            mBreaker.onFailure(KEY);
+        }
+        assertEquals(CircuitBreaker.STATE_OPEN, mBreaker.getState(KEY));
+    }
+}
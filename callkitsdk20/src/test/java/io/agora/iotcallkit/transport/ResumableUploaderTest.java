@@ -0,0 +1,134 @@
+package io.agora.iotcallkit.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import io.agora.iotcallkit.ErrCode;
+import io.agora.iotcallkit.mock.MockGatewayServer;
+import io.agora.iotcallkit.mock.MockGatewayServer.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResumableUploader over HttpTransport against the mock gateway's chunked upload endpoint,
+ * with failures injected in the middle of the upload.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ResumableUploaderTest {
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int FILE_SIZE = 10 * 1024;     // two full chunks and a partial one
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private MockGatewayServer mServer;
+    private HttpTransport mTransport;
+    private File mJournalDir;
+    private File mFile;
+    private byte[] mContent;
+    private String mUploadUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockGatewayServer();
+        mServer.start();
+        mTransport = new HttpTransport(new HttpTransport.Config());
+        mJournalDir = mTempFolder.newFolder("journal");
+        mUploadUrl = mServer.getRootUrl() + MockGatewayServer.EP_CHUNK_UPLOAD;
+
+        mContent = new byte[FILE_SIZE];
+        for (int i = 0; i < mContent.length; i++) {
+            mContent[i] = (byte)(i * 31);
+        }
+        mFile = mTempFolder.newFile("snapshot.jpg");
+        FileOutputStream fos = new FileOutputStream(mFile);
+        fos.write(mContent);
+        fos.close();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void uploadsFileInChunks() {
+        ResumableUploader uploader = newUploader(3);
+
+        assertEquals(ErrCode.XOK, uploader.upload(mUploadUrl, "token", mFile, null));
+
+        List<RecordedRequest> requests = mServer.getRequests(MockGatewayServer.EP_CHUNK_UPLOAD);
+        assertEquals(3, requests.size());
+        assertEquals("8192", MockGatewayServer.getQueryParam(requests.get(2), "offset"));
+        assertEquals("Bearer token", requests.get(0).mHeaders.getFirst("authorization"));
+        assertArrayEquals(mContent, mServer.getUploadedData(getUploadId(requests.get(0))));
+        assertEquals(-1, uploader.getAckedOffset(mFile));     // journal removed when done
+    }
+
+    @Test
+    public void resumesFromJournalAfterInjectedFailure() {
+        mServer.injectUploadFailure(CHUNK_SIZE, MockGatewayServer.FAIL_BEFORE_STORE);
+
+        // no retries: the call gives up in the middle of the upload, the journal keeps the progress
+        assertNotEquals(ErrCode.XOK, newUploader(0).upload(mUploadUrl, "token", mFile, null));
+        assertEquals(CHUNK_SIZE, newUploader(0).getAckedOffset(mFile));
+
+        // a new uploader, as after a process restart, continues from the journal offset
+        assertEquals(ErrCode.XOK, newUploader(3).upload(mUploadUrl, "token", mFile, null));
+
+        List<RecordedRequest> requests = mServer.getRequests(MockGatewayServer.EP_CHUNK_UPLOAD);
+        assertEquals(4, requests.size());
+        assertEquals(String.valueOf(CHUNK_SIZE), MockGatewayServer.getQueryParam(requests.get(2), "offset"));
+        assertEquals(getUploadId(requests.get(0)), getUploadId(requests.get(2)));
+        assertArrayEquals(mContent, mServer.getUploadedData(getUploadId(requests.get(0))));
+    }
+
+    @Test
+    public void continuesFromServerOffsetAfterLostAck() {
+        mServer.injectUploadFailure(CHUNK_SIZE, MockGatewayServer.FAIL_AFTER_STORE);
+
+        assertEquals(ErrCode.XOK, newUploader(3).upload(mUploadUrl, "token", mFile, null));
+
+        // the retried chunk is answered with 409 and the server offset, so it is not stored twice
+        List<RecordedRequest> requests = mServer.getRequests(MockGatewayServer.EP_CHUNK_UPLOAD);
+        assertEquals(4, requests.size());
+        assertEquals(String.valueOf(CHUNK_SIZE), MockGatewayServer.getQueryParam(requests.get(2), "offset"));
+        assertEquals(String.valueOf(2 * CHUNK_SIZE), MockGatewayServer.getQueryParam(requests.get(3), "offset"));
+        assertArrayEquals(mContent, mServer.getUploadedData(getUploadId(requests.get(0))));
+    }
+
+    @Test
+    public void restartsWhenFileChanged() throws IOException {
+        mServer.injectUploadFailure(CHUNK_SIZE, MockGatewayServer.FAIL_BEFORE_STORE);
+        assertNotEquals(ErrCode.XOK, newUploader(0).upload(mUploadUrl, "token", mFile, null));
+
+        FileOutputStream fos = new FileOutputStream(mFile, true);
+        fos.write(1);
+        fos.close();
+
+        assertEquals(-1, newUploader(0).getAckedOffset(mFile));
+    }
+
+    private ResumableUploader newUploader(int maxRetries) {
+        ResumableUploader uploader = new ResumableUploader(mTransport, mJournalDir);
+        uploader.setConfig(CHUNK_SIZE, maxRetries, 0);
+        return uploader;
+    }
+
+    private static String getUploadId(RecordedRequest request) {
+        return MockGatewayServer.getQueryParam(request, "uploadId");
+    }
+}
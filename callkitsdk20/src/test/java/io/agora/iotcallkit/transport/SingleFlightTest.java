@@ -0,0 +1,174 @@
+package io.agora.iotcallkit.transport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * SingleFlight sharing of the leader's result and exception among concurrent callers.
+ */
+public class SingleFlightTest {
+
+    private static final int FOLLOWER_COUNT = 4;
+    private static final long WAIT_TIMEOUT = 5000;
+
+    private final SingleFlight<String> mSingleFlight = new SingleFlight<>();
+
+    @Test
+    public void followersShareLeaderResult() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        List<Caller> callers = startCallers(new SingleFlight.ICall<String>() {
+            @Override
+            public String call() {
+                await(release);
+                return new String("result");
+            }
+        });
+        waitCollapsed(FOLLOWER_COUNT);
+        release.countDown();
+
+        Object shared = null;
+        for (Caller caller : callers) {
+            caller.join(WAIT_TIMEOUT);
+            assertNull(caller.mException);
+            assertEquals("result", caller.mResult);
+            if (shared == null) {
+                shared = caller.mResult;
+            }
+            assertSame(shared, caller.mResult);   // every caller gets the same result object
+        }
+        assertEquals(1, mSingleFlight.getExecutedCount());
+    }
+
+    @Test
+    public void followersShareLeaderException() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final IllegalStateException failure = new IllegalStateException("failure");
+        List<Caller> callers = startCallers(new SingleFlight.ICall<String>() {
+            @Override
+            public String call() {
+                await(release);
+                throw failure;
+            }
+        });
+        waitCollapsed(FOLLOWER_COUNT);
+        release.countDown();
+
+        for (Caller caller : callers) {
+            caller.join(WAIT_TIMEOUT);
+            assertSame(failure, caller.mException);
+            assertNull(caller.mResult);
+        }
+        assertEquals(1, mSingleFlight.getExecutedCount());
+    }
+
+    @Test
+    public void keyIsReleasedAfterCompletion() {
+        final int[] callCount = { 0 };
+        SingleFlight.ICall<String> call = new SingleFlight.ICall<String>() {
+            @Override
+            public String call() {
+                callCount[0]++;
+                return "result" + callCount[0];
+            }
+        };
+
+        assertEquals("result1", mSingleFlight.execute("key", call));
+        assertEquals("result2", mSingleFlight.execute("key", call));
+        assertEquals(2, mSingleFlight.getExecutedCount());
+        assertEquals(0, mSingleFlight.getCollapsedCount());
+    }
+
+    @Test
+    public void keyIsReleasedAfterException() {
+        try {
+            mSingleFlight.execute("key", new SingleFlight.ICall<String>() {
+                @Override
+                public String call() {
+                    throw new IllegalStateException("failure");
+                }
+            });
+            fail("exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("failure", e.getMessage());
+        }
+
+        assertEquals("result", mSingleFlight.execute("key", new SingleFlight.ICall<String>() {
+            @Override
+            public String call() {
+                return "result";
+            }
+        }));
+        assertEquals(2, mSingleFlight.getExecutedCount());
+    }
+
+
+    /**
+     * Runs execute() on its own thread and keeps the outcome.
+     */
+    private class Caller extends Thread {
+        private final SingleFlight.ICall<String> mCall;
+        volatile String mResult;
+        volatile RuntimeException mException;
+
+        Caller(SingleFlight.ICall<String> call) {
+            mCall = call;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mResult = mSingleFlight.execute("key", mCall);
+            } catch (RuntimeException e) {
+                mException = e;
+            }
+        }
+    }
+
+    /**
+     * Starts the leader, waits until it is inside call(), then starts the followers.
+     */
+    private List<Caller> startCallers(final SingleFlight.ICall<String> call) throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        SingleFlight.ICall<String> leaderCall = new SingleFlight.ICall<String>() {
+            @Override
+            public String call() {
+                entered.countDown();
+                return call.call();
+            }
+        };
+        List<Caller> callers = new ArrayList<>();
+        Caller leader = new Caller(leaderCall);
+        leader.start();
+        callers.add(leader);
+        assertTrue(entered.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        for (int i = 0; i < FOLLOWER_COUNT; i++) {
+            Caller follower = new Caller(leaderCall);
+            follower.start();
+            callers.add(follower);
+        }
+        return callers;
+    }
+
+    private void waitCollapsed(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (mSingleFlight.getCollapsedCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package io.agora.iotcallkit.transport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TtlResponseCache expiry, LRU eviction by entry count and byte budget, and clearing.
+ */
+public class TtlResponseCacheTest {
+
+    private static final String ENDPOINT = "/device/invent/certificate/get";
+    private static final String URL = "https://lowservice.example.com" + ENDPOINT;
+    private static final long TTL = 60 * 1000;
+
+    @Test
+    public void ttlIsMatchedByEndpointSuffix() {
+        TtlResponseCache cache = new TtlResponseCache(4, 1024);
+        cache.setTtl(ENDPOINT, TTL);
+
+        assertEquals(TTL, cache.getTtl(URL));
+        assertEquals(0, cache.getTtl("https://lowservice.example.com/user/login"));
+
+        cache.setTtl(ENDPOINT, 0);
+        assertEquals(0, cache.getTtl(URL));
+    }
+
+    @Test
+    public void entryExpiresAfterTtl() throws InterruptedException {
+        TtlResponseCache cache = new TtlResponseCache(4, 1024);
+        cache.put("key", body(10), "etag", 50);
+
+        TtlResponseCache.Entry entry = cache.get("key");
+        assertNotNull(entry);
+        assertFalse(entry.isExpired());
+        assertEquals(1, cache.getHitCount());
+
+        Thread.sleep(70);
+
+        // the expired entry is still returned for a conditional request, but counts as a miss
+        entry = cache.get("key");
+        assertNotNull(entry);
+        assertTrue(entry.isExpired());
+        assertEquals("etag", entry.mETag);
+        assertEquals(1, cache.getMissCount());
+
+        cache.refresh("key", TTL);
+        assertFalse(cache.get("key").isExpired());
+        assertEquals(1, cache.getRevalidateCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntry() {
+        TtlResponseCache cache = new TtlResponseCache(2, 1024);
+        cache.put("a", body(10), null, TTL);
+        cache.put("b", body(10), null, TTL);
+        cache.get("a");                         // "b" becomes the least recently used
+
+        cache.put("c", body(10), null, TTL);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void evictsToByteBudget() {
+        TtlResponseCache cache = new TtlResponseCache(10, 100);
+        cache.put("a", body(40), null, TTL);
+        cache.put("b", body(40), null, TTL);
+
+        cache.put("c", body(40), null, TTL);    // 120 bytes, "a" must go
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+
+        // replacing an entry accounts for the old size
+        cache.put("b", body(10), null, TTL);
+        cache.put("d", body(40), null, TTL);
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    public void skipsBodyLargerThanBudget() {
+        TtlResponseCache cache = new TtlResponseCache(10, 100);
+        cache.put("a", body(40), null, TTL);
+
+        cache.put("big", body(101), null, TTL);
+
+        assertNull(cache.get("big"));
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void invalidateRemovesEndpointEntries() {
+        TtlResponseCache cache = new TtlResponseCache(10, 1024);
+        String inventKey = TtlResponseCache.buildKey("POST", URL + "?a=1", "token", null, 0);
+        String otherKey = TtlResponseCache.buildKey("POST", "https://lowservice.example.com/user/info",
+                "token", null, 0);
+        cache.put(inventKey, body(10), null, TTL);
+        cache.put(otherKey, body(10), null, TTL);
+
+        cache.invalidate(ENDPOINT);
+
+        assertNull(cache.get(inventKey));
+        assertNotNull(cache.get(otherKey));
+    }
+
+    @Test
+    public void clearDropsAllEntriesOnLogout() {
+        TtlResponseCache cache = new TtlResponseCache(2, 100);
+        cache.put("a", body(40), null, TTL);
+        cache.put("b", body(40), null, TTL);
+
+        cache.clear();
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+
+        // the byte budget is reset too, so two full entries fit again
+        cache.put("c", body(50), null, TTL);
+        cache.put("d", body(50), null, TTL);
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    public void keyDependsOnTokenAndBody() {
+        byte[] bodyData = "{\"id\":1}".getBytes();
+        String key = TtlResponseCache.buildKey("POST", URL, "token", bodyData, bodyData.length);
+
+        assertEquals(key, TtlResponseCache.buildKey("POST", URL, "token", bodyData, bodyData.length));
+        assertNotEquals(key, TtlResponseCache.buildKey("POST", URL, "other", bodyData, bodyData.length));
+        assertNotEquals(key, TtlResponseCache.buildKey("POST", URL, "token", bodyData, 2));
+    }
+
+    private static byte[] body(int length) {
+        return new byte[length];
+    }
+}